@@ -101,6 +101,24 @@ public interface ObjectArray extends fabric.lang.Object {
     public fabric.lang.Object get(int i);
     
     public fabric.lang.Object set(int i, fabric.lang.Object data);
+
+    public void copyRange(int srcPos, fabric.lang.arrays.ObjectArray dest,
+                          int destPos, int length);
+    
+    public void fill(int start, int end, fabric.lang.Object value);
+    
+    public fabric.lang.Object[] toJavaArray();
+    
+    public void toJavaArray(int srcPos, fabric.lang.Object[] dest, int destPos,
+                            int length);
+    
+    public void fromJavaArray(fabric.lang.Object[] src);
+    
+    public void fromJavaArray(fabric.lang.Object[] src, int srcPos, int destPos,
+                              int length);
+    
+    public void forEachChunk(int start, int end,
+                             fabric.lang.arrays.internal.ChunkVisitor visitor);
     
     public static class _Proxy extends fabric.lang.Object._Proxy
       implements fabric.lang.arrays.ObjectArray {
@@ -222,6 +240,25 @@ public interface ObjectArray extends fabric.lang.Object {
         public native fabric.lang.Object get(int arg1);
         
         public native fabric.lang.Object set(int arg1, fabric.lang.Object arg2);
+
+        public native void copyRange(int arg1,
+                                     fabric.lang.arrays.ObjectArray arg2,
+                                     int arg3, int arg4);
+        
+        public native void fill(int arg1, int arg2, fabric.lang.Object arg3);
+        
+        public native fabric.lang.Object[] toJavaArray();
+        
+        public native void toJavaArray(int arg1, fabric.lang.Object[] arg2, int arg3,
+                                       int arg4);
+        
+        public native void fromJavaArray(fabric.lang.Object[] arg1);
+        
+        public native void fromJavaArray(fabric.lang.Object[] arg1, int arg2, int arg3,
+                                         int arg4);
+        
+        public native void forEachChunk(int arg1, int arg2,
+                                        fabric.lang.arrays.internal.ChunkVisitor arg3);
         
         public _Proxy(ObjectArray._Impl impl) { super(impl); }
         
@@ -422,6 +459,35 @@ public interface ObjectArray extends fabric.lang.Object {
         public native fabric.lang.Object get(int i);
         
         public native fabric.lang.Object set(int i, fabric.lang.Object data);
+
+        public native void copyRange(int srcPos,
+                                     fabric.lang.arrays.ObjectArray dest,
+                                     int destPos, int length);
+        
+        public native void fill(int start, int end, fabric.lang.Object value);
+        
+        public native fabric.lang.Object[] toJavaArray();
+        
+        public native void toJavaArray(int srcPos, fabric.lang.Object[] dest, int destPos,
+                                       int length);
+        
+        public native void fromJavaArray(fabric.lang.Object[] src);
+        
+        public native void fromJavaArray(fabric.lang.Object[] src, int srcPos, int destPos,
+                                         int length);
+        
+        public native void forEachChunk(int start, int end,
+                                        fabric.lang.arrays.internal.ChunkVisitor visitor);
+        
+        private native void checkRange(int start, int end);
+        
+        private native void readChunk(int i, fabric.lang.Object[] dest, int destPos, int n);
+        
+        private native void writeRange(int i, fabric.lang.Object[] src, int srcPos, int n);
+        
+        private native int prefetchChunks(int i, int end);
+        
+        private native fabric.lang.arrays.internal._ObjectArray<fabric.lang.Object> getChunk(int i, boolean create);
         
         public _Impl(fabric.worker.Store $location) { super($location); }
         
@@ -92,6 +92,24 @@ public interface booleanArray extends fabric.lang.Object {
     public boolean get(int i);
     
     public boolean set(int i, boolean data);
+
+    public void copyRange(int srcPos, fabric.lang.arrays.booleanArray dest,
+                          int destPos, int length);
+    
+    public void fill(int start, int end, boolean value);
+    
+    public boolean[] toJavaArray();
+    
+    public void toJavaArray(int srcPos, boolean[] dest, int destPos,
+                            int length);
+    
+    public void fromJavaArray(boolean[] src);
+    
+    public void fromJavaArray(boolean[] src, int srcPos, int destPos,
+                              int length);
+    
+    public void forEachChunk(int start, int end,
+                             fabric.lang.arrays.internal.ChunkVisitor visitor);
     
     public static class _Proxy extends fabric.lang.Object._Proxy
       implements fabric.lang.arrays.booleanArray {
@@ -201,6 +219,25 @@ public interface booleanArray extends fabric.lang.Object {
         public native boolean get(int arg1);
         
         public native boolean set(int arg1, boolean arg2);
+
+        public native void copyRange(int arg1,
+                                     fabric.lang.arrays.booleanArray arg2,
+                                     int arg3, int arg4);
+        
+        public native void fill(int arg1, int arg2, boolean arg3);
+        
+        public native boolean[] toJavaArray();
+        
+        public native void toJavaArray(int arg1, boolean[] arg2, int arg3,
+                                       int arg4);
+        
+        public native void fromJavaArray(boolean[] arg1);
+        
+        public native void fromJavaArray(boolean[] arg1, int arg2, int arg3,
+                                         int arg4);
+        
+        public native void forEachChunk(int arg1, int arg2,
+                                        fabric.lang.arrays.internal.ChunkVisitor arg3);
         
         public _Proxy(booleanArray._Impl impl) { super(impl); }
         
@@ -386,6 +423,35 @@ public interface booleanArray extends fabric.lang.Object {
         public native boolean get(int i);
         
         public native boolean set(int i, boolean data);
+
+        public native void copyRange(int srcPos,
+                                     fabric.lang.arrays.booleanArray dest,
+                                     int destPos, int length);
+        
+        public native void fill(int start, int end, boolean value);
+        
+        public native boolean[] toJavaArray();
+        
+        public native void toJavaArray(int srcPos, boolean[] dest, int destPos,
+                                       int length);
+        
+        public native void fromJavaArray(boolean[] src);
+        
+        public native void fromJavaArray(boolean[] src, int srcPos, int destPos,
+                                         int length);
+        
+        public native void forEachChunk(int start, int end,
+                                        fabric.lang.arrays.internal.ChunkVisitor visitor);
+        
+        private native void checkRange(int start, int end);
+        
+        private native void readChunk(int i, boolean[] dest, int destPos, int n);
+        
+        private native void writeRange(int i, boolean[] src, int srcPos, int n);
+        
+        private native int prefetchChunks(int i, int end);
+        
+        private native fabric.lang.arrays.internal._booleanArray getChunk(int i, boolean create);
         
         public _Impl(fabric.worker.Store $location) { super($location); }
         
@@ -92,6 +92,24 @@ public interface byteArray extends fabric.lang.Object {
     public byte get(int i);
     
     public byte set(int i, byte data);
+
+    public void copyRange(int srcPos, fabric.lang.arrays.byteArray dest,
+                          int destPos, int length);
+    
+    public void fill(int start, int end, byte value);
+    
+    public byte[] toJavaArray();
+    
+    public void toJavaArray(int srcPos, byte[] dest, int destPos,
+                            int length);
+    
+    public void fromJavaArray(byte[] src);
+    
+    public void fromJavaArray(byte[] src, int srcPos, int destPos,
+                              int length);
+    
+    public void forEachChunk(int start, int end,
+                             fabric.lang.arrays.internal.ChunkVisitor visitor);
     
     public static class _Proxy extends fabric.lang.Object._Proxy
       implements fabric.lang.arrays.byteArray {
@@ -198,6 +216,25 @@ public interface byteArray extends fabric.lang.Object {
         public native byte get(int arg1);
         
         public native byte set(int arg1, byte arg2);
+
+        public native void copyRange(int arg1,
+                                     fabric.lang.arrays.byteArray arg2,
+                                     int arg3, int arg4);
+        
+        public native void fill(int arg1, int arg2, byte arg3);
+        
+        public native byte[] toJavaArray();
+        
+        public native void toJavaArray(int arg1, byte[] arg2, int arg3,
+                                       int arg4);
+        
+        public native void fromJavaArray(byte[] arg1);
+        
+        public native void fromJavaArray(byte[] arg1, int arg2, int arg3,
+                                         int arg4);
+        
+        public native void forEachChunk(int arg1, int arg2,
+                                        fabric.lang.arrays.internal.ChunkVisitor arg3);
         
         public _Proxy(byteArray._Impl impl) { super(impl); }
         
@@ -383,6 +420,35 @@ public interface byteArray extends fabric.lang.Object {
         public native byte get(int i);
         
         public native byte set(int i, byte data);
+
+        public native void copyRange(int srcPos,
+                                     fabric.lang.arrays.byteArray dest,
+                                     int destPos, int length);
+        
+        public native void fill(int start, int end, byte value);
+        
+        public native byte[] toJavaArray();
+        
+        public native void toJavaArray(int srcPos, byte[] dest, int destPos,
+                                       int length);
+        
+        public native void fromJavaArray(byte[] src);
+        
+        public native void fromJavaArray(byte[] src, int srcPos, int destPos,
+                                         int length);
+        
+        public native void forEachChunk(int start, int end,
+                                        fabric.lang.arrays.internal.ChunkVisitor visitor);
+        
+        private native void checkRange(int start, int end);
+        
+        private native void readChunk(int i, byte[] dest, int destPos, int n);
+        
+        private native void writeRange(int i, byte[] src, int srcPos, int n);
+        
+        private native int prefetchChunks(int i, int end);
+        
+        private native fabric.lang.arrays.internal._byteArray getChunk(int i, boolean create);
         
         public _Impl(fabric.worker.Store $location) { super($location); }
         
@@ -92,6 +92,24 @@ public interface charArray extends fabric.lang.Object {
     public char get(int i);
     
     public char set(int i, char data);
+
+    public void copyRange(int srcPos, fabric.lang.arrays.charArray dest,
+                          int destPos, int length);
+    
+    public void fill(int start, int end, char value);
+    
+    public char[] toJavaArray();
+    
+    public void toJavaArray(int srcPos, char[] dest, int destPos,
+                            int length);
+    
+    public void fromJavaArray(char[] src);
+    
+    public void fromJavaArray(char[] src, int srcPos, int destPos,
+                              int length);
+    
+    public void forEachChunk(int start, int end,
+                             fabric.lang.arrays.internal.ChunkVisitor visitor);
     
     public static class _Proxy extends fabric.lang.Object._Proxy
       implements fabric.lang.arrays.charArray {
@@ -198,6 +216,25 @@ public interface charArray extends fabric.lang.Object {
         public native char get(int arg1);
         
         public native char set(int arg1, char arg2);
+
+        public native void copyRange(int arg1,
+                                     fabric.lang.arrays.charArray arg2,
+                                     int arg3, int arg4);
+        
+        public native void fill(int arg1, int arg2, char arg3);
+        
+        public native char[] toJavaArray();
+        
+        public native void toJavaArray(int arg1, char[] arg2, int arg3,
+                                       int arg4);
+        
+        public native void fromJavaArray(char[] arg1);
+        
+        public native void fromJavaArray(char[] arg1, int arg2, int arg3,
+                                         int arg4);
+        
+        public native void forEachChunk(int arg1, int arg2,
+                                        fabric.lang.arrays.internal.ChunkVisitor arg3);
         
         public _Proxy(charArray._Impl impl) { super(impl); }
         
@@ -383,6 +420,35 @@ public interface charArray extends fabric.lang.Object {
         public native char get(int i);
         
         public native char set(int i, char data);
+
+        public native void copyRange(int srcPos,
+                                     fabric.lang.arrays.charArray dest,
+                                     int destPos, int length);
+        
+        public native void fill(int start, int end, char value);
+        
+        public native char[] toJavaArray();
+        
+        public native void toJavaArray(int srcPos, char[] dest, int destPos,
+                                       int length);
+        
+        public native void fromJavaArray(char[] src);
+        
+        public native void fromJavaArray(char[] src, int srcPos, int destPos,
+                                         int length);
+        
+        public native void forEachChunk(int start, int end,
+                                        fabric.lang.arrays.internal.ChunkVisitor visitor);
+        
+        private native void checkRange(int start, int end);
+        
+        private native void readChunk(int i, char[] dest, int destPos, int n);
+        
+        private native void writeRange(int i, char[] src, int srcPos, int n);
+        
+        private native int prefetchChunks(int i, int end);
+        
+        private native fabric.lang.arrays.internal._charArray getChunk(int i, boolean create);
         
         public _Impl(fabric.worker.Store $location) { super($location); }
         
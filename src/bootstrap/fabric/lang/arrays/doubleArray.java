@@ -92,6 +92,24 @@ public interface doubleArray extends fabric.lang.Object {
     public double get(int i);
     
     public double set(int i, double data);
+
+    public void copyRange(int srcPos, fabric.lang.arrays.doubleArray dest,
+                          int destPos, int length);
+    
+    public void fill(int start, int end, double value);
+    
+    public double[] toJavaArray();
+    
+    public void toJavaArray(int srcPos, double[] dest, int destPos,
+                            int length);
+    
+    public void fromJavaArray(double[] src);
+    
+    public void fromJavaArray(double[] src, int srcPos, int destPos,
+                              int length);
+    
+    public void forEachChunk(int start, int end,
+                             fabric.lang.arrays.internal.ChunkVisitor visitor);
     
     public static class _Proxy extends fabric.lang.Object._Proxy
       implements fabric.lang.arrays.doubleArray {
@@ -201,6 +219,25 @@ public interface doubleArray extends fabric.lang.Object {
         public native double get(int arg1);
         
         public native double set(int arg1, double arg2);
+
+        public native void copyRange(int arg1,
+                                     fabric.lang.arrays.doubleArray arg2,
+                                     int arg3, int arg4);
+        
+        public native void fill(int arg1, int arg2, double arg3);
+        
+        public native double[] toJavaArray();
+        
+        public native void toJavaArray(int arg1, double[] arg2, int arg3,
+                                       int arg4);
+        
+        public native void fromJavaArray(double[] arg1);
+        
+        public native void fromJavaArray(double[] arg1, int arg2, int arg3,
+                                         int arg4);
+        
+        public native void forEachChunk(int arg1, int arg2,
+                                        fabric.lang.arrays.internal.ChunkVisitor arg3);
         
         public _Proxy(doubleArray._Impl impl) { super(impl); }
         
@@ -386,6 +423,35 @@ public interface doubleArray extends fabric.lang.Object {
         public native double get(int i);
         
         public native double set(int i, double data);
+
+        public native void copyRange(int srcPos,
+                                     fabric.lang.arrays.doubleArray dest,
+                                     int destPos, int length);
+        
+        public native void fill(int start, int end, double value);
+        
+        public native double[] toJavaArray();
+        
+        public native void toJavaArray(int srcPos, double[] dest, int destPos,
+                                       int length);
+        
+        public native void fromJavaArray(double[] src);
+        
+        public native void fromJavaArray(double[] src, int srcPos, int destPos,
+                                         int length);
+        
+        public native void forEachChunk(int start, int end,
+                                        fabric.lang.arrays.internal.ChunkVisitor visitor);
+        
+        private native void checkRange(int start, int end);
+        
+        private native void readChunk(int i, double[] dest, int destPos, int n);
+        
+        private native void writeRange(int i, double[] src, int srcPos, int n);
+        
+        private native int prefetchChunks(int i, int end);
+        
+        private native fabric.lang.arrays.internal._doubleArray getChunk(int i, boolean create);
         
         public _Impl(fabric.worker.Store $location) { super($location); }
         
@@ -92,6 +92,24 @@ public interface floatArray extends fabric.lang.Object {
     public float get(int i);
     
     public float set(int i, float data);
+
+    public void copyRange(int srcPos, fabric.lang.arrays.floatArray dest,
+                          int destPos, int length);
+    
+    public void fill(int start, int end, float value);
+    
+    public float[] toJavaArray();
+    
+    public void toJavaArray(int srcPos, float[] dest, int destPos,
+                            int length);
+    
+    public void fromJavaArray(float[] src);
+    
+    public void fromJavaArray(float[] src, int srcPos, int destPos,
+                              int length);
+    
+    public void forEachChunk(int start, int end,
+                             fabric.lang.arrays.internal.ChunkVisitor visitor);
     
     public static class _Proxy extends fabric.lang.Object._Proxy
       implements fabric.lang.arrays.floatArray {
@@ -199,6 +217,25 @@ public interface floatArray extends fabric.lang.Object {
         public native float get(int arg1);
         
         public native float set(int arg1, float arg2);
+
+        public native void copyRange(int arg1,
+                                     fabric.lang.arrays.floatArray arg2,
+                                     int arg3, int arg4);
+        
+        public native void fill(int arg1, int arg2, float arg3);
+        
+        public native float[] toJavaArray();
+        
+        public native void toJavaArray(int arg1, float[] arg2, int arg3,
+                                       int arg4);
+        
+        public native void fromJavaArray(float[] arg1);
+        
+        public native void fromJavaArray(float[] arg1, int arg2, int arg3,
+                                         int arg4);
+        
+        public native void forEachChunk(int arg1, int arg2,
+                                        fabric.lang.arrays.internal.ChunkVisitor arg3);
         
         public _Proxy(floatArray._Impl impl) { super(impl); }
         
@@ -384,6 +421,35 @@ public interface floatArray extends fabric.lang.Object {
         public native float get(int i);
         
         public native float set(int i, float data);
+
+        public native void copyRange(int srcPos,
+                                     fabric.lang.arrays.floatArray dest,
+                                     int destPos, int length);
+        
+        public native void fill(int start, int end, float value);
+        
+        public native float[] toJavaArray();
+        
+        public native void toJavaArray(int srcPos, float[] dest, int destPos,
+                                       int length);
+        
+        public native void fromJavaArray(float[] src);
+        
+        public native void fromJavaArray(float[] src, int srcPos, int destPos,
+                                         int length);
+        
+        public native void forEachChunk(int start, int end,
+                                        fabric.lang.arrays.internal.ChunkVisitor visitor);
+        
+        private native void checkRange(int start, int end);
+        
+        private native void readChunk(int i, float[] dest, int destPos, int n);
+        
+        private native void writeRange(int i, float[] src, int srcPos, int n);
+        
+        private native int prefetchChunks(int i, int end);
+        
+        private native fabric.lang.arrays.internal._floatArray getChunk(int i, boolean create);
         
         public _Impl(fabric.worker.Store $location) { super($location); }
         
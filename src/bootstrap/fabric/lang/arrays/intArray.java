@@ -92,6 +92,24 @@ public interface intArray extends fabric.lang.Object {
     public int get(int i);
     
     public int set(int i, int data);
+
+    public void copyRange(int srcPos, fabric.lang.arrays.intArray dest,
+                          int destPos, int length);
+    
+    public void fill(int start, int end, int value);
+    
+    public int[] toJavaArray();
+    
+    public void toJavaArray(int srcPos, int[] dest, int destPos,
+                            int length);
+    
+    public void fromJavaArray(int[] src);
+    
+    public void fromJavaArray(int[] src, int srcPos, int destPos,
+                              int length);
+    
+    public void forEachChunk(int start, int end,
+                             fabric.lang.arrays.internal.ChunkVisitor visitor);
     
     public static class _Proxy extends fabric.lang.Object._Proxy
       implements fabric.lang.arrays.intArray {
@@ -196,6 +214,25 @@ public interface intArray extends fabric.lang.Object {
         public native int get(int arg1);
         
         public native int set(int arg1, int arg2);
+
+        public native void copyRange(int arg1,
+                                     fabric.lang.arrays.intArray arg2,
+                                     int arg3, int arg4);
+        
+        public native void fill(int arg1, int arg2, int arg3);
+        
+        public native int[] toJavaArray();
+        
+        public native void toJavaArray(int arg1, int[] arg2, int arg3,
+                                       int arg4);
+        
+        public native void fromJavaArray(int[] arg1);
+        
+        public native void fromJavaArray(int[] arg1, int arg2, int arg3,
+                                         int arg4);
+        
+        public native void forEachChunk(int arg1, int arg2,
+                                        fabric.lang.arrays.internal.ChunkVisitor arg3);
         
         public _Proxy(intArray._Impl impl) { super(impl); }
         
@@ -379,6 +416,35 @@ public interface intArray extends fabric.lang.Object {
         public native int get(int i);
         
         public native int set(int i, int data);
+
+        public native void copyRange(int srcPos,
+                                     fabric.lang.arrays.intArray dest,
+                                     int destPos, int length);
+        
+        public native void fill(int start, int end, int value);
+        
+        public native int[] toJavaArray();
+        
+        public native void toJavaArray(int srcPos, int[] dest, int destPos,
+                                       int length);
+        
+        public native void fromJavaArray(int[] src);
+        
+        public native void fromJavaArray(int[] src, int srcPos, int destPos,
+                                         int length);
+        
+        public native void forEachChunk(int start, int end,
+                                        fabric.lang.arrays.internal.ChunkVisitor visitor);
+        
+        private native void checkRange(int start, int end);
+        
+        private native void readChunk(int i, int[] dest, int destPos, int n);
+        
+        private native void writeRange(int i, int[] src, int srcPos, int n);
+        
+        private native int prefetchChunks(int i, int end);
+        
+        private native fabric.lang.arrays.internal._intArray getChunk(int i, boolean create);
         
         public _Impl(fabric.worker.Store $location) { super($location); }
         
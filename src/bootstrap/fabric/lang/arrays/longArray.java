@@ -92,6 +92,24 @@ public interface longArray extends fabric.lang.Object {
     public long get(int i);
     
     public long set(int i, long data);
+
+    public void copyRange(int srcPos, fabric.lang.arrays.longArray dest,
+                          int destPos, int length);
+    
+    public void fill(int start, int end, long value);
+    
+    public long[] toJavaArray();
+    
+    public void toJavaArray(int srcPos, long[] dest, int destPos,
+                            int length);
+    
+    public void fromJavaArray(long[] src);
+    
+    public void fromJavaArray(long[] src, int srcPos, int destPos,
+                              int length);
+    
+    public void forEachChunk(int start, int end,
+                             fabric.lang.arrays.internal.ChunkVisitor visitor);
     
     public static class _Proxy extends fabric.lang.Object._Proxy
       implements fabric.lang.arrays.longArray {
@@ -198,6 +216,25 @@ public interface longArray extends fabric.lang.Object {
         public native long get(int arg1);
         
         public native long set(int arg1, long arg2);
+
+        public native void copyRange(int arg1,
+                                     fabric.lang.arrays.longArray arg2,
+                                     int arg3, int arg4);
+        
+        public native void fill(int arg1, int arg2, long arg3);
+        
+        public native long[] toJavaArray();
+        
+        public native void toJavaArray(int arg1, long[] arg2, int arg3,
+                                       int arg4);
+        
+        public native void fromJavaArray(long[] arg1);
+        
+        public native void fromJavaArray(long[] arg1, int arg2, int arg3,
+                                         int arg4);
+        
+        public native void forEachChunk(int arg1, int arg2,
+                                        fabric.lang.arrays.internal.ChunkVisitor arg3);
         
         public _Proxy(longArray._Impl impl) { super(impl); }
         
@@ -383,6 +420,35 @@ public interface longArray extends fabric.lang.Object {
         public native long get(int i);
         
         public native long set(int i, long data);
+
+        public native void copyRange(int srcPos,
+                                     fabric.lang.arrays.longArray dest,
+                                     int destPos, int length);
+        
+        public native void fill(int start, int end, long value);
+        
+        public native long[] toJavaArray();
+        
+        public native void toJavaArray(int srcPos, long[] dest, int destPos,
+                                       int length);
+        
+        public native void fromJavaArray(long[] src);
+        
+        public native void fromJavaArray(long[] src, int srcPos, int destPos,
+                                         int length);
+        
+        public native void forEachChunk(int start, int end,
+                                        fabric.lang.arrays.internal.ChunkVisitor visitor);
+        
+        private native void checkRange(int start, int end);
+        
+        private native void readChunk(int i, long[] dest, int destPos, int n);
+        
+        private native void writeRange(int i, long[] src, int srcPos, int n);
+        
+        private native int prefetchChunks(int i, int end);
+        
+        private native fabric.lang.arrays.internal._longArray getChunk(int i, boolean create);
         
         public _Impl(fabric.worker.Store $location) { super($location); }
         
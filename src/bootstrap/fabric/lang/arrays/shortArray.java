@@ -92,6 +92,24 @@ public interface shortArray extends fabric.lang.Object {
     public short get(int i);
     
     public short set(int i, short data);
+
+    public void copyRange(int srcPos, fabric.lang.arrays.shortArray dest,
+                          int destPos, int length);
+    
+    public void fill(int start, int end, short value);
+    
+    public short[] toJavaArray();
+    
+    public void toJavaArray(int srcPos, short[] dest, int destPos,
+                            int length);
+    
+    public void fromJavaArray(short[] src);
+    
+    public void fromJavaArray(short[] src, int srcPos, int destPos,
+                              int length);
+    
+    public void forEachChunk(int start, int end,
+                             fabric.lang.arrays.internal.ChunkVisitor visitor);
     
     public static class _Proxy extends fabric.lang.Object._Proxy
       implements fabric.lang.arrays.shortArray {
@@ -199,6 +217,25 @@ public interface shortArray extends fabric.lang.Object {
         public native short get(int arg1);
         
         public native short set(int arg1, short arg2);
+
+        public native void copyRange(int arg1,
+                                     fabric.lang.arrays.shortArray arg2,
+                                     int arg3, int arg4);
+        
+        public native void fill(int arg1, int arg2, short arg3);
+        
+        public native short[] toJavaArray();
+        
+        public native void toJavaArray(int arg1, short[] arg2, int arg3,
+                                       int arg4);
+        
+        public native void fromJavaArray(short[] arg1);
+        
+        public native void fromJavaArray(short[] arg1, int arg2, int arg3,
+                                         int arg4);
+        
+        public native void forEachChunk(int arg1, int arg2,
+                                        fabric.lang.arrays.internal.ChunkVisitor arg3);
         
         public _Proxy(shortArray._Impl impl) { super(impl); }
         
@@ -384,6 +421,35 @@ public interface shortArray extends fabric.lang.Object {
         public native short get(int i);
         
         public native short set(int i, short data);
+
+        public native void copyRange(int srcPos,
+                                     fabric.lang.arrays.shortArray dest,
+                                     int destPos, int length);
+        
+        public native void fill(int start, int end, short value);
+        
+        public native short[] toJavaArray();
+        
+        public native void toJavaArray(int srcPos, short[] dest, int destPos,
+                                       int length);
+        
+        public native void fromJavaArray(short[] src);
+        
+        public native void fromJavaArray(short[] src, int srcPos, int destPos,
+                                         int length);
+        
+        public native void forEachChunk(int start, int end,
+                                        fabric.lang.arrays.internal.ChunkVisitor visitor);
+        
+        private native void checkRange(int start, int end);
+        
+        private native void readChunk(int i, short[] dest, int destPos, int n);
+        
+        private native void writeRange(int i, short[] src, int srcPos, int n);
+        
+        private native int prefetchChunks(int i, int end);
+        
+        private native fabric.lang.arrays.internal._shortArray getChunk(int i, boolean create);
         
         public _Impl(fabric.worker.Store $location) { super($location); }
         
@@ -21,6 +21,7 @@ import fabil.visit.AbortRetryChecker;
 import fabil.visit.ArrayInitializerTypeFixer;
 import fabil.visit.AtomicMethodRewriter;
 import fabil.visit.AtomicRewriter;
+import fabil.visit.BarrierHoister;
 import fabil.visit.ClassHashGenerator;
 import fabil.visit.ClassReferencesCollector;
 import fabil.visit.FinalRepairRewriter;
@@ -298,6 +299,21 @@ public class FabILScheduler extends JLScheduler implements CBScheduler {
     return g;
   }
 
+  public Goal BarriersHoisted(final Job job) {
+    Goal g = internGoal(new VisitorGoal(job, new BarrierHoister(job,
+        extInfo.typeSystem(), extInfo.nodeFactory())) {
+      @Override
+      public Collection<Goal> prerequisiteGoals(Scheduler scheduler) {
+        List<Goal> l = new ArrayList<>();
+        l.add(WrapInlineables(job));
+        l.addAll(super.prerequisiteGoals(scheduler));
+        return l;
+      }
+    });
+
+    return g;
+  }
+
   public Goal ReadWriteChecked(final Job job) {
     Goal g = internGoal(new VisitorGoal(job, new ReadWriteChecker(job,
         extInfo.typeSystem(), extInfo.nodeFactory())) {
@@ -305,6 +321,7 @@ public class FabILScheduler extends JLScheduler implements CBScheduler {
       public Collection<Goal> prerequisiteGoals(Scheduler scheduler) {
         List<Goal> l = new ArrayList<>();
         l.add(WrapInlineables(job));
+        l.add(BarriersHoisted(job));
         l.addAll(super.prerequisiteGoals(scheduler));
         return l;
       }
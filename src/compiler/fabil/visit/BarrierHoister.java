@@ -0,0 +1,293 @@
+package fabil.visit;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import polyglot.ast.Assign;
+import polyglot.ast.Block;
+import polyglot.ast.Do;
+import polyglot.ast.Eval;
+import polyglot.ast.Expr;
+import polyglot.ast.Field;
+import polyglot.ast.For;
+import polyglot.ast.If;
+import polyglot.ast.Labeled;
+import polyglot.ast.Local;
+import polyglot.ast.LocalAssign;
+import polyglot.ast.LocalDecl;
+import polyglot.ast.Node;
+import polyglot.ast.NodeFactory;
+import polyglot.ast.Receiver;
+import polyglot.ast.Special;
+import polyglot.ast.Stmt;
+import polyglot.ast.Unary;
+import polyglot.ast.While;
+import polyglot.frontend.Job;
+import polyglot.types.Flags;
+import polyglot.types.LocalInstance;
+import polyglot.types.Type;
+import polyglot.types.TypeSystem;
+import polyglot.util.Position;
+import polyglot.visit.NodeVisitor;
+import fabil.ast.Atomic;
+import fabil.types.FabILTypeSystem;
+
+/**
+ * Hoists read barriers out of loops. The first time each iteration of a loop
+ * reads a field of the same Fabric object, the read is registered with the
+ * transaction manager, because the {@link ReadWriteChecker} cannot tell that
+ * the object was already read by an earlier iteration. This pass guards the
+ * first such read with a flag that is set once per execution of the loop:
+ *
+ * <pre>
+ * boolean $readBarrier0 = false;
+ * while (...) {
+ *   ...
+ *   if (!$readBarrier0) { T $readBarrierValue0 = o.f; $readBarrier0 = true; }
+ *   T x = o.f;
+ *   ...
+ * }
+ * </pre>
+ *
+ * The ReadWriteChecker treats the guard (see {@link #barrierRead(If)}) as a
+ * read of o, so that reads of o in the rest of the loop body access o's fields
+ * directly, and only the first iteration registers the read.
+ * <p>
+ * A guard is only added for a local variable (or this) that is not assigned or
+ * declared in the loop, and only in front of a statement at the top level of
+ * the loop body that reads a field of that variable. The guard therefore never
+ * reads an object that the original code would not have read at the same
+ * point. Loops that contain atomic blocks are left alone. Write barriers are
+ * not hoisted.
+ */
+public class BarrierHoister extends NodeVisitor {
+  /**
+   * The prefix of the names of guard flags.
+   */
+  private static final String FLAG_PREFIX = "$readBarrier";
+
+  private static final String VALUE_PREFIX = "$readBarrierValue";
+
+  protected Job job;
+  protected NodeFactory nf;
+  protected FabILTypeSystem ts;
+
+  /**
+   * The suffix of the next guard's flag and value names.
+   */
+  private int freshId = 0;
+
+  public BarrierHoister(Job job, TypeSystem ts, NodeFactory nf) {
+    this.job = job;
+    this.ts = (FabILTypeSystem) ts;
+    this.nf = nf;
+  }
+
+  @Override
+  public Node leave(Node old, Node n, NodeVisitor v) {
+    if (!(n instanceof Block)) return n;
+
+    Block b = (Block) n;
+    List<Stmt> stmts = new ArrayList<>(b.statements().size());
+    boolean changed = false;
+    for (Stmt s : b.statements()) {
+      List<Stmt> flags = new ArrayList<>();
+      Stmt hoisted = hoist(s, flags);
+      if (hoisted != s) {
+        stmts.addAll(flags);
+        changed = true;
+      }
+
+      stmts.add(hoisted);
+    }
+
+    return changed ? b.statements(stmts) : b;
+  }
+
+  /**
+   * Adds read barriers to the given statement if it is a (possibly labelled)
+   * loop. The declarations of the barriers' flags are added to flagDecls.
+   *
+   * @return the rewritten statement, or s if no barriers were added.
+   */
+  protected Stmt hoist(Stmt s, List<Stmt> flagDecls) {
+    if (s instanceof Labeled) {
+      Labeled l = (Labeled) s;
+      Stmt stmt = hoist(l.statement(), flagDecls);
+      return stmt == l.statement() ? l : l.statement(stmt);
+    }
+
+    Stmt body;
+    if (s instanceof While) {
+      body = ((While) s).body();
+    } else if (s instanceof Do) {
+      body = ((Do) s).body();
+    } else if (s instanceof For) {
+      body = ((For) s).body();
+    } else {
+      return s;
+    }
+
+    Stmt newBody = addBarriers(s, body, flagDecls);
+    if (newBody == body) return s;
+
+    if (s instanceof While) return ((While) s).body(newBody);
+    if (s instanceof Do) return ((Do) s).body(newBody);
+    return ((For) s).body(newBody);
+  }
+
+  /**
+   * Adds read barriers to the body of the given loop.
+   *
+   * @return the new body, or body if no barriers were added.
+   */
+  protected Stmt addBarriers(Stmt loop, Stmt body, List<Stmt> flagDecls) {
+    final Set<LocalInstance> updated = new HashSet<>();
+    final boolean[] atomic = new boolean[1];
+    loop.visit(new NodeVisitor() {
+      @Override
+      public Node leave(Node old, Node n, NodeVisitor v) {
+        if (n instanceof Atomic) {
+          atomic[0] = true;
+        } else if (n instanceof LocalDecl) {
+          updated.add(((LocalDecl) n).localInstance());
+        } else if (n instanceof LocalAssign) {
+          updated.add(((LocalAssign) n).left().localInstance());
+        }
+        return n;
+      }
+    });
+
+    if (atomic[0]) return body;
+
+    List<Stmt> stmts;
+    if (body instanceof Block) {
+      stmts = ((Block) body).statements();
+    } else {
+      stmts = new ArrayList<>();
+      stmts.add(body);
+    }
+
+    // Find the first top-level read of each candidate receiver. The key null
+    // stands for 'this', as in the ReadWriteChecker.
+    Map<LocalInstance, Integer> firstRead = new LinkedHashMap<>();
+    for (int i = 0; i < stmts.size(); i++) {
+      Field f = topLevelRead(stmts.get(i));
+      if (f == null) continue;
+
+      Receiver target = f.target();
+      LocalInstance li;
+      if (target instanceof Local) {
+        li = ((Local) target).localInstance();
+        if (updated.contains(li)) continue;
+      } else {
+        li = null;
+      }
+
+      if (!firstRead.containsKey(li)) firstRead.put(li, i);
+    }
+
+    if (firstRead.isEmpty()) return body;
+
+    Position CG = Position.compilerGenerated();
+    List<Stmt> result = new ArrayList<>(stmts.size() + firstRead.size());
+    for (int i = 0; i < stmts.size(); i++) {
+      Stmt s = stmts.get(i);
+      if (firstRead.containsValue(i)) {
+        Field f = topLevelRead(s);
+        int id = freshId++;
+
+        LocalInstance flagLI =
+            ts.localInstance(CG, Flags.NONE, ts.Boolean(), FLAG_PREFIX + id);
+        flagDecls.add(nf.LocalDecl(CG, Flags.NONE,
+            nf.CanonicalTypeNode(CG, ts.Boolean()),
+            nf.Id(CG, flagLI.name()), bool(false)).localInstance(flagLI));
+
+        Type valueType = f.type();
+        LocalInstance valueLI =
+            ts.localInstance(CG, Flags.NONE, valueType, VALUE_PREFIX + id);
+        Stmt read = nf.LocalDecl(CG, Flags.NONE,
+            nf.CanonicalTypeNode(CG, valueType), nf.Id(CG, valueLI.name()),
+            (Field) f.copy()).localInstance(valueLI);
+        Stmt set = nf.Eval(CG, nf.LocalAssign(CG, local(flagLI), Assign.ASSIGN,
+            bool(true)).type(ts.Boolean()));
+        Expr cond = nf.Unary(CG, Unary.NOT, local(flagLI)).type(ts.Boolean());
+
+        result.add(nf.If(CG, cond, nf.Block(CG, read, set)));
+      }
+
+      result.add(s);
+    }
+
+    if (body instanceof Block) return ((Block) body).statements(result);
+    return nf.Block(body.position(), result);
+  }
+
+  /**
+   * @return the field read by the given statement, if the statement is a local
+   *         variable declaration or assignment whose value is a non-static
+   *         field of a local variable or this, whose type is a pure Fabric
+   *         type. Otherwise, null.
+   */
+  protected Field topLevelRead(Stmt s) {
+    Expr e = null;
+    if (s instanceof LocalDecl) {
+      e = ((LocalDecl) s).init();
+    } else if (s instanceof Eval && ((Eval) s).expr() instanceof LocalAssign) {
+      LocalAssign a = (LocalAssign) ((Eval) s).expr();
+      if (a.operator() == Assign.ASSIGN) e = a.right();
+    }
+
+    if (!(e instanceof Field)) return null;
+
+    Field f = (Field) e;
+    if (f.fieldInstance().flags().isStatic() || f.name().equals("length"))
+      return null;
+
+    Receiver target = f.target();
+    if (!ts.isPureFabricType(target.type())) return null;
+    if (target instanceof Local) return f;
+    if (target instanceof Special) {
+      Special special = (Special) target;
+      if (special.kind() == Special.THIS && special.qualifier() == null)
+        return f;
+    }
+
+    return null;
+  }
+
+  private Local local(LocalInstance li) {
+    Position CG = Position.compilerGenerated();
+    return (Local) nf.Local(CG, nf.Id(CG, li.name())).localInstance(li)
+        .type(li.type());
+  }
+
+  private Expr bool(boolean value) {
+    return nf.BooleanLit(Position.compilerGenerated(), value).type(
+        ts.Boolean());
+  }
+
+  /**
+   * If the given node is a read barrier added by this pass, returns the field
+   * read that it guards. Otherwise, returns null.
+   */
+  public static Field barrierRead(If n) {
+    if (n.alternative() != null || !(n.cond() instanceof Unary)) return null;
+
+    Unary cond = (Unary) n.cond();
+    if (cond.operator() != Unary.NOT || !(cond.expr() instanceof Local))
+      return null;
+    if (!((Local) cond.expr()).name().startsWith(FLAG_PREFIX)) return null;
+
+    if (!(n.consequent() instanceof Block)) return null;
+    List<Stmt> stmts = ((Block) n.consequent()).statements();
+    if (stmts.isEmpty() || !(stmts.get(0) instanceof LocalDecl)) return null;
+
+    Expr init = ((LocalDecl) stmts.get(0)).init();
+    return init instanceof Field ? (Field) init : null;
+  }
+}
@@ -12,6 +12,7 @@ import polyglot.ast.ConstructorDecl;
 import polyglot.ast.Expr;
 import polyglot.ast.Field;
 import polyglot.ast.FieldAssign;
+import polyglot.ast.If;
 import polyglot.ast.Local;
 import polyglot.ast.LocalAssign;
 import polyglot.ast.New;
@@ -132,6 +133,15 @@ public class ReadWriteChecker extends DataFlow<ReadWriteChecker.DataFlowItem> {
         }
       }
 
+      if (n instanceof If) {
+        // A read barrier hoisted out of a loop by the BarrierHoister. Either
+        // the barrier just read the object, or an earlier iteration did.
+        Field f = BarrierHoister.barrierRead((If) n);
+        if (f != null) {
+          out = flowField(out, f, false);
+        }
+      }
+
       if (n instanceof LocalAssign) {
         LocalAssign a = (LocalAssign) n;
         Local l = a.left();
@@ -0,0 +1,332 @@
+package fabric.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import fabric.common.util.LongIterator;
+import fabric.common.util.LongSet;
+
+/**
+ * A bounded cache of positive authorization results, used by
+ * {@link AuthorizationUtil}. Each entry records that a principal may read, or
+ * read and write, according to a label.
+ * <p>
+ * Labels and principals are identified by oid keys, which pack a small store
+ * number into the top 16 bits of a long and the onum into the remaining 48.
+ * Entries are held in parallel primitive arrays, organized as a set-associative
+ * table: an entry can only be held in one of the WAYS slots of the set that its
+ * keys hash to, and when the set is full, one of its entries is evicted by the
+ * CLOCK algorithm. Lookups and insertions therefore do not allocate, and the
+ * cache's memory footprint is fixed when it is created.
+ * <p>
+ * Each entry depends on the objects that were read to establish it: the label
+ * and principal, but also the policies, principals, and delegation maps
+ * reached from them. The keys of these dependencies are recorded in a bit
+ * filter, and when any object that may be a dependency is updated,
+ * {@link #invalidate(LongSet)} empties the cache, since entries cannot be
+ * found from their dependencies. A generation number, advanced by every
+ * invalidation, keeps a check that overlapped an update from caching its
+ * (possibly stale) result.
+ * <p>
+ * This class is thread safe. Sets are guarded by striped locks.
+ */
+final class AuthorizationCache {
+  /** Permission bits. WRITE entries also permit reading. */
+  static final int READ = 1;
+  static final int WRITE = 2;
+
+  /** Set when an entry is used, and cleared by the CLOCK hand. */
+  private static final int REFERENCED = 4;
+
+  /** The number of slots in each set. */
+  private static final int WAYS = 8;
+
+  /** The maximum number of lock stripes. */
+  private static final int STRIPES = 64;
+
+  /** The number of bits in the dependency filter. */
+  private static final int FILTER_BITS = 1 << 16;
+
+  /** The bytes used by each entry: two keys and a flags byte. */
+  private static final int ENTRY_BYTES = 8 + 8 + 1;
+
+  private final int setMask;
+
+  // Entries. A slot is empty if its flags are 0.
+  private final long[] labels;
+  private final long[] principals;
+  private final byte[] flags;
+
+  private final Object[] locks;
+
+  /**
+   * The keys of the objects that entries depend on, by hash. Bits are only
+   * cleared when the cache is emptied.
+   */
+  private final AtomicLongArray dependencies;
+
+  /** Advanced by every invalidation. */
+  private final AtomicLong generation;
+
+  private final AtomicLong size;
+
+  // Statistics since the last call to resetStats().
+  private final AtomicLong hits;
+  private final AtomicLong misses;
+  private final AtomicLong evictions;
+  private final AtomicLong invalidations;
+
+  /**
+   * @param capacity
+   *          the maximum number of entries. This is rounded up to a power of
+   *          two, and to at least WAYS.
+   */
+  AuthorizationCache(int capacity) {
+    int sets = 1;
+    while (sets * WAYS < capacity)
+      sets <<= 1;
+    this.setMask = sets - 1;
+    this.labels = new long[sets * WAYS];
+    this.principals = new long[sets * WAYS];
+    this.flags = new byte[sets * WAYS];
+
+    this.locks = new Object[Math.min(sets, STRIPES)];
+    for (int i = 0; i < locks.length; i++)
+      locks[i] = new Object();
+
+    this.dependencies = new AtomicLongArray(FILTER_BITS / 64);
+    this.generation = new AtomicLong();
+    this.size = new AtomicLong();
+    this.hits = new AtomicLong();
+    this.misses = new AtomicLong();
+    this.evictions = new AtomicLong();
+    this.invalidations = new AtomicLong();
+  }
+
+  /**
+   * @return the oid key for the given store number and onum, or -1 if the onum
+   *         does not fit in 48 bits.
+   */
+  static long key(int storeNumber, long onum) {
+    if (onum >>> 48 != 0) return -1;
+    return (long) storeNumber << 48 | onum;
+  }
+
+  private static int mix(long key) {
+    key *= 0x9E3779B97F4A7C15L;
+    return (int) (key ^ key >>> 32);
+  }
+
+  private int set(long label, long principal) {
+    return mix(label ^ mix(principal)) & setMask;
+  }
+
+  private Object lock(int set) {
+    return locks[set % locks.length];
+  }
+
+  /**
+   * @return true if the cache records that the principal has the given
+   *         permission according to the label.
+   */
+  boolean contains(long label, long principal, int permission) {
+    int set = set(label, principal);
+    synchronized (lock(set)) {
+      int end = (set + 1) * WAYS;
+      for (int i = set * WAYS; i < end; i++) {
+        if (flags[i] != 0 && labels[i] == label
+            && principals[i] == principal) {
+          int granted = flags[i] & (READ | WRITE);
+          if ((granted & WRITE) != 0) granted |= READ;
+          if ((granted & permission) != permission) break;
+
+          flags[i] |= REFERENCED;
+          hits.incrementAndGet();
+          return true;
+        }
+      }
+    }
+
+    misses.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * @return the current generation. This should be read before an
+   *         authorization check whose result is to be cached.
+   */
+  long generation() {
+    return generation.get();
+  }
+
+  /**
+   * Records that the principal has the given permission according to the
+   * label, evicting another entry if necessary. The entry is not recorded if
+   * the cache has been invalidated since the given generation, since the
+   * check that produced it may have seen objects that have since been updated.
+   *
+   * @param dependencies
+   *          the keys of the objects read by the check, other than the label
+   *          and principal.
+   * @param generation
+   *          the generation read before the check began.
+   * @return true iff the entry was recorded.
+   */
+  boolean put(long label, long principal, int permission,
+      LongSet dependencies, long generation) {
+    // Record the dependencies before checking the generation, so that any
+    // invalidation that misses them also advances the generation first.
+    addDependency(label);
+    addDependency(principal);
+    for (LongIterator it = dependencies.iterator(); it.hasNext();)
+      addDependency(it.next());
+
+    int set = set(label, principal);
+    synchronized (lock(set)) {
+      if (this.generation.get() != generation) return false;
+
+      int start = set * WAYS;
+      int end = start + WAYS;
+      int free = -1;
+      for (int i = start; i < end; i++) {
+        if (flags[i] == 0) {
+          if (free < 0) free = i;
+        } else if (labels[i] == label && principals[i] == principal) {
+          flags[i] |= permission | REFERENCED;
+          return true;
+        }
+      }
+
+      if (free < 0) {
+        // The set is full. Give each referenced entry a second chance, and
+        // evict the first one that has already had one.
+        for (int i = start; i < end && free < 0; i++) {
+          if ((flags[i] & REFERENCED) == 0)
+            free = i;
+          else flags[i] &= ~REFERENCED;
+        }
+        if (free < 0) free = start + (mix(label ^ principal) & (WAYS - 1));
+
+        release(free);
+        evictions.incrementAndGet();
+      }
+
+      labels[free] = label;
+      principals[free] = principal;
+      flags[free] = (byte) (permission | REFERENCED);
+      size.incrementAndGet();
+      return true;
+    }
+  }
+
+  /**
+   * Empties the given slot. Must be called while holding the slot's lock.
+   */
+  private void release(int slot) {
+    flags[slot] = 0;
+    size.decrementAndGet();
+  }
+
+  private void addDependency(long key) {
+    int bit = mix(key) & (FILTER_BITS - 1);
+    long mask = 1L << bit;
+    int word = bit >>> 6;
+    long bits;
+    do {
+      bits = dependencies.get(word);
+      if ((bits & mask) != 0) return;
+    } while (!dependencies.compareAndSet(word, bits, bits | mask));
+  }
+
+  /**
+   * @return false if no entry depends on the object with the given key. A true
+   *         result may be a false positive.
+   */
+  boolean mayDependOn(long key) {
+    int bit = mix(key) & (FILTER_BITS - 1);
+    return (dependencies.get(bit >>> 6) & 1L << bit) != 0;
+  }
+
+  /**
+   * Invalidates the entries that may depend on the objects with the given
+   * keys, which have been updated. This advances the generation, so that
+   * checks already in progress do not cache their results, and empties the
+   * cache if any of the objects may be a dependency.
+   *
+   * @return true iff the cache was emptied.
+   */
+  boolean invalidate(LongSet keys) {
+    generation.incrementAndGet();
+    for (LongIterator it = keys.iterator(); it.hasNext();) {
+      if (mayDependOn(it.next())) {
+        clear();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes every entry.
+   */
+  void clear() {
+    // Forget the dependencies before advancing the generation, so that any
+    // insertion that could lose its dependencies here is either refused or
+    // removed below.
+    for (int i = 0; i < dependencies.length(); i++)
+      dependencies.set(i, 0);
+    generation.incrementAndGet();
+
+    for (int set = 0; set <= setMask; set++) {
+      synchronized (lock(set)) {
+        int end = (set + 1) * WAYS;
+        for (int i = set * WAYS; i < end; i++) {
+          if (flags[i] != 0) release(i);
+        }
+      }
+    }
+    invalidations.incrementAndGet();
+  }
+
+  /**
+   * @return the number of entries in the cache.
+   */
+  long size() {
+    return size.get();
+  }
+
+  /**
+   * @return the memory used by the cache's tables, in bytes.
+   */
+  long bytes() {
+    return (long) flags.length * ENTRY_BYTES + FILTER_BITS / 8;
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return a summary of the cache's hit ratio, size, evictions, and
+   *         invalidations since the last call to {@link #resetStats()}.
+   */
+  String stats() {
+    long hits = this.hits.get();
+    long lookups = hits + misses.get();
+    return String.format("%d/%d hits (%.1f%%), %d/%d entries (%d KB), %d "
+        + "evictions, %d invalidations", hits, lookups, lookups == 0 ? 0.0
+        : 100.0 * hits / lookups, size(), flags.length, bytes() / 1024,
+        evictions.get(), invalidations.get());
+  }
+
+  void resetStats() {
+    hits.set(0);
+    misses.set(0);
+    evictions.set(0);
+    invalidations.set(0);
+  }
+}
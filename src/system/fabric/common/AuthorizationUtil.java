@@ -1,83 +1,173 @@
 package fabric.common;
 
-import fabric.common.util.ConcurrentOidKeyHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fabric.common.util.LongHashSet;
+import fabric.common.util.LongIterator;
+import fabric.common.util.LongSet;
+import fabric.common.util.Oid;
+import fabric.common.util.OidHashSet;
 import fabric.lang.security.Label;
 import fabric.lang.security.LabelUtil;
 import fabric.lang.security.Principal;
 import fabric.worker.Store;
 import fabric.worker.Worker;
+import fabric.worker.transaction.TransactionManager;
 
 public class AuthorizationUtil {
 
-  private static final class Singleton {
-    static final Singleton INSTANCE = new Singleton();
-  }
+  /**
+   * The maximum number of authorizations to cache. Each takes 17 bytes.
+   */
+  private static final int CACHE_CAPACITY = 1 << 16;
 
   /**
-   * This is the cache for authorized reads. The keys in this map are label
-   * onums. The values are sets of oids of principals that are authorized to
-   * read according to the label. We're not using the caches in LabelUtil
-   * because the transaction management is too slow (!!).
+   * This is the cache for authorized reads and writes, keyed by label and
+   * principal. We're not using the caches in LabelUtil because the transaction
+   * management is too slow (!!).
+   * <p>
+   * Entries are only ever added for authorizations that were granted. Each
+   * depends on the objects that the check read (the label, its policies, and
+   * the principals and delegations consulted), and the cache is emptied when
+   * any of these is updated (see {@link #notifyUpdates(Store, LongSet)}),
+   * since that may revoke the authorization.
    */
-  private static final ConcurrentOidKeyHashMap<ConcurrentOidKeyHashMap<Singleton>> cachedReadAuthorizations =
-      new ConcurrentOidKeyHashMap<>();
+  private static final AuthorizationCache cache = new AuthorizationCache(
+      CACHE_CAPACITY);
 
   /**
-   * This is the cache for authorizing writes. The keys in this map are label
-   * onums. The values are principals that are authorized to read and write
-   * according to the label. We're not using the caches in LabelUtil because the
-   * transaction management is too slow (!!).
+   * Numbers the stores that labels and principals are on, for packing into
+   * cache keys. Store number 0 is reserved for the null principal.
    */
-  private static final ConcurrentOidKeyHashMap<ConcurrentOidKeyHashMap<Singleton>> cachedWriteAuthorizations =
-      new ConcurrentOidKeyHashMap<>();
+  private static final ConcurrentMap<Store, Integer> storeNumbers =
+      new ConcurrentHashMap<>();
+  private static final AtomicInteger nextStoreNumber = new AtomicInteger(1);
 
   /**
-   * Return true if cache[label][<code>principal</code>] exists, where label is
-   * given by the Oid (<code>store</code>,<code>labelOnum</code>).
+   * @return the cache key for the given oid, or -1 if it cannot be cached.
    */
-  private static boolean checkAuthorizationCache(
-      ConcurrentOidKeyHashMap<ConcurrentOidKeyHashMap<Singleton>> cache,
-      Principal principal, Store store, long labelOnum) {
-    ConcurrentOidKeyHashMap<Singleton> submap = cache.get(store, labelOnum);
-    return submap != null && submap.containsKey(principal);
+  private static long key(Store store, long onum) {
+    Integer number = storeNumbers.get(store);
+    if (number == null) {
+      int newNumber = nextStoreNumber.getAndIncrement();
+      if (newNumber > 0xFFFF) return -1;
+
+      number = storeNumbers.putIfAbsent(store, newNumber);
+      if (number == null) number = newNumber;
+    }
+
+    return AuthorizationCache.key(number, onum);
+  }
+
+  private static long key(Principal principal) {
+    if (principal == null) return AuthorizationCache.key(0, 0);
+    return key(principal.$getStore(), principal.$getOnum());
   }
 
-  private static void cacheAuthorization(
-      ConcurrentOidKeyHashMap<ConcurrentOidKeyHashMap<Singleton>> cache,
+  /**
+   * Return true if the cache records that <code>principal</code> has the given
+   * permission according to the label given by the Oid (<code>store</code>,
+   * <code>labelOnum</code>).
+   */
+  private static boolean checkAuthorizationCache(int permission,
       Principal principal, Store store, long labelOnum) {
-    ConcurrentOidKeyHashMap<Singleton> submap = new ConcurrentOidKeyHashMap<>();
-    ConcurrentOidKeyHashMap<Singleton> existing =
-        cache.putIfAbsent(store, labelOnum, submap);
-    if (existing != null) submap = existing;
-    submap.put(principal, Singleton.INSTANCE);
+    long label = key(store, labelOnum);
+    long p = key(principal);
+    return label != -1 && p != -1 && cache.contains(label, p, permission);
   }
 
   /**
-   * Determines whether the given principal is permitted to read according to
-   * the label at the given oid. This is run as a subtransaction of the current
-   * transaction.
+   * Caches a granted authorization.
+   *
+   * @param dependencies
+   *          the objects read by the check that granted it.
+   * @param generation
+   *          the cache generation, read before the check began.
    */
-  public static boolean isReadPermitted(final Principal principal, Store store,
-      long labelOnum) {
-    // Allow the store's worker principal to do anything. We use pointer
-    // equality here to avoid having to call into the worker.
-    if (principal == Worker.getWorker().getPrincipal()) return true;
+  private static void cacheAuthorization(int permission, Principal principal,
+      Store store, long labelOnum, OidHashSet dependencies, long generation) {
+    long label = key(store, labelOnum);
+    long p = key(principal);
+    if (label == -1 || p == -1) return;
 
-    if (checkAuthorizationCache(cachedReadAuthorizations, principal, store,
-        labelOnum))
-      return true;
+    LongSet keys = new LongHashSet();
+    for (Oid oid : dependencies) {
+      long key = key(oid.store, oid.onum);
+      if (key == -1) return;
+      keys.add(key);
+    }
 
-    // Call into the Jif label framework to perform the label check.
-    final Label label = new Label._Proxy(store, labelOnum);
-    boolean result = Worker.runInSubTransaction(new Worker.Code<Boolean>() {
+    cache.put(label, p, permission, keys, generation);
+  }
+
+  /**
+   * Determines whether the principal may read, or read and write, according
+   * to the label. This is run as a subtransaction of the current transaction,
+   * and the objects it reads are added to the given set.
+   */
+  private static boolean check(final Label label, final Principal principal,
+      final boolean write, final OidHashSet dependencies) {
+    return Worker.runInSubTransaction(new Worker.Code<Boolean>() {
       @Override
       public Boolean run() {
-        return LabelUtil._Impl.isReadableBy(label, principal);
+        // Call into the Jif label framework to perform the label check.
+        boolean result = LabelUtil._Impl.isReadableBy(label, principal)
+            && (!write || LabelUtil._Impl.isWritableBy(label, principal));
+        TransactionManager.getInstance().getCurrentLog()
+            .addReadsTo(dependencies);
+        return result;
       }
     });
+  }
+
+  /**
+   * Determines, without running a transaction, whether the given principal is
+   * known to be permitted to read according to the label at the given oid.
+   *
+   * @return true if the principal is the store's worker principal or an
+   *         earlier check found it to be permitted; false if this is not known.
+   */
+  public static boolean isReadPermittedCached(Principal principal,
+      Store store, long labelOnum) {
+    return principal == Worker.getWorker().getPrincipal()
+        || checkAuthorizationCache(AuthorizationCache.READ, principal, store,
+            labelOnum);
+  }
+
+  /**
+   * Determines, without running a transaction, whether the given principal is
+   * known to be permitted to read and write according to the label at the
+   * given oid.
+   *
+   * @return true if the principal is the store's worker principal or an
+   *         earlier check found it to be permitted; false if this is not known.
+   */
+  public static boolean isReadAndWritePermittedCached(Principal principal,
+      Store store, long labelOnum) {
+    return principal == Worker.getWorker().getPrincipal()
+        || checkAuthorizationCache(AuthorizationCache.WRITE, principal, store,
+            labelOnum);
+  }
+
+  /**
+   * Determines whether the given principal is permitted to read according to
+   * the label at the given oid. This is run as a subtransaction of the current
+   * transaction.
+   */
+  public static boolean isReadPermitted(Principal principal, Store store,
+      long labelOnum) {
+    if (isReadPermittedCached(principal, store, labelOnum)) return true;
+
+    Label label = new Label._Proxy(store, labelOnum);
+    long generation = cache.generation();
+    OidHashSet dependencies = new OidHashSet();
+    boolean result = check(label, principal, false, dependencies);
 
     if (result) {
-      cacheAuthorization(cachedReadAuthorizations, principal, store, labelOnum);
+      cacheAuthorization(AuthorizationCache.READ, principal, store, labelOnum,
+          dependencies, generation);
     }
 
     return result;
@@ -88,30 +178,90 @@ public class AuthorizationUtil {
    * according to the label at the given onum. This is run as a subtransaction
    * of the current transaction.
    */
-  public static boolean isReadAndWritePermitted(final Principal principal,
+  public static boolean isReadAndWritePermitted(Principal principal,
       Store store, long labelOnum) {
-    // Allow the store's worker principal to do anything. We use pointer
-    // equality here to avoid having to call into the worker.
-    if (principal == Worker.getWorker().getPrincipal()) return true;
-
-    if (checkAuthorizationCache(cachedWriteAuthorizations, principal, store,
-        labelOnum))
+    if (isReadAndWritePermittedCached(principal, store, labelOnum))
       return true;
 
-    // Call into the Jif label framework to perform the label check.
-    final Label label = new Label._Proxy(store, labelOnum);
-    boolean result = Worker.runInSubTransaction(new Worker.Code<Boolean>() {
-      @Override
-      public Boolean run() {
-        return LabelUtil._Impl.isReadableBy(label, principal)
-            && LabelUtil._Impl.isWritableBy(label, principal);
-      }
-    });
+    Label label = new Label._Proxy(store, labelOnum);
+    long generation = cache.generation();
+    OidHashSet dependencies = new OidHashSet();
+    boolean result = check(label, principal, true, dependencies);
 
     if (result) {
-      cacheAuthorization(cachedWriteAuthorizations, principal, store,
-          labelOnum);
+      cacheAuthorization(AuthorizationCache.WRITE, principal, store,
+          labelOnum, dependencies, generation);
     }
     return result;
   }
+
+  /**
+   * Invalidates cached authorizations that may depend on the given objects,
+   * which have been updated. If any of them was read by a cached check, the
+   * whole cache is emptied: entries that depend on an updated object cannot be
+   * found from it. Checks that are running concurrently will not cache their
+   * results.
+   */
+  public static void notifyUpdates(Store store, LongSet onums) {
+    LongSet keys = new LongHashSet(onums.size());
+    for (LongIterator it = onums.iterator(); it.hasNext();) {
+      long key = key(store, it.next());
+      if (key == -1) {
+        cache.clear();
+        return;
+      }
+      keys.add(key);
+    }
+
+    cache.invalidate(keys);
+  }
+
+  /**
+   * Invalidates cached authorizations that may depend on the given objects,
+   * which have been updated.
+   *
+   * @see #notifyUpdates(Store, LongSet)
+   */
+  public static void notifyUpdates(
+      Iterable<? extends fabric.lang.Object> objects) {
+    LongSet keys = new LongHashSet();
+    for (fabric.lang.Object obj : objects) {
+      long key = key(obj.$getStore(), obj.$getOnum());
+      if (key == -1) {
+        cache.clear();
+        return;
+      }
+      keys.add(key);
+    }
+
+    cache.invalidate(keys);
+  }
+
+  /**
+   * @return the number of authorization checks answered from the cache since
+   *         the last call to {@link #resetStats()}.
+   */
+  public static long getCacheHits() {
+    return cache.getHits();
+  }
+
+  /**
+   * @return the number of authorization checks not answered from the cache
+   *         since the last call to {@link #resetStats()}.
+   */
+  public static long getCacheMisses() {
+    return cache.getMisses();
+  }
+
+  /**
+   * @return a summary of the authorization cache's hit ratio, size, evictions,
+   *         and invalidations.
+   */
+  public static String stats() {
+    return cache.stats();
+  }
+
+  public static void resetStats() {
+    cache.resetStats();
+  }
 }
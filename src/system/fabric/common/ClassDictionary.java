@@ -0,0 +1,103 @@
+package fabric.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fabric.common.exceptions.InternalError;
+
+/**
+ * Assigns small integer IDs to serialized ClassRefs, so that a collection of
+ * serialized objects can refer to each class by its ID instead of repeating
+ * the class's name and hash in every object (see
+ * {@link SerializedObject#write(DataOutput, ClassDictionary)}).
+ * <p>
+ * IDs are assigned densely from 0, in the order classes are added. This class
+ * is thread safe.
+ */
+public final class ClassDictionary implements FastSerializable {
+  /**
+   * The serialized ClassRefs, by ID.
+   */
+  private final List<byte[]> classes;
+
+  /**
+   * Maps serialized ClassRefs to their IDs.
+   */
+  private final Map<ByteBuffer, Integer> ids;
+
+  public ClassDictionary() {
+    this.classes = new ArrayList<>();
+    this.ids = new HashMap<>();
+  }
+
+  /**
+   * Adds the given serialized ClassRef to the dictionary, if it isn't already
+   * there.
+   *
+   * @return the class's ID.
+   */
+  public synchronized int add(byte[] classRef) {
+    ByteBuffer key = ByteBuffer.wrap(classRef);
+    Integer id = ids.get(key);
+    if (id != null) return id;
+
+    id = classes.size();
+    classes.add(classRef);
+    ids.put(key, id);
+    return id;
+  }
+
+  /**
+   * @return the ID of the given serialized ClassRef, or -1 if it is not in the
+   *         dictionary.
+   */
+  public synchronized int idOf(byte[] classRef) {
+    Integer id = ids.get(ByteBuffer.wrap(classRef));
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * @return the serialized ClassRef with the given ID.
+   */
+  public synchronized byte[] get(int id) {
+    if (id < 0 || id >= classes.size())
+      throw new InternalError("Unknown class ID " + id);
+    return classes.get(id);
+  }
+
+  public synchronized int size() {
+    return classes.size();
+  }
+
+  /**
+   * Serializes the dictionary onto the given output stream.
+   */
+  @Override
+  public synchronized void write(DataOutput out) throws IOException {
+    out.writeInt(classes.size());
+    for (byte[] classRef : classes) {
+      out.writeInt(classRef.length);
+      out.write(classRef);
+    }
+  }
+
+  /**
+   * Deserialization constructor.
+   */
+  public ClassDictionary(DataInput in) throws IOException {
+    this();
+
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      byte[] classRef = new byte[in.readInt()];
+      in.readFully(classRef);
+      add(classRef);
+    }
+  }
+}
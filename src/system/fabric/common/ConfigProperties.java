@@ -34,6 +34,40 @@ public class ConfigProperties {
   public final boolean useSSL;
   public final String hostname;
 
+  /**
+   * Whether to multiplex plain-TCP channels over a shared set of NIO selector
+   * threads instead of dedicating a reader thread to each channel.
+   */
+  public final boolean useNIO;
+
+  /**
+   * The number of selector threads to use when useNIO is set.
+   */
+  public final int nioThreads;
+
+  /**
+   * The number of threads that deliver frames received by the NIO selector
+   * threads when useNIO is set.
+   */
+  public final int nioDispatchThreads;
+
+  /**
+   * The execution policy for the node's thread pool: "cached", "bounded", or
+   * "virtual". See {@link Threading.Policy}.
+   */
+  public final String threadPool;
+
+  /**
+   * The maximum number of threads in a bounded thread pool.
+   */
+  public final int threadPoolMaxThreads;
+
+  /**
+   * The number of tasks a bounded thread pool will queue once all of its
+   * threads are busy.
+   */
+  public final int threadPoolQueueSize;
+
   public final String backendClass;
   public final String surrogateManagerClass;
   public final int storePort;
@@ -72,6 +106,54 @@ public class ConfigProperties {
    */
   public final boolean recordConflicts;
 
+  /**
+   * Whether the application thread may continue before the participants of a
+   * distributed transaction have acknowledged its commit.
+   */
+  public final boolean pipelineCommits;
+
+  /**
+   * The maximum number of objects to prefetch, in one batched read, when an
+   * object fetched from a store is deserialized. Zero disables prefetching.
+   */
+  public final int prefetchBatchSize;
+
+  /**
+   * The maximum number of prefetched objects in flight at once.
+   */
+  public final int prefetchMaxFetches;
+
+  /**
+   * The maximum total size, in bytes, of prefetched objects that have not yet
+   * been read.
+   */
+  public final long prefetchMaxBytes;
+
+  /**
+   * The maximum total size, in bytes, of the objects in the worker's caches,
+   * or 0 if the caches are only bounded by the garbage collector.
+   */
+  public final long cacheMaxBytes;
+
+  /**
+   * The size, in bytes, of the off-heap tier of the worker's caches, or 0 if
+   * cached objects are held only on the heap.
+   */
+  public final long offHeapCacheBytes;
+
+  /**
+   * The maximum number of threads a store uses for sending update
+   * notifications to subscribers. Notifications are queued while these are
+   * all busy.
+   */
+  public final int updateNotifierThreads;
+
+  /**
+   * How long a store collects updates before notifying subscribers of them, in
+   * milliseconds.
+   */
+  public final long updateCoalesceMillis;
+
   static {
     //
     // load the default properties files
@@ -111,6 +193,19 @@ public class ConfigProperties {
     this.useSSL =
         Boolean.parseBoolean(removeProperty(p, "fabric.node.useSSL", "true"));
     this.hostname = removeProperty(p, "fabric.node.hostname", name);
+    this.useNIO =
+        Boolean.parseBoolean(removeProperty(p, "fabric.node.useNIO", "false"));
+    this.nioThreads = Integer.parseInt(removeProperty(p, "fabric.node.nioThreads",
+        Integer.toString(Math.max(2,
+            Runtime.getRuntime().availableProcessors() / 2))));
+    this.nioDispatchThreads = Integer.parseInt(removeProperty(p,
+        "fabric.node.nioDispatchThreads", Integer.toString(Math.max(4,
+            2 * Runtime.getRuntime().availableProcessors()))));
+    this.threadPool = removeProperty(p, "fabric.node.threadPool", "cached");
+    this.threadPoolMaxThreads = Integer.parseInt(
+        removeProperty(p, "fabric.node.threadPool.maxThreads", "256"));
+    this.threadPoolQueueSize = Integer.parseInt(
+        removeProperty(p, "fabric.node.threadPool.queueSize", "0"));
 
     this.password =
         removeProperty(p, "fabric.node.password", "password").toCharArray();
@@ -132,6 +227,22 @@ public class ConfigProperties {
 
     this.recordConflicts = Boolean.parseBoolean(
         removeProperty(p, "fabric.node.recordConflicts", "false"));
+    this.pipelineCommits = Boolean.parseBoolean(
+        removeProperty(p, "fabric.node.pipelineCommits", "false"));
+    this.prefetchBatchSize = Integer.parseInt(
+        removeProperty(p, "fabric.node.prefetchBatchSize", "32"));
+    this.prefetchMaxFetches = Integer.parseInt(
+        removeProperty(p, "fabric.node.prefetchMaxFetches", "256"));
+    this.prefetchMaxBytes = Long.parseLong(
+        removeProperty(p, "fabric.node.prefetchMaxBytes", "4194304"));
+    this.cacheMaxBytes = Long.parseLong(
+        removeProperty(p, "fabric.node.cacheMaxBytes", "0"));
+    this.offHeapCacheBytes = Long.parseLong(
+        removeProperty(p, "fabric.node.offHeapCacheBytes", "0"));
+    this.updateNotifierThreads = Integer.parseInt(
+        removeProperty(p, "fabric.node.updateNotifierThreads", "16"));
+    this.updateCoalesceMillis = Long.parseLong(
+        removeProperty(p, "fabric.node.updateCoalesceMillis", "10"));
 
     // Collect network-delay properties.
     Map<String, Short> inDelays = new HashMap<>();
@@ -25,13 +25,22 @@ public class ObjectGroup implements FastSerializable {
   }
 
   /**
-   * Serializes the group onto the given output stream.
+   * Serializes the group onto the given output stream. The group's classes are
+   * written once, in a dictionary ahead of the objects, which refer to them by
+   * ID. The dictionary is local to the group, because groups are encrypted and
+   * cached as a unit (see ObjectGlob) and may be read by any worker.
    */
   @Override
   public void write(DataOutput out) throws IOException {
+    ClassDictionary classes = new ClassDictionary();
+    for (SerializedObject obj : objects.values()) {
+      classes.add(obj.getSerializedClassRef());
+    }
+
     out.writeInt(objects.size());
+    classes.write(out);
     for (SerializedObject obj : objects.values()) {
-      obj.write(out);
+      obj.write(out, classes);
     }
   }
 
@@ -42,8 +51,9 @@ public class ObjectGroup implements FastSerializable {
     int groupSize = in.readInt();
     objects = new LongKeyHashMap<>(groupSize);
 
+    ClassDictionary classes = new ClassDictionary(in);
     for (int i = 0; i < groupSize; i++) {
-      SerializedObject obj = new SerializedObject(in);
+      SerializedObject obj = new SerializedObject(in, classes);
       objects.put(obj.getOnum(), obj);
     }
   }
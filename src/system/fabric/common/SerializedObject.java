@@ -13,7 +13,9 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -147,8 +149,21 @@ public final class SerializedObject implements FastSerializable, Serializable {
   }
 
   private Header header;
+
+  /**
+   * The object data, if it is held on the heap. Otherwise, this is null, and
+   * the data is held in {@link #offHeapData}.
+   */
   private byte[] objectData;
 
+  /**
+   * The object data, if it is held in a (typically direct) buffer, rather than
+   * on the heap. The data occupies the whole buffer, from index 0 to its
+   * limit. The buffer's position is never used, so it can be shared between
+   * threads. See {@link #copyTo(ByteBuffer)}.
+   */
+  private transient ByteBuffer offHeapData;
+
   /** Index in objectData for update-label pointer. */
   private static final int UPDATE_LABEL_OFFSET = 0;
 
@@ -336,18 +351,143 @@ public final class SerializedObject implements FastSerializable, Serializable {
    * data.
    */
   private ComparablePair<String, Long> getInterStoreRef(int refPos) {
-    int storeNameLength = SerializationUtil.unsignedShortAt(objectData, refPos);
+    int storeNameLength = unsignedShortAt(refPos);
     int onumPos = refPos + 2 + storeNameLength;
     DataInput in = new DataInputStream(
-        new ByteArrayInputStream(objectData, refPos, onumPos));
+        dataStream(refPos, onumPos));
     try {
       return new ComparablePair<>(in.readUTF(),
-          SerializationUtil.longAt(objectData, onumPos));
+          longAt(onumPos));
     } catch (IOException e) {
       throw new InternalError("Error while reading store name.", e);
     }
   }
 
+  // ////////////////////////////////////////////////////////////////////////////
+  // Access to the object data, wherever it is held. //
+  // ////////////////////////////////////////////////////////////////////////////
+
+  private int dataLength() {
+    byte[] data = objectData;
+    return data != null ? data.length : offHeapData.limit();
+  }
+
+  private byte byteAt(int pos) {
+    byte[] data = objectData;
+    return data != null ? data[pos] : offHeapData.get(pos);
+  }
+
+  private boolean booleanAt(int pos) {
+    return byteAt(pos) == 1;
+  }
+
+  private int unsignedShortAt(int pos) {
+    byte[] data = objectData;
+    if (data != null) return SerializationUtil.unsignedShortAt(data, pos);
+    return offHeapData.getShort(pos) & 0xffff;
+  }
+
+  private int intAt(int pos) {
+    byte[] data = objectData;
+    if (data != null) return SerializationUtil.intAt(data, pos);
+    return offHeapData.getInt(pos);
+  }
+
+  private long longAt(int pos) {
+    byte[] data = objectData;
+    if (data != null) return SerializationUtil.longAt(data, pos);
+    return offHeapData.getLong(pos);
+  }
+
+  /**
+   * @return an InputStream over the given region of the object data.
+   */
+  private InputStream dataStream(int offset, int length) {
+    byte[] data = objectData;
+    if (data != null) return new ByteArrayInputStream(data, offset, length);
+    return new ByteBufferInputStream(offHeapData, offset, length);
+  }
+
+  /**
+   * Writes the given region of the object data to the given output.
+   */
+  private void writeData(DataOutput out, int offset, int length)
+      throws IOException {
+    byte[] data = objectData;
+    if (data != null) {
+      out.write(data, offset, length);
+      return;
+    }
+
+    byte[] buf = new byte[Math.min(length, SerializationUtil.BUF_LEN * 8)];
+    ByteBuffer src = offHeapData.duplicate();
+    src.position(offset);
+    while (length > 0) {
+      int n = Math.min(length, buf.length);
+      src.get(buf, 0, n);
+      out.write(buf, 0, n);
+      length -= n;
+    }
+  }
+
+  /**
+   * @return a heap copy of the serialized ClassRef, for parsing when the
+   *         object data is held off the heap. The ClassRef starts at index 0.
+   */
+  private byte[] classRefData() {
+    int pos = classRefPos();
+    int length = numRefTypesPos() - pos;
+    byte[] data = objectData;
+    if (data != null) return Arrays.copyOfRange(data, pos, pos + length);
+
+    byte[] result = new byte[length];
+    ByteBuffer src = offHeapData.duplicate();
+    src.position(pos);
+    src.get(result);
+    return result;
+  }
+
+  /**
+   * An InputStream over a region of a ByteBuffer. Reads do not disturb the
+   * buffer's position.
+   */
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buf;
+
+    ByteBufferInputStream(ByteBuffer buf, int offset, int length) {
+      this.buf = buf.duplicate();
+      this.buf.limit(Math.min(offset + length, buf.limit()));
+      this.buf.position(offset);
+    }
+
+    @Override
+    public int read() {
+      return buf.hasRemaining() ? buf.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) return 0;
+      if (!buf.hasRemaining()) return -1;
+
+      len = Math.min(len, buf.remaining());
+      buf.get(b, off, len);
+      return len;
+    }
+
+    @Override
+    public long skip(long n) {
+      int skipped = (int) Math.max(0, Math.min(n, buf.remaining()));
+      buf.position(buf.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return buf.remaining();
+    }
+  }
+
   /**
    * @return the offset in objectData representing the start of a boolean that
    *         indicates whether the label pointer is an inter-store reference.
@@ -361,8 +501,7 @@ public final class SerializedObject implements FastSerializable, Serializable {
    *         inter-store reference.
    */
   public boolean updateLabelRefIsInterStore() {
-    return SerializationUtil.booleanAt(objectData,
-        isInterStoreUpdateLabelPos());
+    return booleanAt(isInterStoreUpdateLabelPos());
   }
 
   /**
@@ -398,7 +537,7 @@ public final class SerializedObject implements FastSerializable, Serializable {
           + "onum of an object whose inter-store references have not yet been "
           + "swizzled." + getInterStoreUpdateLabelRef());
 
-    return SerializationUtil.longAt(objectData, updateLabelPos());
+    return longAt(updateLabelPos());
   }
 
   /**
@@ -407,8 +546,7 @@ public final class SerializedObject implements FastSerializable, Serializable {
    *         reference.
    */
   private final int isInterStoreAccessPolicyPos() {
-    return SerializationUtil.intAt(objectData,
-        objectData.length - ACCESS_POLICY_POS_OFFSET);
+    return intAt(dataLength() - ACCESS_POLICY_POS_OFFSET);
   }
 
   /**
@@ -416,8 +554,7 @@ public final class SerializedObject implements FastSerializable, Serializable {
    *         an inter-store reference.
    */
   public boolean accessPolicyRefIsInterStore() {
-    return SerializationUtil.booleanAt(objectData,
-        isInterStoreAccessPolicyPos());
+    return booleanAt(isInterStoreAccessPolicyPos());
   }
 
   /**
@@ -454,7 +591,7 @@ public final class SerializedObject implements FastSerializable, Serializable {
           + "policy onum of an object whose inter-store references have not yet "
           + "been swizzled." + getInterStoreAccessPolicyRef());
 
-    return SerializationUtil.longAt(objectData, accessPolicyPos());
+    return longAt(accessPolicyPos());
   }
 
   /**
@@ -462,8 +599,7 @@ public final class SerializedObject implements FastSerializable, Serializable {
    *         ClassRef for the object's class.
    */
   private final int classRefPos() {
-    return SerializationUtil.intAt(objectData,
-        objectData.length - CLASS_REF_POS_OFFSET);
+    return intAt(dataLength() - CLASS_REF_POS_OFFSET);
   }
 
   /**
@@ -471,14 +607,25 @@ public final class SerializedObject implements FastSerializable, Serializable {
    */
   public ClassRef getClassRef() {
     if (classRef != null) return classRef;
-    return classRef = ClassRef.deserialize(objectData, classRefPos());
+    byte[] data = objectData;
+    if (data == null) return classRef = ClassRef.deserialize(classRefData(), 0);
+    return classRef = ClassRef.deserialize(data, classRefPos());
   }
 
   /**
    * @return the object's class's name.
    */
   public String getClassName() {
-    return ClassRef.getClassName(objectData, classRefPos());
+    byte[] data = objectData;
+    if (data == null) return ClassRef.getClassName(classRefData(), 0);
+    return ClassRef.getClassName(data, classRefPos());
+  }
+
+  /**
+   * @return a copy of the serialized ClassRef for the object's class.
+   */
+  public byte[] getSerializedClassRef() {
+    return classRefData();
   }
 
   /**
@@ -491,7 +638,9 @@ public final class SerializedObject implements FastSerializable, Serializable {
 
     // Class not loaded yet. Avoid loading by examining the serialized data
     // directly.
-    return ClassRef.isSurrogate(objectData, classRefPos());
+    byte[] data = objectData;
+    if (data == null) return ClassRef.isSurrogate(classRefData(), 0);
+    return ClassRef.isSurrogate(data, classRefPos());
   }
 
   /**
@@ -500,8 +649,7 @@ public final class SerializedObject implements FastSerializable, Serializable {
    *         inter-store/intra-store/serialized).
    */
   private final int numRefTypesPos() {
-    return SerializationUtil.intAt(objectData,
-        objectData.length - REF_TYPES_POS_OFFSET);
+    return intAt(dataLength() - REF_TYPES_POS_OFFSET);
   }
 
   /**
@@ -509,7 +657,7 @@ public final class SerializedObject implements FastSerializable, Serializable {
    *         RefTypeEnum.)
    */
   public final int getNumRefTypes() {
-    return SerializationUtil.intAt(objectData, numRefTypesPos());
+    return intAt(numRefTypesPos());
   }
 
   /**
@@ -539,7 +687,7 @@ public final class SerializedObject implements FastSerializable, Serializable {
       @Override
       public RefTypeEnum next() {
         if (!hasNext()) throw new NoSuchElementException();
-        return refTypeEnums[objectData[cur++]];
+        return refTypeEnums[byteAt(cur++)];
       }
 
       @Override
@@ -554,15 +702,14 @@ public final class SerializedObject implements FastSerializable, Serializable {
    *         representing the number of intra-store references.
    */
   private final int numIntraStoreRefsPos() {
-    return SerializationUtil.intAt(objectData,
-        objectData.length - INTRASTORE_REFS_POS_OFFSET);
+    return intAt(dataLength() - INTRASTORE_REFS_POS_OFFSET);
   }
 
   /**
    * @return the number of intra-store references in the serialized object.
    */
   public final int getNumIntraStoreRefs() {
-    return SerializationUtil.intAt(objectData, numIntraStoreRefsPos());
+    return intAt(numIntraStoreRefsPos());
   }
 
   /**
@@ -594,7 +741,7 @@ public final class SerializedObject implements FastSerializable, Serializable {
         if (!hasNext()) throw new NoSuchElementException();
         int pos = cur;
         cur += 8;
-        return SerializationUtil.longAt(objectData, pos);
+        return longAt(pos);
       }
 
       @Override
@@ -609,12 +756,11 @@ public final class SerializedObject implements FastSerializable, Serializable {
    *         representing the length of the data portion of the object.
    */
   private final int serializedDataLengthPos() {
-    return SerializationUtil.intAt(objectData,
-        objectData.length - SERIALIZED_DATA_POS_OFFSET);
+    return intAt(dataLength() - SERIALIZED_DATA_POS_OFFSET);
   }
 
   private final int serializedDataLength() {
-    return SerializationUtil.intAt(objectData, serializedDataLengthPos());
+    return intAt(serializedDataLengthPos());
   }
 
   /**
@@ -630,8 +776,7 @@ public final class SerializedObject implements FastSerializable, Serializable {
    *         serialized object.
    */
   public InputStream getSerializedDataStream() {
-    return new ByteArrayInputStream(objectData, serializedDataPos(),
-        serializedDataLength());
+    return dataStream(serializedDataPos(), serializedDataLength());
   }
 
   /**
@@ -639,15 +784,14 @@ public final class SerializedObject implements FastSerializable, Serializable {
    *         representing the number of inter-store references.
    */
   private final int numInterStoreRefsPos() {
-    return SerializationUtil.intAt(objectData,
-        objectData.length - INTERSTORE_REFS_POS_OFFSET);
+    return intAt(dataLength() - INTERSTORE_REFS_POS_OFFSET);
   }
 
   /**
    * @return the number of inter-store references in the serialized object.
    */
   public final int getNumInterStoreRefs() {
-    return SerializationUtil.intAt(objectData, numInterStoreRefsPos());
+    return intAt(numInterStoreRefsPos());
   }
 
   /**
@@ -667,8 +811,8 @@ public final class SerializedObject implements FastSerializable, Serializable {
 
     return new Iterator<ComparablePair<String, Long>>() {
       int nextInterStoreRefNum = 0;
-      DataInput in = new DataInputStream(new ByteArrayInputStream(objectData,
-          offset, objectData.length - ACCESS_POLICY_POS_OFFSET - offset));
+      DataInput in = new DataInputStream(dataStream(offset,
+          dataLength() - ACCESS_POLICY_POS_OFFSET - offset));
 
       @Override
       public boolean hasNext() {
@@ -728,7 +872,7 @@ public final class SerializedObject implements FastSerializable, Serializable {
 
       // Write the ClassRef and number of ref types.
       int oldClassRefPos = classRefPos();
-      out.write(objectData, oldClassRefPos, refTypesPos() - oldClassRefPos);
+      writeData(out, oldClassRefPos, refTypesPos() - oldClassRefPos);
 
       // Save the offset for the ref-type data.
       out.flush();
@@ -740,9 +884,9 @@ public final class SerializedObject implements FastSerializable, Serializable {
       final int ONUM = RefTypeEnum.ONUM.ordinal();
       int offset = refTypesPos();
       for (int i = 0; i < numRefs; i++) {
-        if (objectData[offset] == REMOTE)
+        if (byteAt(offset) == REMOTE)
           out.write(ONUM);
-        else out.write(objectData[offset]);
+        else out.write(byteAt(offset));
         offset++;
       }
 
@@ -763,8 +907,7 @@ public final class SerializedObject implements FastSerializable, Serializable {
       int serializedDataPos = baos.size();
 
       // Write length of serialized data, and serialized data.
-      out.write(objectData, serializedDataLengthPos(),
-          serializedDataLength() + 4);
+      writeData(out, serializedDataLengthPos(), serializedDataLength() + 4);
 
       // Save the offset for the interstore-ref data.
       out.flush();
@@ -784,6 +927,7 @@ public final class SerializedObject implements FastSerializable, Serializable {
       out.flush();
       baos.flush();
       this.objectData = baos.toByteArray();
+      this.offHeapData = null;
     } catch (IOException e) {
       throw new InternalError("Unexpected I/O error.", e);
     }
@@ -1058,7 +1202,29 @@ public final class SerializedObject implements FastSerializable, Serializable {
   @Override
   public void write(DataOutput out) throws IOException {
     header.write(out);
-    out.write(objectData);
+    writeData(out, 0, dataLength());
+  }
+
+  /**
+   * Writes this SerializedObject out to the given output stream, referring to
+   * the object's class by its ID in the given dictionary, which must already
+   * contain the class (see {@link #getSerializedClassRef()}). Otherwise, the
+   * format is that of {@link #write(DataOutput)}.
+   *
+   * @see #SerializedObject(DataInput, ClassDictionary)
+   */
+  public void write(DataOutput out, ClassDictionary classes)
+      throws IOException {
+    int classRefPos = classRefPos();
+    int classId = classes.idOf(classRefData());
+    if (classId < 0)
+      throw new InternalError("Class of " + this + " is not in the dictionary");
+
+    header.write(out);
+    writeData(out, 0, classRefPos);
+    out.writeInt(classId);
+    int bodyPos = numRefTypesPos();
+    writeData(out, bodyPos, dataLength() - bodyPos);
   }
 
   /**
@@ -1071,6 +1237,20 @@ public final class SerializedObject implements FastSerializable, Serializable {
    * @see #readImpl(Store, DataInput)
    */
   public SerializedObject(DataInput in) throws IOException {
+    this(in, null);
+  }
+
+  /**
+   * A deserialization constructor for objects written with
+   * {@link #write(DataOutput, ClassDictionary)}. The object's ClassRef is taken
+   * from the given dictionary.
+   *
+   * @param classes
+   *          the dictionary the object was written with, or null if the
+   *          object was written with {@link #write(DataOutput)}.
+   */
+  public SerializedObject(DataInput in, ClassDictionary classes)
+      throws IOException {
     ByteArrayOutputStream bos = new ByteArrayOutputStream();
     DataOutputStream out = new DataOutputStream(bos);
 
@@ -1103,7 +1283,11 @@ public final class SerializedObject implements FastSerializable, Serializable {
     SerializationUtil.copyBytes(in, out, bytesToCopy, buf);
 
     // Copy class information.
-    ClassRef.copySerialization(in, out, buf);
+    if (classes == null) {
+      ClassRef.copySerialization(in, out, buf);
+    } else {
+      out.write(classes.get(in.readInt()));
+    }
 
     // Copy the body.
     int numRefTypes = in.readInt();
@@ -1223,6 +1407,62 @@ public final class SerializedObject implements FastSerializable, Serializable {
    * @return the size of this serialized object, in bytes.
    */
   public int size() {
-    return objectData.length;
+    return dataLength();
+  }
+
+  /**
+   * @return true iff this object's data is held off the heap.
+   */
+  public boolean isOffHeap() {
+    return objectData == null;
+  }
+
+  /**
+   * Copies this object's data into the given buffer, and returns a
+   * SerializedObject that reads its data from there instead of from the heap.
+   * The buffer's remaining space must be at least {@link #size()} bytes; its
+   * position is advanced past the copied data.
+   * <p>
+   * The copy must not be modified with {@link #setRefs(List)}, which moves the
+   * data back onto the heap.
+   */
+  public SerializedObject copyTo(ByteBuffer buf) {
+    ByteBuffer data = buf.slice();
+    data.limit(size());
+    byte[] heapData = objectData;
+    if (heapData != null) {
+      data.put(heapData);
+    } else {
+      data.put(offHeapData.duplicate());
+    }
+    buf.position(buf.position() + data.position());
+    data.flip();
+
+    SerializedObject result =
+        new SerializedObject(new Header(getOnum()), null, data);
+    result.setVersion(getVersion());
+    result.classRef = classRef;
+    return result;
+  }
+
+  private SerializedObject(Header header, byte[] objectData,
+      ByteBuffer offHeapData) {
+    this.header = header;
+    this.objectData = objectData;
+    this.offHeapData = offHeapData;
+  }
+
+  /**
+   * Java serialization writes a heap copy of objects held off the heap.
+   */
+  private Object writeReplace() throws IOException {
+    if (objectData != null) return this;
+
+    byte[] data = new byte[size()];
+    offHeapData.duplicate().get(data);
+    SerializedObject result =
+        new SerializedObject(new Header(getOnum()), data, null);
+    result.setVersion(getVersion());
+    return result;
   }
 }
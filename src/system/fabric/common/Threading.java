@@ -2,15 +2,24 @@ package fabric.common;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import fabric.common.exceptions.InternalError;
@@ -21,40 +30,131 @@ import fabric.common.exceptions.InternalError;
  * @author mdgeorge
  */
 public class Threading {
-  private static ExecutorService pool = newCachedThreadPool();
+  private static volatile InstrumentedExecutor pool =
+      newThreadPool(Policy.CACHED, 0, 0);
 
   /**
-   * create an ExecutorService that creates threads on demand and caches them
-   * for one minute.
+   * Execution policies for the thread pool.
    */
-  private static ExecutorService newCachedThreadPool() {
-    return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
-        new SynchronousQueue<Runnable>(), new FabricThreadFactory()) {
-      @Override
-      protected void afterExecute(Runnable r, Throwable t) {
-        super.afterExecute(r, t);
-        if (t == null && r instanceof Future<?>) {
-          try {
-            ((Future<?>) r).get();
-          } catch (CancellationException ce) {
-            t = ce;
-          } catch (ExecutionException ee) {
-            t = ee.getCause();
-          } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt(); // ignore/reset
-          }
-        }
+  public static enum Policy {
+    /**
+     * Creates threads on demand, without limit, and caches them for one minute.
+     */
+    CACHED,
 
-        if (t != null) {
-          StringWriter sw = new StringWriter();
-          PrintWriter pw = new PrintWriter(sw);
-          t.printStackTrace(pw);
-          Logging.MISC_LOGGER.log(Level.SEVERE,
-              "Thread exited with exception " + t + " stack:\n" + sw.toString(),
-              t);
-        }
+    /**
+     * Runs at most a fixed number of threads and queues a bounded number of
+     * tasks. When the pool is full, messages offered through
+     * {@link InstrumentedExecutor#admit(Runnable)} are refused, and other tasks
+     * are run in the submitting thread.
+     */
+    BOUNDED,
+
+    /**
+     * Runs each task in a new virtual thread. Requires a JDK that supports
+     * virtual threads.
+     */
+    VIRTUAL;
+
+    /**
+     * Parses the value of the fabric.node.threadPool property.
+     */
+    public static Policy parse(String name) {
+      try {
+        return valueOf(name.trim().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new InternalError("Unknown thread pool policy: " + name);
       }
-    };
+    }
+  }
+
+  /**
+   * An ExecutorService that reports its load.
+   */
+  public static interface InstrumentedExecutor extends ExecutorService {
+    /**
+     * @return the policy this pool implements.
+     */
+    Policy policy();
+
+    /**
+     * @return the approximate number of threads running tasks.
+     */
+    int getActiveCount();
+
+    /**
+     * @return the number of tasks waiting for a thread.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return the number of tasks that could not be given to a pool thread,
+     *         whether they were refused or run in the submitting thread.
+     */
+    long getRejectedCount();
+
+    /**
+     * Runs the given task in the pool if the pool has room for it. Unlike
+     * {@link #execute(Runnable)}, this never runs the task in the calling
+     * thread.
+     *
+     * @throws RejectedExecutionException
+     *           if the pool is full.
+     */
+    void admit(Runnable task) throws RejectedExecutionException;
+  }
+
+  /**
+   * Replaces the thread pool with one that implements the execution policy in
+   * the given configuration. Tasks already submitted to the old pool are run to
+   * completion.
+   */
+  public static synchronized void configure(ConfigProperties config) {
+    Policy policy = Policy.parse(config.threadPool);
+    InstrumentedExecutor old = pool;
+    if (policy == Policy.CACHED && old.policy() == Policy.CACHED) return;
+
+    pool = newThreadPool(policy, config.threadPoolMaxThreads,
+        config.threadPoolQueueSize);
+    old.shutdown();
+
+    Logging.MISC_LOGGER.config("thread pool:         " + pool.policy()
+        .toString().toLowerCase()
+        + (pool.policy() == Policy.BOUNDED ? " (" + config.threadPoolMaxThreads
+            + " threads, queue " + config.threadPoolQueueSize + ")" : ""));
+  }
+
+  private static InstrumentedExecutor newThreadPool(Policy policy,
+      int maxThreads, int queueSize) {
+    switch (policy) {
+    case CACHED:
+      return new ThreadPool(Policy.CACHED, 0, Integer.MAX_VALUE,
+          new SynchronousQueue<Runnable>());
+
+    case BOUNDED:
+      if (maxThreads <= 0) throw new InternalError(
+          "Bounded thread pool must have a positive number of threads");
+      BlockingQueue<Runnable> queue = queueSize <= 0
+          ? new SynchronousQueue<Runnable>()
+          : new ArrayBlockingQueue<Runnable>(queueSize);
+      ThreadPool result =
+          new ThreadPool(Policy.BOUNDED, maxThreads, maxThreads, queue);
+      result.allowCoreThreadTimeOut(true);
+      return result;
+
+    case VIRTUAL:
+      try {
+        ExecutorService delegate = (ExecutorService) Executors.class
+            .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        return new VirtualThreadPool(delegate);
+      } catch (ReflectiveOperationException e) {
+        Logging.MISC_LOGGER.warning("Virtual threads are not supported by "
+            + "this JVM; using a cached thread pool instead");
+        return newThreadPool(Policy.CACHED, maxThreads, queueSize);
+      }
+    }
+
+    throw new InternalError("Unknown thread pool policy: " + policy);
   }
 
   /**
@@ -63,13 +163,202 @@ public class Threading {
    * @throws InternalError
    *           if the thread pool is not initialized.
    */
-  public static ExecutorService getPool() throws InternalError {
+  public static InstrumentedExecutor getPool() throws InternalError {
     if (Threading.pool == null)
       throw new InternalError("Threading not initialized");
 
     return Threading.pool;
   }
 
+  /**
+   * Logs the failure of a task run by the thread pool.
+   */
+  private static void logTaskFailure(Runnable r, Throwable t) {
+    if (t == null && r instanceof Future<?>) {
+      try {
+        ((Future<?>) r).get();
+      } catch (CancellationException ce) {
+        t = ce;
+      } catch (ExecutionException ee) {
+        t = ee.getCause();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt(); // ignore/reset
+      }
+    }
+
+    if (t != null) {
+      StringWriter sw = new StringWriter();
+      PrintWriter pw = new PrintWriter(sw);
+      t.printStackTrace(pw);
+      Logging.MISC_LOGGER.log(Level.SEVERE,
+          "Thread exited with exception " + t + " stack:\n" + sw.toString(),
+          t);
+    }
+  }
+
+  /**
+   * Marks a task submitted through admit(), so that the rejection policy
+   * refuses it instead of running it in the caller.
+   */
+  private static final class Admission implements Runnable {
+    private final Runnable task;
+
+    Admission(Runnable task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      task.run();
+    }
+  }
+
+  /**
+   * A ThreadPoolExecutor that implements the CACHED and BOUNDED policies.
+   */
+  private static final class ThreadPool extends ThreadPoolExecutor
+      implements InstrumentedExecutor {
+    private final Policy policy;
+    private final AtomicLong rejected = new AtomicLong();
+
+    ThreadPool(Policy policy, int coreThreads, int maxThreads,
+        BlockingQueue<Runnable> queue) {
+      super(coreThreads, maxThreads, 60L, TimeUnit.SECONDS, queue,
+          new FabricThreadFactory());
+      this.policy = policy;
+
+      setRejectedExecutionHandler(new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+          rejected.incrementAndGet();
+          if (r instanceof Admission || executor.isShutdown())
+            throw new RejectedExecutionException("Thread pool is full");
+
+          // Push back on the submitter by making it do the work.
+          r.run();
+        }
+      });
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+      super.afterExecute(r, t);
+      logTaskFailure(r, t);
+    }
+
+    @Override
+    public Policy policy() {
+      return policy;
+    }
+
+    @Override
+    public int getQueueDepth() {
+      return getQueue().size();
+    }
+
+    @Override
+    public long getRejectedCount() {
+      return rejected.get();
+    }
+
+    @Override
+    public void admit(Runnable task) {
+      execute(new Admission(task));
+    }
+  }
+
+  /**
+   * Implements the VIRTUAL policy by wrapping a JDK virtual-thread-per-task
+   * executor. Virtual threads are not FabricThreads, so the transaction
+   * manager falls back to its thread map for them.
+   */
+  private static final class VirtualThreadPool extends AbstractExecutorService
+      implements InstrumentedExecutor {
+    private final ExecutorService delegate;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+
+    VirtualThreadPool(ExecutorService delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+      try {
+        delegate.execute(new Runnable() {
+          @Override
+          public void run() {
+            active.incrementAndGet();
+            Throwable failure = null;
+            try {
+              command.run();
+            } catch (RuntimeException | Error e) {
+              failure = e;
+              throw e;
+            } finally {
+              active.decrementAndGet();
+              logTaskFailure(command, failure);
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        rejected.incrementAndGet();
+        throw e;
+      }
+    }
+
+    @Override
+    public Policy policy() {
+      return Policy.VIRTUAL;
+    }
+
+    @Override
+    public int getActiveCount() {
+      return active.get();
+    }
+
+    @Override
+    public int getQueueDepth() {
+      return 0;
+    }
+
+    @Override
+    public long getRejectedCount() {
+      return rejected.get();
+    }
+
+    @Override
+    public void admit(Runnable task) {
+      execute(task);
+    }
+
+    @Override
+    public void shutdown() {
+      delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+        throws InterruptedException {
+      return delegate.awaitTermination(timeout, unit);
+    }
+  }
+
   /**
    * A ThreadFactory that creates FabricThread.Impls for the thread pool.
    */
@@ -1,9 +1,25 @@
 package fabric.common;
 
 import java.io.PrintStream;
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
-/** A utility class for recording the timing of various categories. */
+/**
+ * A utility class for recording the timing of various categories.
+ * <p>
+ * Each thread has its own stack of categories, and time is attributed
+ * exclusively to the category at the top of the calling thread's stack. Each
+ * begin()/end() span is also recorded in a per-category histogram of span
+ * durations, with one bucket per power of two nanoseconds. Clocks are
+ * System.nanoTime(), and counters are kept per thread and summed when
+ * statistics are printed, so that threads do not contend.
+ * <p>
+ * A disabled category costs one field read per begin() and end(). Categories
+ * may be enabled and disabled while the worker is running, but spans that are
+ * open at the time may then be attributed to the wrong category.
+ */
 public enum Timing {
 
   APP, // application code
@@ -12,29 +28,165 @@ public enum Timing {
   TXLOG, // logging reads, writes, creates, etc
   SUBTX, // merging of logs and other subtx management
   FETCH, // fetching objects
-  STORE; // other communication with the store
+  STORE, // other communication with the store
+  PREPARE; // store-side prepare processing, including permission checks
 
-  /** The time attributed to this category so far */
-  private long time;
-  /** The number of additions used to generate time */
-  private int count;
   /** Whether or not to record time for this category */
-  public boolean enabled = false;
+  public volatile boolean enabled = false;
 
-  private static Stack<Timing> scope;
-  private static long stamp;
-  private static boolean debug = true;
+  /** The number of histogram buckets. Bucket i holds spans of < 2^i ns. */
+  private static final int BUCKETS = 64;
+
+  private static final Timing[] CATEGORIES = values();
+
+  /** The calling thread's scope. */
+  private static final ThreadLocal<Scope> scope = new ThreadLocal<Scope>() {
+    @Override
+    protected Scope initialValue() {
+      Scope result = new Scope(Thread.currentThread());
+      synchronized (scopes) {
+        retireDeadScopes();
+        scopes.add(result);
+      }
+      return result;
+    }
+  };
+
+  // The following are guarded by scopes.
+
+  /** The scopes of all threads that have used a category. */
+  private static final List<Scope> scopes = new ArrayList<>();
+
+  /** The statistics of threads that have died. */
+  private static final Stats retired = new Stats();
+
+  /** The statistics at the last reset, subtracted when printing. */
+  private static final Stats baseline = new Stats();
+
+  /**
+   * One thread's stack of categories and statistics. Only the owning thread
+   * modifies its scope; printStats() reads it without synchronization, so the
+   * statistics it prints may be slightly out of date.
+   */
+  private static final class Scope {
+    final Thread thread;
+    final Stats stats;
+
+    /** The stack of categories, and when each was begun. */
+    Timing[] stack;
+    long[] begun;
+    int depth;
+
+    /** When time was last attributed. */
+    long stamp;
+
+    Scope(Thread thread) {
+      this.thread = thread;
+      this.stats = new Stats();
+      this.stack = new Timing[8];
+      this.begun = new long[8];
+      this.stamp = System.nanoTime();
+      this.stack[0] = APP;
+      this.begun[0] = stamp;
+      this.depth = 1;
+    }
+
+    /** Attributes the time since the last stamp to the top category. */
+    void attribute(long now) {
+      int top = stack[depth - 1].ordinal();
+      stats.time[top] += now - stamp;
+      stats.count[top]++;
+      stamp = now;
+    }
+
+    void push(Timing t, long now) {
+      if (depth == stack.length) {
+        stack = Arrays.copyOf(stack, depth * 2);
+        begun = Arrays.copyOf(begun, depth * 2);
+      }
+      stack[depth] = t;
+      begun[depth] = now;
+      depth++;
+    }
+
+    /**
+     * Pops the stack down to and including the most recent occurrence of the
+     * given category, and records the span. Does nothing if the category is
+     * not on the stack, e.g., because it was enabled after it was begun.
+     */
+    void pop(Timing t, long now) {
+      for (int i = depth - 1; i > 0; i--) {
+        if (stack[i] == t) {
+          stats.record(t, now - begun[i]);
+          while (depth > i)
+            stack[--depth] = null;
+          return;
+        }
+      }
+    }
+  }
+
+  /** Statistics for each category. */
+  private static final class Stats {
+    /** The time attributed to each category so far, in ns */
+    final long[] time = new long[CATEGORIES.length];
+    /** The number of additions used to generate time */
+    final long[] count = new long[CATEGORIES.length];
+    /** Histograms of span durations. */
+    final long[][] spans = new long[CATEGORIES.length][BUCKETS];
+
+    void record(Timing t, long nanos) {
+      spans[t.ordinal()][BUCKETS - Long.numberOfLeadingZeros(nanos)]++;
+    }
+
+    void add(Stats other, int sign) {
+      for (int c = 0; c < CATEGORIES.length; c++) {
+        time[c] += sign * other.time[c];
+        count[c] += sign * other.count[c];
+        for (int b = 0; b < BUCKETS; b++)
+          spans[c][b] += sign * other.spans[c][b];
+      }
+    }
+
+    void clear() {
+      Arrays.fill(time, 0);
+      Arrays.fill(count, 0);
+      for (long[] histogram : spans)
+        Arrays.fill(histogram, 0);
+    }
+  }
 
   static {
     reset();
   }
 
-  private static void attribute() {
-    long now = System.currentTimeMillis();
-    Timing t = scope.peek();
-    t.time += now - stamp;
-    t.count++;
-    stamp = now;
+  /**
+   * Moves the statistics of threads that have died into retired. Must be called
+   * while holding the lock on scopes.
+   */
+  private static void retireDeadScopes() {
+    for (Iterator<Scope> it = scopes.iterator(); it.hasNext();) {
+      Scope s = it.next();
+      if (!s.thread.isAlive()) {
+        retired.add(s.stats, 1);
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * @return the statistics of all threads since the last reset.
+   */
+  private static Stats collect() {
+    Stats result = new Stats();
+    synchronized (scopes) {
+      retireDeadScopes();
+      for (Scope s : scopes)
+        result.add(s.stats, 1);
+      result.add(retired, 1);
+      result.add(baseline, -1);
+    }
+    return result;
   }
 
   // public interface //////////////////////////////////////////////////////////
@@ -42,8 +194,10 @@ public enum Timing {
   /** Begin recording time into the given category (exclusively) */
   public void begin() {
     if (enabled) {
-      attribute();
-      scope.push(this);
+      Scope s = scope.get();
+      long now = System.nanoTime();
+      s.attribute(now);
+      s.push(this, now);
     }
   }
 
@@ -53,8 +207,10 @@ public enum Timing {
    */
   public void end() {
     if (enabled) {
-      attribute();
-      if (scope.pop() != this && debug) throw new AssertionError();
+      Scope s = scope.get();
+      long now = System.nanoTime();
+      s.attribute(now);
+      s.pop(this, now);
     }
   }
 
@@ -68,46 +224,93 @@ public enum Timing {
    * OutputStream
    */
   public static void printStats(PrintStream out) {
-    attribute();
+    scope.get().attribute(System.nanoTime());
+    Stats stats = collect();
 
     long total = 0;
-    int count = 0;
-    for (Timing t : Timing.values()) {
-      total += t.time;
-      count += t.count;
+    long count = 0;
+    for (Timing t : CATEGORIES) {
+      total += stats.time[t.ordinal()];
+      count += stats.count[t.ordinal()];
     }
-    for (Timing t : Timing.values()) {
-      if (t.enabled)
-        out.format("%6s:  %6d ms\n", t.name().toLowerCase(), t.time);
+
+    out.format("%6s  %10s  %10s  %10s  %10s  %10s  %10s\n", "", "time (ms)",
+        "spans", "p50 (us)", "p90 (us)", "p99 (us)", "max (us)");
+    for (Timing t : CATEGORIES) {
+      if (!t.enabled) continue;
+
+      int c = t.ordinal();
+      long[] spans = stats.spans[c];
+      long n = 0;
+      for (long b : spans)
+        n += b;
+
+      out.format("%6s: %10.3f  %10d  %10s  %10s  %10s  %10s\n",
+          t.name().toLowerCase(), stats.time[c] / 1e6, n,
+          percentile(spans, n, 0.5), percentile(spans, n, 0.9),
+          percentile(spans, n, 0.99), percentile(spans, n, 1));
+    }
+    out.format(" Total: %10.3f ms (%d measurements)\n", total / 1e6, count);
+  }
+
+  /**
+   * @return an upper bound on the given percentile of a histogram, in
+   *         microseconds, or "-" if the histogram is empty.
+   */
+  private static String percentile(long[] spans, long n, double p) {
+    if (n == 0) return "-";
+
+    long rank = Math.max(1, (long) Math.ceil(p * n));
+    long seen = 0;
+    for (int b = 0; b < BUCKETS; b++) {
+      seen += spans[b];
+      if (seen >= rank) {
+        // Bucket b holds spans shorter than 2^b ns.
+        double bound = b == BUCKETS - 1 ? Long.MAX_VALUE : (double) (1L << b);
+        return String.format("< %.1f", bound / 1000);
+      }
     }
-    out.format(" Total: %7d ms (%-8d measurements)\n", total, count);
+    return "-";
   }
 
-  /** Reset all of the statistics, and begin timing in cat */
+  /**
+   * Reset all of the statistics, and begin timing the calling thread in APP.
+   */
   public static void reset() {
+    synchronized (scopes) {
+      Stats all = new Stats();
+      retireDeadScopes();
+      for (Scope s : scopes)
+        all.add(s.stats, 1);
+      all.add(retired, 1);
 
-    for (Timing t : values()) {
-      t.time = 0;
-      t.count = 0;
+      baseline.clear();
+      baseline.add(all, 1);
     }
 
-    scope = new Stack<>();
-    scope.push(APP);
-    APP.count = 1;
-    stamp = System.currentTimeMillis();
+    Scope s = scope.get();
+    while (s.depth > 1)
+      s.stack[--s.depth] = null;
+    s.stamp = System.nanoTime();
+    s.begun[0] = s.stamp;
   }
 
   // unit test ///////////////////////////////////////////////////////////////
 
   public static void main(String[] args) {
-    long begin = System.currentTimeMillis();
-    int n = 500000;
-    APP.enabled = true;
-    for (int i = 0; i < n; i++) {
-      APP.begin();
-      APP.end();
-    }
-    long end = System.currentTimeMillis();
-    System.out.println(((double) end - begin) / 2 / n);
+    int n = 5000000;
+    for (boolean enabled : new boolean[] { false, true }) {
+      APP.enabled = enabled;
+      TXLOG.enabled = enabled;
+      long begin = System.nanoTime();
+      for (int i = 0; i < n; i++) {
+        TXLOG.begin();
+        TXLOG.end();
+      }
+      long end = System.nanoTime();
+      System.out.println((enabled ? "enabled:  " : "disabled: ")
+          + ((double) end - begin) / 2 / n + " ns per call");
+    }
+    printStats();
   }
 }
@@ -10,6 +10,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.SocketChannel;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
@@ -27,23 +28,24 @@ import fabric.net.RemoteNode;
 /**
  * A channel manages a single socket, allowing it to be multiplexed across
  * multiple SubSockets.
+ * <p>
+ * The bytes on the socket are moved by a {@link Transport}. By default, each
+ * channel has a dedicated thread that blocks reading its socket. If
+ * <code>fabric.node.useNIO</code> is set and the socket is a plain TCP socket,
+ * the channel instead uses an {@link NioTransport}, which shares a small, fixed
+ * set of selector threads among all channels.
  *
  * @param <Node> the type of node at the remote endpoint.
  */
-abstract class Channel<Node extends RemoteNode<Node>> extends Thread {
+abstract class Channel<Node extends RemoteNode<Node>> {
   static final int DEFAULT_MAX_OPEN_CONNECTIONS = 0;
   private static final boolean USE_COMPRESSION = false;
-  private static final int BUF_SIZE = 64 * 1024;
+  static final int BUF_SIZE = 64 * 1024;
 
   /**
-   * Connects to the network.
+   * Moves frames between this channel and the network.
    */
-  private final OutputStream out;
-
-  /**
-   * Connects to the network.
-   */
-  private final DataInputStream in;
+  private final Transport transport;
 
   protected final Socket sock;
 
@@ -74,8 +76,6 @@ abstract class Channel<Node extends RemoteNode<Node>> extends Thread {
    */
   protected Channel(ConfigProperties config, ShakenSocket<Node> s,
       int maxOpenConnections) throws IOException {
-    setDaemon(true);
-
     if (maxOpenConnections < 0) {
       throw new IllegalArgumentException(
           "maxOpenConnections cannot be negative.");
@@ -84,30 +84,37 @@ abstract class Channel<Node extends RemoteNode<Node>> extends Thread {
     this.sock = s.sock;
     this.remoteIdentity = s.remoteIdentity;
 
-    OutputStream out = this.sock.getOutputStream();
-    InputStream in = this.sock.getInputStream();
+    this.connections = new HashMap<>();
+    this.maxOpenConnections = maxOpenConnections;
 
-    // Add inbound delay, if configured.
+    // Inbound delays and compression are implemented as stream decorators, so
+    // only undecorated plain sockets can be handed to the NIO transport.
     String remoteNodeName = s.remoteIdentity.node.name;
-    if (config.inDelays.containsKey(remoteNodeName)) {
-      short delay = config.inDelays.get(remoteNodeName);
-      if (delay > 0) {
-        in = new DelayedInputStream(remoteNodeName, in, delay);
+    boolean delayed = config.inDelays.containsKey(remoteNodeName)
+        && config.inDelays.get(remoteNodeName) > 0;
+    SocketChannel socketChannel = this.sock.getChannel();
+    if (config.useNIO && socketChannel != null && !delayed
+        && !USE_COMPRESSION) {
+      this.transport = new NioTransport(this, socketChannel, config.nioThreads,
+          config.nioDispatchThreads);
+    } else {
+      if (config.useNIO) {
+        Logging.log(NETWORK_CHANNEL_LOGGER, Level.FINE,
+            "using a blocking transport for {0}: socket does not support NIO",
+            remoteNodeName);
       }
+      this.transport = new StreamTransport(config, s);
     }
 
-    if (USE_COMPRESSION) {
-      out = new GZIPOutputStream(out, true);
-      in = new GZIPInputStream(in);
-    }
-
-    this.out = out;
-    this.in = new DataInputStream(new BufferedInputStream(in, BUF_SIZE));
-
-    this.connections = new HashMap<>();
-    this.maxOpenConnections = maxOpenConnections;
+    transport.start();
+  }
 
-    start();
+  /**
+   * Names the transport's resources (e.g., its reader thread) after this
+   * channel.
+   */
+  protected final void setName(String name) {
+    transport.setName(name);
   }
 
   @Override
@@ -121,13 +128,10 @@ abstract class Channel<Node extends RemoteNode<Node>> extends Thread {
 
   /** send subsocket close message */
   private void sendClose(int streamID) throws IOException {
-    synchronized (out) {
-      byte[] buf = new byte[8];
-      SerializationUtil.setIntAt(buf, 0, streamID);
-      SerializationUtil.setIntAt(buf, 4, 0);
-      out.write(buf);
-      out.flush();
-    }
+    byte[] buf = new byte[8];
+    SerializationUtil.setIntAt(buf, 0, streamID);
+    SerializationUtil.setIntAt(buf, 4, 0);
+    transport.write(buf, 0, buf.length, true);
   }
 
   /** send data */
@@ -136,14 +140,11 @@ abstract class Channel<Node extends RemoteNode<Node>> extends Thread {
     Logging.log(NETWORK_CHANNEL_LOGGER, Level.FINE,
         "sending {0} bytes of data on {1}", len, this);
 
-    synchronized (out) {
-      out.write(data, offset, len);
-      if (flush) out.flush();
-    }
+    transport.write(data, offset, len, flush);
   }
 
   /** called on receipt of a channel close message */
-  private void recvClose() {
+  void recvClose() {
     NETWORK_CHANNEL_LOGGER.log(Level.INFO,
         "cleaning up {0} after channel close", this);
 
@@ -157,13 +158,16 @@ abstract class Channel<Node extends RemoteNode<Node>> extends Thread {
   }
 
   /** called on receipt of subsocket close message */
-  private void recvClose(int streamID) throws IOException {
+  void recvClose(int streamID) throws IOException {
     Connection listener = getReceiver(streamID);
     listener.receiveClose();
   }
 
-  /** called on receipt of data message */
-  private void recvData(int streamID, byte[] data) throws IOException {
+  /**
+   * Called on receipt of data message. The caller should not modify the buffer
+   * after calling this method.
+   */
+  void recvData(int streamID, byte[] data) throws IOException {
     Connection listener = getReceiver(streamID);
     listener.receiveData(data);
   }
@@ -183,40 +187,118 @@ abstract class Channel<Node extends RemoteNode<Node>> extends Thread {
   }
 
   /**
-   * Reads data from the input stream and dispatches it to the appropriate
-   * reader.
+   * Moves frames between a channel and its socket. Outgoing data is handed to
+   * {@link #write}, already framed according to the channel protocol. Incoming
+   * frames are dispatched to the channel's recvData and recvClose methods.
    */
-  @Override
-  public void run() {
-    try {
-      while (true) {
-        int streamID = in.readInt();
-        int len = in.readInt();
-
-        if (len == 0) {
-          recvClose(streamID);
-          continue;
+  interface Transport {
+    /**
+     * Begins receiving frames from the network.
+     */
+    void start();
+
+    /**
+     * Sends framed data.
+     *
+     * @param flush whether the data should be pushed to the network now. If
+     *          false, the transport may hold on to it until a later flush.
+     */
+    void write(byte[] data, int offset, int len, boolean flush)
+        throws IOException;
+
+    /**
+     * Names the transport's resources after the channel.
+     */
+    void setName(String name);
+  }
+
+  /**
+   * The blocking transport: a dedicated thread reads the socket's input stream
+   * and dispatches to the channel, and senders write directly to the socket's
+   * output stream.
+   */
+  private final class StreamTransport extends Thread implements Transport {
+    /**
+     * Connects to the network.
+     */
+    private final OutputStream out;
+
+    /**
+     * Connects to the network.
+     */
+    private final DataInputStream in;
+
+    StreamTransport(ConfigProperties config, ShakenSocket<Node> s)
+        throws IOException {
+      super("demultiplexer");
+      setDaemon(true);
+
+      OutputStream out = s.sock.getOutputStream();
+      InputStream in = s.sock.getInputStream();
+
+      // Add inbound delay, if configured.
+      String remoteNodeName = s.remoteIdentity.node.name;
+      if (config.inDelays.containsKey(remoteNodeName)) {
+        short delay = config.inDelays.get(remoteNodeName);
+        if (delay > 0) {
+          in = new DelayedInputStream(remoteNodeName, in, delay);
         }
+      }
 
-        byte[] buf = new byte[len];
-        in.readFully(buf);
+      if (USE_COMPRESSION) {
+        out = new GZIPOutputStream(out, true);
+        in = new GZIPInputStream(in);
+      }
 
-        Logging.log(NETWORK_CHANNEL_LOGGER, Level.FINE,
-            "received {0} bytes on {1}", len, this);
+      this.out = out;
+      this.in = new DataInputStream(new BufferedInputStream(in, BUF_SIZE));
+    }
 
-        recvData(streamID, buf);
+    @Override
+    public void write(byte[] data, int offset, int len, boolean flush)
+        throws IOException {
+      synchronized (out) {
+        out.write(data, offset, len);
+        if (flush) out.flush();
       }
-    } catch (final EOFException exc) {
-      recvClose();
-    } catch (final SocketException e) {
-      if ("Connection reset".equalsIgnoreCase(e.getMessage())) {
-        NETWORK_CHANNEL_LOGGER.log(Level.FINE, "Connection reset", e);
+    }
+
+    /**
+     * Reads data from the input stream and dispatches it to the appropriate
+     * reader.
+     */
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          int streamID = in.readInt();
+          int len = in.readInt();
+
+          if (len == 0) {
+            recvClose(streamID);
+            continue;
+          }
+
+          byte[] buf = new byte[len];
+          in.readFully(buf);
+
+          Logging.log(NETWORK_CHANNEL_LOGGER, Level.FINE,
+              "received {0} bytes on {1}", len, Channel.this);
+
+          recvData(streamID, buf);
+        }
+      } catch (final EOFException exc) {
         recvClose();
-      } else {
-        throw new NotImplementedException(e);
+      } catch (final SocketException e) {
+        if ("Connection reset".equalsIgnoreCase(e.getMessage())) {
+          NETWORK_CHANNEL_LOGGER.log(Level.FINE, "Connection reset", e);
+          recvClose();
+        } else {
+          throw new NotImplementedException(e);
+        }
+      } catch (final IOException exc) {
+        throw new NotImplementedException(exc);
       }
-    } catch (final IOException exc) {
-      throw new NotImplementedException(exc);
     }
   }
 
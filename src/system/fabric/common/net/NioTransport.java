@@ -0,0 +1,585 @@
+package fabric.common.net;
+
+import static fabric.common.Logging.NETWORK_CHANNEL_LOGGER;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import fabric.common.Logging;
+import fabric.common.exceptions.InternalError;
+
+/**
+ * A {@link Channel.Transport} built on a non-blocking SocketChannel. Channels
+ * are spread over a fixed set of {@link SelectorThread}s, so the number of
+ * threads does not grow with the number of connected nodes.
+ * <p>
+ * Incoming bytes are read into a per-channel direct buffer and split into
+ * <code>ID length data[len]</code> frames, which are queued and dispatched to
+ * the channel, in order, by a task on a dispatcher thread. Dispatching a frame
+ * can block (e.g., when accepting a connection while the connection limit is
+ * reached), so it is never done on the selector thread; instead, the selector
+ * thread stops reading from a channel once MAX_INBOUND_BYTES are waiting to be
+ * dispatched, and resumes once the dispatcher catches up.
+ * <p>
+ * Outgoing frames are copied into pooled direct buffers and queued; each flush
+ * sends everything queued with one gathering write. If the socket cannot take
+ * all the data, the rest is written by the selector thread when the socket
+ * becomes writable, and senders block once MAX_QUEUED_BYTES are waiting.
+ */
+final class NioTransport implements Channel.Transport {
+  /**
+   * The size of the per-channel read buffer and of pooled write buffers. A
+   * MuxedOutputStream never produces a frame larger than this.
+   */
+  private static final int BUF_SIZE = Channel.BUF_SIZE;
+
+  /**
+   * Size of a frame header: stream ID and payload length.
+   */
+  private static final int HEADER_SIZE = 8;
+
+  /**
+   * The number of queued outgoing bytes beyond which unflushed data is sent
+   * anyway, and beyond which senders block.
+   */
+  private static final int FLUSH_THRESHOLD = 4 * BUF_SIZE;
+  private static final int MAX_QUEUED_BYTES = 64 * BUF_SIZE;
+
+  /**
+   * The maximum number of idle write buffers kept for reuse.
+   */
+  private static final int MAX_POOLED_BUFFERS = 256;
+  private static final Queue<ByteBuffer> bufferPool =
+      new ConcurrentLinkedQueue<>();
+
+  /**
+   * The number of received bytes waiting to be dispatched beyond which the
+   * selector thread stops reading from the socket. Reading resumes once half
+   * of them have been dispatched.
+   */
+  private static final int MAX_INBOUND_BYTES = 64 * BUF_SIZE;
+
+  /**
+   * The largest frame a peer may send. A MuxedOutputStream never produces a
+   * frame larger than BUF_SIZE; anything larger is a corrupt stream.
+   */
+  private static final int MAX_FRAME = BUF_SIZE;
+
+  /**
+   * Runs the dispatch tasks of all transports on a fixed set of threads. Each
+   * transport has at most one task queued or running at a time, so the queue
+   * is bounded by the number of channels. A channel whose frames wait for a
+   * free thread is paused by MAX_INBOUND_BYTES like any slow channel.
+   */
+  private static ExecutorService dispatcher;
+
+  private static SelectorThread[] selectorThreads;
+  private static int nextSelectorThread;
+
+  private final Channel<?> channel;
+  private final SocketChannel socket;
+  private final SelectorThread selectorThread;
+  private volatile String name;
+
+  /**
+   * The selection key for the socket. Only modified by the selector thread.
+   */
+  private volatile SelectionKey key;
+
+  // Inbound state. Only accessed by the selector thread.
+
+  private final ByteBuffer readBuf;
+
+  /**
+   * The payload of the frame currently being received, or null if the next
+   * bytes are a frame header.
+   */
+  private byte[] frameData;
+  private int frameStreamID;
+  private int frameFilled;
+
+  // Inbound dispatch state. Guarded by inbound.
+
+  /**
+   * Received frames waiting to be dispatched to the channel, in order.
+   */
+  private final ArrayDeque<Frame> inbound;
+  private int inboundBytes;
+
+  /**
+   * Whether a dispatch task has been submitted and has not yet emptied
+   * inbound.
+   */
+  private boolean dispatching;
+
+  /**
+   * Whether the selector thread has stopped reading because too much received
+   * data is waiting to be dispatched.
+   */
+  private boolean readPaused;
+
+  private final Runnable dispatchTask = new Runnable() {
+    @Override
+    public void run() {
+      dispatch();
+    }
+  };
+
+  private final Runnable updateInterestTask = new Runnable() {
+    @Override
+    public void run() {
+      updateInterest();
+    }
+  };
+
+  // Outbound state. Guarded by outbound.
+
+  /**
+   * Framed data waiting to be written, in order.
+   */
+  private final ArrayDeque<ByteBuffer> outbound;
+  private int queuedBytes;
+  private int unflushedBytes;
+
+  /**
+   * Whether the selector thread is waiting for the socket to become writable
+   * in order to drain outbound. While this is set, senders only queue data.
+   */
+  private boolean awaitingWritable;
+
+  private boolean closed;
+
+  NioTransport(Channel<?> channel, SocketChannel socket, int numThreads,
+      int numDispatchThreads) throws IOException {
+    this.channel = channel;
+    this.socket = socket;
+    this.selectorThread = nextSelectorThread(numThreads, numDispatchThreads);
+    this.name = "NIO transport";
+
+    this.readBuf = ByteBuffer.allocateDirect(BUF_SIZE);
+    this.inbound = new ArrayDeque<>();
+    this.outbound = new ArrayDeque<>();
+
+    socket.configureBlocking(false);
+  }
+
+  /**
+   * Returns the selector thread for the next channel, starting the selector
+   * and dispatcher threads if necessary.
+   */
+  private static synchronized SelectorThread nextSelectorThread(int numThreads,
+      int numDispatchThreads) throws IOException {
+    if (selectorThreads == null) {
+      dispatcher = Executors.newFixedThreadPool(Math.max(1,
+          numDispatchThreads), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread result =
+                  new Thread(r, "NIO dispatcher " + count.incrementAndGet());
+              result.setDaemon(true);
+              return result;
+            }
+          });
+
+      selectorThreads = new SelectorThread[Math.max(1, numThreads)];
+      for (int i = 0; i < selectorThreads.length; i++) {
+        selectorThreads[i] = new SelectorThread("NIO selector " + (i + 1));
+        selectorThreads[i].start();
+      }
+    }
+
+    SelectorThread result = selectorThreads[nextSelectorThread];
+    nextSelectorThread = (nextSelectorThread + 1) % selectorThreads.length;
+    return result;
+  }
+
+  private static ByteBuffer acquireBuffer(int size) {
+    if (size > BUF_SIZE) return ByteBuffer.allocateDirect(size);
+
+    ByteBuffer result = bufferPool.poll();
+    if (result == null) return ByteBuffer.allocateDirect(BUF_SIZE);
+    result.clear();
+    return result;
+  }
+
+  private static void releaseBuffer(ByteBuffer buf) {
+    if (buf.capacity() == BUF_SIZE && bufferPool.size() < MAX_POOLED_BUFFERS)
+      bufferPool.offer(buf);
+  }
+
+  @Override
+  public void start() {
+    selectorThread.execute(this, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          key = socket.register(selectorThread.selector, SelectionKey.OP_READ,
+              NioTransport.this);
+          updateInterest();
+        } catch (ClosedChannelException e) {
+          fail(e);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public void write(byte[] data, int offset, int len, boolean flush)
+      throws IOException {
+    ByteBuffer buf = acquireBuffer(len);
+    buf.put(data, offset, len);
+    buf.flip();
+
+    synchronized (outbound) {
+      while (!closed && queuedBytes >= MAX_QUEUED_BYTES) {
+        try {
+          outbound.wait();
+        } catch (InterruptedException e) {
+          Logging.logIgnoredInterruptedException(e);
+        }
+      }
+
+      if (closed) {
+        releaseBuffer(buf);
+        throw new IOException("channel closed: " + name);
+      }
+
+      outbound.addLast(buf);
+      queuedBytes += len;
+      unflushedBytes += len;
+
+      if (awaitingWritable) return;
+      if (!flush && unflushedBytes < FLUSH_THRESHOLD) return;
+
+      // Write from the sender's thread. This avoids a round trip through the
+      // selector thread when the socket has room.
+      drainOutbound();
+      if (!outbound.isEmpty()) {
+        awaitingWritable = true;
+        selectorThread.execute(this, updateInterestTask);
+      }
+    }
+  }
+
+  /**
+   * Writes as much of outbound as the socket will take, using gathering
+   * writes. Must be called with the outbound lock held.
+   */
+  private void drainOutbound() throws IOException {
+    unflushedBytes = 0;
+    while (!outbound.isEmpty()) {
+      ByteBuffer[] bufs = outbound.toArray(new ByteBuffer[outbound.size()]);
+      long written = socket.write(bufs);
+
+      while (!outbound.isEmpty() && !outbound.peekFirst().hasRemaining()) {
+        releaseBuffer(outbound.pollFirst());
+      }
+
+      queuedBytes -= (int) written;
+      if (written == 0) break;
+    }
+
+    outbound.notifyAll();
+  }
+
+  /**
+   * Called by the selector thread when the socket is readable. Reads what is
+   * available and queues each complete frame for dispatch to the channel.
+   */
+  private void handleRead() throws IOException {
+    int n = socket.read(readBuf);
+    if (n < 0) {
+      if (close()) receive(Frame.CHANNEL_CLOSE);
+      return;
+    }
+
+    readBuf.flip();
+    while (true) {
+      if (frameData == null) {
+        if (readBuf.remaining() < HEADER_SIZE) break;
+
+        int streamID = readBuf.getInt();
+        int len = readBuf.getInt();
+        if (len < 0 || len > MAX_FRAME) {
+          fail(new IOException("bad frame length " + len + " from " + name));
+          return;
+        }
+
+        if (len == 0) {
+          receive(new Frame(streamID, null));
+          continue;
+        }
+
+        frameStreamID = streamID;
+        frameData = new byte[len];
+        frameFilled = 0;
+      }
+
+      int amt = Math.min(readBuf.remaining(), frameData.length - frameFilled);
+      readBuf.get(frameData, frameFilled, amt);
+      frameFilled += amt;
+      if (frameFilled < frameData.length) break;
+
+      byte[] data = frameData;
+      frameData = null;
+
+      Logging.log(NETWORK_CHANNEL_LOGGER, Level.FINE,
+          "received {0} bytes on {1}", data.length, channel);
+
+      receive(new Frame(frameStreamID, data));
+    }
+    readBuf.compact();
+  }
+
+  /**
+   * Queues a received frame for dispatch to the channel, submitting a dispatch
+   * task if none is running. Stops reading from the socket if too much data is
+   * waiting. Called by the selector thread, or by the dispatcher when the
+   * channel fails.
+   */
+  private void receive(Frame frame) {
+    boolean pause = false;
+    synchronized (inbound) {
+      inbound.addLast(frame);
+      if (frame.data != null) {
+        inboundBytes += frame.data.length;
+        if (!readPaused && inboundBytes > MAX_INBOUND_BYTES) {
+          readPaused = true;
+          pause = true;
+        }
+      }
+
+      if (!dispatching) {
+        dispatching = true;
+        dispatcher.execute(dispatchTask);
+      }
+    }
+
+    if (pause) updateInterest();
+  }
+
+  /**
+   * Dispatches queued frames to the channel until none are left. Runs on a
+   * dispatcher thread, and may block.
+   */
+  private void dispatch() {
+    while (true) {
+      Frame frame;
+      boolean resume = false;
+      synchronized (inbound) {
+        frame = inbound.pollFirst();
+        if (frame == null) {
+          dispatching = false;
+          return;
+        }
+
+        if (frame.data != null) inboundBytes -= frame.data.length;
+        if (readPaused && inboundBytes <= MAX_INBOUND_BYTES / 2) {
+          readPaused = false;
+          resume = true;
+        }
+      }
+
+      if (resume) selectorThread.execute(this, updateInterestTask);
+
+      try {
+        if (frame == Frame.CHANNEL_CLOSE) {
+          channel.recvClose();
+        } else if (frame.data == null) {
+          channel.recvClose(frame.streamID);
+        } else {
+          channel.recvData(frame.streamID, frame.data);
+        }
+      } catch (IOException e) {
+        fail(e);
+      } catch (RuntimeException e) {
+        fail(new IOException(e));
+      }
+    }
+  }
+
+  /**
+   * Sets the key's interest set according to whether reading is paused and
+   * whether outbound data is waiting for the socket to become writable. Called
+   * by the selector thread.
+   */
+  private void updateInterest() {
+    SelectionKey key = this.key;
+    if (key == null || !key.isValid()) return;
+
+    int ops = 0;
+    synchronized (inbound) {
+      if (!readPaused) ops |= SelectionKey.OP_READ;
+    }
+    synchronized (outbound) {
+      if (awaitingWritable) ops |= SelectionKey.OP_WRITE;
+    }
+    key.interestOps(ops);
+  }
+
+  /**
+   * Called by the selector thread when the socket is writable.
+   */
+  private void handleWrite() throws IOException {
+    synchronized (outbound) {
+      drainOutbound();
+      if (!outbound.isEmpty()) return;
+      awaitingWritable = false;
+    }
+    updateInterest();
+  }
+
+  /**
+   * Handles a failure of the underlying socket, of a dispatched frame, or of
+   * a selector task.
+   */
+  private void fail(IOException e) {
+    Logging.log(NETWORK_CHANNEL_LOGGER, Level.FINE, "{0} failed: {1}", name,
+        e);
+    if (close()) receive(Frame.CHANNEL_CLOSE);
+  }
+
+  /**
+   * Closes the socket and fails any blocked senders.
+   *
+   * @return true iff this call closed the transport.
+   */
+  private boolean close() {
+    synchronized (outbound) {
+      if (closed) return false;
+      closed = true;
+      for (ByteBuffer buf : outbound) {
+        releaseBuffer(buf);
+      }
+      outbound.clear();
+      queuedBytes = 0;
+      outbound.notifyAll();
+    }
+
+    SelectionKey key = this.key;
+    if (key != null) key.cancel();
+    try {
+      socket.close();
+    } catch (IOException e) {
+      Logging.log(NETWORK_CHANNEL_LOGGER, Level.FINE,
+          "error closing {0}: {1}", name, e);
+    }
+
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /**
+   * A received frame. A frame with null data closes its stream.
+   */
+  private static final class Frame {
+    /**
+     * Marks the end of the channel, after its remaining frames.
+     */
+    static final Frame CHANNEL_CLOSE = new Frame(0, null);
+
+    final int streamID;
+    final byte[] data;
+
+    Frame(int streamID, byte[] data) {
+      this.streamID = streamID;
+      this.data = data;
+    }
+  }
+
+  /**
+   * A thread running a Selector loop on behalf of a set of NioTransports.
+   */
+  private static final class SelectorThread extends Thread {
+    private final Selector selector;
+
+    /**
+     * Tasks that must run on this thread, such as registering a socket or
+     * changing a key's interest set, with the transports they are for.
+     */
+    private final Queue<Task> tasks;
+
+    SelectorThread(String name) throws IOException {
+      super(name);
+      setDaemon(true);
+      this.selector = Selector.open();
+      this.tasks = new ConcurrentLinkedQueue<>();
+    }
+
+    void execute(NioTransport transport, Runnable task) {
+      tasks.add(new Task(transport, task));
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          selector.select();
+        } catch (IOException e) {
+          throw new InternalError("NIO selector failed", e);
+        }
+
+        // A failure only takes down the transport it belongs to.
+        Task task;
+        while ((task = tasks.poll()) != null) {
+          try {
+            task.task.run();
+          } catch (RuntimeException e) {
+            task.transport.fail(new IOException(e));
+          }
+        }
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+
+          NioTransport transport = (NioTransport) key.attachment();
+          try {
+            if (key.isValid() && key.isReadable()) transport.handleRead();
+            if (key.isValid() && key.isWritable()) transport.handleWrite();
+          } catch (IOException e) {
+            transport.fail(e);
+          } catch (RuntimeException e) {
+            transport.fail(new IOException(e));
+          }
+        }
+      }
+    }
+
+    private static final class Task {
+      final NioTransport transport;
+      final Runnable task;
+
+      Task(NioTransport transport, Runnable task) {
+        this.transport = transport;
+        this.task = task;
+      }
+    }
+  }
+}
@@ -10,6 +10,7 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -247,7 +248,10 @@ public class SubServerSocketFactory {
      */
     @Override
     public void run() {
-      try (ServerSocket sock = new ServerSocket()) {
+      // With NIO, accepted sockets must be backed by SocketChannels so that
+      // their channels can switch to the NIO transport after the handshake.
+      try (ServerSocket sock = config.useNIO
+          ? ServerSocketChannel.open().socket() : new ServerSocket()) {
         sock.setReuseAddress(true);
         sock.bind(new InetSocketAddress(
               InetAddress.getByAddress(new byte[] { 0, 0, 0, 0 }),
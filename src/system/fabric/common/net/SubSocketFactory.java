@@ -4,7 +4,9 @@ import static fabric.common.Logging.NETWORK_CONNECTION_LOGGER;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -99,8 +101,15 @@ public final class SubSocketFactory<Node extends RemoteNode<Node>> {
 
         NETWORK_CONNECTION_LOGGER.log(Level.INFO, connect_info);
 
-        Socket s =
-            new Socket(InetAddress.getByName("localhost"), addr.getPort());
+        Socket s;
+        if (config.useNIO) {
+          // Back the socket with a SocketChannel so that the channel can
+          // switch to the NIO transport after the handshake.
+          s = SocketChannel.open(new InetSocketAddress(
+              InetAddress.getByName("localhost"), addr.getPort())).socket();
+        } else {
+          s = new Socket(InetAddress.getByName("localhost"), addr.getPort());
+        }
         s.setSoLinger(false, 0);
         s.setTcpNoDelay(true);
 
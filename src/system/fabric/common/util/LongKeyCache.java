@@ -9,20 +9,35 @@ import fabric.common.Logging;
  * A map that has soft references to its values and supports concurrent
  * accesses. When a value in the map is garbage collected by the JVM, its
  * corresponding key is removed from the map. Null values are not supported.
+ * <p>
+ * A cache can also be created with strong references to its values, for
+ * callers that manage eviction themselves.
  */
 public class LongKeyCache<V> {
 
   // The underlying map.
   private final ConcurrentLongKeyMap<ValueSoftRef<V>> map;
 
+  /**
+   * Whether values are held strongly, and so are never collected.
+   */
+  private final boolean strong;
+
   private static final class ValueSoftRef<V> extends SoftReference<V> {
     final long key;
     final LongKeyCache<V> cache;
 
+    /**
+     * The value, if the cache holds its values strongly; otherwise, null.
+     */
+    @SuppressWarnings("unused")
+    private final V strongValue;
+
     public ValueSoftRef(LongKeyCache<V> cache, long key, V value) {
       super(value, queue);
       this.key = key;
       this.cache = cache;
+      this.strongValue = cache.strong ? value : null;
     }
   }
 
@@ -33,7 +48,17 @@ public class LongKeyCache<V> {
   }
 
   public LongKeyCache() {
+    this(false);
+  }
+
+  /**
+   * @param strong
+   *          whether to hold values strongly. If so, values are only removed
+   *          explicitly.
+   */
+  public LongKeyCache(boolean strong) {
     this.map = new ConcurrentLongKeyHashMap<>();
+    this.strong = strong;
   }
 
   public void clear() {
@@ -301,6 +301,14 @@ public abstract class AbstractGlob<Payload extends FastSerializable>
     return timestamp;
   }
 
+  /**
+   * @return the size of this glob's encrypted data, initialization vector, and
+   *         signature, in bytes.
+   */
+  public int size() {
+    return data.length + signature.length + (iv == null ? 0 : iv.length);
+  }
+
   /**
    * Updates the worker and dissemination caches with this glob. If the caches
    * do not have entries for this glob, then nothing is changed.
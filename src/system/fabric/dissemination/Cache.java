@@ -7,7 +7,11 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import fabric.common.Logging;
@@ -24,16 +28,43 @@ import fabric.worker.Worker;
  * The cache object used by the disseminator to store globs. Essentially a
  * hashtable specialized for globs; it also fetches globs directly from stores
  * when needed.
+ * <p>
+ * The cache is bounded by the total size of the globs it holds. Each entry
+ * keeps a popularity count of the requests it has served, which is halved at
+ * every replication interval (see {@link #decay()}). When the cache is full,
+ * the least popular entries are evicted. The same counts determine how widely
+ * each glob is replicated (see {@link #assignLevels(int)}).
  */
 public class Cache {
+  /**
+   * The replication level of entries that should not be replicated to other
+   * nodes.
+   */
+  public static final int UNREPLICATED = Integer.MAX_VALUE;
+
   public static class Entry {
     public final ObjectGlob objectGlob;
 
-    private int level;
-    private int frequency;
+    /**
+     * The size of the glob, in bytes.
+     */
+    private final int size;
+
+    private volatile int level;
+
+    /**
+     * The number of requests served from this entry, halved at every
+     * replication interval. Guarded by this.
+     */
+    private int popularity;
 
     private Entry(ObjectGlob glob) {
       this.objectGlob = glob;
+      this.size = glob.size();
+      this.level = UNREPLICATED;
+      // Count the request that brought the glob here, so that new entries are
+      // not the first to be evicted.
+      this.popularity = 1;
     }
 
     public boolean isOlderThan(ObjectGlob g) {
@@ -41,29 +72,66 @@ public class Cache {
     }
 
     /**
-     * @param g
-     * @return
+     * @return a new entry for the given glob, with this entry's replication
+     *         level and popularity.
      */
     public Entry update(ObjectGlob g) {
       Entry result = new Entry(g);
       result.level = this.level;
-      result.frequency = this.frequency;
+      result.popularity = popularity();
       return result;
     }
 
+    /**
+     * @return the level at which this entry should be replicated. Lower levels
+     *         are replicated to more nodes. {@link Cache#UNREPLICATED} if the
+     *         entry should not be replicated.
+     */
     public int level() {
       return level;
     }
 
-    public void touch() {
-      frequency++;
+    /**
+     * Records a request served from this entry.
+     */
+    public synchronized void touch() {
+      if (popularity < Integer.MAX_VALUE) popularity++;
+    }
+
+    synchronized int popularity() {
+      return popularity;
+    }
+
+    private synchronized void decay() {
+      popularity >>= 1;
     }
   }
 
   /**
    * Cache of globs, indexed by the oid of the glob's head object.
    */
-  private final fabric.common.util.Cache<Pair<RemoteStore, Long>, Entry> map;
+  private final ConcurrentMap<Pair<RemoteStore, Long>, Entry> map;
+
+  /**
+   * The maximum total size of the cached globs, in bytes.
+   */
+  private final long capacity;
+
+  /**
+   * The total size of the cached globs, in bytes. A glob that is cached under
+   * several oids is counted once for each.
+   */
+  private final AtomicLong bytes;
+
+  /**
+   * Held while evicting entries, so that only one thread evicts at a time.
+   */
+  private final Object evictionMutex;
+
+  // Statistics since the last call to resetStats().
+  private final AtomicLong hits;
+  private final AtomicLong misses;
+  private final AtomicLong evictions;
 
   /**
    * The set of fetch locks. Used to prevent threads from concurrently
@@ -76,13 +144,25 @@ public class Cache {
     private Entry result = null;
   }
 
-  public Cache() {
-    this.map = new fabric.common.util.Cache<>();
+  /**
+   * @param capacity
+   *          the maximum total size of the cached globs, in bytes.
+   */
+  public Cache(long capacity) {
+    this.map = new ConcurrentHashMap<>();
+    this.capacity = capacity;
+    this.bytes = new AtomicLong();
+    this.evictionMutex = new Object();
+    this.hits = new AtomicLong();
+    this.misses = new AtomicLong();
+    this.evictions = new AtomicLong();
     this.fetchLocks = new OidKeyHashMap<>();
   }
 
   /**
    * Retrieves a glob from the cache, without trying to fetch it from the store.
+   * The lookup is not counted in the cache's hit ratio; callers that serve the
+   * glob should record the outcome with {@link #recordLookup(boolean)}.
    *
    * @param store
    *          the store of the object to retrieve.
@@ -91,7 +171,17 @@ public class Cache {
    * @return the glob, if it is in the cache; null otherwise.
    */
   public Entry get(RemoteStore store, long onum) {
-    return get(store, onum, false);
+    return map.get(new Pair<>(store, onum));
+  }
+
+  /**
+   * Counts a lookup made to serve a glob in the cache's hit ratio.
+   *
+   * @param hit
+   *          whether the glob was found in the cache.
+   */
+  public void recordLookup(boolean hit) {
+    (hit ? hits : misses).incrementAndGet();
   }
 
   /**
@@ -103,15 +193,19 @@ public class Cache {
    *          the onum of the object.
    * @param fetch
    *          whether the glob should be should fetched from store in the event
-   *          of a cache miss.
+   *          of a cache miss. If so, the lookup is counted in the cache's hit
+   *          ratio.
    * @return the glob, or null if fetch is false and glob does not exists in
    *         cache.
    */
   public Entry get(RemoteStore store, long onum, boolean fetch) {
+    if (!fetch) return get(store, onum);
+
     Pair<RemoteStore, Long> key = new Pair<>(store, onum);
 
     Entry entry = map.get(key);
-    if (entry != null || !fetch) return entry;
+    recordLookup(entry != null);
+    if (entry != null) return entry;
 
     // Need to fetch. Check the object table in case some other thread fetched
     // the object while we weren't looking. Use fetchLocks as a mutex to
@@ -205,11 +299,8 @@ public class Cache {
    */
   private Entry put(Pair<RemoteStore, Long> oid, ObjectGlob g,
       boolean replaceOnly) {
-    RemoteStore store = oid.first;
-    long onum = oid.second;
-
     while (true) {
-      Entry currentEntry = get(store, onum);
+      Entry currentEntry = map.get(oid);
 
       if (currentEntry == null) {
         // No existing entry.
@@ -217,7 +308,11 @@ public class Cache {
 
         // Add a new entry.
         Entry newEntry = new Entry(g);
-        if (map.putIfAbsent(oid, newEntry) == null) return newEntry;
+        if (map.putIfAbsent(oid, newEntry) == null) {
+          bytes.addAndGet(newEntry.size);
+          evict();
+          return newEntry;
+        }
 
         // An entry was added while we weren't looking. Try again.
         continue;
@@ -228,6 +323,8 @@ public class Cache {
         // Existing entry is older, so replace it.
         Entry newEntry = currentEntry.update(g);
         if (map.replace(oid, currentEntry, newEntry)) {
+          bytes.addAndGet(newEntry.size - currentEntry.size);
+          evict();
           return newEntry;
         }
 
@@ -263,6 +360,97 @@ public class Cache {
     return updated;
   }
 
+  /**
+   * Evicts the least popular entries, larger ones first, if the cache is over
+   * capacity. Entries are evicted until the cache is 10% under capacity, so
+   * that eviction runs once for a batch of insertions rather than for each.
+   */
+  private void evict() {
+    if (bytes.get() <= capacity) return;
+
+    synchronized (evictionMutex) {
+      if (bytes.get() <= capacity) return;
+
+      List<Candidate> candidates = candidates();
+      Collections.sort(candidates, new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate c1, Candidate c2) {
+          if (c1.popularity != c2.popularity)
+            return Integer.compare(c1.popularity, c2.popularity);
+          return Integer.compare(c2.entry.size, c1.entry.size);
+        }
+      });
+
+      long target = capacity - capacity / 10;
+      for (Candidate c : candidates) {
+        if (bytes.get() <= target) break;
+
+        if (map.remove(c.key, c.entry)) {
+          bytes.addAndGet(-c.entry.size);
+          evictions.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  /**
+   * An entry and its popularity at the time it was listed. Popularities change
+   * concurrently, so they are fixed before sorting.
+   */
+  private static final class Candidate {
+    final Pair<RemoteStore, Long> key;
+    final Entry entry;
+    final int popularity;
+
+    Candidate(Pair<RemoteStore, Long> key, Entry entry) {
+      this.key = key;
+      this.entry = entry;
+      this.popularity = entry.popularity();
+    }
+  }
+
+  private List<Candidate> candidates() {
+    List<Candidate> result = new ArrayList<>(map.size());
+    for (Map.Entry<Pair<RemoteStore, Long>, Entry> e : map.entrySet())
+      result.add(new Candidate(e.getKey(), e.getValue()));
+    return result;
+  }
+
+  /**
+   * Halves the popularity of every entry. This is called once every
+   * replication interval, so that popularity reflects recent requests.
+   */
+  public void decay() {
+    for (Entry entry : map.values())
+      entry.decay();
+  }
+
+  /**
+   * Sets the replication level of every entry from its popularity. The most
+   * popular entries get level 0, and are replicated most widely. Each halving
+   * of popularity relative to the most popular entry raises the level by one,
+   * up to levels - 1. Entries that have not served any requests recently are
+   * not replicated.
+   *
+   * @param levels
+   *          the number of replication levels.
+   */
+  public void assignLevels(int levels) {
+    List<Candidate> candidates = candidates();
+    int max = 0;
+    for (Candidate c : candidates)
+      max = Math.max(max, c.popularity);
+
+    for (Candidate c : candidates) {
+      if (c.popularity == 0) {
+        c.entry.level = UNREPLICATED;
+      } else {
+        int halvings = 31 - Integer.numberOfLeadingZeros(max / c.popularity);
+        c.entry.level = Math.min(halvings, levels - 1);
+      }
+    }
+  }
+
   /**
    * Returns a snapshot of the timestamp for each OID currently in the cache.
    * This set is NOT backed by the underlying map. If new keys are inserted or
@@ -272,51 +460,51 @@ public class Cache {
   public Set<Pair<Pair<RemoteStore, Long>, Long>> timestamps() {
     Set<Pair<Pair<RemoteStore, Long>, Long>> result = new HashSet<>();
 
-    for (Pair<RemoteStore, Long> key : map.keys()) {
-      Entry glob = map.get(key);
-      if (glob != null)
-        result.add(new Pair<>(key, glob.objectGlob.getTimestamp()));
+    for (Map.Entry<Pair<RemoteStore, Long>, Entry> e : map.entrySet()) {
+      result.add(new Pair<>(e.getKey(), e.getValue().objectGlob
+          .getTimestamp()));
     }
 
     return result;
   }
 
   /**
-   * Returns a snapshot set of the timestamp for each OID currently in the
-   * cache. The set is sorted in descending order by the popularity of the
-   * corresponding objects. Like {@code timestamps()}, the returned set is not
-   * backed by the underlying table.
+   * Returns a snapshot of the entries currently in the cache, with their OIDs,
+   * sorted in descending order of popularity. Like {@code timestamps()}, the
+   * returned list is not backed by the underlying table.
    */
-  public List<Pair<Pair<RemoteStore, Long>, Long>> sortedTimestamps() {
-    List<Pair<Pair<RemoteStore, Long>, Long>> k = new ArrayList<>(timestamps());
-
-    Collections.sort(k, TIMESTAMP_COMPARATOR);
+  public List<Pair<Pair<RemoteStore, Long>, Entry>> byPopularity() {
+    List<Candidate> candidates = candidates();
+    Collections.sort(candidates, new Comparator<Candidate>() {
+      @Override
+      public int compare(Candidate c1, Candidate c2) {
+        return Integer.compare(c2.popularity, c1.popularity);
+      }
+    });
 
-    return k;
+    List<Pair<Pair<RemoteStore, Long>, Entry>> result =
+        new ArrayList<>(candidates.size());
+    for (Candidate c : candidates)
+      result.add(new Pair<>(c.key, c.entry));
+    return result;
   }
 
-  private final Comparator<Pair<Pair<RemoteStore, Long>, Long>> TIMESTAMP_COMPARATOR =
-      new Comparator<Pair<Pair<RemoteStore, Long>, Long>>() {
-        @Override
-        public int compare(Pair<Pair<RemoteStore, Long>, Long> o1,
-            Pair<Pair<RemoteStore, Long>, Long> o2) {
-          Entry entry1 = map.get(o1.first);
-          Entry entry2 = map.get(o2.first);
-
-          if (entry1 == entry2) {
-            return 0;
-          }
-
-          if (entry1 == null) {
-            return 1;
-          }
-
-          if (entry2 == null) {
-            return -1;
-          }
-
-          return entry2.frequency - entry1.frequency;
-        }
-      };
+  /**
+   * @return a summary of the cache's hit ratio, size, and evictions since the
+   *         last call to {@link #resetStats()}.
+   */
+  public String stats() {
+    long hits = this.hits.get();
+    long lookups = hits + misses.get();
+    return String.format("%d/%d hits (%.1f%%), %d globs, %d/%d KB, %d "
+        + "evictions", hits, lookups, lookups == 0 ? 0.0 : 100.0 * hits
+        / lookups, map.size(), bytes.get() / 1024, capacity / 1024,
+        evictions.get());
+  }
 
+  public void resetStats() {
+    hits.set(0);
+    misses.set(0);
+    evictions.set(0);
+  }
 }
@@ -103,4 +103,9 @@ public class DummyFetchManager implements FetchManager {
     return false;
   }
 
+  @Override
+  public String stats() {
+    return null;
+  }
+
 }
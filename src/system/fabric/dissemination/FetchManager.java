@@ -40,4 +40,10 @@ public interface FetchManager {
   public boolean updateCaches(RemoteStore store, LongSet onums,
       AbstractGlob<?> update);
 
+  /**
+   * @return a summary of the dissemination layer's cache and traffic, or null
+   *         if it keeps no statistics.
+   */
+  public String stats();
+
 }
@@ -15,6 +15,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import fabric.common.FastSerializable;
 import fabric.common.Logging;
@@ -99,6 +100,15 @@ public class Disseminator implements Application {
   /** The set of nodes subscribed to each OID. */
   private final Cache<Pair<RemoteStore, Long>, Set<NodeHandle>> subscriptions;
 
+  // Replication traffic in the current replication interval.
+  private final AtomicLong globsSent = new AtomicLong();
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong globsReceived = new AtomicLong();
+  private final AtomicLong bytesReceived = new AtomicLong();
+
+  /** Statistics for the last complete replication interval. */
+  private volatile String lastIntervalStats = "no complete interval yet";
+
   /**
    * Creates a disseminator attached to the given pastry node.
    *
@@ -207,8 +217,10 @@ public class Disseminator implements Application {
   public ObjectGlob fetch(RemoteStore c, long onum)
       throws DisseminationTimeoutException {
     fabric.dissemination.Cache.Entry entry = cache.get(c, onum);
+    cache.recordLookup(entry != null);
 
     if (entry != null) {
+      entry.touch();
       return entry.objectGlob;
     }
 
@@ -473,6 +485,8 @@ public class Disseminator implements Application {
     process(new Executable<Void, RuntimeException>() {
       @Override
       public Void execute() {
+        endInterval();
+
         rice.pastry.Id me = (rice.pastry.Id) localHandle().getId();
         OidKeyHashMap<Long> skip;
 
@@ -530,6 +544,31 @@ public class Disseminator implements Application {
     });
   }
 
+  /**
+   * Records the statistics of the replication interval that just ended, sets
+   * the replication levels of the cached globs from their popularity during
+   * the interval, and then decays their popularity.
+   */
+  private void endInterval() {
+    lastIntervalStats = String.format("cache: %s; replicated %d globs (%d KB) "
+        + "out, %d globs (%d KB) in", cache.stats(), globsSent.getAndSet(0),
+        bytesSent.getAndSet(0) / 1024, globsReceived.getAndSet(0),
+        bytesReceived.getAndSet(0) / 1024);
+    cache.resetStats();
+    MISC_LOGGER.info("Dissemination interval: " + lastIntervalStats);
+
+    cache.assignLevels(idDigits);
+    cache.decay();
+  }
+
+  /**
+   * @return a summary of the dissemination cache's hit ratio and of the
+   *         replication traffic in the last complete replication interval.
+   */
+  public String stats() {
+    return lastIntervalStats;
+  }
+
   /**
    * Builds a set of (oid, glob timestamp) pairs that do not need to be sent
    * again by a decider.
@@ -573,24 +612,25 @@ public class Disseminator implements Application {
         rice.pastry.Id me = (rice.pastry.Id) localHandle().getId();
 
         Map<Pair<RemoteStore, Long>, ObjectGlob> globs = new HashMap<>();
+        long bytes = 0;
 
-        for (Pair<Pair<RemoteStore, Long>, Long> k : cache.sortedTimestamps()) {
+        // Consider the most popular globs first.
+        for (Pair<Pair<RemoteStore, Long>,
+            fabric.dissemination.Cache.Entry> k : cache.byPopularity()) {
+          fabric.dissemination.Cache.Entry entry = k.second;
+          long timestamp = entry.objectGlob.getTimestamp();
           Long skipTimestamp = skip.get(k.first.first, k.first.second);
-          if (skipTimestamp != null && skipTimestamp >= k.second) {
+          if (skipTimestamp != null && skipTimestamp >= timestamp) {
             continue;
           }
 
           rice.pastry.Id id =
-              (rice.pastry.Id) idf.buildId(k.first + "/" + k.second);
-          boolean send = shouldReplicate(me, senderId, id, level);
+              (rice.pastry.Id) idf.buildId(k.first + "/" + timestamp);
+          boolean send = shouldReplicate(me, senderId, id, level, entry);
 
           if (send) {
-            RemoteStore c = k.first.first;
-            Long onum = k.first.second;
-            fabric.dissemination.Cache.Entry entry = cache.get(c, onum);
-            if (entry.level() > level) continue;
-
             globs.put(k.first, entry.objectGlob);
+            bytes += entry.objectGlob.size();
 
             // XXX hack. limit reply message to 10 globs at a time. don't want
             // the message to get so large that pastry rejects it.
@@ -601,6 +641,8 @@ public class Disseminator implements Application {
         }
 
         if (globs.size() > 0) {
+          globsSent.addAndGet(globs.size());
+          bytesSent.addAndGet(bytes);
           Replicate.Reply r = new Replicate.Reply(globs);
           route(null, r, sender);
         }
@@ -634,6 +676,21 @@ public class Disseminator implements Application {
     }
   }
 
+  /**
+   * Determines whether a cached glob should be replicated from a decider to a
+   * receiver. In addition to the prefix checks made by the other
+   * shouldReplicate method, globs are only replicated at their
+   * popularity-based level or above, and unpopular globs are not replicated.
+   */
+  private boolean shouldReplicate(rice.pastry.Id deciderId,
+      rice.pastry.Id receiverId, rice.pastry.Id oid, int level,
+      fabric.dissemination.Cache.Entry entry) {
+    int entryLevel = entry.level();
+    if (entryLevel == fabric.dissemination.Cache.UNREPLICATED) return false;
+    if (level != -1 && entryLevel > level) return false;
+    return shouldReplicate(deciderId, receiverId, oid, level);
+  }
+
   /**
    * Processes a Replicate.Reply message, and adds objects in the reply to the
    * cache.
@@ -647,6 +704,8 @@ public class Disseminator implements Application {
           RemoteStore c = e.getKey().first;
           long onum = e.getKey().second;
           ObjectGlob g = e.getValue();
+          globsReceived.incrementAndGet();
+          bytesReceived.addAndGet(g.size());
           cache.put(c, onum, g);
         }
 
@@ -698,7 +757,10 @@ public class Disseminator implements Application {
     long onum = msg.onum();
     fabric.dissemination.Cache.Entry entry = cache.get(c, onum);
 
+    // A miss here just passes the request on, so only count hits.
     if (entry != null) {
+      cache.recordLookup(true);
+
       // Subscribe the remote endpoint.
       subscribe(msg.sender(), c, onum);
 
@@ -26,12 +26,22 @@ import fabric.worker.Worker;
  */
 public class PastryFetchManager implements FetchManager {
 
+  /**
+   * The configuration property giving the dissemination cache's capacity, in
+   * megabytes.
+   */
+  private static final String CACHE_SIZE_KEY =
+      "fabric.dissemination.cache_size";
+  private static final String DEFAULT_CACHE_SIZE = "64";
+
   private final Node node;
   private final DummyFetchManager fallback;
 
   public PastryFetchManager(Worker worker, Properties dissemConfig) {
     try {
-      Cache cache = new Cache();
+      long capacity = Long.parseLong(dissemConfig.getProperty(CACHE_SIZE_KEY,
+          DEFAULT_CACHE_SIZE).trim()) * 1048576;
+      Cache cache = new Cache(capacity);
       this.fallback = new DummyFetchManager(worker, dissemConfig, cache);
       this.node = new Node(dissemConfig, cache); // start a new pastry node
     } catch (IOException e) {
@@ -66,4 +76,9 @@ public class PastryFetchManager implements FetchManager {
     return node.disseminator.updateCaches(store, onums, update);
   }
 
+  @Override
+  public String stats() {
+    return node.disseminator().stats();
+  }
+
 }
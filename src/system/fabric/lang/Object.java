@@ -441,13 +441,18 @@ public interface Object {
     // The following fields are used for transaction management.
     // They should stay on the worker and should not be sent to
     // the store.
+    //
+    // The stamps checked on every field access ($writer, $reader,
+    // $isOwned, writerMapVersion) are volatile, so that the
+    // TransactionManager can check them without synchronizing on
+    // the object. Acquiring a lock still synchronizes on the object.
     // *********************************************************
 
     /**
      * The unique running transaction that can write to the object, or null if
      * none. (This is either null or holds the same value as $writeLockHolder.
      */
-    public Log $writer;
+    public volatile Log $writer;
 
     /**
      * The innermost transaction that is holding a write lock on the object.
@@ -463,7 +468,7 @@ public interface Object {
     /**
      * Any transaction that has logged a read of the object, or null if none.
      */
-    public Log $reader;
+    public volatile Log $reader;
 
     /**
      * Modification log. Holds the state of the object at the beginning of the
@@ -488,12 +493,12 @@ public interface Object {
     /**
      * Whether this worker owns the most up-to-date copy of the object.
      */
-    public boolean $isOwned;
+    public volatile boolean $isOwned;
 
     /**
      * The version number on the last update-map that was checked.
      */
-    public int writerMapVersion;
+    public volatile int writerMapVersion;
 
     /**
      * A stack trace of where this object was created. Used for debugging.
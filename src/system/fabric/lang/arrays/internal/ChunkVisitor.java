@@ -0,0 +1,24 @@
+package fabric.lang.arrays.internal;
+
+/**
+ * Receives the elements of a Fabric array a chunk at a time. See the
+ * forEachChunk methods of the array classes in fabric.lang.arrays.
+ */
+public interface ChunkVisitor {
+  /**
+   * Visits a run of consecutive elements, all from the same chunk of the
+   * array.
+   *
+   * @param offset
+   *          the index, in the Fabric array, of the first element of the run.
+   * @param elements
+   *          a Java array of the Fabric array's element type (e.g., an int[]
+   *          for an intArray) whose first <code>length</code> elements are
+   *          the run. The Java array is reused between calls, so it should not
+   *          be retained.
+   * @param length
+   *          the number of elements in the run.
+   * @return false to stop visiting.
+   */
+  boolean visit(int offset, Object elements, int length);
+}
@@ -15,15 +15,15 @@ import fabric.lang.security.Label;
 import fabric.worker.Store;
 
 /**
- * A utility class for converting Java arrays into Fabric arrays.
+ * A utility class for converting Java arrays into Fabric arrays. The elements
+ * are copied a chunk at a time.
  */
 public class Compat {
   public static booleanArray convert(Store store, Label label,
       ConfPolicy accessPolicy, boolean[] array) {
     booleanArray result = new booleanArray._Impl(store)
         .fabric$lang$arrays$booleanArray$(label, accessPolicy, array.length);
-    for (int i = 0; i < array.length; i++)
-      result.set(i, array[i]);
+    result.fromJavaArray(array);
     return (booleanArray) result.$getProxy();
   }
 
@@ -31,8 +31,7 @@ public class Compat {
       ConfPolicy accessPolicy, byte[] array) {
     byteArray result = new byteArray._Impl(store)
         .fabric$lang$arrays$byteArray$(label, accessPolicy, array.length);
-    for (int i = 0; i < array.length; i++)
-      result.set(i, array[i]);
+    result.fromJavaArray(array);
     return (byteArray) result.$getProxy();
   }
 
@@ -40,8 +39,7 @@ public class Compat {
       ConfPolicy accessPolicy, char[] array) {
     charArray result = new charArray._Impl(store)
         .fabric$lang$arrays$charArray$(label, accessPolicy, array.length);
-    for (int i = 0; i < array.length; i++)
-      result.set(i, array[i]);
+    result.fromJavaArray(array);
     return (charArray) result.$getProxy();
   }
 
@@ -49,8 +47,7 @@ public class Compat {
       ConfPolicy accessPolicy, double[] array) {
     doubleArray result = new doubleArray._Impl(store)
         .fabric$lang$arrays$doubleArray$(label, accessPolicy, array.length);
-    for (int i = 0; i < array.length; i++)
-      result.set(i, array[i]);
+    result.fromJavaArray(array);
     return (doubleArray) result.$getProxy();
   }
 
@@ -58,8 +55,7 @@ public class Compat {
       ConfPolicy accessPolicy, float[] array) {
     floatArray result = new floatArray._Impl(store)
         .fabric$lang$arrays$floatArray$(label, accessPolicy, array.length);
-    for (int i = 0; i < array.length; i++)
-      result.set(i, array[i]);
+    result.fromJavaArray(array);
     return (floatArray) result.$getProxy();
   }
 
@@ -67,8 +63,7 @@ public class Compat {
       ConfPolicy accessPolicy, int[] array) {
     intArray result = new intArray._Impl(store)
         .fabric$lang$arrays$intArray$(label, accessPolicy, array.length);
-    for (int i = 0; i < array.length; i++)
-      result.set(i, array[i]);
+    result.fromJavaArray(array);
     return (intArray) result.$getProxy();
   }
 
@@ -76,8 +71,7 @@ public class Compat {
       ConfPolicy accessPolicy, long[] array) {
     longArray result = new longArray._Impl(store)
         .fabric$lang$arrays$longArray$(label, accessPolicy, array.length);
-    for (int i = 0; i < array.length; i++)
-      result.set(i, array[i]);
+    result.fromJavaArray(array);
     return (longArray) result.$getProxy();
   }
 
@@ -85,8 +79,7 @@ public class Compat {
       ConfPolicy accessPolicy, short[] array) {
     shortArray result = new shortArray._Impl(store)
         .fabric$lang$arrays$shortArray$(label, accessPolicy, array.length);
-    for (int i = 0; i < array.length; i++)
-      result.set(i, array[i]);
+    result.fromJavaArray(array);
     return (shortArray) result.$getProxy();
   }
 
@@ -95,8 +88,7 @@ public class Compat {
     ObjectArray result =
         new ObjectArray._Impl(store).fabric$lang$arrays$ObjectArray$(label,
             accessPolicy, array.getClass().getComponentType(), array.length);
-    for (int i = 0; i < array.length; i++)
-      result.set(i, array[i]);
+    result.fromJavaArray(array);
     return (ObjectArray) result.$getProxy();
   }
 }
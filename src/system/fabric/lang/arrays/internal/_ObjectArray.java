@@ -3,6 +3,7 @@ package fabric.lang.arrays.internal;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -11,6 +12,8 @@ import java.util.Map;
 
 import fabric.common.RefTypeEnum;
 import fabric.common.exceptions.InternalError;
+import fabric.common.util.LongHashSet;
+import fabric.common.util.LongSet;
 import fabric.common.util.Pair;
 import fabric.lang.Object;
 import fabric.lang.security.ConfPolicy;
@@ -34,6 +37,31 @@ public interface _ObjectArray<T extends Object> extends Object {
 
   T get(int i);
 
+  /**
+   * Copies elements [start, start + length) of this array into dest, starting
+   * at destPos. This registers a single read of the array.
+   */
+  void getRange(int start, Object[] dest, int destPos, int length);
+
+  /**
+   * Copies length elements of src, starting at srcPos, into this array,
+   * starting at start. This registers a single write of the array.
+   */
+  void setRange(int start, Object[] src, int srcPos, int length);
+
+  /**
+   * Sets elements [start, end) of this array to the given value. This
+   * registers a single write of the array.
+   */
+  void fill(int start, int end, T value);
+
+  /**
+   * Starts fetching, with one batched read, those of the objects referenced by
+   * elements [start, end) of this array that reside at this array's store.
+   * This registers a single read of the array.
+   */
+  void prefetch(int start, int end);
+
   public static class _Impl<T extends Object> extends Object._Impl
       implements _ObjectArray<T>, _InternalArrayImpl {
     /**
@@ -171,6 +199,43 @@ public interface _ObjectArray<T extends Object> extends Object {
       return value;
     }
 
+    @Override
+    public void getRange(int start, Object[] dest, int destPos, int length) {
+      TransactionManager.getInstance().registerRead(this);
+      System.arraycopy(this.value, start, dest, destPos, length);
+    }
+
+    @Override
+    public void setRange(int start, Object[] src, int srcPos, int length) {
+      boolean transactionCreated =
+          TransactionManager.getInstance().registerWrite(this);
+      System.arraycopy(src, srcPos, this.value, start, length);
+      if (transactionCreated)
+        TransactionManager.getInstance().commitTransaction();
+    }
+
+    @Override
+    public void fill(int start, int end, T value) {
+      boolean transactionCreated =
+          TransactionManager.getInstance().registerWrite(this);
+      Arrays.fill(this.value, start, end, value);
+      if (transactionCreated)
+        TransactionManager.getInstance().commitTransaction();
+    }
+
+    @Override
+    public void prefetch(int start, int end) {
+      TransactionManager.getInstance().registerRead(this);
+      Store store = $getStore();
+      LongSet onums = new LongHashSet();
+      for (int i = start; i < end; i++) {
+        Object element = value[i];
+        if (element != null && element.$getStore().equals(store))
+          onums.add(element.$getOnum());
+      }
+      if (!onums.isEmpty()) store.prefetch(onums);
+    }
+
     @Override
     public void $copyAppStateFrom(Object._Impl other) {
       super.$copyAppStateFrom(other);
@@ -251,5 +316,25 @@ public interface _ObjectArray<T extends Object> extends Object {
     public T set(int i, T value) {
       return ((_ObjectArray<T>) fetch()).set(i, value);
     }
+
+    @Override
+    public void getRange(int start, Object[] dest, int destPos, int length) {
+      ((_ObjectArray<T>) fetch()).getRange(start, dest, destPos, length);
+    }
+
+    @Override
+    public void setRange(int start, Object[] src, int srcPos, int length) {
+      ((_ObjectArray<T>) fetch()).setRange(start, src, srcPos, length);
+    }
+
+    @Override
+    public void fill(int start, int end, T value) {
+      ((_ObjectArray<T>) fetch()).fill(start, end, value);
+    }
+
+    @Override
+    public void prefetch(int start, int end) {
+      ((_ObjectArray<T>) fetch()).prefetch(start, end);
+    }
   }
 }
@@ -3,6 +3,7 @@ package fabric.lang.arrays.internal;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -27,6 +28,24 @@ public interface _booleanArray extends Object {
 
   boolean get(int i);
 
+  /**
+   * Copies elements [start, start + length) of this array into dest, starting
+   * at destPos. This registers a single read of the array.
+   */
+  void getRange(int start, boolean[] dest, int destPos, int length);
+
+  /**
+   * Copies length elements of src, starting at srcPos, into this array,
+   * starting at start. This registers a single write of the array.
+   */
+  void setRange(int start, boolean[] src, int srcPos, int length);
+
+  /**
+   * Sets elements [start, end) of this array to the given value. This
+   * registers a single write of the array.
+   */
+  void fill(int start, int end, boolean value);
+
   public static class _Impl extends Object._Impl
       implements _booleanArray, _InternalArrayImpl {
     private boolean[] value;
@@ -109,6 +128,30 @@ public interface _booleanArray extends Object {
       return result;
     }
 
+    @Override
+    public void getRange(int start, boolean[] dest, int destPos, int length) {
+      TransactionManager.getInstance().registerRead(this);
+      System.arraycopy(this.value, start, dest, destPos, length);
+    }
+
+    @Override
+    public void setRange(int start, boolean[] src, int srcPos, int length) {
+      boolean transactionCreated =
+          TransactionManager.getInstance().registerWrite(this);
+      System.arraycopy(src, srcPos, this.value, start, length);
+      if (transactionCreated)
+        TransactionManager.getInstance().commitTransaction();
+    }
+
+    @Override
+    public void fill(int start, int end, boolean value) {
+      boolean transactionCreated =
+          TransactionManager.getInstance().registerWrite(this);
+      Arrays.fill(this.value, start, end, value);
+      if (transactionCreated)
+        TransactionManager.getInstance().commitTransaction();
+    }
+
     @Override
     public void $copyAppStateFrom(Object._Impl other) {
       super.$copyAppStateFrom(other);
@@ -183,5 +226,20 @@ public interface _booleanArray extends Object {
     public boolean set(int i, boolean value) {
       return ((_booleanArray) fetch()).set(i, value);
     }
+
+    @Override
+    public void getRange(int start, boolean[] dest, int destPos, int length) {
+      ((_booleanArray) fetch()).getRange(start, dest, destPos, length);
+    }
+
+    @Override
+    public void setRange(int start, boolean[] src, int srcPos, int length) {
+      ((_booleanArray) fetch()).setRange(start, src, srcPos, length);
+    }
+
+    @Override
+    public void fill(int start, int end, boolean value) {
+      ((_booleanArray) fetch()).fill(start, end, value);
+    }
   }
 }
@@ -3,6 +3,7 @@ package fabric.lang.arrays.internal;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -27,6 +28,24 @@ public interface _byteArray extends Object {
 
   byte get(int i);
 
+  /**
+   * Copies elements [start, start + length) of this array into dest, starting
+   * at destPos. This registers a single read of the array.
+   */
+  void getRange(int start, byte[] dest, int destPos, int length);
+
+  /**
+   * Copies length elements of src, starting at srcPos, into this array,
+   * starting at start. This registers a single write of the array.
+   */
+  void setRange(int start, byte[] src, int srcPos, int length);
+
+  /**
+   * Sets elements [start, end) of this array to the given value. This
+   * registers a single write of the array.
+   */
+  void fill(int start, int end, byte value);
+
   public static class _Impl extends Object._Impl
       implements _byteArray, _InternalArrayImpl {
     private byte[] value;
@@ -109,6 +128,30 @@ public interface _byteArray extends Object {
       return result;
     }
 
+    @Override
+    public void getRange(int start, byte[] dest, int destPos, int length) {
+      TransactionManager.getInstance().registerRead(this);
+      System.arraycopy(this.value, start, dest, destPos, length);
+    }
+
+    @Override
+    public void setRange(int start, byte[] src, int srcPos, int length) {
+      boolean transactionCreated =
+          TransactionManager.getInstance().registerWrite(this);
+      System.arraycopy(src, srcPos, this.value, start, length);
+      if (transactionCreated)
+        TransactionManager.getInstance().commitTransaction();
+    }
+
+    @Override
+    public void fill(int start, int end, byte value) {
+      boolean transactionCreated =
+          TransactionManager.getInstance().registerWrite(this);
+      Arrays.fill(this.value, start, end, value);
+      if (transactionCreated)
+        TransactionManager.getInstance().commitTransaction();
+    }
+
     @Override
     public void $copyAppStateFrom(Object._Impl other) {
       super.$copyAppStateFrom(other);
@@ -181,5 +224,20 @@ public interface _byteArray extends Object {
     public byte set(int i, byte value) {
       return ((_byteArray) fetch()).set(i, value);
     }
+
+    @Override
+    public void getRange(int start, byte[] dest, int destPos, int length) {
+      ((_byteArray) fetch()).getRange(start, dest, destPos, length);
+    }
+
+    @Override
+    public void setRange(int start, byte[] src, int srcPos, int length) {
+      ((_byteArray) fetch()).setRange(start, src, srcPos, length);
+    }
+
+    @Override
+    public void fill(int start, int end, byte value) {
+      ((_byteArray) fetch()).fill(start, end, value);
+    }
   }
 }
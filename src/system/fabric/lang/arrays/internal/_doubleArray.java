@@ -3,6 +3,7 @@ package fabric.lang.arrays.internal;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -27,6 +28,24 @@ public interface _doubleArray extends Object {
 
   double get(int i);
 
+  /**
+   * Copies elements [start, start + length) of this array into dest, starting
+   * at destPos. This registers a single read of the array.
+   */
+  void getRange(int start, double[] dest, int destPos, int length);
+
+  /**
+   * Copies length elements of src, starting at srcPos, into this array,
+   * starting at start. This registers a single write of the array.
+   */
+  void setRange(int start, double[] src, int srcPos, int length);
+
+  /**
+   * Sets elements [start, end) of this array to the given value. This
+   * registers a single write of the array.
+   */
+  void fill(int start, int end, double value);
+
   public static class _Impl extends Object._Impl
       implements _doubleArray, _InternalArrayImpl {
     private double[] value;
@@ -109,6 +128,30 @@ public interface _doubleArray extends Object {
       return result;
     }
 
+    @Override
+    public void getRange(int start, double[] dest, int destPos, int length) {
+      TransactionManager.getInstance().registerRead(this);
+      System.arraycopy(this.value, start, dest, destPos, length);
+    }
+
+    @Override
+    public void setRange(int start, double[] src, int srcPos, int length) {
+      boolean transactionCreated =
+          TransactionManager.getInstance().registerWrite(this);
+      System.arraycopy(src, srcPos, this.value, start, length);
+      if (transactionCreated)
+        TransactionManager.getInstance().commitTransaction();
+    }
+
+    @Override
+    public void fill(int start, int end, double value) {
+      boolean transactionCreated =
+          TransactionManager.getInstance().registerWrite(this);
+      Arrays.fill(this.value, start, end, value);
+      if (transactionCreated)
+        TransactionManager.getInstance().commitTransaction();
+    }
+
     @Override
     public void $copyAppStateFrom(Object._Impl other) {
       super.$copyAppStateFrom(other);
@@ -181,5 +224,20 @@ public interface _doubleArray extends Object {
     public double set(int i, double value) {
       return ((_doubleArray) fetch()).set(i, value);
     }
+
+    @Override
+    public void getRange(int start, double[] dest, int destPos, int length) {
+      ((_doubleArray) fetch()).getRange(start, dest, destPos, length);
+    }
+
+    @Override
+    public void setRange(int start, double[] src, int srcPos, int length) {
+      ((_doubleArray) fetch()).setRange(start, src, srcPos, length);
+    }
+
+    @Override
+    public void fill(int start, int end, double value) {
+      ((_doubleArray) fetch()).fill(start, end, value);
+    }
   }
 }
@@ -6,9 +6,14 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import fabric.common.FabricThread;
 import fabric.common.Logging;
 import fabric.common.Threading;
 import fabric.common.exceptions.FabricException;
@@ -22,6 +27,16 @@ import fabric.worker.remote.RemoteWorker;
 /**
  * Abstracts a server loop that listens for and processes messages from the
  * network.
+ * <p>
+ * Each connection has a thread that reads its messages. Under the
+ * {@link Threading.Policy#BOUNDED bounded} policy, reader threads are kept
+ * apart from {@link Threading#getPool()}, and each message is handed to the
+ * pool to be handled, so the bound limits the number of messages being handled
+ * at once rather than the number of open connections. A message that arrives
+ * while the pool is full is answered by the reader thread with a busy
+ * response, which the sender sees as a {@link ServerBusyException}; the
+ * connection stays open. Under the other policies, a connection's messages are
+ * handled in its reader thread, which is a pool thread.
  */
 public abstract class AbstractMessageServer
     implements Runnable, MessageHandler {
@@ -29,6 +44,24 @@ public abstract class AbstractMessageServer
   public final String name;
   public final Logger logger;
 
+  /**
+   * Runs the reader threads of connections under the bounded policy. Reader
+   * threads spend most of their time blocked on the network, so they are not
+   * counted against the pool's bound.
+   */
+  private static final ExecutorService readers =
+      Executors.newCachedThreadPool(new ThreadFactory() {
+        private int nextID = 1;
+        private final ThreadGroup threadGroup =
+            new ThreadGroup("Connection readers");
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+          return new FabricThread.Impl(threadGroup, r,
+              "Connection reader thread " + (nextID++));
+        }
+      });
+
   public AbstractMessageServer(String name, Logger logger) {
     this.name = name;
     this.logger = logger;
@@ -55,83 +88,169 @@ public abstract class AbstractMessageServer
         // Accept a connection and handle it.
         final SubSocket<RemoteWorker> connection = server.accept();
 
-        Threading.getPool().submit(new Threading.NamedRunnable(
-            "Fabric network message handler thread") {
-          @Override
-          protected void runImpl() {
-            RemoteIdentity<RemoteWorker> client;
-            final int streamID;
-            try {
-              client = connection.getRemoteIdentity();
-              streamID = connection.getStreamID();
-            } catch (IOException e) {
-              throw new InternalError(e);
+        Threading.InstrumentedExecutor pool = Threading.getPool();
+        boolean bounded = pool.policy() == Threading.Policy.BOUNDED;
+        ConnectionHandler handler = new ConnectionHandler(connection, bounded);
+        if (bounded) {
+          readers.execute(handler);
+        } else {
+          pool.submit(handler);
+        }
+      }
+    } catch (final IOException e) {
+      logger.log(Level.WARNING, name + " (" + getClass().getSimpleName()
+          + ") suffered communications failure, shutting down", e);
+    }
+  }
+
+  private static void close(SubSocket<RemoteWorker> connection) {
+    try {
+      connection.close();
+    } catch (IOException e) {
+    }
+  }
+
+  /**
+   * Reads the messages on a connection until it is closed.
+   */
+  private final class ConnectionHandler extends Threading.NamedRunnable {
+    private final SubSocket<RemoteWorker> connection;
+
+    /**
+     * Whether each synchronous message is handed to a pool thread, instead of
+     * being handled in this thread.
+     */
+    private final boolean dispatchToPool;
+
+    ConnectionHandler(SubSocket<RemoteWorker> connection,
+        boolean dispatchToPool) {
+      super("Fabric network message handler thread");
+      this.connection = connection;
+      this.dispatchToPool = dispatchToPool;
+    }
+
+    @Override
+    protected void runImpl() {
+      RemoteIdentity<RemoteWorker> client;
+      final int streamID;
+      try {
+        client = connection.getRemoteIdentity();
+        streamID = connection.getStreamID();
+      } catch (IOException e) {
+        throw new InternalError(e);
+      }
+
+      try {
+        // Handle the connection.
+        DataInputStream in = new DataInputStream(connection.getInputStream());
+        DataOutputStream out =
+            new DataOutputStream(connection.getOutputStream());
+
+        while (true) {
+          if (in.readBoolean()) {
+            long msgId = in.readLong();
+            Message<?, ?> message = Message.receive(in, connection, msgId);
+            if (dispatchToPool) {
+              dispatch(client, message, msgId, out);
+            } else {
+              handle(client, message, msgId, out);
             }
-            final RemoteIdentity<RemoteWorker> clientF = client;
+          } else {
+            long msgId = in.readLong();
+            AsyncMessage message = AsyncMessage.receive(in, connection, msgId);
+            dispatchAsync(client, message);
+          }
+        }
+      } catch (EOFException e) {
+        close(connection);
+        Logging.log(NETWORK_CONNECTION_LOGGER, Level.INFO,
+            "Stream #{0} reset ({1})", streamID, client);
+      } catch (IOException e) {
+        close(connection);
+        logger.log(Level.WARNING,
+            "Network error while handling request on stream #" + streamID, e);
+      } catch (RuntimeException e) {
+        logger.log(Level.SEVERE, "Message-handler thread for stream #"
+            + streamID + " exited with exception: " + e.getMessage(), e);
+      }
+    }
 
+    /**
+     * Hands a synchronous message to a pool thread, or answers it with a busy
+     * response if the pool is full.
+     */
+    private void dispatch(final RemoteIdentity<RemoteWorker> client,
+        final Message<?, ?> message, final long msgId,
+        final DataOutputStream out) throws IOException {
+      try {
+        Threading.getPool().admit(new Runnable() {
+          @Override
+          public void run() {
             try {
-              // Handle the connection.
-              DataInputStream in =
-                  new DataInputStream(connection.getInputStream());
-              DataOutputStream out =
-                  new DataOutputStream(connection.getOutputStream());
-
-              while (true) {
-                if (in.readBoolean()) {
-                  long msgId = in.readLong();
-                  Message<?, ?> message = Message.receive(in, connection, msgId);
-                  try {
-                    Message.Response response =
-                        message.dispatch(client, AbstractMessageServer.this);
-                    message.respond(out, response);
-                  } catch (FabricException e) {
-                    message.respond(out, e);
-                  }
-
-                  out.flush();
-                } else {
-                  long msgId = in.readLong();
-                  final AsyncMessage message =
-                      AsyncMessage.receive(in, connection, msgId);
-                  // Run in a new thread, we don't need to block to respond.
-                  Threading.getPool().submit(new Runnable() {
-                    @Override
-                    public void run() {
-                      try {
-                        message.dispatch(clientF, AbstractMessageServer.this);
-                      } catch (ProtocolError e) {
-                        // TODO
-                        throw new InternalError(e);
-                      }
-                    }
-                  });
-                }
-              }
-            } catch (EOFException e) {
-              try {
-                connection.close();
-              } catch (IOException e1) {
-              }
-              Logging.log(NETWORK_CONNECTION_LOGGER, Level.INFO,
-                  "Stream #{0} reset ({1})", streamID, client);
+              handle(client, message, msgId, out);
             } catch (IOException e) {
-              try {
-                connection.close();
-              } catch (IOException e1) {
-              }
-              logger.log(Level.WARNING,
-                  "Network error while handling request on stream #" + streamID,
-                  e);
-            } catch (RuntimeException e) {
-              logger.log(Level.SEVERE, "Message-handler thread for stream #"
-                  + streamID + " exited with exception: " + e.getMessage(), e);
+              close(connection);
+              logger.log(Level.WARNING, "Network error while responding to "
+                  + "message " + msgId + " on " + connection, e);
             }
           }
         });
+      } catch (RejectedExecutionException e) {
+        synchronized (out) {
+          message.respondBusy(out, msgId);
+          out.flush();
+        }
+
+        Logging.log(NETWORK_CONNECTION_LOGGER, Level.FINE,
+            "Refused message {0} on {1}: thread pool is full", msgId,
+            connection);
+      }
+    }
+
+    /**
+     * Handles a synchronous message and sends its response.
+     */
+    private void handle(RemoteIdentity<RemoteWorker> client,
+        Message<?, ?> message, long msgId, DataOutputStream out)
+        throws IOException {
+      Message.Response response = null;
+      FabricException failure = null;
+      try {
+        response = message.dispatch(client, AbstractMessageServer.this);
+      } catch (FabricException e) {
+        failure = e;
+      }
+
+      // Responses to messages handled in pool threads may be sent
+      // concurrently.
+      synchronized (out) {
+        if (failure == null) {
+          message.respond(out, msgId, response);
+        } else {
+          message.respond(out, msgId, failure);
+        }
+        out.flush();
       }
-    } catch (final IOException e) {
-      logger.log(Level.WARNING, name + " (" + getClass().getSimpleName()
-          + ") suffered communications failure, shutting down", e);
     }
   }
+
+  /**
+   * Dispatches an asynchronous message in a pool thread. If the pool is full,
+   * the message is dispatched in the calling thread.
+   */
+  private void dispatchAsync(final RemoteIdentity<RemoteWorker> client,
+      final AsyncMessage message) {
+    // Run in a new thread, we don't need to block to respond.
+    Threading.getPool().submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          message.dispatch(client, AbstractMessageServer.this);
+        } catch (ProtocolError e) {
+          // TODO
+          throw new InternalError(e);
+        }
+      }
+    });
+  }
 }
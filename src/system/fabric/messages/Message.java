@@ -47,6 +47,11 @@ import fabric.worker.remote.RemoteWorker;
  * <code>R</code> in the <code>respond(...)</code> method.
  * </p>
  * <p>
+ * Each reply starts with the msgId of the request it answers. A
+ * {@link MessagePipeline} uses this to keep several requests outstanding on
+ * one SubSocket.
+ * </p>
+ * <p>
  * Messages use two instances of the visitor pattern, one for Messages bound for
  * the store ({@link MessageToStore}) and one for Messages bound for the worker
  * ({@link MessageToWorker}). These interfaces would be subclasses of
@@ -71,6 +76,13 @@ public abstract class Message<R extends Message.Response, E extends FabricExcept
   // public API //
   // ////////////////////////////////////////////////////////////////////////////
 
+  /**
+   * Response statuses. The status precedes each response on the wire.
+   */
+  private static final byte RESPONSE_OK = 0;
+  private static final byte RESPONSE_ERROR = 1;
+  private static final byte RESPONSE_BUSY = 2;
+
   /** Marker interface for Message responses. */
   public static interface Response {
   }
@@ -81,6 +93,8 @@ public abstract class Message<R extends Message.Response, E extends FabricExcept
    * @return the reply from the node.
    * @throws E
    *           if an error occurs at the remote node while handling the message.
+   * @throws ServerBusyException
+   *           if the node refused the message because it is overloaded.
    * @throws IOException
    *           in the event of a communications failure.
    */
@@ -89,18 +103,52 @@ public abstract class Message<R extends Message.Response, E extends FabricExcept
     DataOutputStream out = new DataOutputStream(s.getOutputStream());
     long msgId = msgCount.incrementAndGet();
 
-    // Write this message out.
+    writeRequest(out, msgId, s);
+
+    long replyId = in.readLong();
+    if (replyId != msgId) throw new IOException("Expected reply to message "
+        + msgId + ", but received reply to " + replyId);
+
+    return readReply(in, s);
+  }
+
+  /**
+   * Writes this message out as a request that requires a response, and flushes
+   * the output stream.
+   */
+  final void writeRequest(DataOutputStream out, long msgId, SubSocket<?> s)
+      throws IOException {
     out.writeBoolean(true); // This requires response.
-    out.writeLong(msgId); // Helps with debugging, should be removed.
+    out.writeLong(msgId);
     out.writeByte(messageType.ordinal());
     writeMessage(out);
     out.flush();
 
     Logging.log(NETWORK_MESSAGE_SEND_LOGGER, Level.FINE,
         "Sent message {0} {1} to {2}", msgId, messageType, s);
+  }
+
+  /**
+   * Reads the reply to this message, following the reply's msgId.
+   *
+   * @throws E
+   *           if an error occurred at the remote node while handling the
+   *           message.
+   * @throws ServerBusyException
+   *           if the node refused the message because it is overloaded.
+   */
+  final R readReply(DataInput in, SubSocket<?> s) throws IOException, E {
+    // Determine if an error occurred.
+    byte status = in.readByte();
+    if (status == RESPONSE_BUSY) {
+      Logging.log(NETWORK_MESSAGE_RECEIVE_LOGGER, Level.FINE,
+          "Received busy response for {0} from {1}", messageType, s);
+
+      throw new ServerBusyException(
+          messageType + " refused by busy node (" + s + ")");
+    }
 
-    // Read in the reply. Determine if an error occurred.
-    if (in.readBoolean()) {
+    if (status != RESPONSE_OK) {
       // We have an error.
       E exc = readObject(in, this.exceptionClass);
       exc.fillInStackTrace();
@@ -162,15 +210,18 @@ public abstract class Message<R extends Message.Response, E extends FabricExcept
    *
    * @param out
    *          the channel on which to send the response
+   * @param msgId
+   *          the id of the message being responded to
    * @param response
    *          the response to send.
    * @throws IOException
    *           if the provided <code>DataOutput</code> fails.
    */
-  public void respond(DataOutput out, Message.Response response)
+  public void respond(DataOutput out, long msgId, Message.Response response)
       throws IOException {
     // Signal that no error occurred.
-    out.writeBoolean(false);
+    out.writeLong(msgId);
+    out.writeByte(RESPONSE_OK);
 
     // Write out the response.
     @SuppressWarnings("unchecked")
@@ -186,17 +237,21 @@ public abstract class Message<R extends Message.Response, E extends FabricExcept
    *
    * @param out
    *          the channel on which to send the response
+   * @param msgId
+   *          the id of the message being responded to
    * @param e
    *          the exception to send
    * @throws IOException
    *           if the provided <code>DataOutput</code> fails.
    */
-  public void respond(DataOutput out, FabricException e) throws IOException {
+  public void respond(DataOutput out, long msgId, FabricException e)
+      throws IOException {
     // Clear out the stack trace before sending an exception out.
     e.setStackTrace(new StackTraceElement[0]);
 
     // Signal that an error occurred and write out the exception.
-    out.writeBoolean(true);
+    out.writeLong(msgId);
+    out.writeByte(RESPONSE_ERROR);
 
     // write out the exception
     writeObject(out, e);
@@ -205,6 +260,26 @@ public abstract class Message<R extends Message.Response, E extends FabricExcept
         "Sent error response to {0}", messageType);
   }
 
+  /**
+   * Send a response to this message indicating that it was refused without
+   * being handled, because the node is overloaded. The sender will see a
+   * {@link ServerBusyException} and may resend the message.
+   *
+   * @param out
+   *          the channel on which to send the response
+   * @param msgId
+   *          the id of the message being responded to
+   * @throws IOException
+   *           if the provided <code>DataOutput</code> fails.
+   */
+  public void respondBusy(DataOutput out, long msgId) throws IOException {
+    out.writeLong(msgId);
+    out.writeByte(RESPONSE_BUSY);
+
+    Logging.log(NETWORK_MESSAGE_SEND_LOGGER, Level.FINE,
+        "Sent busy response to {0}", messageType);
+  }
+
   // ////////////////////////////////////////////////////////////////////////////
   // API for concrete message implementations //
   // ////////////////////////////////////////////////////////////////////////////
@@ -279,6 +354,12 @@ public abstract class Message<R extends Message.Response, E extends FabricExcept
       InterWorkerStalenessMessage parse(DataInput in) throws IOException {
         return new InterWorkerStalenessMessage(in);
       }
+    },
+    MULTI_READ_ONUMS {
+      @Override
+      MultiReadMessage parse(DataInput in) throws IOException {
+        return new MultiReadMessage(in);
+      }
     },;
 
     /** Read a message of the appropriate type from the given DataInput. */
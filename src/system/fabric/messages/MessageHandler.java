@@ -74,6 +74,9 @@ public interface MessageHandler {
   public ReadMessage.Response handle(RemoteIdentity<RemoteWorker> client,
       ReadMessage msg) throws ProtocolError, AccessException;
 
+  public MultiReadMessage.Response handle(RemoteIdentity<RemoteWorker> client,
+      MultiReadMessage msg) throws ProtocolError;
+
   public MakePrincipalMessage.Response handle(
       RemoteIdentity<RemoteWorker> client, MakePrincipalMessage msg)
       throws ProtocolError, FabricGeneralSecurityException;
@@ -0,0 +1,203 @@
+package fabric.messages;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import fabric.common.Threading;
+import fabric.common.exceptions.FabricException;
+import fabric.common.net.SubSocket;
+import fabric.common.util.LongKeyHashMap;
+import fabric.common.util.LongKeyMap;
+
+/**
+ * Sends messages over a single SubSocket without waiting for each reply, so
+ * that several requests to the same node can be outstanding at once. Replies
+ * are matched to requests by msgId, so they may arrive in any order, and are
+ * read by a pool thread that runs only while replies are outstanding.
+ * <p>
+ * A busy node may refuse individual messages (see
+ * {@link AbstractMessageServer}); this fails only the refused message's
+ * future, and the pipeline remains usable.
+ * <p>
+ * Once the socket fails, the pipeline is broken: outstanding and future
+ * requests fail with the socket's exception, and a new pipeline should be
+ * created.
+ */
+public final class MessagePipeline {
+  private final SubSocket<?> socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+
+  // The following are guarded by this.
+
+  /**
+   * Requests that have not yet been answered, by msgId.
+   */
+  private final LongKeyMap<Pending<?>> pending;
+
+  private boolean readerRunning;
+
+  /**
+   * The exception that broke the pipeline, or null if the pipeline is usable.
+   */
+  private IOException failure;
+
+  public MessagePipeline(SubSocket<?> socket) throws IOException {
+    this.socket = socket;
+    this.in = new DataInputStream(socket.getInputStream());
+    this.out = new DataOutputStream(socket.getOutputStream());
+    this.pending = new LongKeyHashMap<>();
+    this.readerRunning = false;
+    this.failure = null;
+  }
+
+  /**
+   * Sends the given message without waiting for its reply.
+   *
+   * @return a future for the reply. If an error occurs at the remote node
+   *         while handling the message, the future fails with that error. If
+   *         the node refuses the message because it is overloaded, the future
+   *         fails with a {@link ServerBusyException}, and the message may be
+   *         resent.
+   */
+  public <R extends Message.Response, E extends FabricException> ListenableFuture<R> send(
+      Message<R, E> message) {
+    Pending<R> request = new Pending<>(message);
+    boolean startReader;
+
+    synchronized (this) {
+      if (failure != null) {
+        request.future.setException(failure);
+        return request.future;
+      }
+
+      long msgId = Message.msgCount.incrementAndGet();
+      pending.put(msgId, request);
+      try {
+        message.writeRequest(out, msgId, socket);
+      } catch (IOException e) {
+        fail(e);
+        return request.future;
+      }
+
+      startReader = !readerRunning;
+      readerRunning = true;
+    }
+
+    // If the pool is full, this reads the reply in the calling thread, which
+    // degrades to waiting for each reply in turn.
+    if (startReader) Threading.getPool().submit(new Reader());
+
+    return request.future;
+  }
+
+  /**
+   * @return true iff the pipeline can no longer be used.
+   */
+  public synchronized boolean isBroken() {
+    return failure != null;
+  }
+
+  /**
+   * Breaks the pipeline, failing all outstanding requests, and closes the
+   * socket.
+   */
+  private void fail(IOException e) {
+    List<Pending<?>> failed;
+    synchronized (this) {
+      if (failure != null) return;
+      failure = e;
+      failed = new ArrayList<>(pending.values());
+      pending.clear();
+    }
+
+    for (Pending<?> request : failed) {
+      request.future.setException(e);
+    }
+
+    try {
+      socket.close();
+    } catch (IOException e1) {
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "pipeline on " + socket;
+  }
+
+  /**
+   * A request awaiting its reply.
+   */
+  private static final class Pending<R extends Message.Response> {
+    final Message<R, ?> message;
+    final SettableFuture<R> future;
+
+    Pending(Message<R, ?> message) {
+      this.message = message;
+      this.future = SettableFuture.create();
+    }
+
+    /**
+     * Reads the reply to this request and completes the future.
+     *
+     * @throws IOException
+     *           if the reply could not be read.
+     */
+    void receive(DataInputStream in, SubSocket<?> socket) throws IOException {
+      try {
+        future.set(message.readReply(in, socket));
+      } catch (FabricException e) {
+        future.setException(e);
+      } catch (ServerBusyException e) {
+        // The stream is still usable.
+        future.setException(e);
+      }
+    }
+  }
+
+  /**
+   * Reads replies until no requests are outstanding.
+   */
+  private final class Reader extends Threading.NamedRunnable {
+    Reader() {
+      super("reader for " + MessagePipeline.this);
+    }
+
+    @Override
+    protected void runImpl() {
+      try {
+        while (true) {
+          synchronized (MessagePipeline.this) {
+            if (failure != null || pending.isEmpty()) {
+              readerRunning = false;
+              return;
+            }
+          }
+
+          long msgId = in.readLong();
+          Pending<?> request;
+          synchronized (MessagePipeline.this) {
+            request = pending.remove(msgId);
+          }
+
+          if (request == null)
+            throw new IOException("Received reply to unknown message " + msgId);
+
+          request.receive(in, socket);
+        }
+      } catch (IOException e) {
+        fail(e);
+        synchronized (MessagePipeline.this) {
+          readerRunning = false;
+        }
+      }
+    }
+  }
+}
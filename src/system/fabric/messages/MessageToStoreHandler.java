@@ -64,6 +64,10 @@ public abstract class MessageToStoreHandler extends AbstractMessageServer {
       RemoteIdentity<RemoteWorker> client, ReadMessage msg)
       throws AccessException;
 
+  @Override
+  public abstract MultiReadMessage.Response handle(
+      RemoteIdentity<RemoteWorker> client, MultiReadMessage msg);
+
   @Override
   public abstract MakePrincipalMessage.Response handle(
       RemoteIdentity<RemoteWorker> client, MakePrincipalMessage msg)
@@ -118,6 +118,13 @@ public abstract class MessageToWorkerHandler extends AbstractMessageServer {
     throw error(msg);
   }
 
+  @Override
+  public fabric.messages.MultiReadMessage.Response handle(
+      RemoteIdentity<RemoteWorker> client, MultiReadMessage msg)
+      throws ProtocolError {
+    throw error(msg);
+  }
+
   @Override
   public fabric.messages.MakePrincipalMessage.Response handle(
       RemoteIdentity<RemoteWorker> client, MakePrincipalMessage msg)
@@ -0,0 +1,111 @@
+package fabric.messages;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import fabric.common.ObjectGroup;
+import fabric.common.exceptions.ProtocolError;
+import fabric.common.net.RemoteIdentity;
+import fabric.common.util.LongHashSet;
+import fabric.common.util.LongIterator;
+import fabric.common.util.LongSet;
+import fabric.worker.remote.RemoteWorker;
+
+/**
+ * A <code>MultiReadMessage</code> represents a request from a worker to read
+ * several objects at a store in one round trip. Objects that cannot be read
+ * (because they do not exist or the worker is not allowed to read them) are
+ * omitted from the response, rather than failing the whole request.
+ */
+public class MultiReadMessage extends
+    Message<MultiReadMessage.Response, fabric.messages.Message.NoException> {
+  // ////////////////////////////////////////////////////////////////////////////
+  // message contents //
+  // ////////////////////////////////////////////////////////////////////////////
+
+  /** The onums of the objects to read. */
+  public final LongSet onums;
+
+  public MultiReadMessage(LongSet onums) {
+    super(MessageType.MULTI_READ_ONUMS, NoException.class);
+    this.onums = onums;
+  }
+
+  // ////////////////////////////////////////////////////////////////////////////
+  // response contents //
+  // ////////////////////////////////////////////////////////////////////////////
+
+  public static class Response implements Message.Response {
+
+    /**
+     * The groups containing the requested objects that could be read. A group
+     * may contain several of the requested objects, in which case it appears
+     * only once.
+     */
+    public final List<ObjectGroup> groups;
+
+    public Response(List<ObjectGroup> groups) {
+      this.groups = groups;
+    }
+
+  }
+
+  // ////////////////////////////////////////////////////////////////////////////
+  // visitor methods //
+  // ////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public Response dispatch(RemoteIdentity<RemoteWorker> client, MessageHandler h)
+      throws ProtocolError {
+    return h.handle(client, this);
+  }
+
+  // ////////////////////////////////////////////////////////////////////////////
+  // serialization cruft //
+  // ////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  protected void writeMessage(DataOutput out) throws IOException {
+    out.writeInt(onums.size());
+    for (LongIterator it = onums.iterator(); it.hasNext();) {
+      out.writeLong(it.next());
+    }
+  }
+
+  /* readMessage */
+  protected MultiReadMessage(DataInput in) throws IOException {
+    this(readOnums(in));
+  }
+
+  /* helper method for deserialization constructor */
+  private static LongSet readOnums(DataInput in) throws IOException {
+    int size = in.readInt();
+    LongSet onums = new LongHashSet(size);
+    for (int i = 0; i < size; i++)
+      onums.add(in.readLong());
+
+    return onums;
+  }
+
+  @Override
+  protected void writeResponse(DataOutput out, Response r) throws IOException {
+    out.writeInt(r.groups.size());
+    for (ObjectGroup group : r.groups) {
+      group.write(out);
+    }
+  }
+
+  @Override
+  protected Response readResponse(DataInput in) throws IOException {
+    int size = in.readInt();
+    List<ObjectGroup> groups = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      groups.add(new ObjectGroup(in));
+    }
+
+    return new Response(groups);
+  }
+}
@@ -0,0 +1,15 @@
+package fabric.messages;
+
+import java.io.IOException;
+
+/**
+ * Indicates that a remote node refused a message without handling it because
+ * it was overloaded. The message may safely be resent.
+ */
+public class ServerBusyException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  public ServerBusyException(String message) {
+    super(message);
+  }
+}
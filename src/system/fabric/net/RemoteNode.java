@@ -2,11 +2,17 @@ package fabric.net;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingDeque;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import fabric.common.Logging;
 import fabric.common.exceptions.FabricException;
 import fabric.common.exceptions.NotImplementedException;
 import fabric.common.net.SubSocket;
@@ -14,6 +20,8 @@ import fabric.common.net.SubSocketFactory;
 import fabric.lang.security.Principal;
 import fabric.messages.AsyncMessage;
 import fabric.messages.Message;
+import fabric.messages.MessagePipeline;
+import fabric.messages.ServerBusyException;
 
 /**
  * Abstracts remote stores and remote workers.
@@ -27,14 +35,26 @@ public abstract class RemoteNode<This extends RemoteNode<This>>
 
   private transient final ConcurrentMap<SubSocketFactory<This>, BlockingDeque<SubSocket<This>>> subSocketCache;
 
+  /**
+   * Pipelines for sendPipelined, by socket factory. Guarded by itself.
+   */
+  private transient final Map<SubSocketFactory<This>, MessagePipeline> pipelines;
+
   /**
    * Maximum number of cached subsocket connections.
    */
   private static final int MAX_QUEUE_SIZE = 10;
 
+  /**
+   * Maximum number of times to send a message that is refused by a busy node.
+   * Retries are spaced by a randomized exponential backoff.
+   */
+  private static final int MAX_BUSY_RETRIES = 12;
+
   protected RemoteNode(String name) {
     this.name = name;
     this.subSocketCache = new ConcurrentHashMap<>(2);
+    this.pipelines = new HashMap<>(2);
   }
 
   /**
@@ -80,21 +100,68 @@ public abstract class RemoteNode<This extends RemoteNode<This>>
 
   protected <R extends Message.Response, E extends FabricException> R send(
       SubSocketFactory<This> subSocketFactory, Message<R, E> message) throws E {
-    try {
-      SubSocket<This> socket = getSocket(subSocketFactory);
+    int backoff = 1;
+    for (int attempt = 1;; attempt++) {
       try {
-        return message.send(socket);
+        SubSocket<This> socket = getSocket(subSocketFactory);
+        try {
+          return message.send(socket);
+        } catch (ServerBusyException e) {
+          // The stream is still usable; the finally block recycles it.
+          throw e;
+        } catch (IOException e) {
+          socket = null;
+          throw e;
+        } finally {
+          if (socket != null) {
+            recycle(subSocketFactory, socket);
+          }
+        }
+      } catch (ServerBusyException e) {
+        // The message was not handled, so it is safe to resend.
+        if (attempt >= MAX_BUSY_RETRIES) throw new NotImplementedException(e);
       } catch (IOException e) {
-        socket = null;
-        throw e;
-      } finally {
-        if (socket != null) {
-          recycle(subSocketFactory, socket);
+        throw new NotImplementedException(e);
+      }
+
+      try {
+        Thread.sleep(Math.round(Math.random() * backoff));
+      } catch (InterruptedException e) {
+        Logging.logIgnoredInterruptedException(e);
+      }
+      backoff *= 2;
+    }
+  }
+
+  /**
+   * Sends a message without waiting for its reply. Messages sent this way
+   * share one SubSocket per socket factory, so several can be outstanding at
+   * once.
+   *
+   * @return a future for the reply, which fails with the message's exception
+   *         type if an error occurs at the remote node while handling the
+   *         message, with a {@link ServerBusyException} if the node refused the
+   *         message, or with an IOException in the event of a communications
+   *         failure.
+   */
+  protected <R extends Message.Response, E extends FabricException> ListenableFuture<R> sendPipelined(
+      SubSocketFactory<This> subSocketFactory, Message<R, E> message) {
+    MessagePipeline pipeline;
+    synchronized (pipelines) {
+      pipeline = pipelines.get(subSocketFactory);
+      if (pipeline == null || pipeline.isBroken()) {
+        try {
+          @SuppressWarnings("unchecked")
+          This this_ = (This) this;
+          pipeline = new MessagePipeline(subSocketFactory.createSocket(this_));
+        } catch (IOException e) {
+          return Futures.immediateFailedFuture(e);
         }
+        pipelines.put(subSocketFactory, pipeline);
       }
-    } catch (IOException e) {
-      throw new NotImplementedException(e);
     }
+
+    return pipeline.send(message);
   }
 
   protected void sendAsync(SubSocketFactory<This> subSocketFactory,
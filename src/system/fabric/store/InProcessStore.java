@@ -1,8 +1,11 @@
 package fabric.store;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import fabric.common.ObjectGroup;
 import fabric.common.SerializedObject;
@@ -11,6 +14,7 @@ import fabric.common.TransactionID;
 import fabric.common.exceptions.AccessException;
 import fabric.common.exceptions.InternalError;
 import fabric.common.net.RemoteIdentity;
+import fabric.common.util.LongIterator;
 import fabric.common.util.LongKeyHashMap;
 import fabric.common.util.LongKeyMap;
 import fabric.common.util.LongSet;
@@ -121,10 +125,11 @@ public class InProcessStore extends RemoteStore {
         sm.createSurrogates(req);
 
         try {
-          tm.prepare(Worker.getWorker().getPrincipal(), req);
-
-          if (singleStore || readOnly) {
-            tm.commitTransaction(getLocalWorkerIdentity(), tid);
+          if (singleStore) {
+            tm.prepareAndCommit(getLocalWorkerIdentity(), req);
+          } else {
+            tm.prepare(Worker.getWorker().getPrincipal(), req);
+            if (readOnly) tm.commitTransaction(getLocalWorkerIdentity(), tid);
           }
           Worker.getWorker().inProcessRemoteWorker
               .notifyStorePrepareSuccess(tid);
@@ -147,6 +152,24 @@ public class InProcessStore extends RemoteStore {
     return new ObjectGroup(map);
   }
 
+  @Override
+  public List<ObjectGroup> readObjectsFromStore(LongSet onums) {
+    List<ObjectGroup> result = new ArrayList<>(onums.size());
+    for (LongIterator it = onums.iterator(); it.hasNext();) {
+      try {
+        result.add(readObjectFromStore(it.next()));
+      } catch (AccessException e) {
+        // Leave the object out, as the store would.
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void prefetch(LongSet onums) {
+    // Reads from the in-process store are cheap. Nothing to gain here.
+  }
+
   @Override
   public ObjectGlob readEncryptedObjectFromStore(long onum)
       throws AccessException {
@@ -162,6 +185,32 @@ public class InProcessStore extends RemoteStore {
     }
   }
 
+  /**
+   * Takes an online snapshot of the store's object database into the given
+   * directory.
+   *
+   * @return a one-line summary of the snapshot.
+   */
+  public String snapshot(File dir) throws IOException {
+    return tm.snapshot(dir);
+  }
+
+  /**
+   * @return a one-line summary of the batch sizes and commit latencies of the
+   *         store's group commits.
+   */
+  public String groupCommitStats() {
+    return tm.groupCommitStats();
+  }
+
+  /**
+   * @return the update-notification lag of each of the store's subscribers,
+   *         by subscriber name.
+   */
+  public Map<String, SubscriptionManager.Lag> getNotificationLag() {
+    return tm.getNotificationLag();
+  }
+
   private Object writeReplace() {
     return new SerializationProxy(name);
   }
@@ -113,7 +113,7 @@ public class Node {
   public Node(Options opts) {
     try {
       this.opts = opts;
-      this.store = new Store(this, opts.storeName);
+      this.store = new Store(this, opts);
 
     } catch (final Exception e) {
       throw new InternalError("Failed to intialize Node", e);
@@ -19,6 +19,50 @@ public class Options extends fabric.common.Options {
   private static final int DEFAULT_TIMEOUT = 15;
   public int timeout;
 
+  /**
+   * The maximum number of prepare, commit, and rollback records that the object
+   * database may write in a single durable transaction. A value of 1, the
+   * default, disables group commit.
+   */
+  private static final int DEFAULT_GROUP_COMMIT_BATCH_SIZE = 1;
+  public int groupCommitBatchSize;
+
+  /**
+   * The maximum time, in microseconds, that a group-commit batch is held open
+   * waiting for more records. With 0, a batch contains only the records that
+   * queued up while the previous batch was being written.
+   */
+  private static final int DEFAULT_GROUP_COMMIT_WAIT = 0;
+  public int groupCommitWait;
+
+  /**
+   * The number of recent versions of each object that the object database
+   * keeps, for validating read-only transactions against a snapshot instead
+   * of locking the objects they read. A value of 0 disables this.
+   */
+  private static final int DEFAULT_SNAPSHOT_VERSIONS = 0;
+  public int snapshotVersions;
+
+  /**
+   * The number of most frequently read object groups that the store records
+   * while running and rebuilds on startup, before accepting requests. A value
+   * of 0 disables cache warm-up.
+   */
+  private static final int DEFAULT_WARM_UP_GROUPS = 0;
+  public int warmUpGroups;
+
+  /**
+   * The maximum time, in seconds, to spend warming up the caches on startup.
+   */
+  private static final int DEFAULT_WARM_UP_TIME = 60;
+  public int warmUpTime;
+
+  /**
+   * The maximum total size, in megabytes, of the groups rebuilt on startup.
+   */
+  private static final int DEFAULT_WARM_UP_MEMORY = 256;
+  public int warmUpMemory;
+
   /**
    * The worker shell command to run.
    */
@@ -77,6 +121,101 @@ public class Options extends fabric.common.Options {
       }
     });
 
+    flags.add(new Flag("--group-commit-batch", "<number>", "maximum number of "
+        + "prepare/commit records written in one database transaction (1 "
+        + "disables group commit)", DEFAULT_GROUP_COMMIT_BATCH_SIZE) {
+      @Override
+      public int handle(String[] args, int index) throws UsageError {
+        try {
+          Options.this.groupCommitBatchSize = Integer.parseInt(args[index]);
+        } catch (NumberFormatException e) {
+          throw new UsageError("Invalid argument: " + args[index]);
+        }
+        if (Options.this.groupCommitBatchSize < 1)
+          throw new UsageError("Invalid argument: " + args[index]);
+        return index + 1;
+      }
+    });
+
+    flags.add(new Flag("--group-commit-wait", "<microseconds>", "maximum time "
+        + "to wait for a group-commit batch to fill",
+        DEFAULT_GROUP_COMMIT_WAIT) {
+      @Override
+      public int handle(String[] args, int index) throws UsageError {
+        try {
+          Options.this.groupCommitWait = Integer.parseInt(args[index]);
+        } catch (NumberFormatException e) {
+          throw new UsageError("Invalid argument: " + args[index]);
+        }
+        if (Options.this.groupCommitWait < 0)
+          throw new UsageError("Invalid argument: " + args[index]);
+        return index + 1;
+      }
+    });
+
+    flags.add(new Flag("--snapshot-versions", "<number>", "number of recent "
+        + "versions of each object kept for validating single-store read-only "
+        + "transactions without locks (0 disables)",
+        DEFAULT_SNAPSHOT_VERSIONS) {
+      @Override
+      public int handle(String[] args, int index) throws UsageError {
+        try {
+          Options.this.snapshotVersions = Integer.parseInt(args[index]);
+        } catch (NumberFormatException e) {
+          throw new UsageError("Invalid argument: " + args[index]);
+        }
+        if (Options.this.snapshotVersions < 0)
+          throw new UsageError("Invalid argument: " + args[index]);
+        return index + 1;
+      }
+    });
+
+    flags.add(new Flag("--warm-up-groups", "<number>", "number of most "
+        + "frequently read groups to rebuild on startup (0 disables cache "
+        + "warm-up)", DEFAULT_WARM_UP_GROUPS) {
+      @Override
+      public int handle(String[] args, int index) throws UsageError {
+        try {
+          Options.this.warmUpGroups = Integer.parseInt(args[index]);
+        } catch (NumberFormatException e) {
+          throw new UsageError("Invalid argument: " + args[index]);
+        }
+        if (Options.this.warmUpGroups < 0)
+          throw new UsageError("Invalid argument: " + args[index]);
+        return index + 1;
+      }
+    });
+
+    flags.add(new Flag("--warm-up-time", "<seconds>", "maximum time to spend "
+        + "warming up the caches on startup", DEFAULT_WARM_UP_TIME) {
+      @Override
+      public int handle(String[] args, int index) throws UsageError {
+        try {
+          Options.this.warmUpTime = Integer.parseInt(args[index]);
+        } catch (NumberFormatException e) {
+          throw new UsageError("Invalid argument: " + args[index]);
+        }
+        if (Options.this.warmUpTime < 0)
+          throw new UsageError("Invalid argument: " + args[index]);
+        return index + 1;
+      }
+    });
+
+    flags.add(new Flag("--warm-up-memory", "<megabytes>", "maximum size of "
+        + "the groups rebuilt on startup", DEFAULT_WARM_UP_MEMORY) {
+      @Override
+      public int handle(String[] args, int index) throws UsageError {
+        try {
+          Options.this.warmUpMemory = Integer.parseInt(args[index]);
+        } catch (NumberFormatException e) {
+          throw new UsageError("Invalid argument: " + args[index]);
+        }
+        if (Options.this.warmUpMemory < 0)
+          throw new UsageError("Invalid argument: " + args[index]);
+        return index + 1;
+      }
+    });
+
     flags.add(new Flag("--no-shell", null, "disable the worker shell. This is "
         + "useful when the store is started with a disconnected stdin.") {
       @Override
@@ -101,6 +240,12 @@ public class Options extends fabric.common.Options {
     this.storeName = null;
     this.threadPool = DEFAULT_THREAD_POOL_SIZE;
     this.timeout = DEFAULT_TIMEOUT;
+    this.groupCommitBatchSize = DEFAULT_GROUP_COMMIT_BATCH_SIZE;
+    this.groupCommitWait = DEFAULT_GROUP_COMMIT_WAIT;
+    this.snapshotVersions = DEFAULT_SNAPSHOT_VERSIONS;
+    this.warmUpGroups = DEFAULT_WARM_UP_GROUPS;
+    this.warmUpTime = DEFAULT_WARM_UP_TIME;
+    this.warmUpMemory = DEFAULT_WARM_UP_MEMORY;
     this.cmd = null;
     this.interactiveShell = true;
     // Default codeCache is set in validateOptions because it depends on
@@ -269,10 +269,50 @@ public final class PrepareRequest {
    */
   public void runPrepare(TransactionManager tm, ObjectDB database,
       Principal worker) throws TransactionPrepareFailedException {
+    checkPerms(tm, database, worker);
+    prepareWithLocks(database, worker);
+  }
+
+  /**
+   * Runs the prepare for a transaction that involves no other store and that
+   * will be committed as soon as it is prepared. If the transaction does not
+   * update any objects, its reads are first validated against a snapshot of
+   * the store (see {@link ObjectDB#checkSnapshot(LongKeyMap)}), which takes no
+   * locks. The transaction is otherwise prepared as usual.
+   * <p>
+   * Transactions that involve several stores are not validated against
+   * snapshots, since each store could pick a different snapshot.
+   *
+   * @return true if the transaction was prepared and must be committed, or
+   *         false if its reads were validated against a snapshot, in which
+   *         case nothing was prepared.
+   */
+  public boolean runSingleStorePrepare(TransactionManager tm,
+      ObjectDB database, Principal worker)
+      throws TransactionPrepareFailedException {
+    checkPerms(tm, database, worker);
+
+    if (creates.isEmpty() && writes.isEmpty()
+        && database.checkSnapshot(reads)) {
+      if (STORE_TRANSACTION_LOGGER.isLoggable(Level.FINE)) {
+        STORE_TRANSACTION_LOGGER.log(Level.FINE,
+            "Validated transaction {0} against a snapshot",
+            Long.toHexString(tid));
+      }
+      return false;
+    }
+
+    prepareWithLocks(database, worker);
+    return true;
+  }
 
-    // First, check read and write permissions. We do this before we attempt to
-    // do the actual prepare because we want to run the permissions check in a
-    // transaction outside of the worker's transaction.
+  /**
+   * Checks read and write permissions. We do this before we attempt to do the
+   * actual prepare because we want to run the permissions check in a
+   * transaction outside of the worker's transaction.
+   */
+  private void checkPerms(TransactionManager tm, ObjectDB database,
+      Principal worker) throws TransactionPrepareFailedException {
     fabric.worker.Store store = Worker.getWorker().getStore(database.getName());
     if (worker == null || worker.$getStore() != store
         || worker.$getOnum() != ONumConstants.STORE_PRINCIPAL) {
@@ -282,7 +322,13 @@ public final class PrepareRequest {
         throw new TransactionPrepareFailedException("52 " + e.getMessage());
       }
     }
+  }
 
+  /**
+   * Locks the objects being prepared and checks their versions.
+   */
+  private void prepareWithLocks(ObjectDB database, Principal worker)
+      throws TransactionPrepareFailedException {
     try {
       database.beginTransaction(tid, worker);
     } catch (final AccessException e) {
@@ -9,7 +9,9 @@ import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.logging.Level;
 
 import fabric.common.ConfigProperties;
@@ -34,7 +36,10 @@ import fabric.common.net.handshake.Protocol;
 import fabric.common.net.naming.NameService;
 import fabric.common.net.naming.NameService.PortType;
 import fabric.common.net.naming.TransitionalNameService;
+import fabric.common.util.LongHashSet;
+import fabric.common.util.LongIterator;
 import fabric.common.util.LongKeyMap;
+import fabric.common.util.LongSet;
 import fabric.dissemination.ObjectGlob;
 import fabric.lang.security.NodePrincipal;
 import fabric.lang.security.Principal;
@@ -45,6 +50,7 @@ import fabric.messages.DissemReadMessage;
 import fabric.messages.GetCertChainMessage;
 import fabric.messages.MakePrincipalMessage;
 import fabric.messages.MessageToStoreHandler;
+import fabric.messages.MultiReadMessage;
 import fabric.messages.PrepareTransactionMessage;
 import fabric.messages.ReadMessage;
 import fabric.messages.StalenessCheckMessage;
@@ -68,8 +74,8 @@ class Store extends MessageToStoreHandler {
 
   private final SubServerSocketFactory socketFactory;
 
-  Store(Node node, String name) {
-    super(name);
+  Store(Node node, Options opts) {
+    super(opts.storeName);
 
     //
     // read properties file
@@ -102,7 +108,7 @@ class Store extends MessageToStoreHandler {
     this.socketFactory = createSocketFactory(keyset);
 
     this.node = node;
-    this.os = loadStore();
+    this.os = loadStore(opts);
     this.tm = new TransactionManager(this.os);
     this.sm = loadSurrogateManager();
   }
@@ -114,6 +120,9 @@ class Store extends MessageToStoreHandler {
   public void initialize() {
     // Ensure each store's object database has been properly initialized.
     os.ensureInit();
+
+    // Rebuild the most frequently read groups before accepting requests.
+    os.warmUp();
   }
 
   @Override
@@ -123,12 +132,13 @@ class Store extends MessageToStoreHandler {
 
   public void shutdown() {
     try {
+      os.saveHotGroups();
       os.close();
     } catch (final IOException exc) { /* do nothing */
     }
   }
 
-  private ObjectDB loadStore() {
+  private ObjectDB loadStore(Options opts) {
     try {
       // construct ObjectDB with class specified by properties file
       final Class<?> osClass = Class.forName(config.backendClass);
@@ -136,6 +146,7 @@ class Store extends MessageToStoreHandler {
           osClass.getConstructor(String.class, PrivateKey.class);
       final ObjectDB os =
           (ObjectDB) osCons.newInstance(config.name, this.privateKey);
+      os.configure(opts);
 
       return os;
     } catch (Exception exc) {
@@ -234,11 +245,14 @@ class Store extends MessageToStoreHandler {
         nameOf(client.principal), Long.toHexString(msg.tid));
 
     try {
-      prepareTransaction(client.principal, msg.tid, msg.serializedCreates,
+      PrepareRequest req = prepareRequest(msg.tid, msg.serializedCreates,
           msg.serializedWrites, msg.reads);
 
-      if (msg.singleStore || msg.readOnly) {
-        tm.commitTransaction(client, msg.tid);
+      if (msg.singleStore) {
+        tm.prepareAndCommit(client, req);
+      } else {
+        tm.prepare(client.principal, req);
+        if (msg.readOnly) tm.commitTransaction(client, msg.tid);
       }
       client.node.notifyStorePrepareSuccess(msg.tid);
     } catch (TransactionPrepareFailedException e) {
@@ -263,6 +277,40 @@ class Store extends MessageToStoreHandler {
     return new ReadMessage.Response(group);
   }
 
+  /**
+   * Processes the given multi-read request. Objects that cannot be read are
+   * omitted from the response, and objects already contained in the group of an
+   * earlier object are not looked up again.
+   */
+  @Override
+  public MultiReadMessage.Response handle(RemoteIdentity<RemoteWorker> client,
+      MultiReadMessage msg) {
+    Logging.log(STORE_REQUEST_LOGGER, Level.FINER,
+        "Handling Multi-Read Message from {0}, {1} onums",
+        nameOf(client.principal), msg.onums.size());
+
+    List<ObjectGroup> groups = new ArrayList<>();
+    LongSet covered = new LongHashSet();
+    for (LongIterator it = msg.onums.iterator(); it.hasNext();) {
+      long onum = it.next();
+      if (covered.contains(onum)) continue;
+
+      try {
+        ObjectGroup group = tm.getGroup(client.principal, client.node, onum);
+        groups.add(group);
+        for (LongIterator groupIt = group.objects().keySet().iterator(); groupIt
+            .hasNext();) {
+          covered.add(groupIt.next());
+        }
+      } catch (AccessException e) {
+        // Leave the object out of the response. The worker will read it
+        // individually if it is still needed, and get the error then.
+      }
+    }
+
+    return new MultiReadMessage.Response(groups);
+  }
+
   /**
    * Processes the given dissemination-read request.
    */
@@ -344,17 +392,17 @@ class Store extends MessageToStoreHandler {
         tm.checkForStaleObjects(client.principal, message.versions));
   }
 
-  private void prepareTransaction(Principal p, long tid,
+  private PrepareRequest prepareRequest(long tid,
       Collection<SerializedObject> serializedCreates,
-      Collection<SerializedObject> serializedWrites, LongKeyMap<Integer> reads)
-      throws TransactionPrepareFailedException {
+      Collection<SerializedObject> serializedWrites,
+      LongKeyMap<Integer> reads) {
 
     PrepareRequest req =
         new PrepareRequest(tid, serializedCreates, serializedWrites, reads);
 
     sm.createSurrogates(req);
 
-    tm.prepare(p, req);
+    return req;
   }
 
   private String nameOf(Principal p) {
@@ -5,18 +5,33 @@ import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
+import fabric.common.ConfigProperties;
 import fabric.common.Logging;
 import fabric.common.ObjectGroup;
+import fabric.common.SerializedObject;
 import fabric.common.Threading;
 import fabric.common.exceptions.AccessException;
+import fabric.common.exceptions.NotImplementedException;
 import fabric.common.util.LongHashSet;
 import fabric.common.util.LongIterator;
 import fabric.common.util.LongKeyCache;
+import fabric.common.util.LongKeyHashMap;
+import fabric.common.util.LongKeyMap;
 import fabric.common.util.LongSet;
 import fabric.dissemination.ObjectGlob;
 import fabric.store.db.GroupContainer;
@@ -26,10 +41,52 @@ import fabric.worker.remote.RemoteWorker;
 /**
  * Keeps track of who's subscribed to what object. Handles subscriptions for a
  * single store.
+ * <p>
+ * Update notifications are sent in rounds. Updates are queued per subscriber,
+ * and a round runs fabric.node.updateCoalesceMillis after the first update
+ * queued since the last round, so that a subscriber receives the updates made
+ * in that window in one message. Each round looks up each updated object's
+ * group once, and shares it among the subscribers it goes to.
+ * <p>
+ * A subscriber has at most one notification in flight. Notifications are sent
+ * by a pool of at most fabric.node.updateNotifierThreads threads, and queued
+ * while those are all busy. Since a subscriber that is slow to accept its
+ * notifications occupies at most one thread, it holds up only its own. A
+ * subscriber that can't be reached is dropped, along with its pending
+ * updates, until it is next sent an update.
  */
 public class SubscriptionManager {
 
-  private final ConcurrentMap<RemoteWorker, LongSet> notificationQueues;
+  /**
+   * The pending updates and statistics for each subscriber that has been sent
+   * updates.
+   */
+  private final ConcurrentMap<RemoteWorker, Subscriber> subscribers;
+
+  /**
+   * Subscribers with pending updates that are waiting for the next round.
+   */
+  private final Queue<Subscriber> ready;
+
+  /**
+   * Whether a notification round has been scheduled and not yet started.
+   */
+  private final AtomicBoolean roundScheduled;
+
+  // The following are guarded by this, and are initialized when the first
+  // update is submitted.
+
+  /**
+   * Runs notification rounds.
+   */
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Sends notifications.
+   */
+  private ThreadPoolExecutor senders;
+
+  private volatile long coalesceMillis;
 
   /**
    * The set of nodes subscribed to each onum. The second component of each pair
@@ -56,7 +113,9 @@ public class SubscriptionManager {
    */
   public SubscriptionManager(String store, TransactionManager tm) {
     this.store = store;
-    this.notificationQueues = new ConcurrentHashMap<>();
+    this.subscribers = new ConcurrentHashMap<>();
+    this.ready = new ConcurrentLinkedQueue<>();
+    this.roundScheduled = new AtomicBoolean();
     this.tm = tm;
     this.subscriptions = new LongKeyCache<>();
   }
@@ -100,111 +159,372 @@ public class SubscriptionManager {
     subscribers.putIfAbsent(worker, dissemSubscribe);
   }
 
-  private class UpdateNotifier extends Threading.NamedRunnable {
+  /**
+   * Creates the executors that run notification rounds and send
+   * notifications, if necessary.
+   */
+  private synchronized void startExecutors() {
+    if (scheduler != null) return;
+
+    ConfigProperties config = Worker.getWorker().config;
+    coalesceMillis = config.updateCoalesceMillis;
+    scheduler = new ScheduledThreadPoolExecutor(1,
+        new NotifierThreadFactory("Update notification rounds " + store));
+    int notifierThreads = Math.max(1, config.updateNotifierThreads);
+    senders = new ThreadPoolExecutor(notifierThreads, notifierThreads, 60,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new NotifierThreadFactory("Update notifier " + store));
+    senders.allowCoreThreadTimeOut(true);
+  }
 
-    private final RemoteWorker worker;
-    private final LongSet queue;
+  private synchronized ScheduledExecutorService scheduler() {
+    startExecutors();
+    return scheduler;
+  }
 
-    public UpdateNotifier(RemoteWorker worker) {
-      super("Update notifier for " + worker.name());
-      this.worker = worker;
-      this.queue = notificationQueues.get(worker);
+  private synchronized ThreadPoolExecutor senders() {
+    startExecutors();
+    return senders;
+  }
+
+  private static final class NotifierThreadFactory implements ThreadFactory {
+    private final String name;
+    private int nextID = 1;
+
+    NotifierThreadFactory(String name) {
+      this.name = name;
     }
 
     @Override
-    protected final void runImpl() {
-      handle();
+    public synchronized Thread newThread(Runnable r) {
+      Thread result = new Thread(r, name + " " + nextID++);
+      result.setDaemon(true);
+      return result;
     }
+  }
 
-    protected void handle() {
-      try {
-        while (true) {
-          LongSet curGroup = new LongHashSet();
-          synchronized (queue) {
-            while (queue.isEmpty()) {
-              try {
-                queue.wait();
-              } catch (InterruptedException e) {
-                Logging.logIgnoredInterruptedException(e);
-              }
-            }
-            curGroup.addAll(queue);
-          }
-          runGroup(curGroup);
+  /**
+   * Schedules a notification round, unless one is already scheduled.
+   */
+  private void scheduleRound() {
+    ScheduledExecutorService scheduler = scheduler();
+    if (roundScheduled.compareAndSet(false, true))
+      scheduler.schedule(new Round(), coalesceMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void submit(RemoteWorker worker, LongSet addition) {
+    while (true) {
+      Subscriber subscriber = subscribers.get(worker);
+      if (subscriber == null) {
+        subscriber = new Subscriber(worker);
+        Subscriber existing = subscribers.putIfAbsent(worker, subscriber);
+        if (existing != null) subscriber = existing;
+      }
+
+      if (subscriber.add(addition)) {
+        ready.add(subscriber);
+        scheduleRound();
+        return;
+      }
+
+      // Retry with a fresh subscriber if this one was dropped from under us.
+      if (!subscriber.isDropped()) return;
+      subscribers.remove(worker, subscriber);
+    }
+  }
+
+  /**
+   * Takes the pending updates of every ready subscriber, looks up each updated
+   * object once, and hands the notifications to the executor.
+   */
+  private final class Round extends Threading.NamedRunnable {
+    Round() {
+      super("Update notification round for " + store);
+    }
+
+    @Override
+    protected void runImpl() {
+      roundScheduled.set(false);
+
+      Map<Subscriber, LongSet> batch = new HashMap<>();
+      LongSet updated = new LongHashSet();
+      for (Subscriber subscriber; (subscriber = ready.poll()) != null;) {
+        LongSet onums = subscriber.take();
+        if (onums == null) continue;
+        batch.put(subscriber, onums);
+        updated.addAll(onums);
+      }
+
+      // Look up each object once, however many subscribers it goes to.
+      LongKeyMap<GroupContainer> containers = new LongKeyHashMap<>();
+      for (LongIterator it = updated.iterator(); it.hasNext();) {
+        long onum = it.next();
+        try {
+          // Skip if the onum represents a surrogate.
+          SerializedObject obj = tm.read(onum);
+          if (obj == null || obj.isSurrogate()) continue;
+
+          containers.put(onum, tm.getGroupContainer(onum));
+        } catch (AccessException e) {
+          Logging.MISC_LOGGER.log(Level.WARNING,
+              "Unable to send update notification for {0}/{1}: {2}",
+              new Object[] { store, onum, e });
         }
-      } catch (Throwable t) {
+      }
+
+      for (Map.Entry<Subscriber, LongSet> entry : batch.entrySet()) {
+        senders().execute(
+            new Notification(entry.getKey(), entry.getValue(), containers));
+      }
+    }
+  }
+
+  /**
+   * Sends one subscriber the updates taken for it by a round.
+   */
+  private final class Notification extends Threading.NamedRunnable {
+    private final Subscriber subscriber;
+    private final LongSet onums;
+    private final LongKeyMap<GroupContainer> containers;
+
+    Notification(Subscriber subscriber, LongSet onums,
+        LongKeyMap<GroupContainer> containers) {
+      super("Update notifier for " + subscriber.worker.name());
+      this.subscriber = subscriber;
+      this.onums = onums;
+      this.containers = containers;
+    }
+
+    @Override
+    protected void runImpl() {
+      try {
+        send();
+      } catch (NotImplementedException e) {
+        // The subscriber couldn't be reached. Stop tracking it.
+        Logging.MISC_LOGGER.log(Level.WARNING,
+            "Dropping subscriber {0} to {1}: {2}",
+            new Object[] { subscriber.worker.name(), store, e.getCause() });
+        subscriber.drop();
+        subscribers.remove(subscriber.worker, subscriber);
+      } catch (RuntimeException e) {
         StringWriter sw = new StringWriter();
         PrintWriter pw = new PrintWriter(sw);
-        t.printStackTrace(pw);
+        e.printStackTrace(pw);
         Logging.MISC_LOGGER.log(Level.SEVERE,
-            "Subscription runner exited with exception {0}\n{1}",
-            new Object[] { t, sw });
+            "Update notification failed with exception {0}\n{1}",
+            new Object[] { e, sw });
+      } finally {
+        if (subscriber.sent()) {
+          ready.add(subscriber);
+          scheduleRound();
+        }
       }
     }
 
-    protected void runGroup(LongSet onums) {
+    private void send() {
+      RemoteWorker worker = subscriber.worker;
       Map<ObjectGlob, LongSet> globs = new HashMap<>();
       LongSet onumsSent = new LongHashSet();
       Set<ObjectGroup> groups = new HashSet<>();
+
       // Gather the updates.
       for (LongIterator it = onums.iterator(); it.hasNext();) {
         long onum = it.next();
+        GroupContainer groupContainer = containers.get(onum);
+        if (groupContainer == null) continue;
 
         ConcurrentMap<RemoteWorker, Boolean> subMap = subscriptions.get(onum);
-        if (subMap == null) {
-          synchronized (queue) {
-            queue.remove(onum);
-          }
-          continue;
-        }
+        if (subMap == null) continue;
         Boolean isDissem = subMap.get(worker);
 
         // Skip if the worker has been unsubscribed from under us.
         if (isDissem == null) continue;
 
-        GroupContainer groupContainer;
-        try {
-          // Skip if the onum represents a surrogate.
-          if (tm.read(onum).isSurrogate()) continue;
-
-          // Now grab it and open it up to more notifications.
-          synchronized (queue) {
-            queue.remove(onum);
-          }
-          groupContainer = tm.getGroupContainer(onum);
-          if (isDissem) {
-            ObjectGlob glob = groupContainer.getGlob();
-            if (!globs.containsKey(glob)) {
-              globs.put(glob, new LongHashSet());
-            }
-            globs.get(glob).add(onum);
-          } else {
-            onumsSent.add(onum);
-            groups.add(groupContainer.getGroup(worker.getPrincipal()));
+        if (isDissem) {
+          ObjectGlob glob = groupContainer.getGlob();
+          if (!globs.containsKey(glob)) {
+            globs.put(glob, new LongHashSet());
           }
-        } catch (AccessException e) {
-          throw new InternalError(e);
+          globs.get(glob).add(onum);
+        } else {
+          ObjectGroup group = groupContainer.getGroup(worker.getPrincipal());
+          if (group == null) continue;
+          onumsSent.add(onum);
+          groups.add(group);
         }
       }
 
       // Now send it.
+      if (globs.isEmpty() && groups.isEmpty()) return;
       worker.notifyObjectUpdates(store, globs, onumsSent, groups);
     }
   }
 
-  private void submit(RemoteWorker worker, LongSet addition) {
-    LongSet init = new LongHashSet();
-    LongSet current = notificationQueues.putIfAbsent(worker, init);
-    if (current == null) {
-      current = init;
-      Thread runner = new Thread(new UpdateNotifier(worker));
-      runner.setDaemon(true);
-      runner.start();
-    }
-    synchronized (current) {
-      current.addAll(addition);
-      current.notifyAll();
+  /**
+   * A subscriber's pending updates and notification statistics. This class is
+   * thread safe.
+   */
+  private static final class Subscriber {
+    final RemoteWorker worker;
+
+    // The following are guarded by this.
+
+    private LongSet pending;
+
+    /**
+     * When the oldest of the pending updates was queued.
+     */
+    private long pendingSince;
+
+    /**
+     * When the oldest of the updates being sent was queued.
+     */
+    private long sendingSince;
+
+    /**
+     * Whether this subscriber is waiting for a round.
+     */
+    private boolean queued;
+
+    /**
+     * Whether a notification to this subscriber is being sent.
+     */
+    private boolean sending;
+
+    /**
+     * Whether this subscriber was unreachable, and is no longer tracked.
+     */
+    private boolean dropped;
+
+    private long notifications;
+    private long lastLagNanos;
+    private long maxLagNanos;
+    private long totalLagNanos;
+
+    Subscriber(RemoteWorker worker) {
+      this.worker = worker;
+      this.pending = new LongHashSet();
+    }
+
+    /**
+     * Queues the given updates.
+     *
+     * @return true iff the subscriber must be added to the ready queue.
+     */
+    synchronized boolean add(LongSet onums) {
+      if (dropped) return false;
+      if (pending.isEmpty()) pendingSince = System.nanoTime();
+      pending.addAll(onums);
+
+      // A subscriber being notified is requeued once it is done.
+      if (queued || sending) return false;
+      queued = true;
+      return true;
+    }
+
+    /**
+     * Takes the pending updates for sending.
+     *
+     * @return the updates, or null if there are none.
+     */
+    synchronized LongSet take() {
+      queued = false;
+      if (pending.isEmpty()) return null;
+
+      LongSet result = pending;
+      pending = new LongHashSet();
+      sendingSince = pendingSince;
+      sending = true;
+      return result;
+    }
+
+    /**
+     * Records that the updates taken by {@link #take()} were sent.
+     *
+     * @return true iff more updates are pending, and the subscriber must be
+     *         added to the ready queue.
+     */
+    synchronized boolean sent() {
+      sending = false;
+      notifications++;
+      lastLagNanos = System.nanoTime() - sendingSince;
+      maxLagNanos = Math.max(maxLagNanos, lastLagNanos);
+      totalLagNanos += lastLagNanos;
+
+      if (pending.isEmpty()) return false;
+      queued = true;
+      return true;
+    }
+
+    /**
+     * Discards the pending updates, and stops this subscriber from accepting
+     * more.
+     */
+    synchronized void drop() {
+      dropped = true;
+      pending.clear();
+    }
+
+    synchronized boolean isDropped() {
+      return dropped;
+    }
+
+    synchronized Lag getLag() {
+      long pendingMillis = pending.isEmpty() ? 0
+          : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pendingSince);
+      return new Lag(notifications, pending.size(), pendingMillis,
+          TimeUnit.NANOSECONDS.toMillis(lastLagNanos),
+          TimeUnit.NANOSECONDS.toMillis(maxLagNanos), notifications == 0 ? 0
+              : TimeUnit.NANOSECONDS.toMillis(totalLagNanos / notifications));
+    }
+  }
+
+  /**
+   * A snapshot of how far a subscriber's notifications lag behind updates. A
+   * notification's lag is the time from the first update it carries being
+   * queued to the notification being sent.
+   */
+  public static final class Lag {
+    /** The number of notifications sent. */
+    public final long notifications;
+
+    /** The number of updates waiting to be sent. */
+    public final int pending;
+
+    /** How long the oldest waiting update has waited, in milliseconds. */
+    public final long pendingMillis;
+
+    public final long lastMillis;
+    public final long maxMillis;
+    public final long averageMillis;
+
+    Lag(long notifications, int pending, long pendingMillis, long lastMillis,
+        long maxMillis, long averageMillis) {
+      this.notifications = notifications;
+      this.pending = pending;
+      this.pendingMillis = pendingMillis;
+      this.lastMillis = lastMillis;
+      this.maxMillis = maxMillis;
+      this.averageMillis = averageMillis;
+    }
+
+    @Override
+    public String toString() {
+      return notifications + " notifications, " + pending + " pending ("
+          + pendingMillis + " ms), lag last " + lastMillis + " ms, max "
+          + maxMillis + " ms, avg " + averageMillis + " ms";
+    }
+  }
+
+  /**
+   * @return the notification lag of each subscriber, by subscriber name.
+   */
+  public Map<String, Lag> getLag() {
+    Map<String, Lag> result = new TreeMap<>();
+    for (Subscriber subscriber : subscribers.values()) {
+      result.put(subscriber.worker.name(), subscriber.getLag());
     }
+    return result;
   }
 
   /**
@@ -2,19 +2,26 @@ package fabric.store;
 
 import static fabric.common.Logging.STORE_TRANSACTION_LOGGER;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 
 import fabric.common.AuthorizationUtil;
 import fabric.common.ONumConstants;
 import fabric.common.ObjectGroup;
 import fabric.common.SerializedObject;
+import fabric.common.Timing;
 import fabric.common.exceptions.AccessException;
 import fabric.common.net.RemoteIdentity;
+import fabric.common.util.LongHashSet;
 import fabric.common.util.LongIterator;
+import fabric.common.util.LongKeyHashMap;
 import fabric.common.util.LongKeyMap;
 import fabric.common.util.LongSet;
 import fabric.dissemination.ObjectGlob;
@@ -111,22 +118,137 @@ public class TransactionManager {
    */
   public void prepare(Principal worker, PrepareRequest req)
       throws TransactionPrepareFailedException {
-    req.runPrepare(this, database, worker);
+    Timing.PREPARE.begin();
+    try {
+      req.runPrepare(this, database, worker);
+    } finally {
+      Timing.PREPARE.end();
+    }
+  }
+
+  /**
+   * Prepares and commits a transaction that involves no other store, in a
+   * single step. A transaction that only reads is validated against a snapshot
+   * of the store, if the object database keeps one, and is neither locked nor
+   * logged.
+   *
+   * @param workerIdentity
+   *          The worker requesting the prepare
+   * @throws TransactionPrepareFailedException
+   *           If the transaction would cause a conflict or if the worker is
+   *           insufficiently privileged to execute the transaction.
+   */
+  public void prepareAndCommit(RemoteIdentity<RemoteWorker> workerIdentity,
+      PrepareRequest req) throws TransactionPrepareFailedException,
+      TransactionCommitFailedException {
+    boolean prepared;
+    Timing.PREPARE.begin();
+    try {
+      prepared =
+          req.runSingleStorePrepare(this, database, workerIdentity.principal);
+    } finally {
+      Timing.PREPARE.end();
+    }
+
+    if (prepared) commitTransaction(workerIdentity, req.tid);
+  }
+
+  /**
+   * Takes an online snapshot of the store's object database.
+   *
+   * @see ObjectDB#snapshot(File)
+   */
+  public String snapshot(File dir) throws IOException {
+    return database.snapshot(dir);
+  }
+
+  /**
+   * @return a one-line summary of the object database's group commits.
+   * @see ObjectDB#groupCommitStats()
+   */
+  public String groupCommitStats() {
+    return database.groupCommitStats();
+  }
+
+  /**
+   * @return the update-notification lag of each subscriber, by subscriber
+   *         name.
+   * @see SubscriptionManager#getLag()
+   */
+  public Map<String, SubscriptionManager.Lag> getNotificationLag() {
+    return sm.getLag();
   }
 
   /**
    * Checks that the worker principal has permissions to read/write the given
    * objects. If it doesn't, an AccessException is thrown.
+   * <p>
+   * The objects' update labels are taken from their committed records in the
+   * object database, and each distinct label is checked once: for reading and
+   * writing if any of its objects is written, and for reading otherwise.
+   * Labels whose checks are cached by AuthorizationUtil are checked without
+   * running a transaction, and the rest are checked together in a single
+   * transaction. Objects whose labels are on other stores are checked through
+   * proxies in that transaction.
    */
   protected void checkPerms(final Principal worker, final LongSet reads,
       final Collection<SerializedObject> writes) throws AccessException {
+    final Store store = Worker.getWorker().getStore(database.getName());
+
+    // Group the objects by label.
+    final LongKeyMap<LabelCheck> labels = new LongKeyHashMap<>();
+    final LongSet otherReads = new LongHashSet();
+    final LongSet otherWrites = new LongHashSet();
+    for (LongIterator it = reads.iterator(); it.hasNext();) {
+      long onum = it.next();
+      if (!addLabelCheck(labels, onum, false)) otherReads.add(onum);
+    }
+    for (SerializedObject o : writes) {
+      long onum = o.getOnum();
+      if (!addLabelCheck(labels, onum, true)) otherWrites.add(onum);
+    }
+
+    // Drop the labels whose checks are cached.
+    for (Iterator<LongKeyMap.Entry<LabelCheck>> it =
+        labels.entrySet().iterator(); it.hasNext();) {
+      LongKeyMap.Entry<LabelCheck> entry = it.next();
+      long labelOnum = entry.getKey();
+      boolean cached =
+          entry.getValue().write ? AuthorizationUtil
+              .isReadAndWritePermittedCached(worker, store, labelOnum)
+              : AuthorizationUtil.isReadPermittedCached(worker, store,
+                  labelOnum);
+      if (cached) it.remove();
+    }
+
+    if (labels.isEmpty() && otherReads.isEmpty() && otherWrites.isEmpty())
+      return;
+
     // The code that does the actual checking.
     Code<AccessException> checker = new Code<AccessException>() {
       @Override
       public AccessException run() {
-        Store store = Worker.getWorker().getStore(database.getName());
+        for (LongKeyMap.Entry<LabelCheck> entry : labels.entrySet()) {
+          long labelOnum = entry.getKey();
+          LabelCheck check = entry.getValue();
+
+          if (check.write) {
+            // Check write permissions.
+            if (!AuthorizationUtil.isReadAndWritePermitted(worker, store,
+                labelOnum)) {
+              return new AccessException("write", worker,
+                  new fabric.lang.Object._Proxy(store, check.onum));
+            }
+          } else {
+            // Check read permissions.
+            if (!AuthorizationUtil.isReadPermitted(worker, store, labelOnum)) {
+              return new AccessException("read", worker,
+                  new fabric.lang.Object._Proxy(store, check.onum));
+            }
+          }
+        }
 
-        for (LongIterator it = reads.iterator(); it.hasNext();) {
+        for (LongIterator it = otherReads.iterator(); it.hasNext();) {
           long onum = it.next();
 
           fabric.lang.Object storeCopy =
@@ -141,8 +263,8 @@ public class TransactionManager {
           }
         }
 
-        for (SerializedObject o : writes) {
-          long onum = o.getOnum();
+        for (LongIterator it = otherWrites.iterator(); it.hasNext();) {
+          long onum = it.next();
 
           fabric.lang.Object storeCopy =
               new fabric.lang.Object._Proxy(store, onum);
@@ -165,6 +287,42 @@ public class TransactionManager {
     if (failure != null) throw failure;
   }
 
+  /**
+   * The permission check needed for a label: the onum of an object with the
+   * label, for error reporting, and whether any such object is written.
+   */
+  private static final class LabelCheck {
+    long onum;
+    boolean write;
+
+    LabelCheck(long onum, boolean write) {
+      this.onum = onum;
+      this.write = write;
+    }
+  }
+
+  /**
+   * Adds the given object to the check for its update label.
+   *
+   * @return false if the object's label is not on this store, or if the object
+   *         is not in the database.
+   */
+  private boolean addLabelCheck(LongKeyMap<LabelCheck> labels, long onum,
+      boolean write) {
+    SerializedObject obj = database.read(onum);
+    if (obj == null || obj.updateLabelRefIsInterStore()) return false;
+
+    long labelOnum = obj.getUpdateLabelOnum();
+    LabelCheck check = labels.get(labelOnum);
+    if (check == null) {
+      labels.put(labelOnum, new LabelCheck(onum, write));
+    } else if (write && !check.write) {
+      check.onum = onum;
+      check.write = true;
+    }
+    return true;
+  }
+
   /**
    * Returns a GroupContainer containing the specified object.
    */
@@ -16,9 +16,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import com.sleepycat.bind.tuple.BooleanBinding;
+import com.sleepycat.bind.tuple.IntegerBinding;
 import com.sleepycat.bind.tuple.LongBinding;
 import com.sleepycat.je.Cursor;
 import com.sleepycat.je.Database;
@@ -32,6 +36,7 @@ import com.sleepycat.je.LockMode;
 import com.sleepycat.je.OperationStatus;
 import com.sleepycat.je.Transaction;
 
+import fabric.common.ClassDictionary;
 import fabric.common.FastSerializable;
 import fabric.common.Logging;
 import fabric.common.ONumConstants;
@@ -51,7 +56,9 @@ import fabric.common.util.MutableLong;
 import fabric.common.util.OidKeyHashMap;
 import fabric.lang.FClass;
 import fabric.lang.security.Principal;
+import fabric.store.Options;
 import fabric.store.SubscriptionManager;
+import fabric.worker.RemoteStore;
 import fabric.worker.TransactionPrepareFailedException;
 import fabric.worker.Worker;
 import fabric.worker.remote.RemoteWorker;
@@ -69,6 +76,19 @@ public class BdbDB extends ObjectDB {
    */
   private Database db;
 
+  /**
+   * Database containing the store's class dictionary: serialized ClassRefs, by
+   * ID.
+   */
+  private Database classes;
+
+  /**
+   * The dictionary through which the objects in {@link #db} refer to their
+   * classes, or null if the objects carry their own ClassRefs. The latter is
+   * the case for databases created before class dictionaries were introduced.
+   */
+  private final ClassDictionary classDictionary;
+
   /**
    * Database containing prepared transactions.
    */
@@ -108,6 +128,12 @@ public class BdbDB extends ObjectDB {
    */
   private final Cache<ByteArray, PendingTransaction> preparedTransactions;
 
+  /**
+   * Batches the BDB updates made by finishPrepare, commit, and rollback into
+   * shared BDB transactions. Null if group commit is disabled.
+   */
+  private GroupCommitter groupCommitter;
+
   /**
    * Creates a new BdbStore for the store specified. A new database will be
    * created if it does not exist.
@@ -137,6 +163,7 @@ public class BdbDB extends ObjectDB {
       db = env.openDatabase(null, "store", dbconf);
       prepared = env.openDatabase(null, "prepared", dbconf);
       meta = env.openDatabase(null, "meta", dbconf);
+      classes = env.openDatabase(null, "classes", dbconf);
 
       dbconf.setSortedDuplicates(true);
       preparedCreates = env.openDatabase(null, "preparedCreates", dbconf);
@@ -144,6 +171,8 @@ public class BdbDB extends ObjectDB {
 
       initRwCount();
 
+      classDictionary = loadClassDictionary();
+
       STORE_DB_LOGGER.info("Bdb databases opened");
     } catch (DatabaseException e) {
       STORE_DB_LOGGER.log(Level.SEVERE, "Bdb error in <init>: ", e);
@@ -164,6 +193,131 @@ public class BdbDB extends ObjectDB {
     this.preparedTransactions = new Cache<>();
   }
 
+  /**
+   * Loads the store's class dictionary. A new database gets an empty one; an
+   * existing database that has no dictionary keeps storing objects with their
+   * ClassRefs.
+   */
+  private ClassDictionary loadClassDictionary() {
+    DatabaseEntry key = new DatabaseEntry();
+    DatabaseEntry value = new DatabaseEntry();
+
+    if (meta.get(null, classDictionaryKey(), value,
+        LockMode.DEFAULT) != SUCCESS) {
+      Cursor cursor = db.openCursor(null, null);
+      try {
+        if (cursor.getFirst(key, value, LockMode.DEFAULT) == SUCCESS)
+          return null;
+      } finally {
+        cursor.close();
+      }
+
+      BooleanBinding.booleanToEntry(true, value);
+      meta.put(null, classDictionaryKey(), value);
+    }
+
+    ClassDictionary result = new ClassDictionary();
+    Cursor cursor = classes.openCursor(null, null);
+    try {
+      while (cursor.getNext(key, value, LockMode.DEFAULT) == SUCCESS) {
+        if (result.add(value.getData()) != IntegerBinding.entryToInt(key))
+          throw new InternalError("Corrupt class dictionary");
+      }
+    } finally {
+      cursor.close();
+    }
+
+    STORE_DB_LOGGER.log(Level.INFO, "Bdb class dictionary loaded: {0} classes",
+        result.size());
+    return result;
+  }
+
+  private static DatabaseEntry classDictionaryKey() {
+    try {
+      return new DatabaseEntry("class_dictionary".getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new InternalError(e);
+    }
+  }
+
+  /**
+   * Ensures the class of the given object is in the store's class dictionary.
+   * A new class is written to the database before it is added to the
+   * dictionary, so that no object referring to it becomes durable first.
+   */
+  private void addClass(SerializedObject obj) {
+    byte[] classRef = obj.getSerializedClassRef();
+    if (classDictionary.idOf(classRef) >= 0) return;
+
+    synchronized (classDictionary) {
+      if (classDictionary.idOf(classRef) >= 0) return;
+
+      DatabaseEntry key = new DatabaseEntry();
+      IntegerBinding.intToEntry(classDictionary.size(), key);
+      classes.put(null, key, new DatabaseEntry(classRef));
+      classDictionary.add(classRef);
+    }
+  }
+
+  /**
+   * @return a serializer for records in the object database.
+   */
+  private Serializer<SerializedObject> objectSerializer() {
+    if (classDictionary == null) return new Serializer<>();
+
+    return new Serializer<SerializedObject>() {
+      @Override
+      public void write(SerializedObject obj, ObjectOutputStream out)
+          throws IOException {
+        addClass(obj);
+        obj.write(out, classDictionary);
+      }
+    };
+  }
+
+  /**
+   * Deserializes a record from the object database.
+   */
+  private SerializedObject toStoredObject(byte[] data) {
+    try {
+      ByteArrayInputStream bis = new ByteArrayInputStream(data);
+      ObjectInputStream ois = new ObjectInputStream(bis);
+      return new SerializedObject(ois, classDictionary);
+    } catch (IOException e) {
+      throw new InternalError(e);
+    }
+  }
+
+  @Override
+  public void configure(Options opts) {
+    super.configure(opts);
+
+    if (opts.groupCommitBatchSize > 1 && groupCommitter == null) {
+      groupCommitter = new GroupCommitter(opts.groupCommitBatchSize,
+          TimeUnit.MICROSECONDS.toNanos(opts.groupCommitWait));
+      groupCommitter.start();
+      STORE_DB_LOGGER.log(Level.INFO,
+          "Bdb group commit enabled: max batch {0}, max wait {1} us",
+          new Object[] { opts.groupCommitBatchSize, opts.groupCommitWait });
+    }
+  }
+
+  @Override
+  public String groupCommitStats() {
+    if (groupCommitter == null) return "group commit disabled";
+    return groupCommitter.stats();
+  }
+
+  /**
+   * Takes an online snapshot of the BDB environment. The first snapshot into a
+   * directory copies every log file; later ones only copy the log files
+   * written since. See {@link BdbSnapshot}.
+   */
+  @Override
+  public String snapshot(File dir) throws IOException {
+    return BdbSnapshot.take(env, dir);
+  }
+
   @Override
   public void finishPrepare(final long tid, final Principal worker)
       throws TransactionPrepareFailedException {
@@ -193,7 +347,7 @@ public class BdbDB extends ObjectDB {
 
     final DatabaseEntry key = new DatabaseEntry(toBytes(tid, worker));
 
-    runInBdbTransaction(new Code<Void, RuntimeException>() {
+    runInGroupCommit(new Code<Void, RuntimeException>() {
       @Override
       public Void run(Transaction txn) throws RuntimeException {
         DatabaseEntry data = new DatabaseEntry(toBytesNoModData(pending));
@@ -222,73 +376,70 @@ public class BdbDB extends ObjectDB {
       final SubscriptionManager sm) {
     STORE_DB_LOGGER.log(Level.FINER, "Bdb commit begin tid {0}", tid);
 
-    PendingTransaction pending =
-        runInBdbTransaction(new Code<PendingTransaction, RuntimeException>() {
-          @Override
-          public PendingTransaction run(Transaction txn)
-              throws RuntimeException {
-            PendingTransaction pending =
-                remove(workerIdentity.principal, txn, tid);
-
-            if (pending != null) {
-              Serializer<SerializedObject> serializer = new Serializer<>();
-              for (SerializedObject o : pending.getCreates()) {
-                long onum = o.getOnum();
-                STORE_DB_LOGGER.log(Level.FINEST, "Bdb committing onum {0}",
-                    onum);
-
-                DatabaseEntry onumData = new DatabaseEntry();
-                LongBinding.longToEntry(onum, onumData);
-
-                DatabaseEntry objData =
-                    new DatabaseEntry(serializer.toBytes(o));
-
-                db.put(txn, onumData, objData);
-              }
-              for (SerializedObject o : pending.getWrites()) {
-                long onum = o.getOnum();
-                STORE_DB_LOGGER.log(Level.FINEST, "Bdb committing onum {0}",
-                    onum);
-
-                DatabaseEntry onumData = new DatabaseEntry();
-                LongBinding.longToEntry(onum, onumData);
-
-                DatabaseEntry objData =
-                    new DatabaseEntry(serializer.toBytes(o));
-
-                db.put(txn, onumData, objData);
-
-                // Update the local worker cache if this is a remote worker
-                // updating the value.
-                // If the update is from the local worker, the already
-                // deserialized version in the worker transaction will be in the
-                // cache after 2PC.
-                if (!workerIdentity.node
-                    .equals(Worker.getWorker().inProcessRemoteWorker))
-                  Worker.getWorker().getStore(getName()).updateCache(o);
-              }
-
-              return pending;
-            } else {
-              STORE_DB_LOGGER.log(Level.WARNING, "Bdb commit not found tid {0}",
-                  tid);
-              throw new InternalError("Unknown transaction id " + tid);
-            }
-          }
-        });
+    final PendingTransaction pending =
+        getPrepared(workerIdentity.principal, tid);
+    if (pending == null) {
+      STORE_DB_LOGGER.log(Level.WARNING, "Bdb commit not found tid {0}", tid);
+      throw new InternalError("Unknown transaction id " + tid);
+    }
 
+    // The commit's versions are not finished until the version-number cache is
+    // up to date.
+    long commit = startCommit(pending);
     LongSet writtenOnums = new LongHashSet();
+    try {
+      // The group commit may run this more than once, so it only writes to
+      // BDB. The in-memory state is updated once the writes are durable.
+      runInGroupCommit(new Code<Void, RuntimeException>() {
+        @Override
+        public Void run(Transaction txn) throws RuntimeException {
+          deletePrepared(workerIdentity.principal, txn, tid);
+
+          Serializer<SerializedObject> serializer = objectSerializer();
+          for (SerializedObject o : SysUtil.chain(pending.getCreates(),
+              pending.getWrites())) {
+            long onum = o.getOnum();
+            STORE_DB_LOGGER.log(Level.FINEST, "Bdb committing onum {0}",
+                onum);
+
+            DatabaseEntry onumData = new DatabaseEntry();
+            LongBinding.longToEntry(onum, onumData);
+
+            DatabaseEntry objData = new DatabaseEntry(serializer.toBytes(o));
+
+            db.put(txn, onumData, objData);
+          }
+          return null;
+        }
+      });
+
+      // Update the local worker cache if this is a remote worker updating the
+      // value. If the update is from the local worker, the already deserialized
+      // version in the worker transaction will be in the cache after 2PC.
+      if (!workerIdentity.node
+          .equals(Worker.getWorker().inProcessRemoteWorker)) {
+        RemoteStore store = Worker.getWorker().getStore(getName());
+        for (SerializedObject o : pending.getWrites()) {
+          store.updateCache(o);
+        }
+      }
 
-    // Fix up caches.
-    for (SerializedObject o : SysUtil.chain(pending.getCreates(),
-        pending.getWrites())) {
-      long onum = o.getOnum();
+      // Fix up caches.
+      for (SerializedObject o : SysUtil.chain(pending.getCreates(),
+          pending.getWrites())) {
+        long onum = o.getOnum();
 
-      writtenOnums.add(onum);
+        writtenOnums.add(onum);
 
-      // Update the version-number cache.
-      cacheVersionNumber(onum, o.getVersion());
+        // Update the version-number cache.
+        cacheVersionNumber(onum, o.getVersion());
+      }
 
+      // Unpinning the transaction empties its creates and writes, so this is
+      // done last.
+      forgetPrepared(workerIdentity.principal, tid, pending);
+    } finally {
+      finishCommit(commit);
     }
 
     // Remove any cached globs containing the old version of this object.
@@ -301,13 +452,18 @@ public class BdbDB extends ObjectDB {
   public void rollback(final long tid, final Principal worker) {
     STORE_DB_LOGGER.log(Level.FINER, "Bdb rollback begin tid {0}", tid);
 
-    runInBdbTransaction(new Code<Void, RuntimeException>() {
-      @Override
-      public Void run(Transaction txn) throws RuntimeException {
-        remove(worker, txn, tid);
-        return null;
-      }
-    });
+    final PendingTransaction pending = getPrepared(worker, tid);
+    if (pending != null) {
+      runInGroupCommit(new Code<Void, RuntimeException>() {
+        @Override
+        public Void run(Transaction txn) throws RuntimeException {
+          deletePrepared(worker, txn, tid);
+          return null;
+        }
+      });
+    }
+
+    forgetPrepared(worker, tid, pending);
 
     STORE_DB_LOGGER.log(Level.FINER, "Bdb rollback success tid {0}", tid);
   }
@@ -325,7 +481,7 @@ public class BdbDB extends ObjectDB {
         DatabaseEntry data = new DatabaseEntry();
 
         if (db.get(null, key, data, LockMode.DEFAULT) == SUCCESS) {
-          SerializedObject result = toSerializedObject(data.getData());
+          SerializedObject result = toStoredObject(data.getData());
           if (result != null) {
             cacheVersionNumber(onum, result.getVersion());
           }
@@ -418,12 +574,19 @@ public class BdbDB extends ObjectDB {
    */
   @Override
   public void close() {
+    if (groupCommitter != null) {
+      groupCommitter.shutdown();
+      STORE_DB_LOGGER.log(Level.INFO, "Bdb group commit: {0}",
+          groupCommitter.stats());
+    }
+
     try {
       if (db != null) db.close();
       if (prepared != null) prepared.close();
       if (preparedCreates != null) preparedCreates.close();
       if (preparedWrites != null) preparedWrites.close();
       if (meta != null) meta.close();
+      if (classes != null) classes.close();
       if (env != null) env.close();
     } catch (DatabaseException e) {
       e.printStackTrace();
@@ -469,26 +632,104 @@ public class BdbDB extends ObjectDB {
   }
 
   /**
-   * Removes a PendingTransaction from the prepare log and returns it. If no
-   * transaction with the given transaction id is found, null is returned.
+   * Returns a prepared transaction, reading it from the prepare log if it is no
+   * longer in memory. If no transaction with the given transaction id is found,
+   * null is returned. The transaction is not removed; see
+   * {@link #deletePrepared(Principal, Transaction, long)} and
+   * {@link #forgetPrepared(Principal, long, PendingTransaction)}.
+   *
+   * @param worker
+   *          the principal under which this action is being executed.
+   * @param tid
+   *          the transaction id.
+   * @return the PendingTransaction corresponding to tid
+   */
+  private PendingTransaction getPrepared(Principal worker, final long tid) {
+    final byte[] key = toBytes(tid, worker);
+
+    // TODO: is this ever different from the value in pendingByTid? Does BDB
+    // spill to disk for these?
+    PendingTransaction pending = preparedTransactions.get(new ByteArray(key));
+    if (pending != null) return pending;
+
+    Code<PendingTransaction, RuntimeException> read =
+        new Code<PendingTransaction, RuntimeException>() {
+      @Override
+      public PendingTransaction run(Transaction txn) throws RuntimeException {
+        DatabaseEntry bdbKey = new DatabaseEntry(key);
+        DatabaseEntry data = new DatabaseEntry();
+        if (prepared.get(txn, bdbKey, data, LockMode.DEFAULT) != SUCCESS)
+          return null;
+
+        PendingTransaction pending = toPendingTransaction(data.getData());
+
+        Cursor cursor = preparedCreates.openCursor(txn, null);
+        for (OperationStatus result =
+            cursor.getSearchKey(bdbKey, data, null); result == SUCCESS;
+            result = cursor.getNextDup(bdbKey, data, null)) {
+          try {
+            pending.addCreate(BdbDB.this,
+                toSerializedObject(data.getData()));
+          } catch (TransactionPrepareFailedException e) {
+            throw new InternalError("This should not happen here", e);
+          }
+        }
+        cursor.close();
+
+        cursor = preparedWrites.openCursor(txn, null);
+        for (OperationStatus result =
+            cursor.getSearchKey(bdbKey, data, null); result == SUCCESS;
+            result = cursor.getNextDup(bdbKey, data, null)) {
+          try {
+            pending.addWrite(BdbDB.this, toSerializedObject(data.getData()));
+          } catch (TransactionPrepareFailedException e) {
+            throw new InternalError("This should not happen here", e);
+          }
+        }
+        cursor.close();
+
+        return pending;
+      }
+    };
+    return runInBdbTransaction(read);
+  }
+
+  /**
+   * Deletes a prepared transaction from the prepare log. This only writes to
+   * BDB, so it can be rerun if the BDB transaction is retried.
    *
    * @param worker
    *          the principal under which this action is being executed.
    * @param txn
    *          the BDB Transaction instance that should be used to perform the
-   *          retrieval.
+   *          deletion.
    * @param tid
    *          the transaction id.
-   * @return the PrepareRequest corresponding to tid
    * @throws DatabaseException
    *           if a database error occurs
    */
-  private PendingTransaction remove(Principal worker, Transaction txn, long tid)
+  private void deletePrepared(Principal worker, Transaction txn, long tid)
       throws DatabaseException {
-    byte[] key = toBytes(tid, worker);
-    DatabaseEntry bdbKey = new DatabaseEntry(key);
-    DatabaseEntry data = new DatabaseEntry();
+    DatabaseEntry bdbKey = new DatabaseEntry(toBytes(tid, worker));
+    prepared.delete(txn, bdbKey);
+    preparedCreates.delete(txn, bdbKey);
+    preparedWrites.delete(txn, bdbKey);
+  }
 
+  /**
+   * Drops a transaction from memory and releases its locks, once its removal
+   * from the prepare log is durable.
+   *
+   * @param worker
+   *          the principal under which this action is being executed.
+   * @param tid
+   *          the transaction id.
+   * @param pending
+   *          the transaction returned by getPrepared, or null if there was
+   *          none.
+   */
+  private void forgetPrepared(Principal worker, long tid,
+      PendingTransaction pending) {
     // Also remove value from the table if it's in the "cache"
     OidKeyHashMap<PendingTransaction> submap = pendingByTid.get(tid);
     synchronized (submap) {
@@ -501,47 +742,8 @@ public class BdbDB extends ObjectDB {
       if (submap.isEmpty()) pendingByTid.remove(tid, submap);
     }
 
-    // TODO: is this ever different from the above value? Does BDB spill to disk
-    // for these?
-    PendingTransaction pending =
-        preparedTransactions.remove(new ByteArray(key));
-
-    if (pending == null
-        && prepared.get(txn, bdbKey, data, LockMode.DEFAULT) == SUCCESS) {
-      pending = toPendingTransaction(data.getData());
-
-      Cursor cursor = preparedCreates.openCursor(txn, null);
-      for (OperationStatus result =
-          cursor.getSearchKey(bdbKey, data, null); result == SUCCESS; result =
-              cursor.getNextDup(bdbKey, data, null)) {
-        try {
-          pending.addCreate(this, toSerializedObject(data.getData()));
-        } catch (TransactionPrepareFailedException e) {
-          throw new InternalError("This should not happen here", e);
-        }
-      }
-      cursor.close();
-
-      cursor = preparedWrites.openCursor(txn, null);
-      for (OperationStatus result =
-          cursor.getSearchKey(bdbKey, data, null); result == SUCCESS; result =
-              cursor.getNextDup(bdbKey, data, null)) {
-        try {
-          pending.addWrite(this, toSerializedObject(data.getData()));
-        } catch (TransactionPrepareFailedException e) {
-          throw new InternalError("This should not happen here", e);
-        }
-      }
-      cursor.close();
-    }
-
-    if (pending == null) return null;
-    prepared.delete(txn, bdbKey);
-    preparedCreates.delete(txn, bdbKey);
-    preparedWrites.delete(txn, bdbKey);
-
-    pending.unpin(this);
-    return pending;
+    preparedTransactions.remove(new ByteArray(toBytes(tid, worker)));
+    if (pending != null) pending.unpin(this);
   }
 
   private void cacheVersionNumber(long onum, int versionNumber) {
@@ -622,6 +824,250 @@ public class BdbDB extends ObjectDB {
     T run(Transaction txn) throws E;
   }
 
+  /**
+   * Executes the given code as part of a group commit: the code is handed to
+   * the group committer, which runs it together with the code of other
+   * concurrent callers in a single BDB transaction. Returns once that
+   * transaction is durable. If group commit is disabled, this is the same as
+   * runInBdbTransaction.
+   * <p>
+   * If another member of the batch fails, or the batch hits a lock conflict,
+   * the batch is rolled back and the code is run again. The code must
+   * therefore only write to BDB; any in-memory side effects belong after this
+   * method returns.
+   */
+  private <T> T runInGroupCommit(Code<T, RuntimeException> code) {
+    if (groupCommitter == null) return runInBdbTransaction(code);
+
+    GroupCommitRequest<T> request = new GroupCommitRequest<>(code);
+    groupCommitter.submit(request);
+    return request.await();
+  }
+
+  /**
+   * A unit of work submitted to the group committer by a finishPrepare,
+   * commit, or rollback call.
+   */
+  private static final class GroupCommitRequest<T> {
+    private final Code<T, RuntimeException> code;
+    private T result;
+    private Throwable failure;
+    private boolean done;
+
+    GroupCommitRequest(Code<T, RuntimeException> code) {
+      this.code = code;
+    }
+
+    /**
+     * Runs this request's code in the batch's BDB transaction. Database
+     * exceptions are left to abort (and possibly retry) the whole batch; any
+     * other failure is attributed to this request alone.
+     */
+    void runIn(Transaction txn) {
+      try {
+        result = code.run(txn);
+      } catch (DatabaseException e) {
+        throw e;
+      } catch (RuntimeException | Error e) {
+        throw new GroupCommitMemberFailure(this, e);
+      }
+    }
+
+    synchronized void complete() {
+      done = true;
+      notifyAll();
+    }
+
+    synchronized void fail(Throwable failure) {
+      this.failure = failure;
+      this.result = null;
+      done = true;
+      notifyAll();
+    }
+
+    synchronized T await() {
+      while (!done) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Logging.logIgnoredInterruptedException(e);
+        }
+      }
+
+      if (failure instanceof RuntimeException)
+        throw (RuntimeException) failure;
+      if (failure instanceof Error) throw (Error) failure;
+      return result;
+    }
+  }
+
+  /**
+   * Thrown from inside a group-commit batch to abort the batch's BDB
+   * transaction when one of its members fails.
+   */
+  private static final class GroupCommitMemberFailure extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final transient GroupCommitRequest<?> request;
+
+    GroupCommitMemberFailure(GroupCommitRequest<?> request, Throwable cause) {
+      super(cause);
+      this.request = request;
+    }
+  }
+
+  /**
+   * Collects GroupCommitRequests from concurrent callers and writes them in
+   * batches, one BDB transaction (and therefore one log flush) per batch. A
+   * batch is closed when it reaches maxBatchSize requests, or when maxWaitNanos
+   * have passed since its first request arrived.
+   */
+  private final class GroupCommitter extends Thread {
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<GroupCommitRequest<?>> queue;
+
+    /**
+     * Marker that tells the committer thread to exit after writing everything
+     * queued before it.
+     */
+    private final GroupCommitRequest<?> shutdownMarker;
+    private volatile boolean shuttingDown;
+
+    // Statistics. Only written by the committer thread, and guarded by this
+    // object so that they can be read from other threads.
+    private long numBatches;
+    private long numRequests;
+    private int largestBatch;
+    private long totalCommitNanos;
+    private long maxCommitNanos;
+
+    GroupCommitter(int maxBatchSize, long maxWaitNanos) {
+      super("BDB group committer");
+      setDaemon(true);
+      this.maxBatchSize = maxBatchSize;
+      this.maxWaitNanos = maxWaitNanos;
+      this.queue = new LinkedBlockingQueue<>();
+      this.shutdownMarker = new GroupCommitRequest<>(null);
+    }
+
+    void submit(GroupCommitRequest<?> request) {
+      if (shuttingDown)
+        throw new InternalError("Bdb group committer is shut down");
+      queue.add(request);
+    }
+
+    /**
+     * Writes out any queued requests and stops the committer thread.
+     */
+    void shutdown() {
+      shuttingDown = true;
+      queue.add(shutdownMarker);
+      while (isAlive()) {
+        try {
+          join();
+        } catch (InterruptedException e) {
+          Logging.logIgnoredInterruptedException(e);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      List<GroupCommitRequest<?>> batch = new ArrayList<>(maxBatchSize);
+      boolean stop = false;
+      while (!stop) {
+        batch.clear();
+        try {
+          batch.add(queue.take());
+          queue.drainTo(batch, maxBatchSize - 1);
+
+          if (maxWaitNanos > 0) {
+            long deadline = System.nanoTime() + maxWaitNanos;
+            while (batch.size() < maxBatchSize
+                && !batch.contains(shutdownMarker)) {
+              long remaining = deadline - System.nanoTime();
+              if (remaining <= 0) break;
+
+              GroupCommitRequest<?> next =
+                  queue.poll(remaining, TimeUnit.NANOSECONDS);
+              if (next == null) break;
+              batch.add(next);
+              queue.drainTo(batch, maxBatchSize - batch.size());
+            }
+          }
+        } catch (InterruptedException e) {
+          Logging.logIgnoredInterruptedException(e);
+        }
+
+        stop = batch.remove(shutdownMarker);
+        if (!batch.isEmpty()) commitBatch(batch);
+      }
+    }
+
+    /**
+     * Runs the given batch in one BDB transaction. A request whose code fails
+     * is removed from the batch and the rest of the batch is retried.
+     */
+    private void commitBatch(final List<GroupCommitRequest<?>> batch) {
+      while (!batch.isEmpty()) {
+        final long[] bodyDone = new long[1];
+        try {
+          runInBdbTransaction(new Code<Void, RuntimeException>() {
+            @Override
+            public Void run(Transaction txn) throws RuntimeException {
+              for (GroupCommitRequest<?> request : batch) {
+                request.runIn(txn);
+              }
+              bodyDone[0] = System.nanoTime();
+              return null;
+            }
+          });
+        } catch (GroupCommitMemberFailure e) {
+          batch.remove(e.request);
+          e.request.fail(e.getCause());
+          continue;
+        } catch (RuntimeException | Error e) {
+          for (GroupCommitRequest<?> request : batch) {
+            request.fail(e);
+          }
+          return;
+        }
+
+        // Everything after the batch's code ran is the commit, including the
+        // log flush.
+        long commitNanos = System.nanoTime() - bodyDone[0];
+        synchronized (this) {
+          numBatches++;
+          numRequests += batch.size();
+          if (batch.size() > largestBatch) largestBatch = batch.size();
+          totalCommitNanos += commitNanos;
+          if (commitNanos > maxCommitNanos) maxCommitNanos = commitNanos;
+        }
+        Logging.log(STORE_DB_LOGGER, Level.FINE,
+            "Bdb group commit of {0} records, commit took {1} us",
+            batch.size(), commitNanos / 1000);
+
+        for (GroupCommitRequest<?> request : batch) {
+          request.complete();
+        }
+        return;
+      }
+    }
+
+    /**
+     * Returns a summary of the batch sizes and commit latencies seen so far.
+     */
+    synchronized String stats() {
+      if (numBatches == 0) return "no batches";
+      return numBatches + " batches, " + numRequests + " records, "
+          + "avg batch " + (numRequests / (double) numBatches) + ", max batch "
+          + largestBatch + ", avg commit "
+          + (totalCommitNanos / numBatches / 1000) + " us, max commit "
+          + (maxCommitNanos / 1000) + " us";
+    }
+  }
+
   private static byte[] toBytes(long tid, Principal worker) {
     try {
       ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -737,7 +1183,7 @@ public class BdbDB extends ObjectDB {
     System.out.println("onum,class name,version number,update label onum,"
         + "access label onum");
     while (cursor.getNext(key, value, null) == OperationStatus.SUCCESS) {
-      SerializedObject obj = toSerializedObject(value.getData());
+      SerializedObject obj = db.toStoredObject(value.getData());
       long onum = obj.getOnum();
       String className = obj.getClassName();
       int version = obj.getVersion();
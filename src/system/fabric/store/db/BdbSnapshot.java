@@ -0,0 +1,227 @@
+package fabric.store.db;
+
+import static fabric.common.Logging.STORE_DB_LOGGER;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.util.DbBackup;
+
+import fabric.common.Resources;
+
+/**
+ * Online snapshots of a BDB environment, and restores from them.
+ * <p>
+ * BDB JE never modifies a log file once it has moved on to the next one, so a
+ * running environment is copied by pinning its current set of log files (see
+ * {@link DbBackup}) and copying them while the store carries on committing.
+ * <p>
+ * A snapshot directory accumulates log files over successive snapshots. Each
+ * snapshot only copies the files that the directory does not already have, and
+ * then writes a manifest, snapshot-N.lst, that lists every file that makes up
+ * the environment as of that snapshot. The first snapshot is therefore a full
+ * copy, and later ones are incremental. Files are copied under a temporary name
+ * and renamed once complete, so an interrupted snapshot leaves no partial log
+ * files behind, and no manifest.
+ * <p>
+ * A restore copies the files listed in a manifest into an empty environment
+ * directory. Files that the environment's cleaner deleted after an earlier
+ * snapshot are not listed in later manifests, and are not restored.
+ */
+public final class BdbSnapshot {
+  private static final String MANIFEST_PREFIX = "snapshot-";
+  private static final String MANIFEST_SUFFIX = ".lst";
+  private static final String LOG_SUFFIX = ".jdb";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private BdbSnapshot() {
+  }
+
+  /**
+   * Takes a snapshot of the given environment.
+   *
+   * @param dir
+   *          the snapshot directory. It is created if it does not exist.
+   * @return a summary of the snapshot.
+   */
+  static String take(Environment env, File dir) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs())
+      throw new IOException("Cannot create snapshot directory " + dir);
+
+    long start = System.currentTimeMillis();
+    int seq = latestManifest(dir) + 1;
+    File home = env.getHome();
+
+    DbBackup backup;
+    String[] files;
+    try {
+      backup = new DbBackup(env);
+      backup.startBackup();
+      files = backup.getLogFilesInBackupSet();
+    } catch (DatabaseException e) {
+      throw new IOException("Cannot start BDB backup", e);
+    }
+
+    int copied = 0;
+    long bytes = 0;
+    try {
+      for (String file : files) {
+        File target = new File(dir, file);
+        if (target.exists()) continue;
+
+        File temp = new File(dir, file + TEMP_SUFFIX);
+        Files.copy(new File(home, file).toPath(), temp.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+        Files.move(temp.toPath(), target.toPath(),
+            StandardCopyOption.ATOMIC_MOVE);
+        copied++;
+        bytes += target.length();
+      }
+
+      writeManifest(new File(dir, manifestName(seq)), files);
+    } finally {
+      backup.endBackup();
+    }
+
+    long elapsed = System.currentTimeMillis() - start;
+    String result = String.format("Snapshot %d of %s: %d log files, %d new "
+        + "(%.1f MB) in %d ms", seq, home, files.length, copied,
+        bytes / 1048576.0, elapsed);
+    STORE_DB_LOGGER.log(Level.INFO, result);
+    return result;
+  }
+
+  /**
+   * Restores an environment from a snapshot directory.
+   *
+   * @param dir
+   *          the snapshot directory.
+   * @param seq
+   *          the snapshot to restore, or -1 for the latest.
+   * @param home
+   *          the environment directory to restore into. It is created if it
+   *          does not exist, and must not contain any log files.
+   * @return the number of log files restored.
+   */
+  public static int restore(File dir, int seq, File home) throws IOException {
+    if (seq < 0) seq = latestManifest(dir);
+    if (seq < 0) throw new IOException("No snapshots in " + dir);
+
+    List<String> files = readManifest(new File(dir, manifestName(seq)));
+
+    if (!home.isDirectory() && !home.mkdirs())
+      throw new IOException("Cannot create environment directory " + home);
+    File[] existing = home.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.getName().endsWith(LOG_SUFFIX);
+      }
+    });
+    if (existing.length > 0) {
+      throw new IOException("Environment directory " + home
+          + " already contains log files");
+    }
+
+    for (String file : files) {
+      File source = new File(dir, file);
+      if (!source.isFile())
+        throw new IOException("Snapshot " + seq + " is missing " + source);
+      Files.copy(source.toPath(), new File(home, file).toPath());
+    }
+
+    STORE_DB_LOGGER.log(Level.INFO, "Restored snapshot {0} of {1} into {2}",
+        new Object[] { seq, dir, home });
+    return files.size();
+  }
+
+  /**
+   * @return the number of the latest complete snapshot in the given directory,
+   *         or -1 if there is none.
+   */
+  private static int latestManifest(File dir) {
+    int result = -1;
+    String[] names = dir.list();
+    if (names == null) return result;
+
+    for (String name : names) {
+      if (!name.startsWith(MANIFEST_PREFIX) || !name.endsWith(MANIFEST_SUFFIX))
+        continue;
+
+      try {
+        int seq = Integer.parseInt(name.substring(MANIFEST_PREFIX.length(),
+            name.length() - MANIFEST_SUFFIX.length()));
+        result = Math.max(result, seq);
+      } catch (NumberFormatException e) {
+        // Not a manifest.
+      }
+    }
+
+    return result;
+  }
+
+  private static String manifestName(int seq) {
+    return MANIFEST_PREFIX + seq + MANIFEST_SUFFIX;
+  }
+
+  private static void writeManifest(File manifest, String[] files)
+      throws IOException {
+    File temp = new File(manifest.getPath() + TEMP_SUFFIX);
+    try (BufferedWriter out = new BufferedWriter(new FileWriter(temp))) {
+      for (String file : files) {
+        out.write(file);
+        out.newLine();
+      }
+    }
+    Files.move(temp.toPath(), manifest.toPath(),
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static List<String> readManifest(File manifest) throws IOException {
+    List<String> result = new ArrayList<>();
+    try (BufferedReader in = new BufferedReader(new FileReader(manifest))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (!line.isEmpty()) result.add(line);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Restores a store's BDB object database from a snapshot.
+   */
+  public static void main(String[] args) {
+    if (args.length != 2 && args.length != 3) {
+      System.err.println("Usage: fabric.store.db.BdbSnapshot SNAPSHOT_DIR "
+          + "STORE_NAME [N]");
+      System.err.println();
+      System.err.println("  Restores the BDB object database of a stopped "
+          + "store from snapshot N");
+      System.err.println("  in SNAPSHOT_DIR, or from the latest snapshot if N "
+          + "is omitted.");
+      System.exit(1);
+    }
+
+    File home = new File(Resources.relpathRewrite("var", "bdb", args[1]));
+    try {
+      int seq = args.length == 3 ? Integer.parseInt(args[2]) : -1;
+      int files = restore(new File(args[0]), seq, home);
+      System.out.println("Restored " + files + " log files into " + home);
+    } catch (IOException | NumberFormatException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    }
+  }
+}
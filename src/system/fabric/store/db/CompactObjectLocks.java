@@ -0,0 +1,549 @@
+package fabric.store.db;
+
+import static fabric.common.Logging.STORE_TRANSACTION_LOGGER;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+
+import fabric.common.Logging;
+import fabric.common.util.Oid;
+import fabric.lang.security.Principal;
+import fabric.store.db.ObjectDB.PendingTransaction;
+
+/**
+ * Read/write lock information for a single object, with the same semantics as
+ * {@link ObjectLocks} but without a monitor on the common paths.
+ * <p>
+ * The whole lock state is an immutable {@link State} snapshot held in an
+ * atomic reference, and every update is a compare-and-set of a new snapshot.
+ * Checks such as {@link #isLocked()} are therefore a single volatile read, and
+ * uncontended acquires and releases never block. The object's monitor is only
+ * used to park transactions that wait out a conflicting lock held by their own
+ * worker (see {@link ObjectLocks} for why these waits are safe), so
+ * {@link PendingTransaction#wakeForAbort()} works as before.
+ * <p>
+ * The hard and soft write-lock bits and the number of read pins share one
+ * word. Reader identities are only materialized while the object is
+ * read-locked, as parallel arrays of (tid, worker) pins.
+ * <p>
+ * Once a lock is unused, {@link CompactObjectLocksTable} retires it. A retired
+ * lock refuses to be acquired, so that callers holding a stale reference go
+ * back to the table for the onum's current lock.
+ */
+final class CompactObjectLocks {
+
+  private static final long HARD_WRITE = 1L << 63;
+  private static final long SOFT_WRITE = 1L << 62;
+  private static final long RETIRED_BIT = 1L << 61;
+  private static final long PIN_MASK = 0xFFFFFFFFL;
+
+  /**
+   * An immutable snapshot of the lock state.
+   */
+  private static final class State {
+    /**
+     * The HARD_WRITE, SOFT_WRITE, and RETIRED_BIT flags, and the number of read
+     * pins in the low 32 bits.
+     */
+    final long word;
+
+    /** The TID for the holder of the "hard" write lock, if any. */
+    final long writeTid;
+
+    /** The TID for the holder of the "soft" write lock, if any. */
+    final long softWriteTid;
+
+    /** The oid of the worker holding the write lock (of either kind). */
+    final Oid writer;
+
+    /**
+     * The TID and worker of each read pin. Null when there are no read pins.
+     */
+    final long[] readerTids;
+    final Oid[] readerWorkers;
+
+    State(long word, long writeTid, long softWriteTid, Oid writer,
+        long[] readerTids, Oid[] readerWorkers) {
+      this.word = word;
+      this.writeTid = writeTid;
+      this.softWriteTid = softWriteTid;
+      this.writer = writer;
+      this.readerTids = readerTids;
+      this.readerWorkers = readerWorkers;
+    }
+
+    boolean hardLocked() {
+      return (word & HARD_WRITE) != 0;
+    }
+
+    boolean softLocked() {
+      return (word & SOFT_WRITE) != 0;
+    }
+
+    int pins() {
+      return (int) (word & PIN_MASK);
+    }
+
+    /**
+     * Returns the given state, or the shared UNLOCKED state if it holds no
+     * locks.
+     */
+    private static State canonical(State s) {
+      return s.word == 0 ? UNLOCKED : s;
+    }
+
+    State withWriteLock(long tid, Oid worker) {
+      return new State(word | HARD_WRITE, tid, softWriteTid, worker,
+          readerTids, readerWorkers);
+    }
+
+    State withoutWriteLock() {
+      // The writer still holds the soft write lock, if it has one.
+      return canonical(new State(word & ~HARD_WRITE, 0, softWriteTid,
+          softLocked() ? writer : null, readerTids, readerWorkers));
+    }
+
+    State withSoftWriteLock(long tid, Oid worker) {
+      return new State(word | SOFT_WRITE, writeTid, tid, worker, readerTids,
+          readerWorkers);
+    }
+
+    State withoutSoftWriteLock() {
+      // The writer still holds the write lock, if it has one.
+      return canonical(new State(word & ~SOFT_WRITE, writeTid, 0,
+          hardLocked() ? writer : null, readerTids, readerWorkers));
+    }
+
+    State withReadPin(long tid, Oid worker) {
+      int n = pins();
+      long[] tids;
+      Oid[] workers;
+      if (n == 0) {
+        tids = new long[] { tid };
+        workers = new Oid[] { worker };
+      } else {
+        tids = Arrays.copyOf(readerTids, n + 1);
+        workers = Arrays.copyOf(readerWorkers, n + 1);
+        tids[n] = tid;
+        workers[n] = worker;
+      }
+      return new State(word + 1, writeTid, softWriteTid, writer, tids,
+          workers);
+    }
+
+    State withoutReadPin(int index) {
+      int n = pins();
+      long[] tids = null;
+      Oid[] workers = null;
+      if (n > 1) {
+        tids = new long[n - 1];
+        workers = new Oid[n - 1];
+        System.arraycopy(readerTids, 0, tids, 0, index);
+        System.arraycopy(readerTids, index + 1, tids, index, n - index - 1);
+        System.arraycopy(readerWorkers, 0, workers, 0, index);
+        System.arraycopy(readerWorkers, index + 1, workers, index,
+            n - index - 1);
+      }
+      return canonical(new State(word - 1, writeTid, softWriteTid, writer,
+          tids, workers));
+    }
+  }
+
+  private static final State UNLOCKED = new State(0, 0, 0, null, null, null);
+  private static final State RETIRED =
+      new State(RETIRED_BIT, 0, 0, null, null, null);
+
+  /** The onum this lock protects on the store. */
+  final long onum;
+
+  private final AtomicReference<State> state;
+
+  /**
+   * Count of the number of waiting threads, hoping to wait out a transaction
+   * that should be done soon from the same worker.  A lock with waiters is
+   * still in use and will not be retired.
+   */
+  private final AtomicInteger waiters;
+
+  CompactObjectLocks(long onum) {
+    this.onum = onum;
+    this.state = new AtomicReference<>(UNLOCKED);
+    this.waiters = new AtomicInteger();
+  }
+
+  /**
+   * @return true iff the object is locked (whether for a read or for a write).
+   */
+  boolean isLocked() {
+    return (state.get().word & (HARD_WRITE | SOFT_WRITE | PIN_MASK)) != 0;
+  }
+
+  /**
+   * @return true iff the object is locked or has threads waiting on it.
+   */
+  boolean inUse() {
+    return isLocked() || waiters.get() > 0;
+  }
+
+  /**
+   * Marks this lock as retired if it is not in use.
+   *
+   * @return true iff the lock was retired by this call.
+   */
+  boolean retire() {
+    return waiters.get() == 0 && state.compareAndSet(UNLOCKED, RETIRED);
+  }
+
+  private static Oid workerOid(Principal worker) {
+    return new Oid(worker.$getStore(), worker.$getOnum());
+  }
+
+  /**
+   * @return true iff the state is write locked by a tid other than the one
+   * given.
+   */
+  private static boolean writeLockedByAnotherTid(State s, long tid) {
+    return (s.hardLocked() && s.writeTid != tid)
+        || (s.softLocked() && s.softWriteTid != tid);
+  }
+
+  /**
+   * @return true iff the state is write locked by a worker other than the one
+   * given.
+   */
+  private static boolean writeLockedByAnotherWorker(State s, Oid workerOid) {
+    return s.writer != null && !s.writer.equals(workerOid);
+  }
+
+  /**
+   * @return true iff the state has a read pin by a tid other than the one
+   * given.
+   */
+  private static boolean readLockedByAnotherTid(State s, long tid) {
+    for (int i = 0; i < s.pins(); i++) {
+      if (s.readerTids[i] != tid) return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return true iff the state is read or write locked by a tid other than the
+   * one given.
+   */
+  private static boolean lockedByAnotherTid(State s, long tid) {
+    return writeLockedByAnotherTid(s, tid) || readLockedByAnotherTid(s, tid);
+  }
+
+  /**
+   * @return true iff the state is read or write locked by a worker other than
+   * the one given. As in {@link ObjectLocks}, a tid that holds more than one
+   * read pin counts as another worker.
+   */
+  private static boolean lockedByAnotherWorker(State s, Oid workerOid) {
+    if (writeLockedByAnotherWorker(s, workerOid)) return true;
+    int n = s.pins();
+    for (int i = 0; i < n; i++) {
+      if (!s.readerWorkers[i].equals(workerOid)) return true;
+      for (int j = i + 1; j < n; j++) {
+        if (s.readerTids[j] == s.readerTids[i]) return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Parks the calling thread until the lock state changes from the one given,
+   * or the transaction is aborted.
+   */
+  private void awaitChange(State seen, PendingTransaction tx, String kind) {
+    synchronized (this) {
+      waiters.incrementAndGet();
+      // Register before checking the transaction state, so that a concurrent
+      // abort either is seen here or finds us through wakeForAbort().
+      tx.setWaitsFor(this);
+      try {
+        if (state.get() == seen
+            && tx.state != PendingTransaction.State.ABORTING) {
+          if (STORE_TRANSACTION_LOGGER.isLoggable(Level.FINEST)) {
+            STORE_TRANSACTION_LOGGER.log(Level.FINEST,
+                "{1} waiting for {2} lock of {0}",
+                new Object[] { this, Long.toHexString(tx.tid), kind });
+          }
+          wait();
+        }
+      } catch (InterruptedException e) {
+        Logging.logIgnoredInterruptedException(e);
+      } finally {
+        tx.clearWaitsFor();
+        waiters.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Wakes up any threads parked in awaitChange. Called after every state
+   * change.
+   */
+  private void signalWaiters() {
+    if (waiters.get() > 0) {
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Registers a write lock for the given TID.
+   *
+   * @return false if this lock has been retired and the caller should retry
+   *          with the table's current lock for the onum.
+   * @throws UnableToLockException
+   *          when a conflicting lock is held. Write locks are always considered
+   *          conflicting. Read locks are considered conflicting if they are
+   *          held by transactions whose TID is different from the one
+   *          requesting the lock.
+   */
+  boolean lockForWrite(PendingTransaction tx) throws UnableToLockException {
+    final long tid = tx.tid;
+    final Oid workerOid = workerOid(tx.owner);
+    while (true) {
+      State s = state.get();
+      if (s == RETIRED) return false;
+
+      if (!lockedByAnotherWorker(s, workerOid) && lockedByAnotherTid(s, tid)
+          && tx.state != PendingTransaction.State.ABORTING) {
+        // See if we can just wait for the other transaction from the same
+        // worker to abort/commit.
+        awaitChange(s, tx, "write");
+        continue;
+      }
+
+      if (tx.state == PendingTransaction.State.ABORTING) {
+        // Aborted while waiting.
+        throw new UnableToLockException();
+      }
+
+      if (s.hardLocked() && s.writeTid != tid
+          && !workerOid.equals(s.writer)) {
+        // Conflicting write lock.
+        throw new UnableToLockException();
+      }
+
+      // We already have the write lock, don't bother with anything.
+      if (s.hardLocked() && s.writeTid == tid) return true;
+
+      if (s.softLocked() && s.softWriteTid != tid
+          && !workerOid.equals(s.writer)) {
+        // Conflicting with a softWriteLock
+        throw new UnableToLockException();
+      }
+
+      if (readLockedByAnotherTid(s, tid)) {
+        // Read-locked by another transaction.
+        throw new UnableToLockException();
+      }
+
+      if (state.compareAndSet(s, s.withWriteLock(tid, workerOid))) {
+        signalWaiters(); // Notify others that there's a new lock holder.
+        if (STORE_TRANSACTION_LOGGER.isLoggable(Level.FINEST)) {
+          STORE_TRANSACTION_LOGGER.log(Level.FINEST, "{0} write locked by {1}",
+              new Object[] { this, Long.toHexString(tid) });
+        }
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Removes a write lock for the given TID.
+   *
+   * @return true iff a lock was removed.
+   */
+  boolean unlockForWrite(PendingTransaction tx) {
+    final long tid = tx.tid;
+    final Oid workerOid = workerOid(tx.owner);
+    while (true) {
+      State s = state.get();
+      if (!s.hardLocked() || s.writeTid != tid || s.writer == null
+          || !s.writer.equals(workerOid)) return false;
+
+      if (state.compareAndSet(s, s.withoutWriteLock())) {
+        signalWaiters(); // Notify waiters there's one less holder.
+        if (STORE_TRANSACTION_LOGGER.isLoggable(Level.FINEST)) {
+          STORE_TRANSACTION_LOGGER.log(Level.FINEST,
+              "{0} write unlocked by {1}",
+              new Object[] { this, Long.toHexString(tid) });
+        }
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Registers a soft write lock for the given TID.
+   *
+   * @return false if this lock has been retired and the caller should retry
+   *          with the table's current lock for the onum.
+   * @throws UnableToLockException
+   *          when a conflicting lock is held. Soft write locks are always
+   *          considered conflicting with other write locks (hard or soft).
+   */
+  boolean lockForSoftWrite(PendingTransaction tx)
+      throws UnableToLockException {
+    final long tid = tx.tid;
+    final Oid workerOid = workerOid(tx.owner);
+    while (true) {
+      State s = state.get();
+      if (s == RETIRED) return false;
+
+      if (!writeLockedByAnotherWorker(s, workerOid)
+          && lockedByAnotherTid(s, tid)
+          && tx.state != PendingTransaction.State.ABORTING) {
+        // See if we can just wait for the other transaction from the same
+        // worker to abort/commit.
+        awaitChange(s, tx, "soft write");
+        continue;
+      }
+
+      if (tx.state == PendingTransaction.State.ABORTING) {
+        // Aborted while waiting.
+        throw new UnableToLockException();
+      }
+
+      if (s.hardLocked() && s.writeTid != tid) {
+        // Conflicting write lock.
+        throw new UnableToLockException();
+      }
+
+      if (s.softLocked() && s.softWriteTid != tid) {
+        // Conflicting with a softWriteLock
+        throw new UnableToLockException();
+      }
+
+      if (state.compareAndSet(s, s.withSoftWriteLock(tid, workerOid))) {
+        signalWaiters(); // Notify others that there's a new lock holder.
+        if (STORE_TRANSACTION_LOGGER.isLoggable(Level.FINEST)) {
+          STORE_TRANSACTION_LOGGER.log(Level.FINEST,
+              "{0} soft write locked by {1}",
+              new Object[] { this, Long.toHexString(tid) });
+        }
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Removes a soft write lock for the given TID.
+   *
+   * @return true iff the lock was removed.
+   */
+  boolean unlockForSoftWrite(PendingTransaction tx) {
+    final long tid = tx.tid;
+    final Oid workerOid = workerOid(tx.owner);
+    while (true) {
+      State s = state.get();
+      if (!s.softLocked() || s.softWriteTid != tid || s.writer == null
+          || !s.writer.equals(workerOid)) return false;
+
+      if (state.compareAndSet(s, s.withoutSoftWriteLock())) {
+        signalWaiters(); // Notify waiters there's one less holder.
+        if (STORE_TRANSACTION_LOGGER.isLoggable(Level.FINEST)) {
+          STORE_TRANSACTION_LOGGER.log(Level.FINEST,
+              "{0} soft write unlocked by {1}",
+              new Object[] { this, Long.toHexString(tid) });
+        }
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Registers a read lock for the given TID and worker.
+   *
+   * @return false if this lock has been retired and the caller should retry
+   *          with the table's current lock for the onum.
+   * @throws UnableToLockException
+   *          when a conflicting lock is held. Write locks are always
+   *          conflicting. Read locks never conflict.
+   */
+  boolean lockForRead(PendingTransaction tx) throws UnableToLockException {
+    final long tid = tx.tid;
+    final Oid workerOid = workerOid(tx.owner);
+    while (true) {
+      State s = state.get();
+      if (s == RETIRED) return false;
+
+      if (!writeLockedByAnotherWorker(s, workerOid)
+          && writeLockedByAnotherTid(s, tid)
+          && tx.state != PendingTransaction.State.ABORTING) {
+        // See if we can just wait for the other transaction from the same
+        // worker to abort/commit.
+        awaitChange(s, tx, "read");
+        continue;
+      }
+
+      if (tx.state == PendingTransaction.State.ABORTING) {
+        // Aborted while waiting.
+        throw new UnableToLockException();
+      }
+
+      if (s.hardLocked() && s.writeTid != tid) {
+        // Conflicting write lock.
+        throw new UnableToLockException();
+      }
+
+      // We already have the write lock, don't bother with a read lock.
+      if (s.hardLocked() && s.writeTid == tid) return true;
+
+      if (state.compareAndSet(s, s.withReadPin(tid, workerOid))) {
+        signalWaiters(); // Notify others that there's a new lock holder.
+        if (STORE_TRANSACTION_LOGGER.isLoggable(Level.FINEST)) {
+          STORE_TRANSACTION_LOGGER.log(Level.FINEST, "{0} read locked by {1}",
+              new Object[] { this, Long.toHexString(tid) });
+        }
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Removes a read lock for the given TID and worker.
+   *
+   * @return true iff the TID no longer holds any read pins as a result.
+   */
+  boolean unlockForRead(PendingTransaction tx) {
+    final long tid = tx.tid;
+    final Oid workerOid = workerOid(tx.owner);
+    while (true) {
+      State s = state.get();
+      int n = s.pins();
+      int tidPins = 0;
+      int index = -1;
+      for (int i = 0; i < n; i++) {
+        if (s.readerTids[i] != tid) continue;
+        tidPins++;
+        if (index < 0 && s.readerWorkers[i].equals(workerOid)) index = i;
+      }
+
+      if (index < 0) return false;
+
+      if (state.compareAndSet(s, s.withoutReadPin(index))) {
+        signalWaiters(); // Notify waiters there's one less holder.
+        if (tidPins > 1) return false;
+
+        if (STORE_TRANSACTION_LOGGER.isLoggable(Level.FINEST)) {
+          STORE_TRANSACTION_LOGGER.log(Level.FINEST, "{0} read unlocked by {1}",
+              new Object[] { this, Long.toHexString(tid) });
+        }
+        return true;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ObjectLocks for " + onum;
+  }
+}
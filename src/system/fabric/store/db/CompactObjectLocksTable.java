@@ -0,0 +1,124 @@
+package fabric.store.db;
+
+import fabric.common.util.ConcurrentLongKeyHashMap;
+import fabric.common.util.ConcurrentLongKeyMap;
+import fabric.store.db.ObjectDB.PendingTransaction;
+
+/**
+ * A table of {@link CompactObjectLocks}, with proper memory management.
+ * <p>
+ * The table itself is a lock-striped concurrent map, and the locks it holds are
+ * updated with compare-and-set, so neither lookups nor uncontended lock
+ * operations on a hot object serialize on a shared monitor.
+ * <p>
+ * Locks are "memory managed" so that there is an entry only when there is a
+ * user of the lock. An unused lock is first retired and then removed from the
+ * table; a thread that finds a retired lock removes it and looks up the onum
+ * again. This ensures that multiple locks aren't being used for the same onum
+ * at any time.
+ */
+final class CompactObjectLocksTable implements ObjectLocksTable {
+  private final ConcurrentLongKeyMap<CompactObjectLocks> table =
+      new ConcurrentLongKeyHashMap<>();
+
+  /**
+   * Locks are created if they do not already exist.  Locks will not be removed
+   * until the last user of the lock has released it.
+   */
+  private CompactObjectLocks getLocks(long onum) {
+    CompactObjectLocks lock = table.get(onum);
+    if (lock != null) return lock;
+
+    lock = new CompactObjectLocks(onum);
+    CompactObjectLocks existing = table.putIfAbsent(onum, lock);
+    return existing == null ? lock : existing;
+  }
+
+  /**
+   * Removes the given lock from the table if it is no longer in use.
+   */
+  private void cleanUp(long onum, CompactObjectLocks locks) {
+    if (locks.retire()) table.remove(onum, locks);
+  }
+
+  @Override
+  public boolean isLocked(long onum) {
+    CompactObjectLocks locks = table.get(onum);
+    return locks != null && locks.isLocked();
+  }
+
+  @Override
+  public void acquireWriteLock(long onum, PendingTransaction tx)
+      throws UnableToLockException {
+    while (true) {
+      CompactObjectLocks locks = getLocks(onum);
+      try {
+        if (locks.lockForWrite(tx)) return;
+      } finally {
+        cleanUp(onum, locks);
+      }
+
+      // Lost a race with the lock's retirement.
+      table.remove(onum, locks);
+    }
+  }
+
+  @Override
+  public void releaseWriteLock(long onum, PendingTransaction tx) {
+    CompactObjectLocks locks = table.get(onum);
+    if (locks == null) return;
+
+    locks.unlockForWrite(tx);
+    cleanUp(onum, locks);
+  }
+
+  @Override
+  public void acquireSoftWriteLock(long onum, PendingTransaction tx)
+      throws UnableToLockException {
+    while (true) {
+      CompactObjectLocks locks = getLocks(onum);
+      try {
+        if (locks.lockForSoftWrite(tx)) return;
+      } finally {
+        cleanUp(onum, locks);
+      }
+
+      // Lost a race with the lock's retirement.
+      table.remove(onum, locks);
+    }
+  }
+
+  @Override
+  public void releaseSoftWriteLock(long onum, PendingTransaction tx) {
+    CompactObjectLocks locks = table.get(onum);
+    if (locks == null) return;
+
+    locks.unlockForSoftWrite(tx);
+    cleanUp(onum, locks);
+  }
+
+  @Override
+  public void acquireReadLock(long onum, PendingTransaction tx)
+      throws UnableToLockException {
+    while (true) {
+      CompactObjectLocks locks = getLocks(onum);
+      try {
+        if (locks.lockForRead(tx)) return;
+      } finally {
+        cleanUp(onum, locks);
+      }
+
+      // Lost a race with the lock's retirement.
+      table.remove(onum, locks);
+    }
+  }
+
+  @Override
+  public void releaseReadLock(long onum, PendingTransaction tx) {
+    CompactObjectLocks locks = table.get(onum);
+    if (locks == null) return;
+
+    locks.unlockForRead(tx);
+    cleanUp(onum, locks);
+  }
+}
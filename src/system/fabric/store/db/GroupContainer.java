@@ -28,6 +28,11 @@ public final class GroupContainer extends ObjectGrouper.AbstractGroup {
    */
   public final LongSet onums;
 
+  /**
+   * The total size of the serialized objects in this group, in bytes.
+   */
+  final long size;
+
   public GroupContainer(Store store, PrivateKey signingKey, ObjectGroup group) {
     this.store = store;
     this.signingKey = signingKey;
@@ -36,6 +41,11 @@ public final class GroupContainer extends ObjectGrouper.AbstractGroup {
 
     this.onums = group.objects().keySet();
 
+    long size = 0;
+    for (SerializedObject obj : group.objects().values())
+      size += obj.size();
+    this.size = size;
+
     for (SerializedObject obj : group.objects().values()) {
       this.labelOnum = obj.getUpdateLabelOnum();
       return;
@@ -0,0 +1,348 @@
+package fabric.store.db;
+
+import static fabric.common.Logging.STORE_DB_LOGGER;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import fabric.common.Logging;
+import fabric.common.util.ConcurrentLongKeyHashMap;
+import fabric.common.util.ConcurrentLongKeyMap;
+import fabric.common.util.LongKeyMap;
+
+/**
+ * Tracks the object groups that are read most often, so that the group cache
+ * can be warmed up when the store restarts.
+ * <p>
+ * Group reads are counted by the onum they were requested with. The counts are
+ * halved whenever too many onums are being tracked, so the tracked set follows
+ * the recent workload. Counting a read takes no locks, since it happens on
+ * every group read; counts are approximate while they are being halved. The
+ * hottest onums are saved to a file periodically and at shutdown.
+ * <p>
+ * On startup, the saved groups are rebuilt by a pool of threads before the
+ * store accepts traffic. Building a group reads each of its objects, which also
+ * loads the object database's caches (e.g., BdbDB's version cache). Warm-up
+ * stops when every saved group has been rebuilt, when its time budget runs
+ * out, or when the groups it has built reach its memory budget.
+ * <p>
+ * This class is thread safe.
+ */
+final class HotGroups {
+  /**
+   * How often to save the hottest onums while the store is running.
+   */
+  private static final long SAVE_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+
+  /**
+   * The number of onums to save.
+   */
+  private final int capacity;
+
+  /**
+   * The file that the hottest onums are saved to.
+   */
+  private final File file;
+
+  /**
+   * The maximum time to spend warming up, in milliseconds.
+   */
+  private final long timeBudget;
+
+  /**
+   * The maximum size of the groups to build during warm-up, in bytes.
+   */
+  private final long memoryBudget;
+
+  /**
+   * Maps onums to the number of times a group has been read with them.
+   */
+  private final ConcurrentLongKeyMap<AtomicInteger> counts;
+
+  /**
+   * Whether a thread is halving the counts.
+   */
+  private final AtomicBoolean aging;
+
+  // Guarded by this.
+  private Saver saver;
+
+  HotGroups(int capacity, File file, long timeBudget, long memoryBudget) {
+    this.capacity = capacity;
+    this.file = file;
+    this.timeBudget = timeBudget;
+    this.memoryBudget = memoryBudget;
+    this.counts = new ConcurrentLongKeyHashMap<>();
+    this.aging = new AtomicBoolean();
+  }
+
+  /**
+   * Records that a group was read with the given onum.
+   */
+  void record(long onum) {
+    AtomicInteger count = counts.get(onum);
+    if (count != null) {
+      count.incrementAndGet();
+      return;
+    }
+
+    count = counts.putIfAbsent(onum, new AtomicInteger(1));
+    if (count != null) {
+      count.incrementAndGet();
+      return;
+    }
+
+    // Only one thread ages the counts; the others carry on counting.
+    if (counts.size() > 4 * capacity && aging.compareAndSet(false, true)) {
+      try {
+        age();
+      } finally {
+        aging.set(false);
+      }
+    }
+  }
+
+  /**
+   * Halves the counts, and stops tracking onums whose counts reach zero, until
+   * at most twice the capacity are tracked. Reads counted concurrently may be
+   * lost.
+   */
+  private void age() {
+    while (counts.size() > 2 * capacity) {
+      for (Iterator<LongKeyMap.Entry<AtomicInteger>> it =
+          counts.entrySet().iterator(); it.hasNext();) {
+        AtomicInteger count = it.next().getValue();
+        int value;
+        do {
+          value = count.get();
+        } while (!count.compareAndSet(value, value >> 1));
+        if (value >> 1 == 0) it.remove();
+      }
+    }
+  }
+
+  /**
+   * @return the hottest onums, hottest first.
+   */
+  private long[] hottest() {
+    // The map may change while it is copied.
+    List<long[]> entries = new ArrayList<>(counts.size());
+    for (LongKeyMap.Entry<AtomicInteger> entry : counts.entrySet()) {
+      entries.add(new long[] { entry.getValue().get(), entry.getKey() });
+    }
+
+    Collections.sort(entries, new Comparator<long[]>() {
+      @Override
+      public int compare(long[] a, long[] b) {
+        return Long.compare(b[0], a[0]);
+      }
+    });
+
+    long[] result = new long[Math.min(capacity, entries.size())];
+    for (int i = 0; i < result.length; i++)
+      result[i] = entries.get(i)[1];
+    return result;
+  }
+
+  /**
+   * Saves the hottest onums.
+   */
+  void save() throws IOException {
+    long[] onums = hottest();
+
+    File dir = file.getParentFile();
+    if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+      throw new IOException("Cannot create directory " + dir);
+
+    File temp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(temp)))) {
+      out.writeInt(onums.length);
+      for (long onum : onums)
+        out.writeLong(onum);
+    }
+    Files.move(temp.toPath(), file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    STORE_DB_LOGGER.log(Level.FINE, "Saved {0} hot groups to {1}",
+        new Object[] { onums.length, file });
+  }
+
+  /**
+   * @return the saved onums, hottest first, or an empty array if none have
+   *         been saved.
+   */
+  private long[] load() throws IOException {
+    if (!file.isFile()) return new long[0];
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)))) {
+      long[] result = new long[Math.min(in.readInt(), capacity)];
+      for (int i = 0; i < result.length; i++)
+        result[i] = in.readLong();
+      return result;
+    }
+  }
+
+  /**
+   * Rebuilds the saved groups, and then starts saving the hottest onums
+   * periodically.
+   */
+  void warmUp(final ObjectGrouper grouper) {
+    long[] saved;
+    try {
+      saved = load();
+    } catch (IOException e) {
+      STORE_DB_LOGGER.log(Level.WARNING, "Cannot read hot groups from "
+          + file, e);
+      saved = new long[0];
+    }
+
+    if (saved.length > 0) {
+      // Count the saved onums once, so that they are saved again if the store
+      // is restarted before they have been read.
+      for (long onum : saved)
+        record(onum);
+      build(grouper, saved);
+    }
+
+    synchronized (this) {
+      if (saver == null) {
+        saver = new Saver();
+        saver.start();
+      }
+    }
+  }
+
+  private void build(final ObjectGrouper grouper, final long[] onums) {
+    final long start = System.nanoTime();
+    final long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeBudget);
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicInteger objects = new AtomicInteger();
+    final Set<GroupContainer> built = Collections.newSetFromMap(
+        new ConcurrentHashMap<GroupContainer, Boolean>());
+
+    int numThreads =
+        Math.min(Runtime.getRuntime().availableProcessors(), onums.length);
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new Thread("Cache warm-up " + i) {
+        @Override
+        public void run() {
+          while (System.nanoTime() < deadline && bytes.get() < memoryBudget) {
+            int index = next.getAndIncrement();
+            if (index >= onums.length) return;
+
+            GroupContainer group;
+            try {
+              group = grouper.getGroup(onums[index]);
+            } catch (RuntimeException e) {
+              STORE_DB_LOGGER.log(Level.FINE, "Cache warm-up failed for onum "
+                  + onums[index], e);
+              continue;
+            }
+
+            // Groups are shared by their objects, so only count each once.
+            if (group != null && built.add(group)) {
+              bytes.addAndGet(group.size);
+              objects.addAndGet(group.onums.size());
+            }
+          }
+        }
+      };
+      threads[i].setDaemon(true);
+      threads[i].start();
+    }
+
+    for (Thread thread : threads) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) break;
+      try {
+        thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+      } catch (InterruptedException e) {
+        Logging.logIgnoredInterruptedException(e);
+      }
+    }
+
+    String stopped;
+    int done = Math.min(next.get(), onums.length);
+    if (done == onums.length)
+      stopped = "done";
+    else if (bytes.get() >= memoryBudget)
+      stopped = "memory budget reached";
+    else stopped = "time budget reached";
+
+    STORE_DB_LOGGER.log(Level.INFO, "Cache warm-up ({0}): {1} of {2} hot "
+        + "groups, {3} objects, {4} KB in {5} ms", new Object[] { stopped,
+        done, onums.length, objects.get(), bytes.get() / 1024,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) });
+  }
+
+  /**
+   * Stops the periodic saves, and saves the hottest onums a final time.
+   */
+  void shutdown() {
+    Saver saver;
+    synchronized (this) {
+      saver = this.saver;
+      this.saver = null;
+    }
+    if (saver != null) saver.interrupt();
+
+    try {
+      save();
+    } catch (IOException e) {
+      STORE_DB_LOGGER.log(Level.WARNING, "Cannot save hot groups to " + file,
+          e);
+    }
+  }
+
+  /**
+   * Saves the hottest onums every SAVE_INTERVAL, until interrupted.
+   */
+  private final class Saver extends Thread {
+    Saver() {
+      super("Hot group saver");
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          Thread.sleep(SAVE_INTERVAL);
+        } catch (InterruptedException e) {
+          return;
+        }
+
+        try {
+          save();
+        } catch (IOException e) {
+          STORE_DB_LOGGER.log(Level.WARNING, "Cannot save hot groups to "
+              + file, e);
+        }
+      }
+    }
+  }
+}
@@ -131,20 +131,26 @@ public class MemoryDB extends ObjectDB {
 
     PendingTransaction tx = submap.get(workerIdentity.principal);
 
-    // merge in the objects. We do creates before writes to avoid potential
-    // dangling references in update objects.
-    for (SerializedObject o : tx.getCreates()) {
-      objectTable.put(o.getOnum(), o);
-    }
-    for (SerializedObject o : tx.getWrites()) {
-      objectTable.put(o.getOnum(), o);
-
-      // Update the local worker cache if this is a remote worker updating the
-      // value.
-      // If the update is from the local worker, the already deserialized
-      // version in the worker transaction will be in the cache after 2PC.
-      if (!workerIdentity.node.equals(Worker.getWorker().inProcessRemoteWorker))
-        Worker.getWorker().getStore(getName()).updateCache(o);
+    long commit = startCommit(tx);
+    try {
+      // merge in the objects. We do creates before writes to avoid potential
+      // dangling references in update objects.
+      for (SerializedObject o : tx.getCreates()) {
+        objectTable.put(o.getOnum(), o);
+      }
+      for (SerializedObject o : tx.getWrites()) {
+        objectTable.put(o.getOnum(), o);
+
+        // Update the local worker cache if this is a remote worker updating
+        // the value.
+        // If the update is from the local worker, the already deserialized
+        // version in the worker transaction will be in the cache after 2PC.
+        if (!workerIdentity.node
+            .equals(Worker.getWorker().inProcessRemoteWorker))
+          Worker.getWorker().getStore(getName()).updateCache(o);
+      }
+    } finally {
+      finishCommit(commit);
     }
 
     LongSet writtenOnums = new LongHashSet();
@@ -1,6 +1,7 @@
 package fabric.store.db;
 
 import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.security.PrivateKey;
@@ -8,11 +9,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
 import javax.security.auth.x500.X500Principal;
 
+import fabric.common.AuthorizationUtil;
 import fabric.common.FastSerializable;
 import fabric.common.ONumConstants;
+import fabric.common.Resources;
 import fabric.common.SerializedObject;
 import fabric.common.SysUtil;
 import fabric.common.exceptions.AccessException;
@@ -21,10 +25,12 @@ import fabric.common.util.ConcurrentLongKeyHashMap;
 import fabric.common.util.ConcurrentLongKeyMap;
 import fabric.common.util.LongHashSet;
 import fabric.common.util.LongIterator;
+import fabric.common.util.LongKeyMap;
 import fabric.common.util.LongSet;
 import fabric.common.util.OidKeyHashMap;
 import fabric.lang.security.NodePrincipal;
 import fabric.lang.security.Principal;
+import fabric.store.Options;
 import fabric.store.SubscriptionManager;
 import fabric.worker.Store;
 import fabric.worker.TransactionPrepareFailedException;
@@ -425,10 +431,23 @@ public abstract class ObjectDB {
    */
   protected final ObjectLocksTable rwLocks;
 
+  /**
+   * The recently committed versions of objects, for validating read-only
+   * transactions against a snapshot. Null if the store does not keep them (see
+   * {@link Options#snapshotVersions}).
+   */
+  private volatile VersionWindow versions;
+
+  /**
+   * Tracks the most frequently read groups, for warming up the group cache on
+   * startup. Null if warm-up is disabled (see {@link Options#warmUpGroups}).
+   */
+  private volatile HotGroups hotGroups;
+
   protected ObjectDB(String name, PrivateKey privateKey) {
     this.name = name;
     this.pendingByTid = new ConcurrentLongKeyHashMap<>();
-    this.rwLocks = new ObjectLocksTable();
+    this.rwLocks = new CompactObjectLocksTable();
     this.objectGrouper = new ObjectGrouper(this, privateKey);
   }
 
@@ -523,6 +542,24 @@ public abstract class ObjectDB {
     }
   }
 
+  /**
+   * Validates the reads of a transaction that will not be prepared, against a
+   * snapshot of the database. No locks are acquired.
+   *
+   * @param reads
+   *          maps the onums of the objects read to the versions read.
+   * @return true if there is a point in the database's history at which every
+   *         object read was at the version that was read, so the reads can be
+   *         serialized at that point. False if there is no such point, or if
+   *         the database does not keep enough versions to find one; the
+   *         transaction must then be prepared as usual.
+   */
+  public final boolean checkSnapshot(LongKeyMap<Integer> reads) {
+    VersionWindow versions = this.versions;
+    if (versions == null) return false;
+    return versions.isConsistent(reads, this);
+  }
+
   /**
    * Prepares a create/write against the database.
    *
@@ -699,9 +736,22 @@ public abstract class ObjectDB {
    * Returns a GroupContainer for the object stored at a particular onum.
    */
   public final GroupContainer readGroup(long onum) {
+    HotGroups hotGroups = this.hotGroups;
+    if (hotGroups != null) hotGroups.record(onum);
     return objectGrouper.getGroup(onum);
   }
 
+  /**
+   * Rebuilds the groups that were read most often before the store last shut
+   * down, within the time and memory budgets given by the store's options.
+   * This is called once the database is initialized, before the store accepts
+   * any requests.
+   */
+  public final void warmUp() {
+    HotGroups hotGroups = this.hotGroups;
+    if (hotGroups != null) hotGroups.warmUp(objectGrouper);
+  }
+
   /**
    * Returns the version number on the object stored at a particular onum.
    *
@@ -715,6 +765,30 @@ public abstract class ObjectDB {
     return obj.getVersion();
   }
 
+  /**
+   * Records the object versions that the given transaction is about to commit.
+   * Implementations must call this before the transaction's updates become
+   * visible to read(), and then call {@link #finishCommit(long)}, even if the
+   * commit fails.
+   *
+   * @return a handle to pass to finishCommit().
+   */
+  protected final long startCommit(PendingTransaction tx) {
+    VersionWindow versions = this.versions;
+    if (versions == null) return 0;
+    return versions.beginCommit(tx);
+  }
+
+  /**
+   * Records that the updates of a transaction passed to
+   * {@link #startCommit(PendingTransaction)} are visible to read() and
+   * getVersion().
+   */
+  protected final void finishCommit(long handle) {
+    VersionWindow versions = this.versions;
+    if (versions != null && handle != 0) versions.endCommit(handle);
+  }
+
   /**
    * Performs operations in response to a committed object update. Removes from
    * cache the glob associated with the onum and notifies the subscription
@@ -727,6 +801,9 @@ public abstract class ObjectDB {
    */
   protected final void notifyCommittedUpdates(SubscriptionManager sm,
       LongSet onums, RemoteWorker worker) {
+    // Drop cached authorizations that may depend on the updated objects.
+    AuthorizationUtil.notifyUpdates(Worker.getWorker().getStore(name), onums);
+
     // Remove from the glob table the glob associated with the onum.
     LongSet groupOnums = new LongHashSet();
     for (LongIterator iter = onums.iterator(); iter.hasNext();) {
@@ -785,6 +862,61 @@ public abstract class ObjectDB {
     return name;
   }
 
+  /**
+   * Applies the store's command-line options to this object database. This is
+   * called once, after construction and before the database is initialized.
+   * Implementations that override this must call the superclass method.
+   */
+  public void configure(Options opts) {
+    if (opts.snapshotVersions > 0)
+      this.versions = new VersionWindow(opts.snapshotVersions);
+
+    if (opts.warmUpGroups > 0) {
+      this.hotGroups = new HotGroups(opts.warmUpGroups,
+          new File(Resources.relpathRewrite("var", "warmup", name)),
+          TimeUnit.SECONDS.toMillis(opts.warmUpTime),
+          opts.warmUpMemory * 1048576L);
+    }
+  }
+
+  /**
+   * Takes a consistent snapshot of the object database into the given
+   * directory while the store is running. The default implementation does not
+   * support snapshots.
+   *
+   * @return a one-line summary of the snapshot.
+   * @throws UnsupportedOperationException
+   *           if the object database does not support snapshots.
+   */
+  public String snapshot(File dir) throws IOException {
+    throw new UnsupportedOperationException(getClass().getSimpleName()
+        + " does not support snapshots");
+  }
+
+  /**
+   * Summarizes the batches written by group commit so far: their number, their
+   * sizes, and how long their commits (including the log flush) took. The
+   * default implementation does not group commits.
+   *
+   * @return a one-line summary of the group commit statistics.
+   * @throws UnsupportedOperationException
+   *           if the object database does not group commits.
+   */
+  public String groupCommitStats() {
+    throw new UnsupportedOperationException(getClass().getSimpleName()
+        + " does not group commits");
+  }
+
+  /**
+   * Saves the groups that have been read most often, so that they can be
+   * rebuilt by {@link #warmUp()} when the store restarts. This is called before
+   * the database is closed.
+   */
+  public final void saveHotGroups() {
+    HotGroups hotGroups = this.hotGroups;
+    if (hotGroups != null) hotGroups.shutdown();
+  }
+
   /**
    * Gracefully shuts down the object database.
    *
@@ -224,7 +224,8 @@ final class ObjectLocks {
     if (writeLock != null && writeLock.equals(tid) && writer != null
         && writer.equals(workerOid)) {
       writeLock = null;
-      writer = null;
+      // The worker still holds the soft write lock, if it has one.
+      if (softWriteLock == null) writer = null;
       notifyAll(); // Notify waiters there's one less holder.
       if (STORE_TRANSACTION_LOGGER.isLoggable(Level.FINEST)) {
         STORE_TRANSACTION_LOGGER.log(Level.FINEST, "{0} write unlocked by {1}",
@@ -304,7 +305,8 @@ final class ObjectLocks {
     if (softWriteLock != null && softWriteLock.equals(tid) && writer != null
         && writer.equals(workerOid)) {
       softWriteLock = null;
-      writer = null;
+      // The worker still holds the write lock, if it has one.
+      if (writeLock == null) writer = null;
       notifyAll(); // Notify waiters there's one less holder.
       if (STORE_TRANSACTION_LOGGER.isLoggable(Level.FINEST)) {
         STORE_TRANSACTION_LOGGER.log(Level.FINEST,
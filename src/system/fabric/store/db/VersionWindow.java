@@ -0,0 +1,293 @@
+package fabric.store.db;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import fabric.common.SerializedObject;
+import fabric.common.SysUtil;
+import fabric.common.exceptions.AccessException;
+import fabric.common.util.ConcurrentLongKeyHashMap;
+import fabric.common.util.ConcurrentLongKeyMap;
+import fabric.common.util.LongKeyMap;
+import fabric.store.db.ObjectDB.PendingTransaction;
+
+/**
+ * A bounded window of recently committed object versions, used to validate
+ * read-only transactions against a consistent snapshot of the store without
+ * locking the objects they read.
+ * <p>
+ * Each commit at the store is given a sequence number, and the window records,
+ * for each recently updated object, the sequence numbers of the commits that
+ * produced its last few versions. A version of an object is therefore known to
+ * have been the committed version during an interval of sequence numbers. A set
+ * of reads is consistent if the intervals of the versions that were read
+ * overlap: the reads then all saw the store as it was after a single commit,
+ * and the transaction can be serialized at that point.
+ * <p>
+ * Versions are recorded before the commit that produced them becomes visible,
+ * and a commit is only included in a snapshot once every commit with a smaller
+ * sequence number has finished. Where the window has lost track of when a
+ * version became current, it assumes the latest possible time, so validation
+ * errs on the side of failing; a failed validation is not an abort, only a
+ * signal that the transaction has to be prepared with locks.
+ * <p>
+ * Old versions are discarded when an object's window is full. The windows of
+ * objects that have not been updated for a while are discarded as a whole when
+ * too many objects have windows, but never if an active snapshot might still
+ * need them.
+ * <p>
+ * This class is thread safe.
+ */
+final class VersionWindow {
+  /**
+   * The maximum number of objects to keep windows for.
+   */
+  private static final int MAX_OBJECTS = 1 << 16;
+
+  /**
+   * The maximum number of versions to keep for each object.
+   */
+  private final int maxVersions;
+
+  /**
+   * The objects' windows, by onum.
+   */
+  private final ConcurrentLongKeyMap<History> histories;
+
+  // The following are guarded by this.
+
+  /**
+   * The objects' windows, in the order in which they were last updated.
+   */
+  private final LinkedHashMap<Long, History> byLastUpdate;
+
+  /**
+   * The sequence number of the last commit to have started.
+   */
+  private long lastSeq;
+
+  /**
+   * The sequence numbers of the commits that have started but not finished.
+   */
+  private final SortedSet<Long> committing;
+
+  /**
+   * The snapshots being validated against, with their reference counts.
+   */
+  private final SortedMap<Long, Integer> activeSnapshots;
+
+  /**
+   * An upper bound on when the versions of objects without windows were
+   * committed.
+   */
+  private long floor;
+
+  VersionWindow(int maxVersions) {
+    this.maxVersions = maxVersions;
+    this.histories = new ConcurrentLongKeyHashMap<>();
+    this.byLastUpdate = new LinkedHashMap<>();
+    this.lastSeq = 0;
+    this.committing = new TreeSet<>();
+    this.activeSnapshots = new TreeMap<>();
+    this.floor = 0;
+  }
+
+  /**
+   * Records the versions produced by the given transaction. This must be called
+   * before the transaction's updates are visible to readers, and must be
+   * followed by a call to {@link #endCommit(long)} once they are.
+   *
+   * @return the commit's sequence number.
+   */
+  synchronized long beginCommit(PendingTransaction tx) {
+    long seq = ++lastSeq;
+    committing.add(seq);
+
+    for (SerializedObject o : SysUtil.chain(tx.getCreates(), tx.getWrites())) {
+      long onum = o.getOnum();
+      History h = byLastUpdate.remove(onum);
+      if (h == null) {
+        h = new History(floor);
+        histories.put(onum, h);
+      }
+      byLastUpdate.put(onum, h);
+      h.add(seq, o.getVersion());
+    }
+
+    evict();
+    return seq;
+  }
+
+  /**
+   * Records that the given commit's updates are now visible to readers.
+   */
+  synchronized void endCommit(long seq) {
+    committing.remove(seq);
+  }
+
+  /**
+   * Determines whether the given reads saw a consistent snapshot of the store.
+   *
+   * @param reads
+   *          maps the onums of the objects read to the versions read.
+   * @return true if there is a commit after which every object read was at the
+   *         version read. False if there is no such commit, or if the window
+   *         is too small to tell.
+   */
+  boolean isConsistent(LongKeyMap<Integer> reads, ObjectDB db) {
+    long snapshot;
+    synchronized (this) {
+      snapshot = stableSeq();
+      Integer count = activeSnapshots.get(snapshot);
+      activeSnapshots.put(snapshot, count == null ? 1 : count + 1);
+    }
+
+    try {
+      // The snapshot must be at or after lo, and before hi.
+      long lo = 0;
+      long hi = Long.MAX_VALUE;
+      for (LongKeyMap.Entry<Integer> read : reads.entrySet()) {
+        long onum = read.getKey();
+        int version = read.getValue();
+
+        // Read the current version before looking at the window: a commit
+        // that changes the object afterwards will have recorded the new
+        // version in the window by the time it is visible.
+        int current;
+        try {
+          current = db.getVersion(onum);
+        } catch (AccessException e) {
+          return false;
+        }
+
+        History h = histories.get(onum);
+        if (h == null) {
+          if (version != current) return false;
+          lo = Math.max(lo, floor());
+        } else {
+          long[] interval = h.interval(version, snapshot);
+          if (interval == null) return false;
+          lo = Math.max(lo, interval[0]);
+          hi = Math.min(hi, interval[1]);
+        }
+
+        if (lo >= hi) return false;
+      }
+
+      return lo <= snapshot;
+    } finally {
+      synchronized (this) {
+        int count = activeSnapshots.remove(snapshot);
+        if (count > 1) activeSnapshots.put(snapshot, count - 1);
+      }
+    }
+  }
+
+  /**
+   * @return the sequence number of the last commit that finished after every
+   *         commit before it.
+   */
+  private long stableSeq() {
+    return committing.isEmpty() ? lastSeq : committing.first() - 1;
+  }
+
+  private synchronized long floor() {
+    return floor;
+  }
+
+  /**
+   * Discards the windows of the least recently updated objects, while there
+   * are too many. A window is only discarded if its last commit is visible and
+   * is no later than the oldest active snapshot, so that no snapshot sees a
+   * version that is newer than the floor.
+   */
+  private void evict() {
+    long cutoff = stableSeq();
+    if (!activeSnapshots.isEmpty())
+      cutoff = Math.min(cutoff, activeSnapshots.firstKey());
+
+    Iterator<Map.Entry<Long, History>> it = byLastUpdate.entrySet().iterator();
+    while (byLastUpdate.size() > MAX_OBJECTS && it.hasNext()) {
+      Map.Entry<Long, History> entry = it.next();
+      long newest = entry.getValue().newest();
+      if (newest > cutoff) break;
+
+      it.remove();
+      histories.remove(entry.getKey());
+      floor = Math.max(floor, newest);
+    }
+  }
+
+  /**
+   * The recent versions of a single object.
+   */
+  private final class History {
+    /**
+     * The sequence numbers of the commits that produced the versions in
+     * versions, oldest first.
+     */
+    private final long[] seqs;
+    private final int[] versions;
+    private int size;
+
+    /**
+     * An upper bound on when the version before versions[0] was committed.
+     */
+    private long baseStart;
+
+    History(long baseStart) {
+      this.seqs = new long[maxVersions];
+      this.versions = new int[maxVersions];
+      this.size = 0;
+      this.baseStart = baseStart;
+    }
+
+    synchronized void add(long seq, int version) {
+      if (size == seqs.length) {
+        baseStart = seqs[0];
+        System.arraycopy(seqs, 1, seqs, 0, size - 1);
+        System.arraycopy(versions, 1, versions, 0, size - 1);
+        size--;
+      }
+
+      seqs[size] = seq;
+      versions[size] = version;
+      size++;
+    }
+
+    synchronized long newest() {
+      return seqs[size - 1];
+    }
+
+    /**
+     * @return the interval of sequence numbers during which the given version
+     *         was current, as a start (inclusive) and end (exclusive), or null
+     *         if this isn't known or if the version was committed after the
+     *         given snapshot.
+     */
+    synchronized long[] interval(int version, long snapshot) {
+      long start;
+      long end;
+      if (version == versions[0] - 1) {
+        start = baseStart;
+        end = seqs[0];
+      } else {
+        int i = 0;
+        while (i < size && versions[i] != version)
+          i++;
+        if (i == size) return null;
+
+        start = seqs[i];
+        end = i + 1 < size ? seqs[i + 1] : Long.MAX_VALUE;
+      }
+
+      if (start > snapshot) return null;
+      return new long[] { start, end };
+    }
+  }
+}
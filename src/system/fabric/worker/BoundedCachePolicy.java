@@ -0,0 +1,579 @@
+package fabric.worker;
+
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import fabric.common.Logging;
+
+/**
+ * Bounds the total size of the worker's object caches, in place of leaving
+ * eviction to the garbage collector. When this policy is in use, object caches
+ * hold their entries strongly, and objects are evicted only by this policy or
+ * by explicit invalidation.
+ * <p>
+ * The eviction policy is W-TinyLFU. New objects enter a small LRU window.
+ * Objects leaving the window are admitted to the main space only if they have
+ * been accessed more often than the object they would displace, as estimated
+ * by a count-min sketch. The main space is a segmented LRU: objects in the
+ * probation segment move to the protected segment when they are accessed
+ * again. This keeps one-off scans from flushing the objects the application
+ * uses repeatedly.
+ * <p>
+ * An object's size is the size of its serialized form, or zero while that is
+ * held in the off-heap tier (see {@link OffHeapCache}). Objects created by
+ * this worker are charged ESTIMATED_SIZE until they are next fetched.
+ * <p>
+ * Objects that are read or written by a live transaction (i.e., that are
+ * pinned by the transaction manager's read map) are not evicted. Victims are
+ * evicted by a background thread, because evicting an object requires its
+ * cache entry's lock, which the thread that chose the victim may not be able
+ * to take safely. A victim is only evicted if its cache entry is still the one
+ * the policy was tracking, so that an object re-admitted under the same onum
+ * in the meantime is left alone.
+ * <p>
+ * Accesses are recorded in a lossy buffer and applied to the policy in
+ * batches, so that cache hits do not contend on the policy's lock. This class
+ * is thread safe.
+ */
+public final class BoundedCachePolicy {
+  /**
+   * The size charged for an object whose serialized size is not known.
+   */
+  static final int ESTIMATED_SIZE = 256;
+
+  /**
+   * The number of bytes charged for each entry, on top of the object's size.
+   */
+  private static final int ENTRY_OVERHEAD = 64;
+
+  private static final int WINDOW_PERCENT = 1;
+  private static final int PROTECTED_PERCENT = 80;
+
+  /**
+   * The maximum number of buffered accesses. Accesses beyond this are dropped.
+   */
+  private static final int READ_BUFFER_SIZE = 1024;
+
+  /**
+   * The number of buffered accesses at which the buffer is drained.
+   */
+  private static final int READ_BUFFER_DRAIN_THRESHOLD = 64;
+
+  /**
+   * The maximum number of objects chosen for eviction per insertion.
+   */
+  private static final int MAX_VICTIMS = 64;
+
+  private static final int WINDOW = 0;
+  private static final int PROBATION = 1;
+  private static final int PROTECTED = 2;
+
+  private final long maxBytes;
+  private final long windowMaxBytes;
+  private final long protectedMaxBytes;
+
+  private final ReentrantLock lock;
+
+  private final Queue<ObjectCache.Entry> readBuffer;
+  private final AtomicInteger readBufferSize;
+
+  /**
+   * Objects chosen for eviction, waiting for the evictor thread.
+   */
+  private final BlockingQueue<Node> victims;
+
+  // The following are guarded by lock.
+
+  private final FrequencySketch sketch;
+  private final NodeList window;
+  private final NodeList probation;
+  private final NodeList protectedSegment;
+  private long residentBytes;
+  private int residentCount;
+
+  // Counters.
+
+  private final AtomicLong hits;
+  private final AtomicLong misses;
+  private final AtomicLong evictions;
+  private final AtomicLong pinnedSkips;
+
+  BoundedCachePolicy(long maxBytes) {
+    this.maxBytes = maxBytes;
+    this.windowMaxBytes = Math.max(1, maxBytes * WINDOW_PERCENT / 100);
+    this.protectedMaxBytes =
+        (maxBytes - windowMaxBytes) * PROTECTED_PERCENT / 100;
+
+    this.lock = new ReentrantLock();
+    this.readBuffer = new ConcurrentLinkedQueue<>();
+    this.readBufferSize = new AtomicInteger();
+    this.victims = new LinkedBlockingQueue<>();
+
+    long expectedEntries = maxBytes / (ESTIMATED_SIZE + ENTRY_OVERHEAD);
+    this.sketch = new FrequencySketch(
+        (int) Math.min(Math.max(expectedEntries, 1024), 1 << 22));
+    this.window = new NodeList();
+    this.probation = new NodeList();
+    this.protectedSegment = new NodeList();
+
+    this.hits = new AtomicLong();
+    this.misses = new AtomicLong();
+    this.evictions = new AtomicLong();
+    this.pinnedSkips = new AtomicLong();
+
+    new Evictor().start();
+  }
+
+  /**
+   * Records that the given entry is resident in the given cache, with the
+   * given serialized size. If the object was already resident, its size is
+   * updated.
+   */
+  void record(ObjectCache cache, ObjectCache.Entry entry, int size) {
+    lock.lock();
+    try {
+      drainReadBuffer();
+
+      Node node = cache.policyNodes.get(entry.onum);
+      if (node != null) {
+        node.entry = entry;
+        resize(node, size + ENTRY_OVERHEAD);
+        return;
+      }
+
+      insert(new Node(cache, entry, size + ENTRY_OVERHEAD));
+      chooseVictims();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Records that the given entry, for an object created by this worker, is
+   * resident in the given cache. If the object is already known, only its entry
+   * is updated.
+   */
+  void recordCreated(ObjectCache cache, ObjectCache.Entry entry) {
+    lock.lock();
+    try {
+      Node node = cache.policyNodes.get(entry.onum);
+      if (node != null) {
+        node.entry = entry;
+        return;
+      }
+
+      insert(new Node(cache, entry, ESTIMATED_SIZE + ENTRY_OVERHEAD));
+      chooseVictims();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Records that the given object was removed from the given cache.
+   */
+  void remove(ObjectCache cache, long onum) {
+    lock.lock();
+    try {
+      Node node = cache.policyNodes.remove(onum);
+      if (node != null) unlink(node);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Records an access to the given cache entry. The access may be dropped if
+   * the policy is busy.
+   */
+  void recordAccess(ObjectCache.Entry entry) {
+    int buffered = readBufferSize.get();
+    if (buffered < READ_BUFFER_SIZE) {
+      readBuffer.add(entry);
+      buffered = readBufferSize.incrementAndGet();
+    }
+
+    if (buffered >= READ_BUFFER_DRAIN_THRESHOLD && lock.tryLock()) {
+      try {
+        drainReadBuffer();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  void recordHit() {
+    hits.incrementAndGet();
+  }
+
+  void recordMiss() {
+    misses.incrementAndGet();
+  }
+
+  /**
+   * Applies buffered accesses. Must be called with the lock held.
+   */
+  private void drainReadBuffer() {
+    ObjectCache.Entry entry;
+    while ((entry = readBuffer.poll()) != null) {
+      readBufferSize.decrementAndGet();
+      Node node = entry.getCache().policyNodes.get(entry.onum);
+      if (node != null) access(node);
+    }
+  }
+
+  private void access(Node node) {
+    sketch.increment(node.hash);
+
+    switch (node.segment) {
+    case WINDOW:
+      window.moveToFront(node);
+      break;
+
+    case PROBATION:
+      probation.remove(node);
+      node.segment = PROTECTED;
+      protectedSegment.addFirst(node);
+      demoteProtectedOverflow();
+      break;
+
+    case PROTECTED:
+      protectedSegment.moveToFront(node);
+      break;
+    }
+  }
+
+  private void insert(Node node) {
+    node.cache.policyNodes.put(node.onum, node);
+    sketch.increment(node.hash);
+    node.segment = WINDOW;
+    window.addFirst(node);
+    residentBytes += node.size;
+    residentCount++;
+  }
+
+  private void resize(Node node, int size) {
+    segmentFor(node).bytes += size - node.size;
+    residentBytes += size - node.size;
+    node.size = size;
+  }
+
+  /**
+   * Removes the given node from its segment. The node must already have been
+   * removed from its cache's policyNodes map, or be about to be.
+   */
+  private void unlink(Node node) {
+    segmentFor(node).remove(node);
+    residentBytes -= node.size;
+    residentCount--;
+  }
+
+  private NodeList segmentFor(Node node) {
+    switch (node.segment) {
+    case WINDOW:
+      return window;
+    case PROBATION:
+      return probation;
+    default:
+      return protectedSegment;
+    }
+  }
+
+  private void demoteProtectedOverflow() {
+    while (protectedSegment.bytes > protectedMaxBytes) {
+      Node demoted = protectedSegment.last();
+      protectedSegment.remove(demoted);
+      demoted.segment = PROBATION;
+      probation.addFirst(demoted);
+    }
+  }
+
+  /**
+   * Moves objects out of the window and chooses victims until the caches fit
+   * in the budget. Must be called with the lock held.
+   */
+  private void chooseVictims() {
+    int chosen = 0;
+
+    // Each object leaving the window competes with the main space's LRU
+    // object for admission.
+    while (window.bytes > windowMaxBytes && window.last() != window.first()) {
+      Node candidate = window.last();
+      window.remove(candidate);
+      candidate.segment = PROBATION;
+      probation.addFirst(candidate);
+
+      while (residentBytes > maxBytes && chosen < MAX_VICTIMS) {
+        Node victim = probation.last();
+        if (victim == null || victim == candidate) break;
+
+        if (sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+          evict(victim);
+          chosen++;
+        } else {
+          evict(candidate);
+          chosen++;
+          break;
+        }
+      }
+    }
+
+    while (residentBytes > maxBytes && chosen < MAX_VICTIMS) {
+      Node victim = probation.last();
+      if (victim == null) victim = protectedSegment.last();
+      if (victim == null) victim = window.last();
+      if (victim == null) break;
+
+      evict(victim);
+      chosen++;
+    }
+  }
+
+  /**
+   * Removes the given node from the policy and hands it to the evictor.
+   */
+  private void evict(Node node) {
+    if (node.cache.policyNodes.get(node.onum) == node)
+      node.cache.policyNodes.remove(node.onum);
+    unlink(node);
+    victims.add(node);
+  }
+
+  /**
+   * Puts back a victim that turned out to be pinned, unless the object has
+   * since been recorded again.
+   */
+  private void reinstate(Node node) {
+    lock.lock();
+    try {
+      if (node.cache.policyNodes.get(node.onum) != null) return;
+
+      node.cache.policyNodes.put(node.onum, node);
+      node.segment = PROTECTED;
+      protectedSegment.addFirst(node);
+      residentBytes += node.size;
+      residentCount++;
+      demoteProtectedOverflow();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Resets the counters.
+   */
+  public void resetStats() {
+    hits.set(0);
+    misses.set(0);
+    evictions.set(0);
+    pinnedSkips.set(0);
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public long getResidentBytes() {
+    lock.lock();
+    try {
+      return residentBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getResidentCount() {
+    lock.lock();
+    try {
+      return residentCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the fraction of cache lookups that found the object, or 0 if there
+   *         have been no lookups.
+   */
+  public double getHitRatio() {
+    long hits = this.hits.get();
+    long total = hits + misses.get();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * @return the number of times a victim was kept because a live transaction
+   *         had pinned it.
+   */
+  public long getPinnedSkips() {
+    return pinnedSkips.get();
+  }
+
+  /**
+   * An object tracked by the policy.
+   */
+  static final class Node {
+    final ObjectCache cache;
+    final long onum;
+    final long hash;
+
+    // The following are guarded by the policy's lock.
+
+    /**
+     * The cache entry most recently recorded for the object.
+     */
+    ObjectCache.Entry entry;
+
+    int size;
+    int segment;
+    Node prev;
+    Node next;
+
+    Node(ObjectCache cache, ObjectCache.Entry entry, int size) {
+      this.cache = cache;
+      this.onum = entry.onum;
+      this.hash = (onum ^ System.identityHashCode(cache)) * 0x9E3779B97F4A7C15L;
+      this.entry = entry;
+      this.size = size;
+    }
+  }
+
+  /**
+   * A doubly linked list of nodes, most recently used first.
+   */
+  private static final class NodeList {
+    private Node head;
+    private Node tail;
+    long bytes;
+
+    Node first() {
+      return head;
+    }
+
+    Node last() {
+      return tail;
+    }
+
+    void addFirst(Node node) {
+      node.prev = null;
+      node.next = head;
+      if (head != null) head.prev = node;
+      else tail = node;
+      head = node;
+      bytes += node.size;
+    }
+
+    void remove(Node node) {
+      if (node.prev != null) node.prev.next = node.next;
+      else head = node.next;
+      if (node.next != null) node.next.prev = node.prev;
+      else tail = node.prev;
+      node.prev = null;
+      node.next = null;
+      bytes -= node.size;
+    }
+
+    void moveToFront(Node node) {
+      if (head == node) return;
+      remove(node);
+      addFirst(node);
+    }
+  }
+
+  /**
+   * A count-min sketch of access frequencies, with four rows of saturating
+   * counters sharing one table. Counts are halved periodically so that the
+   * sketch reflects recent history.
+   */
+  private static final class FrequencySketch {
+    private static final int MAX_COUNT = 15;
+
+    private final byte[] table;
+    private final int mask;
+    private final int resetThreshold;
+    private int additions;
+
+    FrequencySketch(int expectedEntries) {
+      int size = Integer.highestOneBit(expectedEntries - 1) << 1;
+      this.table = new byte[size];
+      this.mask = size - 1;
+      this.resetThreshold = 10 * size;
+    }
+
+    int frequency(long hash) {
+      int result = MAX_COUNT;
+      for (int i = 0; i < 4; i++) {
+        result = Math.min(result, table[index(hash, i)]);
+      }
+      return result;
+    }
+
+    void increment(long hash) {
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        int index = index(hash, i);
+        if (table[index] < MAX_COUNT) {
+          table[index]++;
+          added = true;
+        }
+      }
+
+      if (added && ++additions == resetThreshold) {
+        for (int i = 0; i < table.length; i++) {
+          table[i] >>= 1;
+        }
+        additions /= 2;
+      }
+    }
+
+    private int index(long hash, int row) {
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32);
+      return (h1 + row * h2) & mask;
+    }
+  }
+
+  /**
+   * Evicts victims from their caches, putting back those that are pinned.
+   */
+  private final class Evictor extends Thread {
+    Evictor() {
+      super("Object cache evictor");
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          Node victim = victims.take();
+          if (victim.cache.evictUnlessPinned(victim.entry)) {
+            evictions.incrementAndGet();
+          } else {
+            pinnedSkips.incrementAndGet();
+            reinstate(victim);
+          }
+        } catch (InterruptedException e) {
+          Logging.logIgnoredInterruptedException(e);
+        }
+      }
+    }
+  }
+}
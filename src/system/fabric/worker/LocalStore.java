@@ -15,6 +15,7 @@ import fabric.common.Threading;
 import fabric.common.TransactionID;
 import fabric.common.exceptions.InternalError;
 import fabric.common.util.LongKeyMap;
+import fabric.common.util.LongSet;
 import fabric.common.util.Pair;
 import fabric.lang.Object;
 import fabric.lang.Object._Impl;
@@ -140,6 +141,11 @@ public final class LocalStore implements Store, Serializable {
     return cache.get(onum);
   }
 
+  @Override
+  public void prefetch(LongSet onums) {
+    // Local objects are always resident.
+  }
+
   @Override
   public boolean checkForStaleObjects(LongKeyMap<Integer> reads) {
     return false;
@@ -4,8 +4,10 @@ import static fabric.common.Logging.TIMING_LOGGER;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Iterator;
 import java.util.logging.Level;
 
+import fabric.common.ConfigProperties;
 import fabric.common.ObjectGroup;
 import fabric.common.SerializedObject;
 import fabric.common.Surrogate;
@@ -16,6 +18,8 @@ import fabric.common.util.ConcurrentLongKeyMap;
 import fabric.common.util.LongHashSet;
 import fabric.common.util.LongIterator;
 import fabric.common.util.LongKeyCache;
+import fabric.common.util.LongKeyHashMap;
+import fabric.common.util.LongKeyMap;
 import fabric.common.util.LongSet;
 import fabric.lang.FClass;
 import fabric.lang.Object;
@@ -50,6 +54,11 @@ public final class ObjectCache {
    * <p>
    */
   public final class Entry {
+    /**
+     * The onum of the object this entry represents.
+     */
+    final long onum;
+
     private Object._Impl impl;
     private SerializedObject serialized;
 
@@ -59,6 +68,7 @@ public final class ObjectCache {
      * Constructs an <code>Entry</code> object in <b>deserialized</b> state.
      */
     public Entry(Object._Impl obj) {
+      this.onum = obj.$getOnum();
       this.impl = obj;
 
       this.serialized = null;
@@ -69,6 +79,7 @@ public final class ObjectCache {
      * Constructs an <code>Entry</code> object in <b>serialized</b> state.
      */
     private Entry(SerializedObject obj) {
+      this.onum = obj.getOnum();
       this.impl = null;
 
       this.serialized = obj;
@@ -120,9 +131,11 @@ public final class ObjectCache {
       try {
         // XXX END HACK FOR OAKLAND 2012 TIMING STUFF
         _Impl impl = serialized.deserialize(store);
+        LongSet toPrefetch = prefetchCandidates(serialized);
         next = impl.$cacheEntry;
         serialized = null;
         impl.$getStore().cache(impl);
+        if (toPrefetch != null) store.prefetch(toPrefetch);
         // XXX BEGIN HACK FOR OAKLAND 2012 TIMING STUFF
       } finally {
         if (fclass) {
@@ -300,6 +313,40 @@ public final class ObjectCache {
       }
     }
 
+    /**
+     * @return the cache that this entry belongs to.
+     */
+    ObjectCache getCache() {
+      return ObjectCache.this;
+    }
+
+    /**
+     * Records an access to this entry, for the cache's eviction policy.
+     */
+    public void touch() {
+      if (policy != null) policy.recordAccess(this);
+    }
+
+    /**
+     * Called when a transaction first writes the object this entry represents,
+     * making any off-heap copy of the object out of date.
+     */
+    public void written() {
+      dropOffHeapCopy(onum);
+    }
+
+    /**
+     * Determines whether the object this entry represents is in use by a live
+     * transaction, and so must not be evicted.
+     */
+    private synchronized boolean isPinned() {
+      if (TransactionManager.haveReaders(store, onum)) return true;
+
+      _Impl impl = getImpl(false);
+      return impl != null
+          && (impl.$writeLockHolder != null || impl.$numWaiting > 0);
+    }
+
     /**
      * Determines whether this entry represents an object on the local store.
      */
@@ -310,9 +357,44 @@ public final class ObjectCache {
     }
   }
 
+  /**
+   * The policy that bounds the size of newly created caches, or null if caches
+   * are unbounded.
+   */
+  private static volatile BoundedCachePolicy configuredPolicy;
+
+  /**
+   * The off-heap tier shared by newly created caches, or null if there is none.
+   */
+  private static volatile OffHeapCache configuredOffHeap;
+
   private final Store store;
   private final LongKeyCache<Entry> entries;
 
+  /**
+   * The policy that bounds this cache, or null if eviction is left to the
+   * garbage collector.
+   */
+  private final BoundedCachePolicy policy;
+
+  /**
+   * The policy's bookkeeping for the objects in this cache. Guarded by the
+   * policy.
+   */
+  final LongKeyMap<BoundedCachePolicy.Node> policyNodes;
+
+  /**
+   * The off-heap tier for this cache, or null if objects are held on the heap.
+   */
+  private final OffHeapCache offHeap;
+
+  /**
+   * The off-heap copies of this cache's objects, including objects that have
+   * since been deserialized or evicted by the policy. Each copy is of the
+   * version the store last sent.
+   */
+  private final ConcurrentLongKeyMap<SerializedObject> offHeapCopies;
+
   /**
    * The set of fetch locks. Used to prevent threads from concurrently
    * attempting to fetch the same object.
@@ -326,10 +408,64 @@ public final class ObjectCache {
 
   ObjectCache(Store store) {
     this.store = store;
-    this.entries = new LongKeyCache<>();
+    this.policy = store.isLocalStore() ? null : configuredPolicy;
+    this.entries = new LongKeyCache<>(policy != null);
+    this.policyNodes = policy == null ? null
+        : new LongKeyHashMap<BoundedCachePolicy.Node>();
+    this.offHeap = store.isLocalStore() ? null : configuredOffHeap;
+    this.offHeapCopies =
+        offHeap == null ? null : new ConcurrentLongKeyHashMap<SerializedObject>();
     this.fetchLocks = new ConcurrentLongKeyHashMap<>();
   }
 
+  /**
+   * Sets up the policy for caches created from now on, according to the given
+   * configuration. If <code>fabric.node.cacheMaxBytes</code> is positive, the
+   * caches share a byte budget of that size; otherwise, they are only bounded
+   * by the garbage collector. If <code>fabric.node.offHeapCacheBytes</code> is
+   * positive, the caches also share an off-heap tier of that size.
+   */
+  static void configure(ConfigProperties config) {
+    configuredPolicy = config.cacheMaxBytes > 0
+        ? new BoundedCachePolicy(config.cacheMaxBytes) : null;
+    configuredOffHeap = config.offHeapCacheBytes > 0
+        ? new OffHeapCache(config.offHeapCacheBytes) : null;
+  }
+
+  /**
+   * @return the policy bounding the worker's caches, or null if the caches are
+   *         unbounded.
+   */
+  public static BoundedCachePolicy getPolicy() {
+    return configuredPolicy;
+  }
+
+  /**
+   * @return the off-heap tier of the worker's caches, or null if there is
+   *         none.
+   */
+  public static OffHeapCache getOffHeapCache() {
+    return configuredOffHeap;
+  }
+
+  /**
+   * Returns the onums of objects on this store that the prefetcher predicts
+   * will be read after the given object, and that are neither resident nor
+   * being fetched. Returns null if there are no such objects.
+   */
+  private LongSet prefetchCandidates(SerializedObject obj) {
+    LongSet result = Worker.getWorker().prefetcher.predict(store, obj);
+    if (result == null) return null;
+
+    for (LongIterator it = result.iterator(); it.hasNext();) {
+      long onum = it.next();
+      if (entries.get(onum) != null || fetchLocks.containsKey(onum))
+        it.remove();
+    }
+
+    return result.isEmpty() ? null : result;
+  }
+
   /**
    * Notify waiters that the onum has been fetched into cache.
    */
@@ -373,6 +509,102 @@ public final class ObjectCache {
     return entry;
   }
 
+  /**
+   * Obtains the cache entry for a given onum on behalf of the application,
+   * recording the lookup for the eviction policy. If the return result is
+   * non-null, it is guaranteed to not be evicted.
+   */
+  Entry lookup(long onum) {
+    Entry result = get(onum);
+    if (result == null) result = reload(onum);
+    if (policy != null) {
+      if (result == null) {
+        policy.recordMiss();
+      } else {
+        policy.recordHit();
+        policy.recordAccess(result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Puts an evicted object back into the cache from its off-heap copy, if it
+   * has one.
+   *
+   * @return the object's cache entry, or null if the object has no off-heap
+   *         copy.
+   */
+  private Entry reload(long onum) {
+    if (offHeap == null) return null;
+
+    SerializedObject copy = offHeapCopies.get(onum);
+    if (copy == null) return null;
+
+    putIfAbsent(copy, true);
+    offHeap.recordReload();
+    return get(onum);
+  }
+
+  /**
+   * Moves the given entry's serialized object into the off-heap tier, if there
+   * is one.
+   *
+   * @return the number of bytes the entry's object occupies on the heap.
+   */
+  private int moveOffHeap(Entry entry) {
+    synchronized (entry) {
+      SerializedObject obj = entry.serialized;
+      if (obj == null) return BoundedCachePolicy.ESTIMATED_SIZE;
+      if (offHeap == null) return obj.size();
+      if (obj.isOffHeap()) return 0;
+
+      SerializedObject copy = offHeap.store(this, obj);
+      if (copy == null) {
+        // Don't leave behind a copy of an older version to be reloaded later.
+        offHeapCopies.remove(entry.onum);
+        return obj.size();
+      }
+
+      entry.serialized = copy;
+      offHeapCopies.put(entry.onum, copy);
+      return 0;
+    }
+  }
+
+  /**
+   * Forgets the off-heap copy of the object with the given onum, because it is
+   * out of date.
+   */
+  private void dropOffHeapCopy(long onum) {
+    if (offHeap != null) offHeapCopies.remove(onum);
+  }
+
+  /**
+   * Called by the off-heap tier when it drops the given copy to make room. If
+   * an entry is still reading from the copy, it is evicted and removed from the
+   * cache, and the object will be fetched again when it is next needed.
+   */
+  void dropOffHeap(SerializedObject copy) {
+    long onum = copy.getOnum();
+    offHeapCopies.remove(onum, copy);
+
+    Entry entry = entries.get(onum);
+    if (entry == null) return;
+
+    synchronized (entry) {
+      if (entry.serialized != copy) return;
+
+      // Evict before removing, so that threads still holding the entry see it
+      // as evicted and refetch, instead of deserializing the dropped copy.
+      entry.evict();
+    }
+
+    entries.remove(onum, entry);
+
+    if (policy != null) policy.remove(this, onum);
+  }
+
   /**
    * Adds the given impl to the cache. If a different impl already exists in
    * cache, then an internal error results, indicating that an invariant was
@@ -393,6 +625,7 @@ public final class ObjectCache {
         if (entries.replace(onum, existingEntry, impl.$cacheEntry)) return;
       }
     } finally {
+      if (policy != null) policy.recordCreated(this, impl.$cacheEntry);
       notifyFetched(onum, get(onum));
     }
   }
@@ -429,6 +662,8 @@ public final class ObjectCache {
       return existingEntry;
     }
 
+    int heapSize = moveOffHeap(newEntry);
+    if (policy != null) policy.record(this, newEntry, heapSize);
     notifyFetched(obj.getOnum(), newEntry);
     return newEntry;
   }
@@ -453,6 +688,15 @@ public final class ObjectCache {
     return result;
   }
 
+  /**
+   * Adds the contents of the given object group to the cache.
+   */
+  void put(ObjectGroup group) {
+    for (SerializedObject obj : group.objects().values()) {
+      update(obj, false);
+    }
+  }
+
   /**
    * Adds the given object to the cache. If a cache entry already exists, it is
    * replaced, and any transactions currently using the object are aborted and
@@ -492,11 +736,15 @@ public final class ObjectCache {
         if (!replaceOnly) {
           return putIfAbsent(update, true);
         }
+        dropOffHeapCopy(onum);
         return null;
       }
 
       synchronized (curEntry) {
-        if (replaceOnly && curEntry.isEvicted()) return null;
+        if (replaceOnly && curEntry.isEvicted()) {
+          dropOffHeapCopy(onum);
+          return null;
+        }
 
         if (!curEntry.isEvicted()) {
           // Check if object in current entry is an older version.
@@ -513,6 +761,8 @@ public final class ObjectCache {
       // Keep retrying until we know we succeeded.
     } while (!entries.replace(onum, curEntry, newEntry));
 
+    int heapSize = moveOffHeap(newEntry);
+    if (policy != null) policy.record(this, newEntry, heapSize);
     return newEntry;
   }
 
@@ -532,10 +782,16 @@ public final class ObjectCache {
   boolean updateOrEvict(SerializedObject obj) {
     long onum = obj.getOnum();
     Entry curEntry = entries.get(onum);
-    if (curEntry == null) return false;
+    if (curEntry == null) {
+      // Any off-heap copy of the object is now out of date.
+      dropOffHeapCopy(onum);
+      return false;
+    }
 
     if (curEntry.getImpl(false) == null) {
       curEntry.evict();
+      dropOffHeapCopy(onum);
+      if (policy != null) policy.remove(this, onum);
       return false;
     }
 
@@ -549,10 +805,32 @@ public final class ObjectCache {
    * @return true iff an entry for the onum was found in cache.
    */
   void evict(long onum) {
+    dropOffHeapCopy(onum);
     Entry entry = entries.get(onum);
     if (entry == null) return;
     entry.evict();
     entries.remove(onum, entry);
+    if (policy != null) policy.remove(this, onum);
+  }
+
+  /**
+   * Evicts the given entry from cache on behalf of the eviction policy, unless
+   * a live transaction is using the object. Does nothing if the entry has
+   * already been replaced, e.g. by a newer version of the object or by a
+   * refetch after it was evicted.
+   *
+   * @return false iff the entry was kept because it is pinned.
+   */
+  boolean evictUnlessPinned(Entry entry) {
+    if (entries.get(entry.onum) != entry) return true;
+
+    synchronized (entry) {
+      if (entry.isPinned()) return false;
+      entry.evict();
+    }
+
+    entries.remove(entry.onum, entry);
+    return true;
   }
 
   /**
@@ -563,10 +841,20 @@ public final class ObjectCache {
    */
   void evict(long onum, int version) {
     Entry entry = entries.get(onum);
-    if (entry == null) return;
-    if (entry.isEvicted() || entry.getVersion() >= version) return;
+    if (entry == null) {
+      dropOffHeapCopy(onum);
+      return;
+    }
+    if (entry.isEvicted()) {
+      // An off-heap copy may still be of an older version.
+      dropOffHeapCopy(onum);
+      return;
+    }
+    if (entry.getVersion() >= version) return;
+    dropOffHeapCopy(onum);
     entry.evict();
     entries.remove(onum, entry);
+    if (policy != null) policy.remove(this, onum);
   }
 
   void clear() {
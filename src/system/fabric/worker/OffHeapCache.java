@@ -0,0 +1,232 @@
+package fabric.worker;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fabric.common.Logging;
+import fabric.common.SerializedObject;
+
+/**
+ * A second tier for the worker's object caches, which holds serialized objects
+ * in direct buffers outside the Java heap.
+ * <p>
+ * When an object is fetched into a cache, its serialized form is copied here,
+ * and the cache entry reads it in place until the object is deserialized (see
+ * {@link SerializedObject#copyTo(ByteBuffer)}). The copy is kept after the
+ * object is deserialized, so that if the object is later evicted from the heap
+ * by the cache's eviction policy, it can be deserialized again from here
+ * instead of being fetched from its store. Copies are dropped when the object
+ * is updated, invalidated, or written by a transaction.
+ * <p>
+ * Memory is allocated in fixed-size chunks, and objects are appended to the
+ * newest chunk. When the tier is full, the oldest chunk is dropped along with
+ * every object in it. A dropped chunk's memory is freed by the garbage
+ * collector once no cache entry refers to it, so the tier can briefly exceed
+ * its limit while the objects in a dropped chunk are still being read.
+ * <p>
+ * Cache entries that still read from a dropped chunk are removed from their
+ * caches by a background thread, because doing so requires their locks. This
+ * class is thread safe.
+ */
+public final class OffHeapCache {
+  /**
+   * The largest chunk size. Objects larger than a chunk are kept on the heap.
+   */
+  private static final int MAX_CHUNK_SIZE = 1 << 20;
+
+  private static final int MIN_CHUNK_SIZE = 1 << 12;
+
+  /**
+   * The smallest number of chunks the tier is divided into, so that dropping a
+   * chunk does not drop too large a fraction of the tier at once.
+   */
+  private static final int MIN_CHUNKS = 8;
+
+  private final long maxBytes;
+  private final int chunkSize;
+  private final int maxChunks;
+
+  /**
+   * Chunks that have been dropped, waiting for the reclaimer thread.
+   */
+  private final BlockingQueue<Chunk> dropped;
+
+  // The following are guarded by this.
+
+  /**
+   * The live chunks, from oldest to newest. Objects are added to the newest.
+   */
+  private final Deque<Chunk> chunks;
+  private long storedBytes;
+  private int storedCount;
+
+  // Counters.
+
+  private final AtomicLong reloads;
+  private final AtomicLong drops;
+  private final AtomicLong rejected;
+
+  OffHeapCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+    this.chunkSize = (int) Math.max(MIN_CHUNK_SIZE,
+        Math.min(MAX_CHUNK_SIZE, maxBytes / MIN_CHUNKS));
+    this.maxChunks = (int) Math.max(1, maxBytes / chunkSize);
+    this.dropped = new LinkedBlockingQueue<>();
+    this.chunks = new ArrayDeque<>();
+    this.reloads = new AtomicLong();
+    this.drops = new AtomicLong();
+    this.rejected = new AtomicLong();
+
+    new Reclaimer().start();
+  }
+
+  /**
+   * Copies the given object into the tier on behalf of the given cache.
+   *
+   * @return the off-heap copy, or null if the object could not be stored.
+   */
+  SerializedObject store(ObjectCache cache, SerializedObject obj) {
+    int size = obj.size();
+    if (size > chunkSize) {
+      rejected.incrementAndGet();
+      return null;
+    }
+
+    Chunk oldest = null;
+    try {
+      synchronized (this) {
+        Chunk chunk = chunks.peekLast();
+        if (chunk == null || chunk.buffer.remaining() < size) {
+          if (chunks.size() >= maxChunks) {
+            oldest = chunks.removeFirst();
+            storedBytes -= oldest.buffer.position();
+            storedCount -= oldest.residents.size();
+          }
+
+          try {
+            chunk = new Chunk(ByteBuffer.allocateDirect(chunkSize));
+          } catch (OutOfMemoryError e) {
+            // Direct memory is exhausted (see -XX:MaxDirectMemorySize). Keep
+            // the object on the heap.
+            rejected.incrementAndGet();
+            return null;
+          }
+          chunks.addLast(chunk);
+        }
+
+        SerializedObject result = obj.copyTo(chunk.buffer);
+        chunk.residents.add(new Resident(cache, result));
+        storedBytes += size;
+        storedCount++;
+        return result;
+      }
+    } finally {
+      if (oldest != null) dropped.add(oldest);
+    }
+  }
+
+  /**
+   * Records that an evicted object was reloaded from the tier.
+   */
+  void recordReload() {
+    reloads.incrementAndGet();
+  }
+
+  /**
+   * Resets the counters.
+   */
+  public void resetStats() {
+    reloads.set(0);
+    drops.set(0);
+    rejected.set(0);
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public synchronized long getStoredBytes() {
+    return storedBytes;
+  }
+
+  public synchronized int getStoredCount() {
+    return storedCount;
+  }
+
+  /**
+   * @return the number of evicted objects that were deserialized from the tier
+   *         instead of being fetched.
+   */
+  public long getReloads() {
+    return reloads.get();
+  }
+
+  /**
+   * @return the number of objects dropped to make room for others.
+   */
+  public long getDrops() {
+    return drops.get();
+  }
+
+  /**
+   * @return the number of objects that were kept on the heap because they
+   *         were too large, or because direct memory was exhausted.
+   */
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  /**
+   * A direct buffer and the objects stored in it.
+   */
+  private static final class Chunk {
+    final ByteBuffer buffer;
+    final List<Resident> residents;
+
+    Chunk(ByteBuffer buffer) {
+      this.buffer = buffer;
+      this.residents = new ArrayList<>();
+    }
+  }
+
+  private static final class Resident {
+    final ObjectCache cache;
+    final SerializedObject obj;
+
+    Resident(ObjectCache cache, SerializedObject obj) {
+      this.cache = cache;
+      this.obj = obj;
+    }
+  }
+
+  /**
+   * Removes the objects in dropped chunks from their caches.
+   */
+  private final class Reclaimer extends Thread {
+    Reclaimer() {
+      super("Off-heap cache reclaimer");
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          Chunk chunk = dropped.take();
+          for (Resident resident : chunk.residents) {
+            resident.cache.dropOffHeap(resident.obj);
+          }
+          drops.addAndGet(chunk.residents.size());
+        } catch (InterruptedException e) {
+          Logging.logIgnoredInterruptedException(e);
+        }
+      }
+    }
+  }
+}
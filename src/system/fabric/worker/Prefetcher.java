@@ -0,0 +1,477 @@
+package fabric.worker;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fabric.common.ConfigProperties;
+import fabric.common.RefTypeEnum;
+import fabric.common.SerializedObject;
+import fabric.common.util.ConcurrentLongKeyHashMap;
+import fabric.common.util.ConcurrentLongKeyMap;
+import fabric.common.util.LongHashSet;
+import fabric.common.util.LongKeyMap;
+import fabric.common.util.LongSet;
+import fabric.lang.Object._Impl;
+
+/**
+ * Predicts which objects the application will read next from the references
+ * it has followed before, so that they can be prefetched from their stores.
+ * <p>
+ * Each reference field of an object is a <i>slot</i>. For each class, the
+ * prefetcher counts how often each slot of a freshly fetched object is
+ * followed, i.e., how often a transaction goes on to read the object the slot
+ * points to. When an object is fetched, the objects in its frequently followed
+ * slots are prefetched with one batched read (see
+ * {@link Store#prefetch(LongSet)}). Until a class has been fetched
+ * MIN_SAMPLES times, all of its intra-store references are prefetched.
+ * <p>
+ * Two budgets bound the prefetcher: the number of prefetched objects in
+ * flight, and the total size of prefetched objects that have not yet been read.
+ * A prefetched object that is not read within WASTE_AGE_MILLIS counts as
+ * waste, and no longer counts against the budget. Such objects are expired
+ * every EXPIRE_INTERVAL_MILLIS, as the prefetcher is used, and whenever the
+ * budget runs out. This class is thread safe.
+ */
+public final class Prefetcher {
+  /**
+   * The number of times a class must be fetched before predictions are made
+   * for it.
+   */
+  private static final int MIN_SAMPLES = 16;
+
+  /**
+   * A slot is predicted if it is followed at least this percentage of the
+   * time.
+   */
+  private static final int FOLLOW_PERCENT = 25;
+
+  /**
+   * Slots at or beyond this index (e.g., in large arrays) are ignored.
+   */
+  private static final int MAX_SLOTS = 64;
+
+  /**
+   * The maximum number of fetched references being watched for a follow, per
+   * store. Beyond this, the oldest are no longer watched.
+   */
+  private static final int MAX_WATCHED_REFS = 16384;
+
+  private static final long WASTE_AGE_MILLIS = 30000;
+
+  /**
+   * How often unread prefetched objects are checked for expiry.
+   */
+  private static final long EXPIRE_INTERVAL_MILLIS = 5000;
+
+  /**
+   * The number of samples after which a class's counts are halved, so that
+   * predictions follow the application as its behaviour changes.
+   */
+  private static final int DECAY_SAMPLES = 1024;
+
+  /**
+   * The maximum number of objects to prefetch for each fetched object. Zero
+   * disables the prefetcher.
+   */
+  private final int batchSize;
+
+  /**
+   * The maximum number of prefetched objects in flight.
+   */
+  private final int maxFetches;
+
+  /**
+   * The maximum total size, in bytes, of prefetched objects not yet read.
+   */
+  private final long maxBytes;
+
+  /**
+   * Reference-following statistics, by class name.
+   */
+  private final ConcurrentMap<String, ClassPattern> patterns;
+
+  private final ConcurrentMap<Store, StoreState> storeStates;
+
+  // The following are guarded by this.
+
+  private int inFlight;
+  private long unreadBytes;
+
+  /**
+   * When unread prefetched objects are next due to be checked for expiry.
+   */
+  private final AtomicLong nextExpiry;
+
+  // Counters.
+
+  private final AtomicLong issued;
+  private final AtomicLong hits;
+  private final AtomicLong wasted;
+  private final AtomicLong throttled;
+  private final AtomicLong savedNanos;
+
+  Prefetcher(ConfigProperties config) {
+    this.batchSize = config.prefetchBatchSize;
+    this.maxFetches = config.prefetchMaxFetches;
+    this.maxBytes = config.prefetchMaxBytes;
+    this.patterns = new ConcurrentHashMap<>();
+    this.storeStates = new ConcurrentHashMap<>();
+    this.issued = new AtomicLong();
+    this.hits = new AtomicLong();
+    this.wasted = new AtomicLong();
+    this.throttled = new AtomicLong();
+    this.savedNanos = new AtomicLong();
+    this.nextExpiry =
+        new AtomicLong(System.currentTimeMillis() + EXPIRE_INTERVAL_MILLIS);
+  }
+
+  /**
+   * Records that the given object was just fetched from the given store, and
+   * predicts which of the objects it refers to on the same store will be read
+   * next.
+   *
+   * @return the onums of the objects to prefetch, or null if there are none.
+   */
+  LongSet predict(Store store, SerializedObject obj) {
+    if (batchSize <= 0) return null;
+
+    ClassPattern pattern = patterns.get(obj.getClassName());
+    if (pattern == null) {
+      pattern = new ClassPattern();
+      ClassPattern existing = patterns.putIfAbsent(obj.getClassName(), pattern);
+      if (existing != null) pattern = existing;
+    }
+
+    boolean[] predicted = pattern.sample();
+    StoreState state = stateFor(store);
+
+    LongSet result = null;
+    Iterator<Long> refs = obj.getIntraStoreRefIterator();
+    int slot = 0;
+    for (Iterator<RefTypeEnum> it = obj.getRefTypeIterator(); it.hasNext()
+        && slot < MAX_SLOTS; slot++) {
+      if (it.next() != RefTypeEnum.ONUM) continue;
+
+      long onum = refs.next();
+      state.watch(onum, new Referrer(pattern, slot));
+
+      if (predicted != null && !predicted[slot]) continue;
+      if (result == null) result = new LongHashSet();
+      if (result.size() < batchSize) result.add(onum);
+    }
+
+    return result;
+  }
+
+  /**
+   * Called when a transaction first reads the given object. Records whether
+   * the read followed a watched reference, and whether the object was
+   * prefetched.
+   */
+  public void registerRead(_Impl obj) {
+    if (batchSize <= 0) return;
+
+    StoreState state = storeStates.get(obj.$getStore());
+    if (state == null) return;
+    if (state.watched.isEmpty() && state.prefetched.isEmpty()) return;
+
+    long onum = obj.$getOnum();
+    Referrer referrer = state.watched.remove(onum);
+    if (referrer != null) referrer.pattern.follow(referrer.slot);
+
+    Prefetched prefetched = state.prefetched.remove(onum);
+    if (prefetched != null) {
+      hits.incrementAndGet();
+      savedNanos.addAndGet(prefetched.roundTripNanos);
+      synchronized (this) {
+        unreadBytes -= prefetched.size;
+      }
+    }
+  }
+
+  /**
+   * Reserves room in the budget for prefetching up to the given number of
+   * objects.
+   *
+   * @return the number of objects that may be prefetched. This must be passed
+   *         to {@link #release(int)} once the prefetch is done.
+   */
+  synchronized int reserve(int count) {
+    if (unreadBytes >= maxBytes) expireUnread();
+
+    int result = Math.min(count, maxFetches - inFlight);
+    if (unreadBytes >= maxBytes || result <= 0) {
+      throttled.incrementAndGet();
+      return 0;
+    }
+
+    inFlight += result;
+    return result;
+  }
+
+  synchronized void release(int count) {
+    inFlight -= count;
+  }
+
+  /**
+   * Records that a prefetch request for the given number of objects was sent.
+   */
+  void issued(int count) {
+    issued.addAndGet(count);
+  }
+
+  /**
+   * Records that the given object was prefetched into cache.
+   *
+   * @param roundTripNanos
+   *          the duration of the read that prefetched it.
+   */
+  void prefetched(Store store, SerializedObject obj, long roundTripNanos) {
+    expireIfDue();
+
+    Prefetched prefetched = new Prefetched(obj.size(), roundTripNanos);
+    if (stateFor(store).prefetched.put(obj.getOnum(), prefetched) == null) {
+      synchronized (this) {
+        unreadBytes += prefetched.size;
+      }
+    }
+  }
+
+  /**
+   * Records that the given number of requested objects were not returned by
+   * the store.
+   */
+  void missed(int count) {
+    wasted.addAndGet(count);
+  }
+
+  /**
+   * Runs {@link #expireUnread()} if it hasn't been run in the last
+   * EXPIRE_INTERVAL_MILLIS.
+   */
+  private void expireIfDue() {
+    long now = System.currentTimeMillis();
+    long due = nextExpiry.get();
+    if (now < due
+        || !nextExpiry.compareAndSet(due, now + EXPIRE_INTERVAL_MILLIS))
+      return;
+
+    expireUnread();
+  }
+
+  /**
+   * Discards prefetched objects that have gone unread for too long, counting
+   * them as waste.
+   */
+  private synchronized void expireUnread() {
+    long cutoff = System.currentTimeMillis() - WASTE_AGE_MILLIS;
+    for (StoreState state : storeStates.values()) {
+      for (LongKeyMap.Entry<Prefetched> entry : state.prefetched.entrySet()) {
+        Prefetched prefetched = entry.getValue();
+        if (prefetched.time < cutoff
+            && state.prefetched.remove(entry.getKey(), prefetched)) {
+          wasted.incrementAndGet();
+          unreadBytes -= prefetched.size;
+        }
+      }
+    }
+  }
+
+  private StoreState stateFor(Store store) {
+    StoreState result = storeStates.get(store);
+    if (result != null) return result;
+
+    result = new StoreState();
+    StoreState existing = storeStates.putIfAbsent(store, result);
+    return existing == null ? result : existing;
+  }
+
+  /**
+   * Resets the counters.
+   */
+  public void resetStats() {
+    issued.set(0);
+    hits.set(0);
+    wasted.set(0);
+    throttled.set(0);
+    savedNanos.set(0);
+  }
+
+  /**
+   * @return the number of objects requested by prefetches.
+   */
+  public long getIssued() {
+    return issued.get();
+  }
+
+  /**
+   * @return the number of prefetched objects that were subsequently read.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of prefetched objects that were not returned, or not
+   *         read in time.
+   */
+  public long getWasted() {
+    expireIfDue();
+    return wasted.get();
+  }
+
+  /**
+   * @return the number of prefetches skipped because the budget was exhausted.
+   */
+  public long getThrottled() {
+    return throttled.get();
+  }
+
+  /**
+   * @return an estimate of the fetch latency saved by prefetching, in
+   *         milliseconds. Each hit is credited with the round trip of the read
+   *         that prefetched it.
+   */
+  public long getLatencySavedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(savedNanos.get());
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  public synchronized long getUnreadBytes() {
+    expireIfDue();
+    return unreadBytes;
+  }
+
+  /**
+   * @return the number of classes with predictions.
+   */
+  public int getTrainedClasses() {
+    int result = 0;
+    for (ClassPattern pattern : patterns.values()) {
+      if (pattern.isTrained()) result++;
+    }
+    return result;
+  }
+
+  /**
+   * Per-class reference-following statistics.
+   */
+  private static final class ClassPattern {
+    // The following are guarded by this.
+
+    /**
+     * The number of objects of this class that have been fetched.
+     */
+    private int samples;
+
+    /**
+     * The number of times each slot has been followed.
+     */
+    private final int[] follows = new int[MAX_SLOTS];
+
+    /**
+     * Records that an object of this class was fetched.
+     *
+     * @return the slots to predict, or null if all slots should be predicted.
+     */
+    synchronized boolean[] sample() {
+      boolean[] result = null;
+      if (samples >= MIN_SAMPLES) {
+        result = new boolean[MAX_SLOTS];
+        for (int i = 0; i < MAX_SLOTS; i++) {
+          result[i] = follows[i] * 100L >= (long) samples * FOLLOW_PERCENT;
+        }
+      }
+
+      if (++samples == DECAY_SAMPLES) {
+        samples /= 2;
+        for (int i = 0; i < MAX_SLOTS; i++) {
+          follows[i] /= 2;
+        }
+      }
+
+      return result;
+    }
+
+    synchronized void follow(int slot) {
+      follows[slot]++;
+    }
+
+    synchronized boolean isTrained() {
+      return samples >= MIN_SAMPLES;
+    }
+  }
+
+  /**
+   * A fetched reference being watched for a follow.
+   */
+  private static final class Referrer {
+    final ClassPattern pattern;
+    final int slot;
+
+    Referrer(ClassPattern pattern, int slot) {
+      this.pattern = pattern;
+      this.slot = slot;
+    }
+  }
+
+  /**
+   * A prefetched object that has not yet been read.
+   */
+  private static final class Prefetched {
+    final int size;
+    final long roundTripNanos;
+    final long time;
+
+    Prefetched(int size, long roundTripNanos) {
+      this.size = size;
+      this.roundTripNanos = roundTripNanos;
+      this.time = System.currentTimeMillis();
+    }
+  }
+
+  private static final class StoreState {
+    /**
+     * References of recently fetched objects, by the onum they refer to.
+     */
+    final ConcurrentLongKeyMap<Referrer> watched =
+        new ConcurrentLongKeyHashMap<>();
+
+    // The following are guarded by this.
+
+    /**
+     * The most recently watched references, in a ring buffer ordered from
+     * oldest to newest, starting at nextWatch.
+     */
+    private final long[] watchedOnums = new long[MAX_WATCHED_REFS];
+    private final Referrer[] watchedReferrers = new Referrer[MAX_WATCHED_REFS];
+    private int nextWatch;
+
+    /**
+     * Watches the given reference, replacing the oldest watched reference if
+     * MAX_WATCHED_REFS are watched.
+     */
+    synchronized void watch(long onum, Referrer referrer) {
+      // The oldest reference may have been followed, or watched again since.
+      Referrer oldest = watchedReferrers[nextWatch];
+      if (oldest != null) watched.remove(watchedOnums[nextWatch], oldest);
+
+      watchedOnums[nextWatch] = onum;
+      watchedReferrers[nextWatch] = referrer;
+      watched.put(onum, referrer);
+      nextWatch = (nextWatch + 1) % MAX_WATCHED_REFS;
+    }
+
+    /**
+     * Prefetched objects that have not yet been read.
+     */
+    final ConcurrentLongKeyMap<Prefetched> prefetched =
+        new ConcurrentLongKeyHashMap<>();
+  }
+}
@@ -1,5 +1,7 @@
 package fabric.worker;
 
+import static fabric.common.Logging.WORKER_LOGGER;
+
 import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.security.GeneralSecurityException;
@@ -11,6 +13,12 @@ import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.logging.Level;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import fabric.common.Crypto;
 import fabric.common.Logging;
@@ -25,6 +33,8 @@ import fabric.common.exceptions.FabricRuntimeException;
 import fabric.common.exceptions.InternalError;
 import fabric.common.exceptions.NotImplementedException;
 import fabric.common.exceptions.RuntimeFetchException;
+import fabric.common.util.LongIterator;
+import fabric.common.util.LongKeyHashMap;
 import fabric.common.util.LongKeyMap;
 import fabric.common.util.LongSet;
 import fabric.dissemination.ObjectGlob;
@@ -37,6 +47,7 @@ import fabric.messages.CommitTransactionMessage;
 import fabric.messages.DissemReadMessage;
 import fabric.messages.GetCertChainMessage;
 import fabric.messages.MakePrincipalMessage;
+import fabric.messages.MultiReadMessage;
 import fabric.messages.Message.NoException;
 import fabric.messages.PrepareTransactionMessage;
 import fabric.messages.ReadMessage;
@@ -152,30 +163,7 @@ public class RemoteStore extends RemoteNode<RemoteStore>
       if (needToFetch) {
         if (tm != null) tm.stats.markFetch();
         // We are responsible for initiating the fetch of the object.
-        Threading.getPool().submit(new Threading.NamedRunnable(
-            "Fetch of " + this.name() + "/" + onum) {
-          @Override
-          public void runImpl() {
-            // Check object table in case some other thread had just finished
-            // fetching the object while we weren't looking.
-            lock.object = readFromCache(onum);
-
-            if (lock.object == null) {
-              // Really need to fetch.
-              try {
-                fetchObject(useDissem, onum);
-              } catch (AccessException e) {
-                synchronized (lock) {
-                  lock.error = e;
-                  lock.notifyAll();
-                  cache.fetchLocks.remove(onum, lock);
-                }
-              }
-            } else {
-              cache.notifyFetched(onum, lock.object);
-            }
-          }
-        });
+        Threading.getPool().submit(fetchTask(lock, useDissem, onum));
       }
 
       // Wait for object to be fetched.
@@ -205,9 +193,144 @@ public class RemoteStore extends RemoteNode<RemoteStore>
     return fetchLock.object;
   }
 
+  /**
+   * Returns a task that fetches the given object on behalf of the given fetch
+   * lock, which must have been claimed by the caller.
+   */
+  private Threading.NamedRunnable fetchTask(final FetchLock lock,
+      final boolean useDissem, final long onum) {
+    return new Threading.NamedRunnable("Fetch of " + this.name() + "/" + onum) {
+      @Override
+      public void runImpl() {
+        // Check object table in case some other thread had just finished
+        // fetching the object while we weren't looking.
+        lock.object = cache.get(onum);
+
+        if (lock.object == null) {
+          // Really need to fetch.
+          try {
+            fetchObject(useDissem, onum);
+          } catch (AccessException e) {
+            synchronized (lock) {
+              lock.error = e;
+              lock.notifyAll();
+              cache.fetchLocks.remove(onum, lock);
+            }
+          }
+        } else {
+          cache.notifyFetched(onum, lock.object);
+        }
+      }
+    };
+  }
+
   @Override
   public ObjectCache.Entry readFromCache(long onum) {
-    return cache.get(onum);
+    return cache.lookup(onum);
+  }
+
+  @Override
+  public void prefetch(final LongSet onums) {
+    if (onums.isEmpty()) return;
+
+    final Prefetcher prefetcher = Worker.getWorker().prefetcher;
+    final int limit = prefetcher.reserve(onums.size());
+    if (limit == 0) return;
+
+    Threading.getPool().submit(
+        new Threading.NamedRunnable("Prefetch from " + this.name()) {
+          @Override
+          protected void runImpl() {
+            boolean sent = false;
+            try {
+              sent = prefetchObjects(prefetcher, onums, limit);
+            } finally {
+              if (!sent) prefetcher.release(limit);
+            }
+          }
+        });
+  }
+
+  /**
+   * Fetches up to <code>limit</code> of the given objects that are neither
+   * resident nor already being fetched, with a single read request to the
+   * store. The request is pipelined with other prefetches to the store, and
+   * the reply is handled when it arrives, so no thread waits for it.
+   *
+   * @return true iff a request was sent. In that case, the prefetcher's
+   *         reservation of <code>limit</code> objects is released once the
+   *         reply has been handled.
+   */
+  private boolean prefetchObjects(final Prefetcher prefetcher, LongSet onums,
+      final int limit) {
+    // Claim the fetch of each object, so that readers wait for the batch
+    // instead of fetching the object themselves.
+    LongKeyMap<FetchLock> claimed = new LongKeyHashMap<>();
+    for (LongIterator it = onums.iterator(); it.hasNext()
+        && claimed.size() < limit;) {
+      long onum = it.next();
+      if (cache.get(onum) != null) continue;
+
+      FetchLock lock = new FetchLock();
+      if (cache.fetchLocks.putIfAbsent(onum, lock) == null)
+        claimed.put(onum, lock);
+    }
+
+    if (claimed.isEmpty()) return false;
+    prefetcher.issued(claimed.size());
+
+    final LongKeyMap<FetchLock> requested = claimed;
+    final long start = System.nanoTime();
+    Futures.addCallback(readObjectsFromStoreAsync(claimed.keySet()),
+        new FutureCallback<List<ObjectGroup>>() {
+          @Override
+          public void onSuccess(List<ObjectGroup> groups) {
+            long roundTrip = System.nanoTime() - start;
+            int received = 0;
+            try {
+              for (ObjectGroup group : groups) {
+                cache.put(group);
+
+                for (SerializedObject obj : group.objects().values()) {
+                  if (requested.containsKey(obj.getOnum())) {
+                    prefetcher.prefetched(RemoteStore.this, obj, roundTrip);
+                    received++;
+                  }
+                }
+              }
+            } finally {
+              finishPrefetch(prefetcher, requested, received, limit);
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            Logging.log(WORKER_LOGGER, Level.FINE,
+                "Prefetch from {0} failed: {1}", RemoteStore.this, t);
+            finishPrefetch(prefetcher, requested, 0, limit);
+          }
+        });
+    return true;
+  }
+
+  /**
+   * Accounts for a prefetch whose reply has been handled, and fetches
+   * individually the requested objects that the reply left out, since readers
+   * may be waiting for them.
+   */
+  private void finishPrefetch(Prefetcher prefetcher,
+      LongKeyMap<FetchLock> requested, int received, int limit) {
+    try {
+      prefetcher.missed(requested.size() - received);
+
+      for (LongKeyMap.Entry<FetchLock> entry : requested.entrySet()) {
+        FetchLock lock = entry.getValue();
+        if (lock.object == null)
+          Threading.getPool().submit(fetchTask(lock, true, entry.getKey()));
+      }
+    } finally {
+      prefetcher.release(limit);
+    }
   }
 
   /**
@@ -249,6 +372,47 @@ public class RemoteStore extends RemoteNode<RemoteStore>
     return response.group;
   }
 
+  /**
+   * Goes to the store to get several objects in one round trip.
+   *
+   * @param onums
+   *          The object numbers to fetch
+   * @return ObjectGroups containing those of the requested objects that could
+   *         be read. A group may contain more than one requested object.
+   */
+  public List<ObjectGroup> readObjectsFromStore(LongSet onums) {
+    try {
+      return send(Worker.getWorker().authToStore,
+          new MultiReadMessage(onums)).groups;
+    } catch (NoException e) {
+      // This is not possible.
+      throw new InternalError(e);
+    }
+  }
+
+  /**
+   * Like readObjectsFromStore, but does not wait for the store's reply.
+   * Requests made this way are pipelined over a single connection to the
+   * store, so several batches can overlap their round trips.
+   *
+   * @return a future for the ObjectGroups containing those of the requested
+   *         objects that could be read. The future fails with an IOException
+   *         if the store could not be reached, or refused the request because
+   *         it is busy.
+   */
+  public ListenableFuture<List<ObjectGroup>> readObjectsFromStoreAsync(
+      LongSet onums) {
+    return Futures.transform(
+        sendPipelined(Worker.getWorker().authToStore,
+            new MultiReadMessage(onums)),
+        new Function<MultiReadMessage.Response, List<ObjectGroup>>() {
+          @Override
+          public List<ObjectGroup> apply(MultiReadMessage.Response response) {
+            return response.groups;
+          }
+        });
+  }
+
   /**
    * Called by dissemination to fetch an encrypted object from the store.
    *
@@ -7,6 +7,7 @@ import fabric.common.SerializedObject;
 import fabric.common.TransactionID;
 import fabric.common.exceptions.AccessException;
 import fabric.common.util.LongKeyMap;
+import fabric.common.util.LongSet;
 import fabric.lang.Object._Impl;
 import fabric.lang.security.NodePrincipal;
 import fabric.net.UnreachableNodeException;
@@ -68,6 +69,17 @@ public interface Store extends Serializable {
    */
   ObjectCache.Entry readFromCache(long onum);
 
+  /**
+   * Starts fetching into cache, in the background, those of the given objects
+   * that are neither resident nor already being fetched. This is only a hint:
+   * objects that cannot be read are silently skipped, and later reads of the
+   * objects wait for any fetch that is still in progress.
+   *
+   * @param onums
+   *          The identifiers of the objects to prefetch.
+   */
+  void prefetch(LongSet onums);
+
   /**
    * Notifies the store that the transaction is being Aborted.
    *
@@ -128,6 +128,9 @@ public final class Worker {
   /** The global label cache. */
   public final LabelCache labelCache;
 
+  /** Predicts and prefetches the objects the application will read next. */
+  public final Prefetcher prefetcher;
+
   protected final NodePrincipal principal;
 
   private final RemoteCallManager remoteCallManager;
@@ -179,6 +182,9 @@ public final class Worker {
     WORKER_LOGGER.info("Initializing Fabric worker");
     WORKER_LOGGER.config("use ssl:             " + config.useSSL);
 
+    Threading.configure(config);
+    ObjectCache.configure(config);
+
     instanceName = config.name;
     instance = new Worker(config, principalOnum, initStoreSet);
 
@@ -275,6 +281,7 @@ public final class Worker {
     }
 
     this.labelCache = new LabelCache();
+    this.prefetcher = new Prefetcher(config);
 
     this.principal = initializePrincipal(config.homeStore, principalOnum,
         this.config.getKeyMaterial());
@@ -6,6 +6,7 @@ import java.security.SignatureException;
 import java.util.Collection;
 import java.util.Map;
 
+import fabric.common.AuthorizationUtil;
 import fabric.common.ObjectGroup;
 import fabric.common.SerializedObject;
 import fabric.common.Threading;
@@ -202,6 +203,8 @@ public class InProcessRemoteWorker extends RemoteWorker {
     response.addAll(updatedOnums);
 
     RemoteStore store = worker.getStore(storeName);
+    AuthorizationUtil.notifyUpdates(store, response);
+
     PublicKey storeKey = store.getPublicKey();
     for (ObjectGlob glob : updates.keySet()) {
       LongSet onums = updates.get(glob);
@@ -14,8 +14,20 @@ import java.util.TreeMap;
 import java.util.logging.Level;
 
 import fabric.common.Logging;
+import fabric.common.Threading;
+import fabric.common.Threading.InstrumentedExecutor;
+import fabric.common.Timing;
 import fabric.common.exceptions.InternalError;
+import fabric.store.InProcessStore;
+import fabric.store.SubscriptionManager;
+import fabric.worker.BoundedCachePolicy;
+import fabric.worker.ObjectCache;
+import fabric.worker.OffHeapCache;
+import fabric.worker.Prefetcher;
+import fabric.worker.RemoteStore;
 import fabric.worker.Worker;
+import fabric.worker.transaction.DeadlockDetectorThread;
+import fabric.worker.transaction.TransactionManager;
 
 public class WorkerShell {
   protected final Worker worker;
@@ -134,6 +146,229 @@ public class WorkerShell {
       }
     });
 
+    this.handlers.put("threads", new CommandHandler(
+        "Displays the load on the worker's thread pool.") {
+      @Override
+      public void handle(List<String> args) {
+        InstrumentedExecutor pool = Threading.getPool();
+        out.println("Policy:         " + pool.policy().toString().toLowerCase());
+        out.println("Active threads: " + pool.getActiveCount());
+        out.println("Queue depth:    " + pool.getQueueDepth());
+        out.println("Rejections:     " + pool.getRejectedCount());
+      }
+    });
+
+    this.handlers.put("prefetch", new CommandHandler("[reset]",
+        "Displays the prefetcher's counters, or resets them.") {
+      @Override
+      public void handle(List<String> args) throws HandlerException {
+        Prefetcher prefetcher = WorkerShell.this.worker.prefetcher;
+        if (args.size() > 0) {
+          if (!args.get(0).equals("reset")) throw new HandlerException(
+              "prefetch: unknown option " + args.get(0));
+          prefetcher.resetStats();
+          return;
+        }
+
+        out.println("Objects prefetched: " + prefetcher.getIssued());
+        out.println("Hits:               " + prefetcher.getHits());
+        out.println("Wasted:             " + prefetcher.getWasted());
+        out.println("Throttled batches:  " + prefetcher.getThrottled());
+        out.println("Latency saved:      "
+            + prefetcher.getLatencySavedMillis() + " ms (estimated)");
+        out.println("In flight:          " + prefetcher.getInFlight());
+        out.println("Unread bytes:       " + prefetcher.getUnreadBytes());
+        out.println("Trained classes:    " + prefetcher.getTrainedClasses());
+      }
+    });
+
+    this.handlers.put("cache", new CommandHandler("[reset]",
+        "Displays the object cache's counters, or resets them.") {
+      @Override
+      public void handle(List<String> args) throws HandlerException {
+        BoundedCachePolicy policy = ObjectCache.getPolicy();
+        OffHeapCache offHeap = ObjectCache.getOffHeapCache();
+
+        if (args.size() > 0) {
+          if (!args.get(0).equals("reset")) throw new HandlerException(
+              "cache: unknown option " + args.get(0));
+          if (policy != null) policy.resetStats();
+          if (offHeap != null) offHeap.resetStats();
+          return;
+        }
+
+        if (policy == null) {
+          out.println("The object cache is unbounded "
+              + "(fabric.node.cacheMaxBytes is not set).");
+        } else {
+          out.println("Resident objects: " + policy.getResidentCount());
+          out.println("Resident bytes:   " + policy.getResidentBytes()
+              + " of " + policy.getMaxBytes());
+          out.println("Hit ratio:        "
+              + String.format("%.3f", policy.getHitRatio()) + " ("
+              + policy.getHits() + " hits, " + policy.getMisses()
+              + " misses)");
+          out.println("Evictions:        " + policy.getEvictions());
+          out.println("Pinned skips:     " + policy.getPinnedSkips());
+        }
+
+        if (offHeap != null) {
+          out.println("Off-heap objects: " + offHeap.getStoredCount());
+          out.println("Off-heap bytes:   " + offHeap.getStoredBytes() + " of "
+              + offHeap.getMaxBytes());
+          out.println("Off-heap reloads: " + offHeap.getReloads());
+          out.println("Off-heap drops:   " + offHeap.getDrops() + " ("
+              + offHeap.getRejected() + " kept on heap)");
+        }
+      }
+    });
+
+    this.handlers.put("dissem", new CommandHandler(
+        "Displays the dissemination cache's hit ratio and the replication "
+            + "traffic in the last complete replication interval.") {
+      @Override
+      public void handle(List<String> args) {
+        String stats = WorkerShell.this.worker.fetchManager().stats();
+        if (stats == null)
+          out.println("This worker does not use a dissemination network.");
+        else out.println(stats);
+      }
+    });
+
+    this.handlers.put("deadlocks", new CommandHandler("[reset]",
+        "Displays the deadlock detector's counters, or resets them.") {
+      @Override
+      public void handle(List<String> args) throws HandlerException {
+        DeadlockDetectorThread detector =
+            TransactionManager.getDeadlockDetector();
+        if (args.size() > 0) {
+          if (!args.get(0).equals("reset")) throw new HandlerException(
+              "deadlocks: unknown option " + args.get(0));
+          detector.resetStats();
+          return;
+        }
+
+        out.println("Deadlocks broken:   " + detector.getDeadlocks());
+        out.println("False positives:    " + detector.getFalsePositives());
+        out.println("Detection latency:  " + detector.getMeanLatencyMicros()
+            + " us mean, " + detector.getMaxLatencyMicros() + " us max");
+        out.println("Waiting now:        " + detector.getWaitingCount());
+      }
+    });
+
+    this.handlers.put("timing", new CommandHandler(
+        "[reset | enable CATEGORY... | disable CATEGORY... | dump FILE]",
+        "Displays the time spent in each timing category, resets the "
+            + "statistics, enables or disables categories, or writes the "
+            + "statistics to FILE. CATEGORY may be all.") {
+      @Override
+      public void handle(List<String> args) throws HandlerException {
+        if (args.isEmpty()) {
+          Timing.printStats(out);
+          return;
+        }
+
+        String option = args.get(0);
+        switch (option) {
+        case "reset":
+          Timing.reset();
+          return;
+
+        case "enable":
+        case "disable":
+          for (String name : args.subList(1, args.size())) {
+            boolean found = false;
+            for (Timing t : Timing.values()) {
+              if (name.equalsIgnoreCase("all")
+                  || t.name().equalsIgnoreCase(name)) {
+                t.enabled = option.equals("enable");
+                found = true;
+              }
+            }
+            if (!found)
+              throw new HandlerException("timing: unknown category " + name);
+          }
+          return;
+
+        case "dump":
+          if (args.size() != 2)
+            throw new HandlerException("timing: dump needs a file name");
+          try (PrintStream file = new PrintStream(args.get(1))) {
+            Timing.printStats(file);
+          } catch (FileNotFoundException e) {
+            throw new HandlerException("timing: cannot write " + args.get(1),
+                e);
+          }
+          return;
+
+        default:
+          throw new HandlerException("timing: unknown option " + option);
+        }
+      }
+    });
+
+    this.handlers.put("snapshot", new CommandHandler("DIR",
+        "Takes an online snapshot of this store's object database into DIR. "
+            + "The first snapshot into DIR copies the whole database; later "
+            + "ones only copy what has changed since.") {
+      @Override
+      public void handle(List<String> args) throws HandlerException {
+        if (args.size() != 1)
+          throw new HandlerException("snapshot: missing directory");
+
+        Worker worker = WorkerShell.this.worker;
+        RemoteStore store = worker.getStore(worker.config.name);
+        if (!(store instanceof InProcessStore))
+          throw new HandlerException("snapshot: this node is not a store");
+
+        File dir = new File(args.get(0));
+        try {
+          out.println(((InProcessStore) store).snapshot(dir));
+        } catch (IOException | UnsupportedOperationException e) {
+          throw new HandlerException("snapshot: " + e.getMessage(), e);
+        }
+      }
+    });
+
+    this.handlers.put("subscribers", new CommandHandler(
+        "Displays how far this store's update notifications to each "
+            + "subscriber lag behind the updates.") {
+      @Override
+      public void handle(List<String> args) throws HandlerException {
+        Worker worker = WorkerShell.this.worker;
+        RemoteStore store = worker.getStore(worker.config.name);
+        if (!(store instanceof InProcessStore))
+          throw new HandlerException("subscribers: this node is not a store");
+
+        Map<String, SubscriptionManager.Lag> lag =
+            ((InProcessStore) store).getNotificationLag();
+        if (lag.isEmpty()) out.println("No update notifications sent.");
+        for (Map.Entry<String, SubscriptionManager.Lag> entry : lag
+            .entrySet()) {
+          out.println(entry.getKey() + ": " + entry.getValue());
+        }
+      }
+    });
+
+    this.handlers.put("groupcommit", new CommandHandler(
+        "Displays the number and sizes of the batches that this store's "
+            + "object database has group committed, and how long their "
+            + "commits took.") {
+      @Override
+      public void handle(List<String> args) throws HandlerException {
+        Worker worker = WorkerShell.this.worker;
+        RemoteStore store = worker.getStore(worker.config.name);
+        if (!(store instanceof InProcessStore))
+          throw new HandlerException("groupcommit: this node is not a store");
+
+        try {
+          out.println(((InProcessStore) store).groupCommitStats());
+        } catch (UnsupportedOperationException e) {
+          throw new HandlerException("groupcommit: " + e.getMessage(), e);
+        }
+      }
+    });
+
     this.handlers.put("help", new CommandHandler("[CMD]", "Displays a help "
         + "message for CMD.") {
       final int SCREEN_WIDTH = 76;
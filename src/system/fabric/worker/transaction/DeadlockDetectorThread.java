@@ -2,49 +2,41 @@ package fabric.worker.transaction;
 
 import static fabric.common.Logging.WORKER_DEADLOCK_LOGGER;
 
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
-import com.google.common.collect.Multiset;
-import com.google.common.collect.TreeMultiset;
-
 import fabric.common.Logging;
 import fabric.common.TransactionID;
 import fabric.common.util.LongHashSet;
-import fabric.common.util.LongIterator;
-import fabric.common.util.LongKeyHashMap;
-import fabric.common.util.LongKeyMap;
 import fabric.common.util.LongSet;
 
 /**
- * On request, examines the waits-for graph for deadlocks. If a deadlock is
- * detected (in the form of a waits-for cycle), the deadlock is resolved by
- * restarting a transaction involved in the deadlock.
+ * Maintains the waits-for graph between transactions and resolves deadlocks.
+ * The graph is updated as transaction logs start and stop waiting for locks
+ * (see {@link Log#setWaitsFor(Log, Object)}), and a deadlock is detected as
+ * soon as the edge that closes a waits-for cycle is inserted (see
+ * {@link WaitsForGraph}). The deadlock is resolved by this thread, which
+ * re-checks the cycle and restarts the transaction chosen as its victim.
  */
 public class DeadlockDetectorThread extends Thread {
 
-  /**
-   * Set of logs currently still waiting for some object and should be included
-   * in a deadlock detection attempt.
-   */
-  private Set<Log> waitingLogs;
+  private final WaitsForGraph<Log> graph;
 
   /**
-   * Set of transaction ids currently still waiting for some object and should
-   * be included in a deadlock detection attempt.
+   * Cycles that have been detected but not yet resolved.
    */
-  private Set<TransactionID> waitingTids;
+  private final BlockingQueue<WaitsForGraph.Cycle> detected;
 
-  /**
-   * Atomic flag for synchronizing request changes on and for flagging a new
-   * request which hasn't been handled yet.
-   */
-  private AtomicBoolean newRequest;
+  // Counters.
+
+  private final AtomicLong deadlocks;
+  private final AtomicLong falsePositives;
+  private final AtomicLong latencyNanos;
+  private final AtomicLong maxLatencyNanos;
 
   /**
    * Constructs a deadlock detector thread and starts it running.
@@ -53,82 +45,75 @@ public class DeadlockDetectorThread extends Thread {
     super("Deadlock detector");
     setDaemon(true);
     setPriority(getPriority() + 1);
-    this.waitingLogs = new HashSet<>();
-    this.waitingTids = new HashSet<>();
-    this.newRequest = new AtomicBoolean(false);
+    this.graph = new WaitsForGraph<>();
+    this.detected = new LinkedBlockingQueue<>();
+    this.deadlocks = new AtomicLong();
+    this.falsePositives = new AtomicLong();
+    this.latencyNanos = new AtomicLong();
+    this.maxLatencyNanos = new AtomicLong();
     start();
   }
 
   /**
-   * Requests a deadlock detection for the waits-for graph involving the given
-   * transaction log.
+   * Records that the given transaction log is waiting for locks held by the
+   * given transactions.
    */
-  void requestDetect(Log log) {
-    synchronized (this.newRequest) {
-      waitingLogs.add(log);
-      waitingTids.add(log.getTid());
-      this.newRequest.notifyAll();
-      this.newRequest.set(true);
+  void setWaitsFor(Log log, Set<Log> waitsFor) {
+    TransactionID tid = log.getTid();
+    if (tid == null) return;
+
+    LongSet targets = new LongHashSet();
+    for (Log holder : waitsFor) {
+      TransactionID holderTid = holder.getTid();
+      if (holderTid != null) targets.add(holderTid.topTid);
     }
-    WORKER_DEADLOCK_LOGGER.log(Level.FINE,
-        "Deadlock detection requested for {0}", log);
+
+    WaitsForGraph.Cycle cycle = graph.setWaitsFor(log, tid.topTid,
+        log.getOutermost().startTime, targets);
+    if (cycle == null) return;
+
+    Logging.log(WORKER_DEADLOCK_LOGGER, Level.FINE,
+        "{0} closed waits-for cycle {1}", log, cycle);
+    detected.add(cycle);
   }
 
   /**
-   * Stops requesting a deadlock detection for the waits-for graph involving the
-   * given transaction log.  This removes the log from the group examined for
-   * deadlock.
+   * Records that the given transaction log is no longer waiting.
    */
-  void stopRequestDetect(Log log) {
-    //detectRequests.add(log);
-    synchronized (this.newRequest) {
-      if (!waitingLogs.contains(log)) return;
-      waitingLogs.remove(log);
-      waitingTids.remove(log.getTid());
-    }
-    WORKER_DEADLOCK_LOGGER.log(Level.FINE,
-        "Deadlock detection no longer requested for {0}", log);
+  void clearWaitsFor(Log log) {
+    graph.clearWaitsFor(log);
   }
 
   @Override
   public void run() {
-    Set<TransactionID> lastTidsSeen = new HashSet<>();
     while (true) {
       try {
-        Set<Log> requests = new LinkedHashSet<>();
-        // Wait for a request.
-        synchronized (this.newRequest) {
-          while (!this.newRequest.get()) {
-            try {
-              this.newRequest.wait();
-            } catch (InterruptedException e) {
-              Logging.logIgnoredInterruptedException(e);
-            }
-          }
-          this.newRequest.set(false);
-          requests.addAll(waitingLogs);
-          // Update the last handled set.
-          lastTidsSeen.clear();
-          lastTidsSeen.addAll(waitingTids);
+        WaitsForGraph.Cycle cycle = detected.take();
+
+        // The cycle may have been broken since it was found, e.g., by a waiter
+        // that was woken up but hadn't yet cleared its edges.
+        Log victim = graph.confirm(cycle);
+        if (victim == null) {
+          falsePositives.incrementAndGet();
+          WORKER_DEADLOCK_LOGGER.log(Level.FINE,
+              "Waits-for cycle {0} was broken before it was resolved", cycle);
+          continue;
         }
 
-        WORKER_DEADLOCK_LOGGER.log(Level.FINER,
-            "Performing deadlock detection for {0}", requests);
-
-        // Don't loop with an iterator. The set of requests will be modified as
-        // requested nodes are encountered during the call to findCycles().
-        while (!requests.isEmpty()) {
-          // Grab the next request and find cycles in the waits-for graph
-          // reachable from that transaction.
-          Set<Set<Log>> cycles =
-              findCycles(requests.iterator().next(), new LongKeyHashMap<Log>(),
-                  new LongHashSet(), new HashSet<Set<Log>>(), requests);
-
-          Logging.log(WORKER_DEADLOCK_LOGGER, Level.FINE,
-              "Found {0} deadlocks: {1}", cycles.size(), cycles);
-
-          resolveDeadlocks(cycles);
-        }
+        Log toAbort = victim.getOutermost();
+        WORKER_DEADLOCK_LOGGER.log(Level.FINE, "Aborting {0} to break deadlock",
+            toAbort);
+        toAbort.flagRetry("1 breaking deadlock in " + cycle);
+
+        long latency = System.nanoTime() - cycle.detectedAt;
+        deadlocks.incrementAndGet();
+        latencyNanos.addAndGet(latency);
+        long max;
+        do {
+          max = maxLatencyNanos.get();
+        } while (latency > max && !maxLatencyNanos.compareAndSet(max, latency));
+      } catch (InterruptedException e) {
+        Logging.logIgnoredInterruptedException(e);
       } catch (RuntimeException | Error e) {
         e.printStackTrace();
       }
@@ -136,213 +121,52 @@ public class DeadlockDetectorThread extends Thread {
   }
 
   /**
-   * Finds cycles in the waits-for graph.
-   *
-   * @param curLog
-   *          the current node being visited.
-   * @param pathToTid
-   *          a map representing the set of nodes in the waits-for path up to
-   *          the current node, but excluding the current node itself. (In the
-   *          case of a cycle, pathToTid will already contain a log with the
-   *          same top-level TID as the current node.) Nodes in the path are
-   *          represented by mapping the node's top-level TID to the node's
-   *          nested-transaction log.
-   * @param topLevelTidsVisited
-   *          the set of top-level TIDs that have been visited already
-   *          (excluding that of curLog if this is the first time visiting
-   *          curLog's top-level TID).
-   * @param cyclesFound
-   *          the cycles found so far. Any cycles found during the call will be
-   *          added to this set, and this set is returned.
-   * @param requests
-   *          the set of transaction logs for which deadlock-detection requests
-   *          have been made.
-   *
-   * @return cyclesFound with any found cycles added.
+   * Resets the counters.
    */
-  private Set<Set<Log>> findCycles(Log curLog, LongKeyMap<Log> pathToTid,
-      LongSet topLevelTidsVisited, Set<Set<Log>> cyclesFound,
-      Set<Log> requests) {
-    // Remove the current TID from the set of deadlock-detection requests, since
-    // we are handling it now.
-    requests.remove(curLog);
-
-    TransactionID curTid = curLog.getTid();
-    if (curTid == null) {
-      // Transaction was committed/aborted.
-      return cyclesFound;
-    }
-
-    long curTopTid = curTid.topTid;
-
-    // Check for cycle.
-    if (pathToTid.containsKey(curTopTid)) {
-      // Cycle detected. Add to the list of cycles found and return.
-      // This computes a conservative approximation, since not all path elements
-      // are necessarily involved in the cycle.
-      Set<Log> cycle = new HashSet<>();
-      cycle.add(curLog.getOutermost());
-      for (Log pathElement : pathToTid.values()) {
-        if (pathElement.getTid().topTid != curTopTid) {
-          cycle.add(pathElement.getOutermost());
-        }
-      }
-
-      cyclesFound.add(cycle);
-      return cyclesFound;
-    }
-
-    // Skip if we've previously visited this node.
-    if (topLevelTidsVisited.contains(curTopTid)) return cyclesFound;
-
-    // Gather up the logs for all the transactions that curLog is waiting for.
-    Set<Log> waitsFor = curLog.getWaitsFor();
-
-    // Add the given tid to the path and set of top-level TIDs visited, and
-    // recurse.
-    pathToTid.put(curTopTid, curLog);
-    topLevelTidsVisited.add(curTopTid);
-    try {
-      for (Log waitsForLog : waitsFor) {
-        // Look for cycles continuing this path
-        findCycles(waitsForLog, pathToTid, topLevelTidsVisited, cyclesFound,
-            requests);
-        if (!topLevelTidsVisited.contains(waitsForLog.tid.topTid)) {
-          // Look for cycles starting from here, in case there's a deadlock not
-          // involving the path so far.
-          findCycles(waitsForLog, new LongKeyHashMap<Log>(), new LongHashSet(),
-              cyclesFound, requests);
-        }
-      }
-    } finally {
-      pathToTid.remove(curTopTid);
-    }
-
-    return cyclesFound;
+  public void resetStats() {
+    deadlocks.set(0);
+    falsePositives.set(0);
+    latencyNanos.set(0);
+    maxLatencyNanos.set(0);
   }
 
   /**
-   * A comparator on Logs that orders by transaction depth (outer transactions
-   * first.)
+   * @return the number of deadlocks broken by aborting a transaction.
    */
-  private static final Comparator<Log> LOG_COMPARATOR = new Comparator<Log>() {
-    @Override
-    public int compare(Log log1, Log log2) {
-      TransactionID tid1 = log1.getTid();
-      TransactionID tid2 = log2.getTid();
-      if (tid1.topTid == tid2.topTid) {
-        return tid1.depth - tid2.depth;
-      }
-
-      // Incomparable.
-      return 0;
-    }
-  };
+  public long getDeadlocks() {
+    return deadlocks.get();
+  }
 
   /**
-   * Resolves deadlocks by aborting transactions.
-   *
-   * @param cycles
-   *          the set of deadlocks, represented by the logs of transactions
-   *          involved in waits-for cycles.
+   * @return the number of detected cycles that no longer existed when they
+   *         were about to be resolved.
    */
-  private void resolveDeadlocks(Set<Set<Log>> cycles) {
-    // Turn the set of cycles into a map from top-level TIDs to sorted multisets
-    // of transaction logs. The multisets are sorted by transaction depth, outer
-    // transactions first.
-    LongKeyMap<Multiset<Log>> logsByTopLevelTid = new LongKeyHashMap<>();
-    for (Set<Log> cycle : cycles) {
-      for (Log log : cycle) {
-        long topLevelTid = log.getTid().topTid;
-        Multiset<Log> logs = logsByTopLevelTid.get(topLevelTid);
-        if (logs == null) {
-          logs = TreeMultiset.create(LOG_COMPARATOR);
-          logsByTopLevelTid.put(topLevelTid, logs);
-        }
-
-        logs.add(log);
-      }
-    }
-
-    // Abort transactions to break up cycles. Transactions involved in more
-    // cycles are aborted first.
-    while (!cycles.isEmpty()) {
-      // Figure out which top-level transaction(s) is involved in the most number
-      // of deadlocks.
-      int curMax = 0;
-      LongSet abortCandidates = new LongHashSet();
-      for (LongKeyMap.Entry<Multiset<Log>> entry : logsByTopLevelTid
-          .entrySet()) {
-        int curSize = entry.getValue().size();
-        if (curMax > curSize) continue;
-
-        if (curMax < curSize) {
-          curMax = curSize;
-          abortCandidates.clear();
-        }
-
-        abortCandidates.add(entry.getKey());
-      }
-
-      // Figure out which transaction to abort. (Pick the newest one.)
-      Log toAbort = null;
-      Multiset<Log> abortSet = null;
-      for (LongIterator it = abortCandidates.iterator(); it.hasNext();) {
-        long curTopLevelTid = it.next();
-        Multiset<Log> curCandidateSet = logsByTopLevelTid.get(curTopLevelTid);
-        Log curCandidate = curCandidateSet.iterator().next();
-
-        if (toAbort == null || toAbort.startTime < curCandidate.startTime) {
-          toAbort = curCandidate;
-          abortSet = curCandidateSet;
-        }
-      }
-
-      // Abort the transaction.
-      WORKER_DEADLOCK_LOGGER.log(Level.FINE, "Aborting {0} to break deadlock",
-          toAbort);
-      toAbort.flagRetry("1 breaking deadlocks in " + cycles);
-
-      synchronized (this.newRequest) {
-        this.waitingLogs.remove(toAbort);
-        this.waitingTids.remove(toAbort.getTid());
-      }
-
-      // Fix up our data structures to reflect the aborted transaction.
-      for (Iterator<Set<Log>> cycleIt = cycles.iterator(); cycleIt.hasNext();) {
-        Set<Log> cycle = cycleIt.next();
-
-        // Check if the cycle has a transaction that was aborted.
-        if (!haveCommonElements(cycle, abortSet.elementSet())) continue;
-
-        // Cycle was broken, so remove from the set of cycles.
-        cycleIt.remove();
-
-        // Fix up logsByTopLevelTid.
-        for (Log log : cycle) {
-          long topLevelTid = log.getTid().topTid;
-          Multiset<Log> logs = logsByTopLevelTid.get(topLevelTid);
-          logs.remove(log);
-          if (logs.isEmpty()) {
-            logsByTopLevelTid.remove(topLevelTid);
-          }
-        }
-      }
-    }
+  public long getFalsePositives() {
+    return falsePositives.get();
   }
 
-  private static <T> boolean haveCommonElements(Set<T> set1, Set<T> set2) {
-    // Make set1 the smaller set.
-    if (set1.size() > set2.size()) {
-      Set<T> tmp = set1;
-      set1 = set2;
-      set2 = tmp;
-    }
+  /**
+   * @return the mean time, in microseconds, from a deadlock forming to its
+   *         victim being told to abort.
+   */
+  public long getMeanLatencyMicros() {
+    long count = deadlocks.get();
+    if (count == 0) return 0;
+    return TimeUnit.NANOSECONDS.toMicros(latencyNanos.get() / count);
+  }
 
-    for (T t : set1) {
-      if (set2.contains(t)) return true;
-    }
+  /**
+   * @return the longest time, in microseconds, from a deadlock forming to its
+   *         victim being told to abort.
+   */
+  public long getMaxLatencyMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos.get());
+  }
 
-    return false;
+  /**
+   * @return the number of transactions currently waiting for locks.
+   */
+  public int getWaitingCount() {
+    return graph.size();
   }
 }
@@ -13,6 +13,7 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.logging.Level;
 
+import fabric.common.AuthorizationUtil;
 import fabric.common.Logging;
 import fabric.common.SysUtil;
 import fabric.common.Threading;
@@ -20,6 +21,7 @@ import fabric.common.Timing;
 import fabric.common.TransactionID;
 import fabric.common.util.LongKeyHashMap;
 import fabric.common.util.LongKeyMap;
+import fabric.common.util.OidHashSet;
 import fabric.common.util.OidKeyHashMap;
 import fabric.common.util.WeakReferenceArrayList;
 import fabric.lang.Object._Impl;
@@ -304,6 +306,34 @@ public final class Log {
     return writes.isEmpty() && creates.isEmpty() && workersCalled.isEmpty();
   }
 
+  /**
+   * @return the number of objects read by this transaction and its completed
+   *         sub-transactions.
+   */
+  public int readSetSize() {
+    return reads.size() + readsReadByParent.size();
+  }
+
+  /**
+   * Adds to the given set the oids of the objects read by this transaction and
+   * its completed sub-transactions.
+   */
+  public void addReadsTo(OidHashSet set) {
+    synchronized (reads) {
+      for (LongKeyMap<ReadMap.Entry> submap : reads) {
+        for (ReadMap.Entry entry : submap.values()) {
+          FabricSoftRef ref = entry.getRef();
+          set.add(ref.store, ref.onum);
+        }
+      }
+    }
+
+    for (ReadMap.Entry entry : readsReadByParent) {
+      FabricSoftRef ref = entry.getRef();
+      set.add(ref.store, ref.onum);
+    }
+  }
+
   /**
    * Returns a set of stores affected by this transaction. This is the set of
    * stores to contact when preparing and committing a transaction.
@@ -760,6 +790,11 @@ public final class Log {
       }
     }
 
+    // Drop any cached authorizations that may depend on the objects written.
+    // Stores do not send us updates for our own writes.
+    if (!writes.isEmpty() || !localStoreWrites.isEmpty())
+      AuthorizationUtil.notifyUpdates(chain);
+
     prepare = null;
 
     // Merge the security cache into the top-level label cache.
@@ -876,25 +911,27 @@ public final class Log {
    * waiting for a fetch to complete.
    */
   public void setWaitsFor(Object obj) {
+    boolean wasWaiting;
     synchronized (this.waitsFor) {
+      wasWaiting = !this.waitsFor.isEmpty();
       this.waitsFor.clear();
       this.waitsOn = obj;
     }
+
+    if (wasWaiting)
+      TransactionManager.getDeadlockDetector().clearWaitsFor(this);
   }
 
   /**
    * Changes the waitsFor set to a singleton set containing the given log.
    */
   public void setWaitsFor(Log waitsFor, Object obj) {
-    synchronized (this.waitsFor) {
-      this.waitsFor.clear();
-      this.waitsFor.add(waitsFor);
-      this.waitsOn = obj;
-    }
+    setWaitsFor(Collections.singleton(waitsFor), obj);
   }
 
   /**
-   * Changes the waitsFor set to contain exactly the elements of the given set.
+   * Changes the waitsFor set to contain exactly the elements of the given set,
+   * and updates the waits-for graph, which checks for deadlocks.
    */
   public void setWaitsFor(Set<Log> waitsFor, Object obj) {
     synchronized (this.waitsFor) {
@@ -902,16 +939,24 @@ public final class Log {
       this.waitsFor.addAll(waitsFor);
       this.waitsOn = obj;
     }
+
+    TransactionManager.getDeadlockDetector().setWaitsFor(this, waitsFor);
   }
 
   /**
-   * Empties the waitsFor set.
+   * Empties the waitsFor set. The waits-for graph is only touched if the set
+   * was non-empty, so this is cheap when the transaction did not wait.
    */
   public void clearWaitsFor() {
+    boolean wasWaiting;
     synchronized (this.waitsFor) {
+      wasWaiting = !this.waitsFor.isEmpty();
       this.waitsFor.clear();
       this.waitsOn = null;
     }
+
+    if (wasWaiting)
+      TransactionManager.getDeadlockDetector().clearWaitsFor(this);
   }
 
   /**
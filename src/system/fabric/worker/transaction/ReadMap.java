@@ -270,7 +270,7 @@ public final class ReadMap {
    */
   boolean haveReaders(Store store, long onum) {
     Entry entry = map.get(store, onum);
-    return entry != null && !entry.haveReaders();
+    return entry != null && entry.haveReaders();
   }
 
   /**
@@ -164,6 +164,13 @@ public final class TransactionManager {
   private static final Map<Thread, TransactionManager> instanceMap =
       new WeakHashMap<>();
 
+  /**
+   * @return the worker's deadlock detector.
+   */
+  public static DeadlockDetectorThread getDeadlockDetector() {
+    return deadlockDetector;
+  }
+
   public static TransactionManager getInstance() {
     Thread thread = Thread.currentThread();
 
@@ -624,13 +631,20 @@ public final class TransactionManager {
   }
 
   public void registerRead(_Impl obj) {
+    // Nothing to do if we're not in a transaction.
+    if (current == null) return;
+
+    // Fast path: the object's stamps are volatile, so they can be checked
+    // without synchronizing on the object.
+    if (hasReadStamps(obj)) return;
+
     synchronized (obj) {
-      if (obj.$reader == current
-          && obj.writerMapVersion == current.writerMap.version)
-        return;
+      if (hasReadStamps(obj)) return;
 
-      // Nothing to do if we're not in a transaction.
-      if (current == null) return;
+      if (obj.$reader != current) {
+        Worker.getWorker().prefetcher.registerRead(obj);
+        obj.$cacheEntry.touch();
+      }
 
       Timing.TXLOG.begin();
       try {
@@ -642,6 +656,28 @@ public final class TransactionManager {
     }
   }
 
+  /**
+   * @return true iff the given object's stamps show that the current
+   *         transaction has a read lock on the object and has checked the
+   *         current version of the writer map. The stamps are only set to the
+   *         current transaction by the transaction's own thread, so a stale
+   *         read can only send us down the slow path.
+   */
+  private boolean hasReadStamps(_Impl obj) {
+    return obj.$reader == current
+        && obj.writerMapVersion == current.writerMap.version;
+  }
+
+  /**
+   * @return true iff the given object's stamps show that the current
+   *         transaction has a write lock on the object, has checked the current
+   *         version of the writer map, and owns the object.
+   */
+  private boolean hasWriteStamps(_Impl obj) {
+    return obj.$writer == current
+        && obj.writerMapVersion == current.writerMap.version && obj.$isOwned;
+  }
+
   /**
    * Ensures the current transaction has a read lock for the given object,
    * blocking if necessary. This method assumes we are synchronized on the
@@ -668,10 +704,8 @@ public final class TransactionManager {
         hadToWait = true;
         obj.$numWaiting++;
         try {
+          // This also checks the waits-for graph for deadlocks.
           current.setWaitsFor(obj.$writeLockHolder, obj);
-
-          // Ask for deadlock detection while we wait.
-          deadlockDetector.requestDetect(current);
           obj.wait();
         } catch (InterruptedException e) {
           Logging.logIgnoredInterruptedException(e);
@@ -682,17 +716,18 @@ public final class TransactionManager {
         checkRetrySignal();
       }
     } finally {
-      // Remove this log from the possibly deadlocked set.
-      deadlockDetector.stopRequestDetect(current);
+      // Remove this log from the waits-for graph.
       current.clearWaitsFor();
     }
 
+    // Reset the object's update-map version stamp. This is done before the
+    // reader stamp is set, so that the unsynchronized check in registerRead
+    // never pairs the new reader stamp with a stale version stamp.
+    obj.writerMapVersion = -1;
+
     // Set the object's reader stamp to the current transaction.
     obj.$reader = current;
 
-    // Reset the object's update-map version stamp.
-    obj.writerMapVersion = -1;
-
     current.acquireReadLock(obj);
     if (WORKER_DEADLOCK_LOGGER.isLoggable(Level.FINEST)) {
       Logging.log(WORKER_DEADLOCK_LOGGER, Level.FINEST,
@@ -713,16 +748,18 @@ public final class TransactionManager {
     boolean needTransaction = (current == null);
     if (needTransaction) startTransaction();
 
+    // Fast path: see registerRead.
+    if (hasWriteStamps(obj)) return needTransaction;
+
     synchronized (obj) {
-      if (obj.$writer == current
-          && obj.writerMapVersion == current.writerMap.version && obj.$isOwned)
-        return needTransaction;
+      if (hasWriteStamps(obj)) return needTransaction;
 
       try {
         Timing.TXLOG.begin();
         ensureWriteLock(obj);
         ensureObjectUpToDate(obj);
         ensureOwnership(obj);
+        obj.$cacheEntry.written();
       } finally {
         Timing.TXLOG.end();
       }
@@ -798,10 +835,8 @@ public final class TransactionManager {
 
         obj.$numWaiting++;
         try {
+          // This also checks the waits-for graph for deadlocks.
           current.setWaitsFor(waitsFor, obj);
-
-          // Ask for deadlock detection while we wait.
-          deadlockDetector.requestDetect(current);
           obj.wait();
         } catch (InterruptedException e) {
           Logging.logIgnoredInterruptedException(e);
@@ -812,8 +847,7 @@ public final class TransactionManager {
         checkRetrySignal();
       }
     } finally {
-      // Remove this log from the possibly deadlocked set.
-      deadlockDetector.stopRequestDetect(current);
+      // Remove this log from the waits-for graph.
       current.clearWaitsFor();
     }
 
@@ -2,16 +2,20 @@ package fabric.worker.transaction;
 
 import static fabric.common.Logging.WORKER_TRANSACTION_LOGGER;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 
 import fabric.common.Logging;
+import fabric.common.Threading;
 import fabric.common.SerializedObject;
 import fabric.common.SysUtil;
+import fabric.common.exceptions.NotImplementedException;
 import fabric.common.util.LongKeyMap;
 import fabric.common.util.OidKeyHashMap;
 import fabric.lang.Object._Impl;
@@ -29,6 +33,12 @@ import fabric.worker.remote.RemoteWorker;
 
 /**
  * Worker representation of a transaction prepare.
+ * <p>
+ * Messages to the participants are sent in parallel, outside this object's
+ * monitor, so that replies can be processed while other messages are still
+ * being sent. In particular, the first failed prepare aborts the transaction
+ * right away: prepares not yet sent are skipped, and aborts are sent to the
+ * participants already contacted.
  */
 public class TransactionPrepare {
   private enum Status {
@@ -43,6 +53,14 @@ public class TransactionPrepare {
   private final Map<Store, Boolean> outstandingStores;
   private final Set<Store> respondedStores = new HashSet<>();
 
+  /**
+   * When each participant was sent its prepare or commit message, by node
+   * name, in nanoseconds. Used to record per-participant round-trip times in
+   * the transaction's stats.
+   */
+  private final Map<String, Long> prepareSendTimes = new HashMap<>();
+  private final Map<String, Long> commitSendTimes = new HashMap<>();
+
   private final RemoteWorker coordinator;
   private final Log txnLog;
   private final boolean singleStore;
@@ -82,17 +100,9 @@ public class TransactionPrepare {
         : Worker.getWorker().getStore(name);
     WORKER_TRANSACTION_LOGGER.log(Level.FINER, "{0} finished committing at {1}",
         new Object[] { txnLog, s });
+    recordCommitTime(name);
     respondedStores.remove(s);
-    if (respondedStores.isEmpty() && respondedWorkers.isEmpty()) {
-      if (coordinator != null)
-        coordinator.notifyWorkerCommitted(txnLog.tid.topTid);
-      TransactionManager.outstandingCommits.remove(txnLog.tid.topTid, this);
-      synchronized (TransactionManager.outstandingCommits) {
-        TransactionManager.outstandingCommits.notifyAll();
-      }
-      currentStatus = Status.COMMITTED;
-      notifyAll();
-    }
+    checkCommitted();
   }
 
   /**
@@ -105,6 +115,7 @@ public class TransactionPrepare {
         : Worker.getWorker().getStore(name);
     WORKER_TRANSACTION_LOGGER.log(Level.FINER,
         "{0} successfully prepared at {1}", new Object[] { txnLog, s });
+    recordPrepareTime(name);
     outstandingStores.remove(s);
     respondedStores.add(s);
     cleanUp();
@@ -124,6 +135,7 @@ public class TransactionPrepare {
         : Worker.getWorker().getStore(name);
     WORKER_TRANSACTION_LOGGER.log(Level.FINER,
         "{0} failed to prepare at {1}: {2}", new Object[] { txnLog, s, m });
+    recordPrepareTime(name);
     outstandingStores.remove(s);
     respondedStores.add(s);
     String code = "";
@@ -163,17 +175,9 @@ public class TransactionPrepare {
     RemoteWorker w = Worker.getWorker().getWorker(name);
     WORKER_TRANSACTION_LOGGER.log(Level.FINER, "{0} finished committing at {1}",
         new Object[] { txnLog, w });
+    recordCommitTime(name);
     respondedWorkers.remove(w);
-    if (respondedStores.isEmpty() && respondedWorkers.isEmpty()) {
-      if (coordinator != null)
-        coordinator.notifyWorkerCommitted(txnLog.tid.topTid);
-      TransactionManager.outstandingCommits.remove(txnLog.tid.topTid, this);
-      synchronized (TransactionManager.outstandingCommits) {
-        TransactionManager.outstandingCommits.notifyAll();
-      }
-      currentStatus = Status.COMMITTED;
-      notifyAll();
-    }
+    checkCommitted();
   }
 
   /**
@@ -184,6 +188,7 @@ public class TransactionPrepare {
     RemoteWorker w = Worker.getWorker().getWorker(name);
     WORKER_TRANSACTION_LOGGER.log(Level.FINER,
         "{0} successfully prepared at {1}", new Object[] { txnLog, w });
+    recordPrepareTime(name);
     outstandingWorkers.remove(w);
     respondedWorkers.add(w);
     cleanUp();
@@ -201,6 +206,7 @@ public class TransactionPrepare {
     RemoteWorker w = Worker.getWorker().getWorker(name);
     WORKER_TRANSACTION_LOGGER.log(Level.FINER,
         "{0} failed to prepare at {1}: {2}", new Object[] { txnLog, w, m });
+    recordPrepareTime(name);
     outstandingWorkers.remove(w);
     respondedWorkers.add(w);
     String code = "";
@@ -213,101 +219,279 @@ public class TransactionPrepare {
     cleanUp();
   }
 
-  public synchronized void prepare() throws TransactionRestartingException {
-    WORKER_TRANSACTION_LOGGER.log(Level.FINER, "{0} running prepare", txnLog);
-    // Make sure we weren't aborted already.
-    txnLog.checkRetrySignal();
+  public void prepare() throws TransactionRestartingException {
+    List<Runnable> sends = new ArrayList<>();
 
-    // If we literally don't have anyone to prepare, we just move on.
-    if (currentStatus == Status.PREPARING && outstandingStores.isEmpty()
-        && outstandingWorkers.isEmpty()) {
-      currentStatus = Status.PREPARED;
-      return;
-    }
+    synchronized (this) {
+      WORKER_TRANSACTION_LOGGER.log(Level.FINER, "{0} running prepare",
+          txnLog);
+      // Make sure we weren't aborted already.
+      txnLog.checkRetrySignal();
 
-    // Send prepares to workers.
-    for (RemoteWorker w : outstandingWorkers.keySet()) {
-      outstandingWorkers.put(w, true);
-      WORKER_TRANSACTION_LOGGER.log(Level.FINER, "{0} sending prepare to {1}",
-          new Object[] { txnLog, w });
-      w.prepareTransaction(txnLog.tid.topTid);
-    }
+      // If we literally don't have anyone to prepare, we just move on.
+      if (currentStatus == Status.PREPARING && outstandingStores.isEmpty()
+          && outstandingWorkers.isEmpty()) {
+        currentStatus = Status.PREPARED;
+        return;
+      }
 
-    // Send prepares to stores.
-    for (Store store : outstandingStores.keySet()) {
-      Collection<_Impl> creates = txnLog.getCreatesForStore(store);
-      LongKeyMap<Integer> reads = txnLog.getReadsForStore(store, false);
-      Collection<_Impl> writes = txnLog.getWritesForStore(store);
-      outstandingStores.put(store, true);
-      WORKER_TRANSACTION_LOGGER.log(Level.FINER, "{0} sending prepare to {1}",
-          new Object[] { txnLog, store });
-      store.prepareTransaction(txnLog.tid.topTid, singleStore, readOnly,
-          creates, reads, writes);
-    }
+      // Prepares for workers.
+      for (final RemoteWorker w : outstandingWorkers.keySet()) {
+        sends.add(new Runnable() {
+          @Override
+          public void run() {
+            if (!markContacted(w)) return;
+            WORKER_TRANSACTION_LOGGER.log(Level.FINER,
+                "{0} sending prepare to {1}", new Object[] { txnLog, w });
+            try {
+              w.prepareTransaction(txnLog.tid.topTid);
+            } catch (RuntimeException e) {
+              markUnreachable(w, e);
+            }
+          }
+        });
+      }
 
-    try {
-      // Wait for success or abort.
-      while (currentStatus == Status.PREPARING) {
-        try {
-          txnLog.setWaitsFor(this);
-          wait();
-        } catch (InterruptedException e) {
-          Logging.logIgnoredInterruptedException(e);
-          // TODO: more?
-        }
+      // Prepares for stores. The transaction log is only read in this thread.
+      for (final Store store : outstandingStores.keySet()) {
+        final Collection<_Impl> creates = txnLog.getCreatesForStore(store);
+        final LongKeyMap<Integer> reads = txnLog.getReadsForStore(store, false);
+        final Collection<_Impl> writes = txnLog.getWritesForStore(store);
+        sends.add(new Runnable() {
+          @Override
+          public void run() {
+            if (!markContacted(store)) return;
+            WORKER_TRANSACTION_LOGGER.log(Level.FINER,
+                "{0} sending prepare to {1}", new Object[] { txnLog, store });
+            try {
+              store.prepareTransaction(txnLog.tid.topTid, singleStore,
+                  readOnly, creates, reads, writes);
+            } catch (RuntimeException e) {
+              markUnreachable(store, e);
+            }
+          }
+        });
       }
-    } finally {
-      txnLog.clearWaitsFor();
-    }
-    if (currentStatus == Status.ABORTING) {
-      // Check if we're done due to abort.
-      txnLog.checkRetrySignal();
     }
-  }
 
-  public synchronized void commit() {
-    if (currentStatus == Status.PREPARED) {
-      WORKER_TRANSACTION_LOGGER.log(Level.FINER, "{0} running commit", txnLog);
-      if (!readOnly && !singleStore
-          && (!respondedStores.isEmpty() || !respondedWorkers.isEmpty())) {
-        // Make sure worker waits for this to be handled at stores.
-        TransactionManager.outstandingCommits.put(txnLog.tid.topTid, this);
-        currentStatus = Status.COMMITTING;
-
-        // Tell workers to commit.
-        for (RemoteWorker w : respondedWorkers) {
-          WORKER_TRANSACTION_LOGGER.log(Level.FINER,
-              "{0} sending commit to {1}", new Object[] { txnLog, w });
-          w.commitTransaction(txnLog.tid.topTid);
-        }
+    fanOut(sends);
 
-        // Tell stores to commit.
-        for (Store s : respondedStores) {
-          WORKER_TRANSACTION_LOGGER.log(Level.FINER,
-              "{0} sending commit to {1}", new Object[] { txnLog, s });
-          s.commitTransaction(txnLog.tid.topTid);
-        }
-
-        // TODO: figure out how to make it safe to pipeline the next transaction
-        // and make it configurable whether the worker should block waiting for
-        // a response before continuing.
-        // (What's remaining appears to be proper handling of creates, which
-        // aren't visible until the creating transaction is committed).
-        while (currentStatus == Status.COMMITTING) {
+    synchronized (this) {
+      try {
+        // Wait for success or abort.
+        while (currentStatus == Status.PREPARING) {
           try {
+            txnLog.setWaitsFor(this);
             wait();
           } catch (InterruptedException e) {
             Logging.logIgnoredInterruptedException(e);
+            // TODO: more?
           }
         }
-      } else {
+      } finally {
+        txnLog.clearWaitsFor();
+      }
+      if (currentStatus == Status.ABORTING) {
+        // Check if we're done due to abort.
+        txnLog.checkRetrySignal();
+      }
+    }
+  }
+
+  /**
+   * Records that a prepare is about to be sent to the given worker.
+   *
+   * @return false if the prepare should not be sent, because the transaction
+   *         has already failed to prepare.
+   */
+  private synchronized boolean markContacted(RemoteWorker w) {
+    if (currentStatus != Status.PREPARING) return false;
+    outstandingWorkers.put(w, true);
+    prepareSendTimes.put(w.name(), System.nanoTime());
+    return true;
+  }
+
+  /**
+   * Records that a prepare is about to be sent to the given store.
+   *
+   * @return false if the prepare should not be sent, because the transaction
+   *         has already failed to prepare.
+   */
+  private synchronized boolean markContacted(Store s) {
+    if (currentStatus != Status.PREPARING) return false;
+    outstandingStores.put(s, true);
+    prepareSendTimes.put(s.name(), System.nanoTime());
+    return true;
+  }
+
+  /**
+   * Treats a worker that could not be sent its prepare as having failed to
+   * prepare.
+   */
+  private synchronized void markUnreachable(RemoteWorker w, RuntimeException e) {
+    WORKER_TRANSACTION_LOGGER.log(Level.FINE,
+        "{0} could not send prepare to {1}: {2}", new Object[] { txnLog, w, e });
+    outstandingWorkers.remove(w);
+    abort(w, "unreachable");
+    cleanUp();
+  }
+
+  /**
+   * Treats a store that could not be sent its prepare as having failed to
+   * prepare.
+   */
+  private synchronized void markUnreachable(Store s, RuntimeException e) {
+    WORKER_TRANSACTION_LOGGER.log(Level.FINE,
+        "{0} could not send prepare to {1}: {2}", new Object[] { txnLog, s, e });
+    outstandingStores.remove(s);
+    abort(s, "unreachable");
+    cleanUp();
+  }
+
+  /**
+   * Treats a worker that could not be sent its commit as done committing, so
+   * that the committing thread doesn't wait for it forever.
+   */
+  private synchronized void markCommitUnreachable(RemoteWorker w,
+      Throwable e) {
+    WORKER_TRANSACTION_LOGGER.log(Level.WARNING,
+        "Unable to send commit for " + txnLog + " to " + w, e);
+    commitSendTimes.remove(w.name());
+    respondedWorkers.remove(w);
+    checkCommitted();
+  }
+
+  /**
+   * Treats a store that could not be sent its commit as done committing, so
+   * that the committing thread doesn't wait for it forever.
+   */
+  private synchronized void markCommitUnreachable(Store s, Throwable e) {
+    WORKER_TRANSACTION_LOGGER.log(Level.WARNING,
+        "Unable to send commit for " + txnLog + " to " + s, e);
+    commitSendTimes.remove(s.name());
+    respondedStores.remove(s);
+    checkCommitted();
+  }
+
+  /**
+   * Finishes the commit once every participant is done committing.
+   */
+  private synchronized void checkCommitted() {
+    if (currentStatus != Status.COMMITTING) return;
+    if (!respondedStores.isEmpty() || !respondedWorkers.isEmpty()) return;
+
+    if (coordinator != null)
+      coordinator.notifyWorkerCommitted(txnLog.tid.topTid);
+    TransactionManager.outstandingCommits.remove(txnLog.tid.topTid, this);
+    synchronized (TransactionManager.outstandingCommits) {
+      TransactionManager.outstandingCommits.notifyAll();
+    }
+    currentStatus = Status.COMMITTED;
+    notifyAll();
+  }
+
+  private void recordPrepareTime(String name) {
+    Long sent = prepareSendTimes.remove(name);
+    if (sent != null)
+      txnLog.stats.addPrepareTime(name, System.nanoTime() - sent);
+  }
+
+  private void recordCommitTime(String name) {
+    Long sent = commitSendTimes.remove(name);
+    if (sent != null)
+      txnLog.stats.addCommitTime(name, System.nanoTime() - sent);
+  }
+
+  /**
+   * Runs the given message sends in parallel: all but one in pool threads, and
+   * the last in the calling thread.
+   */
+  private static void fanOut(List<Runnable> sends) {
+    int last = sends.size() - 1;
+    for (int i = 0; i < last; i++) {
+      Threading.getPool().submit(sends.get(i));
+    }
+    if (last >= 0) sends.get(last).run();
+  }
+
+  public void commit() {
+    List<Runnable> sends = new ArrayList<>();
+    boolean awaitAcks;
+
+    synchronized (this) {
+      // TODO: is it possible to be here before we've prepared?
+      if (currentStatus != Status.PREPARED) return;
+
+      WORKER_TRANSACTION_LOGGER.log(Level.FINER, "{0} running commit", txnLog);
+      if (readOnly || singleStore
+          || (respondedStores.isEmpty() && respondedWorkers.isEmpty())) {
         // Mark this as committed.
         currentStatus = Status.COMMITTED;
         if (coordinator != null)
           coordinator.notifyWorkerCommitted(txnLog.tid.topTid);
+        return;
+      }
+
+      // Make sure worker waits for this to be handled at stores.
+      TransactionManager.outstandingCommits.put(txnLog.tid.topTid, this);
+      currentStatus = Status.COMMITTING;
+
+      // Tell workers to commit.
+      for (final RemoteWorker w : respondedWorkers) {
+        commitSendTimes.put(w.name(), System.nanoTime());
+        sends.add(new Runnable() {
+          @Override
+          public void run() {
+            WORKER_TRANSACTION_LOGGER.log(Level.FINER,
+                "{0} sending commit to {1}", new Object[] { txnLog, w });
+            try {
+              w.commitTransaction(txnLog.tid.topTid);
+            } catch (RuntimeException | NotImplementedException e) {
+              markCommitUnreachable(w, e);
+            }
+          }
+        });
+      }
+
+      // Tell stores to commit.
+      for (final Store s : respondedStores) {
+        commitSendTimes.put(s.name(), System.nanoTime());
+        sends.add(new Runnable() {
+          @Override
+          public void run() {
+            WORKER_TRANSACTION_LOGGER.log(Level.FINER,
+                "{0} sending commit to {1}", new Object[] { txnLog, s });
+            try {
+              s.commitTransaction(txnLog.tid.topTid);
+            } catch (RuntimeException | NotImplementedException e) {
+              markCommitUnreachable(s, e);
+            }
+          }
+        });
+      }
+
+      // Objects created by the transaction aren't visible at their stores
+      // until the commit is handled there, so a following transaction could
+      // not safely use them. Only pipeline the commit if there are none.
+      awaitAcks = !Worker.getWorker().config.pipelineCommits
+          || !txnLog.creates.isEmpty();
+    }
+
+    fanOut(sends);
+
+    // If the commit is pipelined, the worker waits for outstandingCommits to
+    // drain before shutting down.
+    if (!awaitAcks) return;
+
+    synchronized (this) {
+      while (currentStatus == Status.COMMITTING) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Logging.logIgnoredInterruptedException(e);
+        }
       }
     }
-    // TODO: is it possible to be here before we've prepared?
   }
 
   /**
@@ -371,18 +555,29 @@ public class TransactionPrepare {
     // messages.  If the txn was single store or read only, aborting after
     // beginning 2PC doesn't require further action by the cohorts.
     if (!singleStore && !readOnly) {
-      // Abort the rest.
-      for (RemoteWorker w : SysUtil.chain(outstandingWorkers.keySet(),
+      // Abort the rest. The aborts are sent from pool threads so that they go
+      // out at once, without holding up this monitor.
+      for (final RemoteWorker w : SysUtil.chain(outstandingWorkers.keySet(),
           respondedWorkers)) {
-        WORKER_TRANSACTION_LOGGER.log(Level.FINER, "{0} sending abort to {1}",
-            new Object[] { txnLog, w });
-        w.abortTransaction(txnLog.tid);
+        Threading.getPool().submit(new Runnable() {
+          @Override
+          public void run() {
+            WORKER_TRANSACTION_LOGGER.log(Level.FINER,
+                "{0} sending abort to {1}", new Object[] { txnLog, w });
+            w.abortTransaction(txnLog.tid);
+          }
+        });
       }
-      for (Store s : SysUtil.chain(outstandingStores.keySet(),
+      for (final Store s : SysUtil.chain(outstandingStores.keySet(),
           respondedStores)) {
-        WORKER_TRANSACTION_LOGGER.log(Level.FINER, "{0} sending abort to {1}",
-            new Object[] { txnLog, s });
-        s.abortTransaction(txnLog.tid);
+        Threading.getPool().submit(new Runnable() {
+          @Override
+          public void run() {
+            WORKER_TRANSACTION_LOGGER.log(Level.FINER,
+                "{0} sending abort to {1}", new Object[] { txnLog, s });
+            s.abortTransaction(txnLog.tid);
+          }
+        });
       }
     }
 
@@ -1,7 +1,9 @@
 package fabric.worker.transaction;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import fabric.worker.Worker;
 
@@ -21,6 +23,14 @@ public class TxnStats {
   private List<String> fetched = new ArrayList<>();
   private List<String> versionConflicts = new ArrayList<>();
 
+  /**
+   * Round-trip times of the last attempt's prepare and commit messages, in
+   * microseconds, by participant name. These are recorded by the threads that
+   * handle the participants' replies, so access is synchronized.
+   */
+  private final Map<String, Long> prepareTimes = new LinkedHashMap<>();
+  private final Map<String, Long> commitTimes = new LinkedHashMap<>();
+
   public TxnStats() {
   }
 
@@ -35,6 +45,10 @@ public class TxnStats {
     msgs.clear();
     fetched.clear();
     versionConflicts.clear();
+    synchronized (this) {
+      prepareTimes.clear();
+      commitTimes.clear();
+    }
   }
 
   /**
@@ -151,13 +165,49 @@ public class TxnStats {
     backoffcount = backoffcount + c;
   }
 
+  /**
+   * Record the round-trip time of a prepare at a participant.
+   *
+   * @param nanos the time between sending the prepare and receiving the reply.
+   */
+  public synchronized void addPrepareTime(String participant, long nanos) {
+    prepareTimes.put(participant, nanos / 1000);
+  }
+
+  /**
+   * Record the round-trip time of a commit at a participant.
+   *
+   * @param nanos the time between sending the commit and receiving the reply.
+   */
+  public synchronized void addCommitTime(String participant, long nanos) {
+    commitTimes.put(participant, nanos / 1000);
+  }
+
+  /**
+   * @return the round-trip times, in microseconds, of the last prepare at each
+   *         participant.
+   */
+  public synchronized Map<String, Long> getPrepareTimes() {
+    return new LinkedHashMap<>(prepareTimes);
+  }
+
+  /**
+   * @return the round-trip times, in microseconds, of the last commit at each
+   *         participant.
+   */
+  public synchronized Map<String, Long> getCommitTimes() {
+    return new LinkedHashMap<>(commitTimes);
+  }
+
   @Override
-  public String toString() {
+  public synchronized String toString() {
     return "[COORDINATED: " + coordinated + " WITH " + txnAttempts
         + " TXN ATTEMPTS" + " USING " + fetches + " FETCHES " + fetchWaits
         + " WAITS FOR FETCHES" + " MSGS: " + msgs + " FETCHED: " + fetched
         + " CONFLICTS: " + versionConflicts + " BACKOFFTIME: " + backofftime
-        + " BACKOFFCOUNT: " + backoffcount + " IN " + Long.toHexString(tid)
+        + " BACKOFFCOUNT: " + backoffcount + " PREPARE TIMES (us): "
+        + prepareTimes + " COMMIT TIMES (us): " + commitTimes + " IN "
+        + Long.toHexString(tid)
         + "]";
   }
 }
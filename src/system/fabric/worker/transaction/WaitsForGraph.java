@@ -0,0 +1,272 @@
+package fabric.worker.transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fabric.common.util.LongHashSet;
+import fabric.common.util.LongIterator;
+import fabric.common.util.LongKeyHashMap;
+import fabric.common.util.LongKeyMap;
+import fabric.common.util.LongSet;
+
+/**
+ * An incrementally maintained waits-for graph. Nodes are top-level
+ * transactions, identified by their top-level TIDs. A node has an edge to
+ * another if one of its waiters (e.g., the logs of its nested transactions) is
+ * waiting for a lock held by the other.
+ * <p>
+ * The graph is updated whenever a waiter starts or stops waiting. Each edge
+ * that is inserted is checked for closing a cycle, so a deadlock is found as
+ * soon as it forms. A victim is then chosen from the cycle and marked as
+ * doomed; doomed nodes are ignored by subsequent searches, so that one abort
+ * is not attributed to several overlapping cycles. The graph is empty, and
+ * costs nothing, while no transaction is waiting.
+ * <p>
+ * This class is thread safe.
+ *
+ * @param <W>
+ *          the type of the waiters.
+ */
+final class WaitsForGraph<W> {
+  /**
+   * The nodes with waiters, by top-level TID.
+   */
+  private final LongKeyMap<Node<W>> nodes;
+
+  /**
+   * The node of each waiter.
+   */
+  private final Map<W, Node<W>> nodeOf;
+
+  WaitsForGraph() {
+    this.nodes = new LongKeyHashMap<>();
+    this.nodeOf = new HashMap<>();
+  }
+
+  /**
+   * Records that the given waiter is waiting for the given top-level
+   * transactions, replacing whatever it was waiting for before.
+   *
+   * @param node
+   *          the waiter's top-level TID.
+   * @param startTime
+   *          the start time of the waiter's top-level transaction. Newer
+   *          transactions are chosen as victims first.
+   * @param targets
+   *          the top-level TIDs of the transactions holding the locks the
+   *          waiter is waiting for. If empty, the waiter is removed.
+   * @return the cycle closed by the new edges, or null if there is none.
+   */
+  synchronized Cycle setWaitsFor(W waiter, long node, long startTime,
+      LongSet targets) {
+    Node<W> n = nodeOf.get(waiter);
+    if (targets.isEmpty() || n != null && n.id != node) {
+      remove(waiter);
+      n = null;
+      if (targets.isEmpty()) return null;
+    }
+
+    if (n == null) n = nodes.get(node);
+    if (n == null) {
+      n = new Node<>(node, startTime);
+      nodes.put(node, n);
+    }
+
+    // The node is kept while the waiter is replaced, so that it stays doomed
+    // if it was.
+    LongSet old = n.waiters.remove(waiter);
+
+    // Find the edges that are new to the node.
+    LongSet inserted = new LongHashSet();
+    for (LongIterator it = targets.iterator(); it.hasNext();) {
+      long target = it.next();
+      if ((old == null || !old.contains(target)) && !n.hasEdgeTo(target))
+        inserted.add(target);
+    }
+
+    n.waiters.put(waiter, targets);
+    nodeOf.put(waiter, n);
+
+    if (n.doomed) return null;
+
+    for (LongIterator it = inserted.iterator(); it.hasNext();) {
+      List<Node<W>> path = findPath(it.next(), node);
+      if (path != null) return doom(path);
+    }
+
+    return null;
+  }
+
+  /**
+   * Records that the given waiter is no longer waiting.
+   */
+  synchronized void clearWaitsFor(W waiter) {
+    remove(waiter);
+  }
+
+  /**
+   * Re-checks a cycle that was found earlier.
+   *
+   * @return the waiter whose transaction should be aborted to break the cycle,
+   *         or null if the cycle no longer exists. In the latter case, the
+   *         victim is no longer doomed.
+   */
+  synchronized W confirm(Cycle cycle) {
+    Node<W> victim = nodes.get(cycle.victim);
+    List<Long> path = cycle.nodes;
+    for (int i = 0; i < path.size(); i++) {
+      Node<W> from = nodes.get(path.get(i));
+      long to = path.get((i + 1) % path.size());
+      if (from == null || !from.hasEdgeTo(to)) {
+        if (victim != null) victim.doomed = false;
+        return null;
+      }
+    }
+
+    return victim.waiters.keySet().iterator().next();
+  }
+
+  /**
+   * @return the number of transactions that are waiting.
+   */
+  synchronized int size() {
+    return nodes.size();
+  }
+
+  /**
+   * Removes the given waiter from the graph.
+   *
+   * @return the targets the waiter was waiting for, or null if it was not in
+   *         the graph.
+   */
+  private LongSet remove(W waiter) {
+    Node<W> n = nodeOf.remove(waiter);
+    if (n == null) return null;
+
+    LongSet result = n.waiters.remove(waiter);
+    if (n.waiters.isEmpty()) nodes.remove(n.id);
+    return result;
+  }
+
+  /**
+   * Searches for a path from one node to another that avoids doomed nodes.
+   *
+   * @return the nodes on the path, starting with the destination, followed by
+   *         the source and the rest of the path. Null if there is no path.
+   */
+  private List<Node<W>> findPath(long from, long to) {
+    Node<W> dest = nodes.get(to);
+    List<Node<W>> path = new ArrayList<>();
+    path.add(dest);
+    if (from == to) return path;
+
+    Node<W> src = nodes.get(from);
+    if (src == null || src.doomed) return null;
+
+    LongSet visited = new LongHashSet();
+    visited.add(from);
+    path.add(src);
+    return findPath(path, visited, to) ? path : null;
+  }
+
+  private boolean findPath(List<Node<W>> path, LongSet visited, long to) {
+    Node<W> cur = path.get(path.size() - 1);
+    for (LongSet targets : cur.waiters.values()) {
+      for (LongIterator it = targets.iterator(); it.hasNext();) {
+        long next = it.next();
+        if (next == to) return true;
+        if (!visited.add(next)) continue;
+
+        Node<W> n = nodes.get(next);
+        if (n == null || n.doomed) continue;
+
+        path.add(n);
+        if (findPath(path, visited, to)) return true;
+        path.remove(path.size() - 1);
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Chooses the victim for the given cycle and marks it as doomed. The victim
+   * is the newest transaction in the cycle, with ties broken by TID, so that
+   * the choice does not depend on which edge closed the cycle.
+   */
+  private Cycle doom(List<Node<W>> path) {
+    Node<W> victim = null;
+    List<Long> ids = new ArrayList<>(path.size());
+    for (Node<W> n : path) {
+      ids.add(n.id);
+      if (victim == null || n.startTime > victim.startTime
+          || n.startTime == victim.startTime && n.id > victim.id) victim = n;
+    }
+
+    victim.doomed = true;
+    return new Cycle(Collections.unmodifiableList(ids), victim.id);
+  }
+
+  /**
+   * A cycle in the graph.
+   */
+  static final class Cycle {
+    /**
+     * The top-level TIDs of the transactions in the cycle, in waits-for order.
+     */
+    final List<Long> nodes;
+
+    /**
+     * The top-level TID of the transaction chosen to be aborted.
+     */
+    final long victim;
+
+    /**
+     * When the cycle was found, in System.nanoTime().
+     */
+    final long detectedAt;
+
+    Cycle(List<Long> nodes, long victim) {
+      this.nodes = nodes;
+      this.victim = victim;
+      this.detectedAt = System.nanoTime();
+    }
+
+    @Override
+    public String toString() {
+      return nodes.toString();
+    }
+  }
+
+  private static final class Node<W> {
+    final long id;
+    final long startTime;
+
+    /**
+     * The node's waiters, and the nodes each of them is waiting for.
+     */
+    final Map<W, LongSet> waiters;
+
+    /**
+     * Whether the node was chosen as the victim of a cycle and is waiting to be
+     * aborted.
+     */
+    boolean doomed;
+
+    Node(long id, long startTime) {
+      this.id = id;
+      this.startTime = startTime;
+      this.waiters = new HashMap<>();
+    }
+
+    boolean hasEdgeTo(long target) {
+      for (LongSet targets : waiters.values()) {
+        if (targets.contains(target)) return true;
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,352 @@
+package fabric.messages;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import fabric.common.ConfigProperties;
+import fabric.common.exceptions.AccessException;
+import fabric.common.exceptions.InternalError;
+import fabric.common.net.RemoteIdentity;
+import fabric.common.net.SubServerSocket;
+import fabric.common.net.SubServerSocketFactory;
+import fabric.common.net.SubSocketFactory;
+import fabric.common.net.handshake.Protocol;
+import fabric.common.net.handshake.ShakenSocket;
+import fabric.common.net.naming.NameService;
+import fabric.common.net.naming.SocketAddress;
+import fabric.lang.security.Principal;
+import fabric.net.RemoteNode;
+import fabric.worker.Worker;
+import fabric.worker.remote.RemoteWorker;
+
+import sun.misc.Unsafe;
+
+/**
+ * Compares the synchronous send path with MessagePipeline over loopback.
+ *
+ * A server answers AllocateMessages on a loopback port. The client sends the
+ * same number of them three ways: one at a time through RemoteNode.send, from
+ * several threads through RemoteNode.send, and from one thread through
+ * RemoteNode.sendPipelined with a bounded number of requests outstanding. For
+ * each, it reports the throughput and the mean time per request.
+ *
+ * Starting a real node needs a keystore, so the test installs a bare Worker,
+ * and both ends use a handshake that only exchanges names.
+ *
+ * Usage: PipelineBench [requests [window [threads]]]
+ */
+public class PipelineBench {
+  private static final String SERVER = "bench-store";
+  private static final String CLIENT = "bench-worker";
+
+  public static void main(String[] args) throws Exception {
+    final int requests = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    final int window = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+    final int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+    installWorker();
+    ConfigProperties config = ConfigProperties.getDefaults();
+    NameService names = new Loopback(freePort());
+
+    Server server = new Server(new SubServerSocketFactory(config,
+        new NameHandshake<RemoteWorker>(), names,
+        NameService.PortType.STORE));
+    Thread serverThread = new Thread(server, "Bench server");
+    serverThread.setDaemon(true);
+    serverThread.start();
+
+    final Node node = new Node(SERVER, new SubSocketFactory<Node>(config,
+        new NameHandshake<Node>(), names, NameService.PortType.STORE));
+    connect(node);
+
+    // Warm up both paths before measuring.
+    sequential(node, requests / 10);
+    pipelined(node, requests / 10, window);
+
+    long start = System.nanoTime();
+    sequential(node, requests);
+    report("send, 1 thread", requests, System.nanoTime() - start);
+
+    start = System.nanoTime();
+    List<Thread> senders = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          sequential(node, requests / threads);
+        }
+      };
+      t.start();
+      senders.add(t);
+    }
+    for (Thread t : senders) {
+      t.join();
+    }
+    report("send, " + threads + " threads", requests / threads * threads,
+        System.nanoTime() - start);
+
+    start = System.nanoTime();
+    pipelined(node, requests, window);
+    report("sendPipelined, window " + window, requests,
+        System.nanoTime() - start);
+  }
+
+  private static void sequential(Node node, int requests) {
+    for (int i = 0; i < requests; i++) {
+      node.allocate();
+    }
+  }
+
+  /**
+   * Sends the given number of requests through the node's pipeline, keeping at
+   * most window of them outstanding, and waits for all of the replies.
+   */
+  private static void pipelined(Node node, int requests, int window)
+      throws Exception {
+    final Semaphore outstanding = new Semaphore(window);
+    Runnable release = new Runnable() {
+      @Override
+      public void run() {
+        outstanding.release();
+      }
+    };
+
+    ListenableFuture<AllocateMessage.Response> last = null;
+    for (int i = 0; i < requests; i++) {
+      outstanding.acquire();
+      last = node.allocateAsync();
+      last.addListener(release, MoreExecutors.directExecutor());
+    }
+    outstanding.acquire(window);
+    if (last != null) last.get();
+  }
+
+  /**
+   * Makes one request, so that connection setup isn't measured.
+   */
+  private static void connect(Node node) throws InterruptedException {
+    for (int attempt = 0;; attempt++) {
+      try {
+        node.allocate();
+        node.allocateAsync().get();
+        return;
+      } catch (Exception | InternalError e) {
+        if (attempt > 50) throw new InternalError(e);
+        Thread.sleep(100);
+      }
+    }
+  }
+
+  private static void report(String name, int requests, long nanos) {
+    System.out.printf("%-28s %9.0f requests/s %8.2f us/request%n", name,
+        requests * 1e9 / nanos, nanos / 1e3 / requests);
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket s = new ServerSocket(0)) {
+      return s.getLocalPort();
+    }
+  }
+
+  /**
+   * Installs a Worker singleton that has only a name and a table of remote
+   * workers, which is all that the network layer uses here.
+   */
+  private static void installWorker() throws Exception {
+    Field f = Unsafe.class.getDeclaredField("theUnsafe");
+    f.setAccessible(true);
+    Unsafe unsafe = (Unsafe) f.get(null);
+
+    Worker worker = (Worker) unsafe.allocateInstance(Worker.class);
+    set(worker, "remoteWorkers", new ConcurrentHashMap<String, RemoteWorker>());
+    set(null, "instance", worker);
+    set(null, "instanceName", CLIENT);
+  }
+
+  private static void set(Worker worker, String name, Object value)
+      throws Exception {
+    Field f = Worker.class.getDeclaredField(name);
+    f.setAccessible(true);
+    f.set(worker, value);
+  }
+
+  /**
+   * The client's view of the server.
+   */
+  private static final class Node extends RemoteNode<Node> {
+    private final SubSocketFactory<Node> factory;
+
+    Node(String name, SubSocketFactory<Node> factory) {
+      super(name);
+      this.factory = factory;
+    }
+
+    void allocate() {
+      try {
+        send(factory, new AllocateMessage(1));
+      } catch (AccessException e) {
+        throw new InternalError(e);
+      }
+    }
+
+    ListenableFuture<AllocateMessage.Response> allocateAsync() {
+      return sendPipelined(factory, new AllocateMessage(1));
+    }
+
+    @Override
+    public Principal getPrincipal() {
+      return null;
+    }
+  }
+
+  /**
+   * Answers AllocateMessages with consecutive onums.
+   */
+  private static final class Server extends MessageToStoreHandler {
+    private final SubServerSocketFactory factory;
+    private long nextOnum;
+
+    Server(SubServerSocketFactory factory) {
+      super(SERVER);
+      this.factory = factory;
+    }
+
+    @Override
+    protected SubServerSocket createServerSocket() {
+      return factory.createServerSocket();
+    }
+
+    @Override
+    public synchronized AllocateMessage.Response handle(
+        RemoteIdentity<RemoteWorker> client, AllocateMessage msg) {
+      long[] onums = new long[msg.num];
+      for (int i = 0; i < onums.length; i++) {
+        onums[i] = nextOnum++;
+      }
+      return new AllocateMessage.Response(onums);
+    }
+
+    @Override
+    public void handle(RemoteIdentity<RemoteWorker> client,
+        AbortTransactionMessage msg) {
+      throw unused(msg);
+    }
+
+    @Override
+    public void handle(RemoteIdentity<RemoteWorker> client,
+        CommitTransactionMessage msg) {
+      throw unused(msg);
+    }
+
+    @Override
+    public DissemReadMessage.Response handle(
+        RemoteIdentity<RemoteWorker> client, DissemReadMessage msg) {
+      throw unused(msg);
+    }
+
+    @Override
+    public GetCertChainMessage.Response handle(
+        RemoteIdentity<RemoteWorker> client, GetCertChainMessage msg) {
+      throw unused(msg);
+    }
+
+    @Override
+    public ReadMessage.Response handle(RemoteIdentity<RemoteWorker> client,
+        ReadMessage msg) {
+      throw unused(msg);
+    }
+
+    @Override
+    public MultiReadMessage.Response handle(
+        RemoteIdentity<RemoteWorker> client, MultiReadMessage msg) {
+      throw unused(msg);
+    }
+
+    @Override
+    public MakePrincipalMessage.Response handle(
+        RemoteIdentity<RemoteWorker> client, MakePrincipalMessage msg) {
+      throw unused(msg);
+    }
+
+    @Override
+    public StalenessCheckMessage.Response handle(
+        RemoteIdentity<RemoteWorker> client, StalenessCheckMessage msg) {
+      throw unused(msg);
+    }
+
+    @Override
+    public void handle(RemoteIdentity<RemoteWorker> client,
+        UnsubscribeMessage msg) {
+      throw unused(msg);
+    }
+
+    @Override
+    public void handle(RemoteIdentity<RemoteWorker> client,
+        PrepareTransactionMessage msg) {
+      throw unused(msg);
+    }
+
+    private InternalError unused(Object msg) {
+      return new InternalError("unexpected message: " + msg);
+    }
+  }
+
+  /**
+   * A handshake in which the client sends the names of both ends.
+   */
+  private static final class NameHandshake<N extends RemoteNode<N>>
+      implements Protocol<N> {
+    @Override
+    public ShakenSocket<N> initiate(N remoteNode, Socket s)
+        throws IOException {
+      DataOutputStream out = new DataOutputStream(s.getOutputStream());
+      out.writeUTF(remoteNode.name);
+      out.writeUTF(CLIENT);
+      out.flush();
+      return new ShakenSocket<>(remoteNode.name,
+          new RemoteIdentity<>(remoteNode, null), s);
+    }
+
+    @Override
+    public ShakenSocket<RemoteWorker> receive(Socket s) throws IOException {
+      DataInputStream in = new DataInputStream(s.getInputStream());
+      String name = in.readUTF();
+      RemoteWorker client = Worker.getWorker().getWorker(in.readUTF());
+      return new ShakenSocket<>(name, new RemoteIdentity<>(client, null), s);
+    }
+  }
+
+  /**
+   * Resolves every name to the same loopback port.
+   */
+  private static final class Loopback implements NameService {
+    private final int port;
+
+    Loopback(int port) {
+      this.port = port;
+    }
+
+    @Override
+    public SocketAddress resolve(String name, PortType portType)
+        throws IOException {
+      return new SocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    @Override
+    public SocketAddress localResolve(String name, PortType portType) {
+      return new SocketAddress(null, port);
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package fabric.store.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sleepycat.bind.tuple.LongBinding;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.Transaction;
+
+/**
+ * Measures commit throughput while online snapshots of a BDB environment are
+ * being taken, and checks that the snapshots can be restored.
+ *
+ * Writer threads commit small transactions to a scratch environment for a few
+ * seconds without snapshots, and then for the same time while a full snapshot
+ * and a series of incremental snapshots are taken. The latest snapshot is then
+ * restored into a fresh directory and opened, and its record count is checked
+ * against the count committed before that snapshot began.
+ *
+ * Usage: BdbSnapshotBench [writers [seconds [incrementals]]]
+ */
+public class BdbSnapshotBench {
+  private static final int VALUE_SIZE = 512;
+
+  public static void main(String[] args) throws Exception {
+    int writers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int incrementals = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+    File root = Files.createTempDirectory("bdb-snapshot-bench").toFile();
+    File home = new File(root, "env");
+    File snapshots = new File(root, "snapshots");
+    File restored = new File(root, "restored");
+    home.mkdirs();
+
+    try {
+      Environment env = open(home);
+      Database db = env.openDatabase(null, "store", dbConfig());
+      AtomicLong nextKey = new AtomicLong();
+
+      // Warm up before measuring.
+      run(env, db, nextKey, writers, 1, null);
+
+      long plain = run(env, db, nextKey, writers, seconds, null);
+      System.out.println(String.format("%d writers, no snapshots:   %,8d "
+          + "commits/s", writers, plain / seconds));
+
+      long[] committedBefore = new long[1];
+      Snapshotter snapshotter = new Snapshotter(env, snapshots, incrementals,
+          seconds, nextKey, writers, committedBefore);
+      long loaded = run(env, db, nextKey, writers, seconds, snapshotter);
+      System.out.println(String.format("%d writers, with snapshots: %,8d "
+          + "commits/s (%.1f%% of baseline)", writers, loaded / seconds,
+          100.0 * loaded / plain));
+      for (String summary : snapshotter.summaries)
+        System.out.println("  " + summary);
+
+      db.close();
+      env.close();
+
+      long start = System.currentTimeMillis();
+      int files = BdbSnapshot.restore(snapshots, -1, restored);
+      env = open(restored);
+      db = env.openDatabase(null, "store", dbConfig());
+      long count = db.count();
+      db.close();
+      env.close();
+      System.out.println(String.format("Restored %d log files and opened the "
+          + "environment in %d ms: %d records", files,
+          System.currentTimeMillis() - start, count));
+
+      if (count < committedBefore[0]) {
+        System.out.println("FAILED: the last snapshot began after "
+            + committedBefore[0] + " commits");
+        System.exit(1);
+      }
+    } finally {
+      delete(root);
+    }
+  }
+
+  /**
+   * Runs the writers for the given time, and the snapshotter alongside them if
+   * it is not null.
+   *
+   * @return the number of transactions committed.
+   */
+  private static long run(final Environment env, final Database db,
+      final AtomicLong nextKey, int writers, int seconds,
+      Snapshotter snapshotter) throws InterruptedException {
+    final AtomicBoolean stop = new AtomicBoolean();
+    final AtomicLong commits = new AtomicLong();
+    Thread[] threads = new Thread[writers];
+    for (int i = 0; i < writers; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          DatabaseEntry key = new DatabaseEntry();
+          DatabaseEntry value = new DatabaseEntry(new byte[VALUE_SIZE]);
+          while (!stop.get()) {
+            LongBinding.longToEntry(nextKey.getAndIncrement(), key);
+            Transaction txn = env.beginTransaction(null, null);
+            db.put(txn, key, value);
+            txn.commit();
+            commits.incrementAndGet();
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    if (snapshotter != null) snapshotter.start();
+    Thread.sleep(seconds * 1000L);
+    stop.set(true);
+    for (Thread t : threads)
+      t.join();
+    if (snapshotter != null) snapshotter.join();
+
+    return commits.get();
+  }
+
+  /**
+   * Takes a full snapshot and then the given number of incremental ones, spread
+   * over the run.
+   */
+  private static final class Snapshotter extends Thread {
+    final Environment env;
+    final File dir;
+    final int incrementals;
+    final long interval;
+    final AtomicLong nextKey;
+    final int writers;
+    final long[] committedBefore;
+    final List<String> summaries = new ArrayList<>();
+
+    Snapshotter(Environment env, File dir, int incrementals, int seconds,
+        AtomicLong nextKey, int writers, long[] committedBefore) {
+      this.env = env;
+      this.dir = dir;
+      this.incrementals = incrementals;
+      this.interval = seconds * 1000L / (incrementals + 2);
+      this.nextKey = nextKey;
+      this.writers = writers;
+      this.committedBefore = committedBefore;
+    }
+
+    @Override
+    public void run() {
+      try {
+        for (int i = 0; i <= incrementals; i++) {
+          Thread.sleep(interval);
+          // All but the last key taken by each writer have been committed.
+          committedBefore[0] = Math.max(0, nextKey.get() - writers);
+          summaries.add(BdbSnapshot.take(env, dir));
+        }
+      } catch (IOException | InterruptedException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private static Environment open(File home) {
+    EnvironmentConfig conf = new EnvironmentConfig();
+    conf.setAllowCreate(true);
+    conf.setTransactional(true);
+    // Small log files, so that the incremental snapshots have something to
+    // skip.
+    conf.setConfigParam("je.log.fileMax", Integer.toString(4 << 20));
+    return new Environment(home, conf);
+  }
+
+  private static DatabaseConfig dbConfig() {
+    DatabaseConfig dbconf = new DatabaseConfig();
+    dbconf.setAllowCreate(true);
+    dbconf.setTransactional(true);
+    return dbconf;
+  }
+
+  private static void delete(File root) throws IOException {
+    Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+          throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException e)
+          throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
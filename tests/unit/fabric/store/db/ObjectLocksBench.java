@@ -0,0 +1,123 @@
+package fabric.store.db;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fabric.lang.security.Principal;
+import fabric.store.db.ObjectDB.PendingTransaction;
+import fabric.worker.RemoteStore;
+
+/**
+ * Contention benchmark comparing the monitor-based MonitorObjectLocksTable with
+ * the CAS-based CompactObjectLocksTable.
+ *
+ * Each thread plays a different worker and repeatedly prepares a transaction
+ * that read-locks a few objects from a small set of hot objects, write-locks
+ * one of them with the given probability, and then releases everything.
+ *
+ * Usage: ObjectLocksBench [threads [hotObjects [writePercent [seconds]]]]
+ */
+public class ObjectLocksBench {
+  private static final int READS_PER_TXN = 4;
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+    int hotObjects = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+    int writePercent = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+    System.out.println(threads + " threads, " + hotObjects + " hot objects, "
+        + writePercent + "% writes, " + seconds + " s per run");
+
+    // Warm up both implementations before measuring.
+    run("monitor", new MonitorObjectLocksTable(), threads, hotObjects,
+        writePercent, 1, false);
+    run("compact", new CompactObjectLocksTable(), threads, hotObjects,
+        writePercent, 1, false);
+
+    run("monitor", new MonitorObjectLocksTable(), threads, hotObjects,
+        writePercent, seconds, true);
+    run("compact", new CompactObjectLocksTable(), threads, hotObjects,
+        writePercent, seconds, true);
+  }
+
+  private static void run(String name, final ObjectLocksTable table,
+      int threads, final int hotObjects, final int writePercent, int seconds,
+      boolean report) throws InterruptedException {
+    final RemoteStore store = new RemoteStore("bench") {
+    };
+    final AtomicLong nextTid = new AtomicLong(1);
+    final AtomicLong commits = new AtomicLong();
+    final AtomicLong conflicts = new AtomicLong();
+    final CountDownLatch start = new CountDownLatch(1);
+    final long[] deadline = new long[1];
+
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      final Principal worker = new Principal._Proxy(store, 1000 + i);
+      final long seed = i;
+      workers[i] = new Thread() {
+        @Override
+        public void run() {
+          Random rand = new Random(seed);
+          long[] reads = new long[READS_PER_TXN];
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+
+          long localCommits = 0;
+          long localConflicts = 0;
+          while (System.nanoTime() < deadline[0]) {
+            PendingTransaction tx =
+                new PendingTransaction(nextTid.getAndIncrement(), worker);
+            int numRead = 0;
+            long written = -1;
+            try {
+              for (; numRead < READS_PER_TXN; numRead++) {
+                reads[numRead] = rand.nextInt(hotObjects);
+                table.acquireReadLock(reads[numRead], tx);
+              }
+
+              if (rand.nextInt(100) < writePercent) {
+                long onum = rand.nextInt(hotObjects);
+                table.acquireWriteLock(onum, tx);
+                written = onum;
+              }
+              localCommits++;
+            } catch (UnableToLockException e) {
+              localConflicts++;
+            } finally {
+              if (written >= 0) table.releaseWriteLock(written, tx);
+              for (int r = 0; r < numRead; r++) {
+                table.releaseReadLock(reads[r], tx);
+              }
+            }
+          }
+
+          commits.addAndGet(localCommits);
+          conflicts.addAndGet(localConflicts);
+        }
+      };
+      workers[i].start();
+    }
+
+    long startTime = System.nanoTime();
+    deadline[0] = startTime + seconds * 1000000000L;
+    start.countDown();
+    for (Thread t : workers)
+      t.join();
+    long elapsed = System.nanoTime() - startTime;
+
+    if (!report) return;
+
+    long total = commits.get() + conflicts.get();
+    System.out.println(String.format(
+        "%-8s %,12d txns/s  %,12d lock ops/s  %5.2f%% conflicts", name,
+        total * 1000000000L / elapsed,
+        total * (READS_PER_TXN * 2) * 1000000000L / elapsed,
+        100.0 * conflicts.get() / Math.max(total, 1)));
+  }
+}
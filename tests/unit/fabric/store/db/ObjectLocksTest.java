@@ -0,0 +1,327 @@
+package fabric.store.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fabric.lang.security.Principal;
+import fabric.store.db.ObjectDB.PendingTransaction;
+import fabric.worker.RemoteStore;
+
+/**
+ * Behaviour test for CompactObjectLocksTable.
+ *
+ * Checks that readers and writers from different workers exclude each other,
+ * that a soft write lock can be upgraded to a write lock by its own
+ * transaction, that releasing a lock wakes a transaction from the same worker
+ * waiting for it, and that lock retirement racing with new lockers never
+ * lets two transactions hold the write lock at once. Finally, it runs a fixed
+ * pseudo-random sequence of lock operations against both
+ * MonitorObjectLocksTable and CompactObjectLocksTable, and checks that they
+ * give the same results.
+ *
+ * Usage: ObjectLocksTest [seed [operations]]
+ */
+public class ObjectLocksTest {
+  private static final long TIMEOUT = 10000;
+
+  private static final RemoteStore store = new RemoteStore("test") {
+  };
+  private static final AtomicLong nextTid = new AtomicLong(1);
+  private static final AtomicLong nextWorker = new AtomicLong(1000);
+  private static int failures = 0;
+
+  public static void main(String[] args) throws Exception {
+    long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+    int operations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+    exclusion();
+    softUpgrade();
+    wakeOnUnlock();
+    retirementRace();
+    sameAsMonitor(seed, operations);
+
+    if (failures == 0) {
+      System.out.println("TEST PASSED.");
+    } else {
+      System.out.println("TEST FAILED: " + failures + " checks failed");
+      System.exit(1);
+    }
+  }
+
+  private static Principal newWorker() {
+    return new Principal._Proxy(store, nextWorker.getAndIncrement());
+  }
+
+  private static PendingTransaction newTx(Principal worker) {
+    return new PendingTransaction(nextTid.getAndIncrement(), worker);
+  }
+
+  private static void check(String what, boolean ok) {
+    if (ok) return;
+    System.out.println("failed: " + what);
+    failures++;
+  }
+
+  private static boolean tryLock(ObjectLocksTable table, int kind, long onum,
+      PendingTransaction tx) {
+    try {
+      switch (kind) {
+      case 0:
+        table.acquireReadLock(onum, tx);
+        break;
+      case 1:
+        table.acquireWriteLock(onum, tx);
+        break;
+      default:
+        table.acquireSoftWriteLock(onum, tx);
+        break;
+      }
+      return true;
+    } catch (UnableToLockException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Readers and writers from different workers exclude each other, and soft
+   * writers exclude only writers.
+   */
+  private static void exclusion() {
+    ObjectLocksTable table = new CompactObjectLocksTable();
+    PendingTransaction a = newTx(newWorker());
+    PendingTransaction b = newTx(newWorker());
+    PendingTransaction c = newTx(newWorker());
+
+    check("read lock", tryLock(table, 0, 1, a));
+    check("write excluded by reader", !tryLock(table, 1, 1, b));
+    check("second reader admitted", tryLock(table, 0, 1, b));
+    table.releaseReadLock(1, a);
+    table.releaseReadLock(1, b);
+    check("unlocked after reads", !table.isLocked(1));
+
+    check("soft write lock", tryLock(table, 2, 1, c));
+    check("reader admitted with soft writer", tryLock(table, 0, 1, a));
+    check("write excluded by soft writer", !tryLock(table, 1, 1, b));
+    check("soft write excluded by soft writer", !tryLock(table, 2, 1, b));
+    table.releaseReadLock(1, a);
+    table.releaseSoftWriteLock(1, c);
+    check("unlocked after releases", !table.isLocked(1));
+
+    check("write lock", tryLock(table, 1, 2, a));
+    check("read excluded by writer", !tryLock(table, 0, 2, b));
+    check("soft write excluded by writer", !tryLock(table, 2, 2, b));
+    check("write excluded by writer", !tryLock(table, 1, 2, b));
+    table.releaseWriteLock(2, b);
+    check("release by non-holder ignored", table.isLocked(2));
+    table.releaseWriteLock(2, a);
+    check("read after write released", tryLock(table, 0, 2, b));
+    table.releaseReadLock(2, b);
+    check("unlocked at end", !table.isLocked(2));
+  }
+
+  /**
+   * A transaction holding the soft write lock can take the write lock, which
+   * then excludes readers.
+   */
+  private static void softUpgrade() {
+    ObjectLocksTable table = new CompactObjectLocksTable();
+    PendingTransaction a = newTx(newWorker());
+    PendingTransaction b = newTx(newWorker());
+
+    check("soft write lock", tryLock(table, 2, 1, a));
+    check("soft write upgraded", tryLock(table, 1, 1, a));
+    check("upgrade excludes readers", !tryLock(table, 0, 1, b));
+    check("upgrade excludes writers", !tryLock(table, 1, 1, b));
+    table.releaseSoftWriteLock(1, a);
+    check("still write locked", table.isLocked(1));
+    table.releaseWriteLock(1, a);
+    check("unlocked after upgrade", !table.isLocked(1));
+  }
+
+  /**
+   * A transaction waiting out a conflicting lock held by its own worker is
+   * woken when the lock is released, and then gets it.
+   */
+  private static void wakeOnUnlock() throws InterruptedException {
+    final ObjectLocksTable table = new CompactObjectLocksTable();
+    Principal worker = newWorker();
+    PendingTransaction holder = newTx(worker);
+    final PendingTransaction waiter = newTx(worker);
+    final boolean[] locked = new boolean[1];
+
+    check("holder write lock", tryLock(table, 1, 1, holder));
+    Thread t = new Thread("Waiter") {
+      @Override
+      public void run() {
+        locked[0] = tryLock(table, 0, 1, waiter);
+      }
+    };
+    t.setDaemon(true);
+    t.start();
+
+    t.join(200);
+    check("waiter blocks while the lock is held", t.isAlive());
+    table.releaseWriteLock(1, holder);
+    t.join(TIMEOUT);
+    check("waiter woken by unlock", !t.isAlive());
+    check("waiter gets the lock", locked[0]);
+    table.releaseReadLock(1, waiter);
+    check("unlocked after waiter", !table.isLocked(1));
+  }
+
+  /**
+   * Threads from different workers repeatedly take and release the write lock
+   * of one object, so that locks are retired while others are acquiring them.
+   * If two lock objects were ever in use for the onum, two writers could hold
+   * it at once.
+   */
+  private static void retirementRace() throws InterruptedException {
+    final ObjectLocksTable table = new CompactObjectLocksTable();
+    final int threads = 8;
+    final int rounds = 20000;
+    final AtomicInteger holders = new AtomicInteger();
+    final AtomicInteger overlaps = new AtomicInteger();
+    final AtomicInteger acquired = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+
+    List<Thread> lockers = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      final Principal worker = newWorker();
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+
+          for (int r = 0; r < rounds; r++) {
+            PendingTransaction tx = newTx(worker);
+            if (!tryLock(table, 1, 1, tx)) continue;
+            acquired.incrementAndGet();
+            if (holders.incrementAndGet() != 1) overlaps.incrementAndGet();
+            holders.decrementAndGet();
+            table.releaseWriteLock(1, tx);
+          }
+        }
+      };
+      t.start();
+      lockers.add(t);
+    }
+
+    start.countDown();
+    for (Thread t : lockers) {
+      t.join();
+    }
+
+    System.out.println("retirement race: " + acquired.get() + " of "
+        + threads * rounds + " write locks acquired");
+    check("no overlapping write locks", overlaps.get() == 0);
+    check("some write locks acquired", acquired.get() > 0);
+    check("unlocked after race", !table.isLocked(1));
+  }
+
+  private static final int ACQUIRED = 0;
+  private static final int REFUSED = 1;
+  private static final int WAITED = 2;
+
+  /**
+   * Tries to acquire a lock in another thread. If the acquire waits for
+   * another transaction, it is aborted.
+   *
+   * @return ACQUIRED, REFUSED, or WAITED.
+   */
+  private static int attempt(final ObjectLocksTable table, final int kind,
+      final long onum, final PendingTransaction tx)
+      throws InterruptedException {
+    final boolean[] locked = new boolean[1];
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        locked[0] = tryLock(table, kind, onum, tx);
+      }
+    };
+    t.start();
+
+    boolean waited = false;
+    PendingTransaction.State old = tx.state;
+    while (t.isAlive()) {
+      if (!waited && t.getState() == Thread.State.WAITING) {
+        waited = true;
+        tx.state = PendingTransaction.State.ABORTING;
+        tx.wakeForAbort();
+      }
+      Thread.yield();
+    }
+    tx.state = old;
+
+    if (waited) return WAITED;
+    return locked[0] ? ACQUIRED : REFUSED;
+  }
+
+  /**
+   * Runs the same sequence of operations against both tables, and checks that
+   * each acquire is granted, refused, or made to wait alike, and that the same
+   * objects are locked after each operation.
+   */
+  private static void sameAsMonitor(long seed, int operations)
+      throws InterruptedException {
+    final int onums = 4;
+    final int txns = 6;
+    ObjectLocksTable monitor = new MonitorObjectLocksTable();
+    ObjectLocksTable compact = new CompactObjectLocksTable();
+
+    // Pairs of transactions share a worker.
+    PendingTransaction[] tx = new PendingTransaction[txns];
+    for (int i = 0; i < txns; i += 2) {
+      Principal worker = newWorker();
+      tx[i] = newTx(worker);
+      tx[i + 1] = newTx(worker);
+    }
+
+    Random rand = new Random(seed);
+    int mismatches = 0;
+    int[] outcomes = new int[3];
+    for (int op = 0; op < operations; op++) {
+      int kind = rand.nextInt(3);
+      long onum = rand.nextInt(onums);
+      PendingTransaction t = tx[rand.nextInt(txns)];
+
+      if (rand.nextBoolean()) {
+        int m = attempt(monitor, kind, onum, t);
+        int c = attempt(compact, kind, onum, t);
+        if (m != c) mismatches++;
+        outcomes[m]++;
+      } else {
+        switch (kind) {
+        case 0:
+          monitor.releaseReadLock(onum, t);
+          compact.releaseReadLock(onum, t);
+          break;
+        case 1:
+          monitor.releaseWriteLock(onum, t);
+          compact.releaseWriteLock(onum, t);
+          break;
+        default:
+          monitor.releaseSoftWriteLock(onum, t);
+          compact.releaseSoftWriteLock(onum, t);
+          break;
+        }
+      }
+
+      for (long o = 0; o < onums; o++) {
+        if (monitor.isLocked(o) != compact.isLocked(o)) mismatches++;
+      }
+    }
+
+    System.out.println("same as monitor: " + operations + " operations, "
+        + outcomes[ACQUIRED] + " acquired, " + outcomes[REFUSED] + " refused, "
+        + outcomes[WAITED] + " waited, " + mismatches + " mismatches");
+    check("same results as MonitorObjectLocksTable", mismatches == 0);
+  }
+}
@@ -0,0 +1,125 @@
+package fabric.worker.transaction;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import fabric.common.ConfigProperties;
+import fabric.common.TransactionID;
+import fabric.common.exceptions.NotImplementedException;
+import fabric.messages.StoreCommittedMessage;
+import fabric.messages.StorePrepareSuccessMessage;
+import fabric.worker.RemoteStore;
+import fabric.worker.Store;
+import fabric.worker.Worker;
+import fabric.worker.remote.RemoteWorker;
+
+import sun.misc.Unsafe;
+
+/**
+ * Checks that TransactionPrepare.commit() returns when a participant can't be
+ * sent its commit.
+ *
+ * Two stores prepare a transaction. When it commits, one acknowledges the
+ * commit and the other fails to send it, in the way that RemoteNode.sendAsync
+ * does when the connection is lost. The committing thread must finish
+ * instead of waiting forever for the second acknowledgement.
+ *
+ * Starting a real worker needs a keystore and running stores, so the test
+ * installs a bare Worker whose configuration has commit pipelining off.
+ *
+ * Usage: CommitFailureTest
+ */
+public class CommitFailureTest {
+  private static final long TIMEOUT = 10000;
+
+  public static void main(String[] args) throws Exception {
+    ConcurrentMap<String, RemoteStore> stores = installWorker();
+
+    final TransactionPrepare[] prepare = new TransactionPrepare[1];
+    RemoteStore good = new RemoteStore("good") {
+      @Override
+      public void commitTransaction(long tid) {
+        prepare[0].markCommitted(name, (StoreCommittedMessage) null);
+      }
+    };
+    RemoteStore bad = new RemoteStore("bad") {
+      @Override
+      public void commitTransaction(long tid) {
+        throw new NotImplementedException(
+            new java.io.IOException("connection reset"));
+      }
+    };
+    stores.put(good.name, good);
+    stores.put(bad.name, bad);
+
+    int failures = 0;
+    failures += run(prepare, good, bad);
+    failures += run(prepare, bad, good);
+
+    if (failures == 0) {
+      System.out.println("TEST PASSED.");
+    } else {
+      System.out.println("TEST FAILED: " + failures + " commits hung");
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Prepares and commits a transaction at the given stores, and returns 1 if
+   * the commit doesn't finish in time.
+   */
+  private static int run(final TransactionPrepare[] prepare, Store first,
+      Store second) throws InterruptedException {
+    Log log = new Log(new TransactionID());
+    prepare[0] = new TransactionPrepare(null, log, false, false,
+        Arrays.asList(first, second), Collections.<RemoteWorker> emptyList());
+    prepare[0].markSuccess(first.name(), (StorePrepareSuccessMessage) null);
+    prepare[0].markSuccess(second.name(), (StorePrepareSuccessMessage) null);
+
+    Thread committer = new Thread("Committer") {
+      @Override
+      public void run() {
+        prepare[0].commit();
+      }
+    };
+    committer.setDaemon(true);
+    committer.start();
+    committer.join(TIMEOUT);
+    TransactionRegistry.remove(log.tid.topTid);
+
+    boolean hung = committer.isAlive()
+        || TransactionManager.outstandingCommits.containsKey(log.tid.topTid);
+    System.out.println("commit with " + second.name() + " last: "
+        + (hung ? "hung" : "finished"));
+    return hung ? 1 : 0;
+  }
+
+  /**
+   * Installs a Worker singleton that has only a configuration and a store
+   * table, and returns the store table.
+   */
+  private static ConcurrentMap<String, RemoteStore> installWorker()
+      throws Exception {
+    Field f = Unsafe.class.getDeclaredField("theUnsafe");
+    f.setAccessible(true);
+    Unsafe unsafe = (Unsafe) f.get(null);
+
+    Worker worker = (Worker) unsafe.allocateInstance(Worker.class);
+    Object config = unsafe.allocateInstance(ConfigProperties.class);
+    set(worker, "config", config);
+    ConcurrentMap<String, RemoteStore> stores = new ConcurrentHashMap<>();
+    set(worker, "stores", stores);
+    set(null, "instance", worker);
+    return stores;
+  }
+
+  private static void set(Worker worker, String name, Object value)
+      throws Exception {
+    Field f = Worker.class.getDeclaredField(name);
+    f.setAccessible(true);
+    f.set(worker, value);
+  }
+}
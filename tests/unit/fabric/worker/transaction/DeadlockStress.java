@@ -0,0 +1,211 @@
+package fabric.worker.transaction;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fabric.common.util.LongHashSet;
+import fabric.common.util.LongSet;
+
+/**
+ * Stress test for the incremental waits-for graph used by the
+ * DeadlockDetectorThread.
+ *
+ * In each round, each of N threads starts a transaction, locks its own lock,
+ * and then tries to lock its neighbour's, which forms an N-way waits-for cycle.
+ * Waiters register their edges with a WaitsForGraph, and a resolver thread
+ * aborts the victims it reports, in the same way that the deadlock detector
+ * does for transaction logs. The test checks that every round's cycle is
+ * broken by aborting exactly one transaction, and reports the detection
+ * latency and the number of false positives.
+ *
+ * Usage: DeadlockStress [threads [rounds]]
+ */
+public class DeadlockStress {
+  public static void main(String[] args) throws Exception {
+    final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+    final WaitsForGraph<Txn> graph = new WaitsForGraph<>();
+    final BlockingQueue<WaitsForGraph.Cycle> detected =
+        new LinkedBlockingQueue<>();
+    final AtomicLong nextTid = new AtomicLong(1);
+    final AtomicLong aborts = new AtomicLong();
+    final AtomicLong falsePositives = new AtomicLong();
+    final AtomicLong latencyNanos = new AtomicLong();
+    final AtomicLong maxLatencyNanos = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+
+    final Lock[] locks = new Lock[threads];
+    for (int i = 0; i < threads; i++) {
+      locks[i] = new Lock();
+    }
+
+    Thread resolver = new Thread("Resolver") {
+      @Override
+      public void run() {
+        while (true) {
+          WaitsForGraph.Cycle cycle;
+          try {
+            cycle = detected.take();
+          } catch (InterruptedException e) {
+            return;
+          }
+
+          Txn victim = graph.confirm(cycle);
+          if (victim == null) {
+            falsePositives.incrementAndGet();
+            continue;
+          }
+
+          victim.abort();
+          long latency = System.nanoTime() - cycle.detectedAt;
+          latencyNanos.addAndGet(latency);
+          if (latency > maxLatencyNanos.get()) maxLatencyNanos.set(latency);
+        }
+      }
+    };
+    resolver.setDaemon(true);
+    resolver.start();
+
+    final CyclicBarrier locked = new CyclicBarrier(threads);
+    final CyclicBarrier done = new CyclicBarrier(threads, new Runnable() {
+      private long lastAborts = 0;
+
+      @Override
+      public void run() {
+        // Exactly one transaction per round should have been aborted.
+        long total = aborts.get();
+        if (total - lastAborts != 1) failures.incrementAndGet();
+        lastAborts = total;
+      }
+    });
+
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      final Lock mine = locks[i];
+      final Lock next = locks[(i + 1) % threads];
+      workers[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int r = 0; r < rounds; r++) {
+              Txn txn = new Txn(nextTid.getAndIncrement());
+              mine.acquire(txn, graph, detected);
+              locked.await();
+
+              boolean ok = next.acquire(txn, graph, detected);
+              if (ok) next.release();
+              mine.release();
+              if (!ok) aborts.incrementAndGet();
+
+              done.await();
+            }
+          } catch (Exception e) {
+            e.printStackTrace();
+            failures.incrementAndGet();
+          }
+        }
+      };
+    }
+
+    long start = System.nanoTime();
+    for (Thread t : workers)
+      t.start();
+    for (Thread t : workers)
+      t.join();
+    long elapsed = System.nanoTime() - start;
+
+    System.out.println(String.format(
+        "%d-way cycles, %d rounds in %d ms: %d aborts, %d false positives, "
+            + "latency %.1f us mean, %.1f us max", threads, rounds,
+        elapsed / 1000000, aborts.get(), falsePositives.get(),
+        latencyNanos.get() / 1000.0 / Math.max(aborts.get(), 1),
+        maxLatencyNanos.get() / 1000.0));
+
+    if (failures.get() > 0 || graph.size() != 0) {
+      System.out.println("FAILED: " + failures.get() + " bad rounds, "
+          + graph.size() + " waiters left in the graph");
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Stands in for a transaction log.
+   */
+  private static final class Txn {
+    final long tid;
+    final long startTime;
+
+    // The following are guarded by this.
+    private boolean aborted;
+    private Lock waitsOn;
+
+    Txn(long tid) {
+      this.tid = tid;
+      this.startTime = System.currentTimeMillis();
+    }
+
+    void abort() {
+      Lock lock;
+      synchronized (this) {
+        aborted = true;
+        lock = waitsOn;
+      }
+
+      if (lock != null) {
+        synchronized (lock) {
+          lock.notifyAll();
+        }
+      }
+    }
+
+    synchronized boolean aborted() {
+      return aborted;
+    }
+
+    synchronized void waitsOn(Lock lock) {
+      waitsOn = lock;
+    }
+  }
+
+  /**
+   * An exclusive lock, in the style of the worker's object locks.
+   */
+  private static final class Lock {
+    private Txn owner;
+
+    /**
+     * @return false if the transaction was aborted while waiting.
+     */
+    synchronized boolean acquire(Txn txn, WaitsForGraph<Txn> graph,
+        BlockingQueue<WaitsForGraph.Cycle> detected)
+        throws InterruptedException {
+      try {
+        while (owner != null) {
+          if (txn.aborted()) return false;
+
+          txn.waitsOn(this);
+          LongSet targets = new LongHashSet();
+          targets.add(owner.tid);
+          WaitsForGraph.Cycle cycle =
+              graph.setWaitsFor(txn, txn.tid, txn.startTime, targets);
+          if (cycle != null) detected.add(cycle);
+          wait();
+        }
+      } finally {
+        txn.waitsOn(null);
+        graph.clearWaitsFor(txn);
+      }
+
+      owner = txn;
+      return true;
+    }
+
+    synchronized void release() {
+      owner = null;
+      notifyAll();
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package fabric.worker.transaction;
+
+/**
+ * Microbenchmark for the already-locked check in
+ * TransactionManager.registerRead, comparing the old monitor-based check with
+ * the unsynchronized check of the volatile stamps on _Impl.
+ *
+ * Running the real registerRead needs a worker, so the benchmark replays the
+ * check against objects that carry the same stamps ($reader and
+ * writerMapVersion). Each run is a tight read loop, either over one object or
+ * over many objects, after the transaction has read-locked all of them.
+ *
+ * Usage: RegisterReadBench [objects [iterations]]
+ */
+public class RegisterReadBench {
+  public static void main(String[] args) {
+    int objects = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 100000000;
+
+    Txn txn = new Txn();
+    Stamped[] one = stamped(1, txn);
+    Stamped[] many = stamped(objects, txn);
+
+    System.out.println(objects + " objects, " + iterations + " reads per run");
+
+    // Warm up both checks before measuring.
+    for (int i = 0; i < 3; i++) {
+      run("monitor", new MonitorCheck(), txn, many, iterations / 10, false);
+      run("volatile", new VolatileCheck(), txn, many, iterations / 10, false);
+    }
+
+    run("monitor", new MonitorCheck(), txn, one, iterations, true);
+    run("volatile", new VolatileCheck(), txn, one, iterations, true);
+    run("monitor", new MonitorCheck(), txn, many, iterations, true);
+    run("volatile", new VolatileCheck(), txn, many, iterations, true);
+  }
+
+  private static Stamped[] stamped(int count, Txn txn) {
+    Stamped[] result = new Stamped[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = new Stamped();
+      result[i].reader = txn;
+      result[i].writerMapVersion = txn.writerMapVersion;
+    }
+    return result;
+  }
+
+  private static void run(String name, Check check, Txn txn, Stamped[] objs,
+      int iterations, boolean report) {
+    long hits = 0;
+    int mask = objs.length - 1;
+    boolean powerOfTwo = (objs.length & mask) == 0;
+
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      Stamped obj = objs[powerOfTwo ? i & mask : i % objs.length];
+      if (check.isLocked(obj, txn)) hits++;
+    }
+    long elapsed = System.nanoTime() - start;
+
+    if (!report) return;
+
+    if (hits != iterations) throw new AssertionError("stamps changed");
+    System.out.println(String.format(
+        "%-8s %6d object(s) %,14d reads/s  %6.2f ns/read", name, objs.length,
+        iterations * 1000000000L / elapsed, (double) elapsed / iterations));
+  }
+
+  /**
+   * Stands in for the transaction's Log and its writer map.
+   */
+  private static final class Txn {
+    final int writerMapVersion = 1;
+  }
+
+  /**
+   * Stands in for an _Impl's transaction-management stamps.
+   */
+  private static final class Stamped {
+    volatile Txn reader;
+    volatile int writerMapVersion;
+  }
+
+  private interface Check {
+    boolean isLocked(Stamped obj, Txn txn);
+  }
+
+  /**
+   * The check as done before the stamps were volatile.
+   */
+  private static final class MonitorCheck implements Check {
+    @Override
+    public boolean isLocked(Stamped obj, Txn txn) {
+      synchronized (obj) {
+        return obj.reader == txn
+            && obj.writerMapVersion == txn.writerMapVersion;
+      }
+    }
+  }
+
+  /**
+   * The unsynchronized fast path.
+   */
+  private static final class VolatileCheck implements Check {
+    @Override
+    public boolean isLocked(Stamped obj, Txn txn) {
+      return obj.reader == txn && obj.writerMapVersion == txn.writerMapVersion;
+    }
+  }
+}